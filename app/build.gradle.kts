@@ -40,12 +40,27 @@ android {
     buildFeatures {
         compose = true
     }
+
+    testOptions {
+        unitTests {
+            // JVM tests drive MqttManager, which logs through android.util.Log
+            isReturnDefaultValues = true
+            // Forward -Dfleet.* load settings to the fleet simulator, and -Dbenchmark=true
+            // plus -Dquadtree.* to the wall-clock benchmarks, which are skipped without it
+            all { test ->
+                System.getProperties().stringPropertyNames()
+                    .filter { it.startsWith("fleet.") || it.startsWith("quadtree.") || it == "benchmark" }
+                    .forEach { test.systemProperty(it, System.getProperty(it)) }
+            }
+        }
+    }
 }
 
 dependencies {
 
     // MQTT (pure JVM client - no Android service, avoids LocalBroadcastManager crash)
     implementation("org.eclipse.paho:org.eclipse.paho.client.mqttv3:1.2.5")
+    implementation("org.eclipse.paho:org.eclipse.paho.mqttv5.client:1.2.5")
 
     // ===============================
     // 📍 LOCATION (GPS)
@@ -87,6 +102,10 @@ dependencies {
     // TESTING
     // ===============================
     testImplementation(libs.junit)
+    // Embedded MQTT broker for session tests
+    testImplementation("io.moquette:moquette-broker:0.17")
+    // Real org.json for JVM tests (android.jar only has stubs)
+    testImplementation("org.json:json:20231013")
     androidTestImplementation(libs.androidx.junit)
     androidTestImplementation(libs.androidx.espresso.core)
     androidTestImplementation(platform(libs.androidx.compose.bom))
@@ -0,0 +1,144 @@
+package com.example.isro_app.map
+
+import android.content.ContentValues
+import android.database.sqlite.SQLiteDatabase
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.osmdroid.tileprovider.modules.MBTilesFileArchive
+import org.osmdroid.util.MapTileIndex
+import java.io.File
+import java.net.HttpURLConnection
+import java.net.URL
+import kotlin.random.Random
+
+/**
+ * Tile read latency of [MbTilesArchive] against osmdroid's MBTilesFileArchive and,
+ * when a server is given, the LAN tile server it sits in front of.
+ *
+ * Builds a 64x64 tile MBTiles at zoom 12 and replays a viewport panning across it
+ * three times, as when the user pans back and forth. Pass the server with
+ * `-e tileServerUrl http://<ip>:8080/tiles/` to include HTTP round trips.
+ */
+@RunWith(AndroidJUnit4::class)
+class MbTilesBenchmarkTest {
+
+    private val zoom = 12
+    private val side = 64
+    private val tileBytes = 12 * 1024
+
+    private lateinit var file: File
+
+    @Before
+    fun buildArchive() {
+        val context = InstrumentationRegistry.getInstrumentation().targetContext
+        file = File(context.cacheDir, "bench.mbtiles")
+        file.delete()
+        val random = Random(42)
+        SQLiteDatabase.openOrCreateDatabase(file, null).use { db ->
+            db.execSQL("CREATE TABLE tiles (zoom_level INTEGER, tile_column INTEGER, tile_row INTEGER, tile_data BLOB)")
+            db.execSQL("CREATE UNIQUE INDEX tile_index ON tiles (zoom_level, tile_column, tile_row)")
+            db.beginTransaction()
+            try {
+                for (x in 0 until side) for (row in 0 until side) {
+                    db.insert("tiles", null, ContentValues().apply {
+                        put("zoom_level", zoom)
+                        put("tile_column", x)
+                        put("tile_row", (1 shl zoom) - 1 - row)
+                        put("tile_data", random.nextBytes(tileBytes))
+                    })
+                }
+                db.setTransactionSuccessful()
+            } finally {
+                db.endTransaction()
+            }
+        }
+    }
+
+    @After
+    fun deleteArchive() {
+        file.delete()
+    }
+
+    /**
+     * A 6x10 tile viewport moving one column at a time, three sweeps
+     */
+    private fun pan(): List<Long> {
+        val out = ArrayList<Long>()
+        repeat(3) {
+            for (left in 0..side - 6) for (x in left until left + 6) for (y in 20 until 30) {
+                out.add(MapTileIndex.getTileIndex(zoom, x, y))
+            }
+        }
+        return out
+    }
+
+    @Test
+    fun archiveBeatsStockReaderAndServer() {
+        val tiles = pan()
+
+        val stock = MBTilesFileArchive.getDatabaseFileArchive(file)
+        val stockNs = time { tiles.forEach { assertNotNull(stock.getInputStream(null, it)?.use { s -> s.readBytes() }) } }
+        stock.close()
+
+        val archive = MbTilesArchive().apply { init(file) }
+        // The first sweep fills the hot set, the other two mostly hit it
+        val archiveNs = time { tiles.forEach { assertNotNull(archive.getInputStream(null, it)?.use { s -> s.readBytes() }) } }
+        val hits = archive.hits.get()
+        val reads = archive.reads.get()
+        val sqliteUs = archive.readNanos.get() / 1e3 / reads
+        archive.close()
+
+        // Same bytes as the stock reader
+        val check = MbTilesArchive().apply { init(file) }
+        val stockAgain = MBTilesFileArchive.getDatabaseFileArchive(file)
+        val sample = MapTileIndex.getTileIndex(zoom, 7, 9)
+        assertArrayEquals(stockAgain.getInputStream(null, sample)!!.readBytes(), check.tile(sample))
+        assertNull(check.tile(MapTileIndex.getTileIndex(zoom, side + 1, 0)))
+        stockAgain.close()
+        check.close()
+
+        val server = InstrumentationRegistry.getArguments().getString("tileServerUrl")
+        val lan = server?.let { base ->
+            // Only the first sweep; each tile is one HTTP round trip either way
+            val sweep = tiles.take(tiles.size / 3)
+            time { sweep.forEach { fetch(base, it) } } / 1e3 / sweep.size
+        }
+
+        println(
+            "MBTiles %d reads: stock %.1f us/tile, mmap+LRU %.1f us/tile (%d hot hits, %.1f us per SQLite read)%s".format(
+                tiles.size,
+                stockNs / 1e3 / tiles.size,
+                archiveNs / 1e3 / tiles.size,
+                hits,
+                sqliteUs,
+                lan?.let { ", LAN server %.1f us/tile".format(it) } ?: ""
+            )
+        )
+
+        assertEquals(tiles.size.toLong(), hits + reads)
+        assertTrue("hot set too small for the sweep", hits > reads)
+        assertTrue("archive slower than the stock reader", archiveNs < stockNs)
+    }
+
+    private fun fetch(base: String, index: Long) {
+        val url = URL("$base${MapTileIndex.getZoom(index)}/${MapTileIndex.getX(index)}/${MapTileIndex.getY(index)}.png")
+        val conn = url.openConnection() as HttpURLConnection
+        try {
+            // 404s still measure the round trip
+            (if (conn.responseCode == 200) conn.inputStream else conn.errorStream)?.use { it.readBytes() }
+        } finally {
+            conn.disconnect()
+        }
+    }
+
+    private inline fun time(block: () -> Unit): Long {
+        val start = System.nanoTime()
+        block()
+        return System.nanoTime() - start
+    }
+}
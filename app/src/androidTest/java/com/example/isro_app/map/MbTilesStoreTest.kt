@@ -0,0 +1,130 @@
+package com.example.isro_app.map
+
+import android.database.sqlite.SQLiteDatabase
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.osmdroid.util.MapTileIndex
+import java.io.File
+import java.net.InetAddress
+import java.net.ServerSocket
+import java.net.Socket
+import kotlin.concurrent.thread
+
+/**
+ * [RegionPrefetcher] writing into a real [MbTilesStore], so puts and flushes arrive
+ * from several IO threads as they do in the app. A local HTTP server stands in for
+ * the LAN tile server and answers every tile with bytes naming it.
+ */
+@RunWith(AndroidJUnit4::class)
+class MbTilesStoreTest {
+
+    // About 800 tiles over zooms 12..14, so the run also flushes part way
+    private val region = TileRegion.Box(28.4, 77.0, 28.9, 77.5)
+    private val zooms = 12..14
+
+    private lateinit var file: File
+    private lateinit var server: ServerSocket
+
+    @Before
+    fun setUp() {
+        val context = InstrumentationRegistry.getInstrumentation().targetContext
+        file = File(context.cacheDir, "prefetch-test.mbtiles")
+        file.delete()
+        server = ServerSocket(0, 50, InetAddress.getLoopbackAddress())
+        thread(isDaemon = true, name = "tile-server") {
+            while (!server.isClosed) {
+                val socket = try {
+                    server.accept()
+                } catch (e: Exception) {
+                    break
+                }
+                thread(isDaemon = true) { serve(socket) }
+            }
+        }
+    }
+
+    @After
+    fun tearDown() {
+        server.close()
+        file.delete()
+    }
+
+    private fun tileBytes(path: String) = "tile $path".toByteArray()
+
+    // Minimal HTTP/1.1 with keep-alive, enough for HttpURLConnection
+    private fun serve(socket: Socket) {
+        socket.use {
+            val input = it.getInputStream().bufferedReader()
+            val output = it.getOutputStream()
+            while (true) {
+                val request = input.readLine() ?: return
+                while (input.readLine()?.isNotEmpty() == true) Unit
+                val path = request.split(' ')[1]
+                val body = tileBytes(path)
+                output.write("HTTP/1.1 200 OK\r\nContent-Type: image/png\r\nContent-Length: ${body.size}\r\n\r\n".toByteArray())
+                output.write(body)
+                output.flush()
+            }
+        }
+    }
+
+    @Test
+    fun prefetchIntoStoreFromSeveralThreads() {
+        val baseUrl = "http://127.0.0.1:${server.localPort}/"
+        val expected = region.count(zooms)
+        assertTrue(expected > 256)
+
+        val prefetcher = RegionPrefetcher(parallelism = 4)
+        MbTilesStore(file, "prefetch").use { store ->
+            runBlocking { prefetcher.run(baseUrl, region, zooms, store) }
+            val progress = prefetcher.progress.value
+            assertEquals(PrefetchState.Done, progress.state)
+            assertEquals(expected, progress.downloaded)
+            assertEquals(0L, progress.failed)
+        }
+
+        SQLiteDatabase.openDatabase(file.path, null, SQLiteDatabase.OPEN_READONLY).use { db ->
+            db.rawQuery("SELECT COUNT(*) FROM tiles", null).use { cursor ->
+                cursor.moveToFirst()
+                assertEquals(expected, cursor.getLong(0))
+            }
+            db.rawQuery("SELECT value FROM metadata WHERE name = 'maxzoom'", null).use { cursor ->
+                assertTrue(cursor.moveToFirst())
+                assertEquals("14", cursor.getString(0))
+            }
+        }
+
+        val archive = MbTilesArchive().apply { init(file) }
+        try {
+            region.tiles(zooms).forEach { tile ->
+                val bytes = archive.tile(MapTileIndex.getTileIndex(tile.zoom, tile.x, tile.y))
+                assertArrayEquals(tileBytes(RegionPrefetcher.tileUrl("", tile)), bytes)
+            }
+        } finally {
+            archive.close()
+        }
+    }
+
+    @Test
+    fun reopenedStoreSkipsStoredTiles() {
+        val baseUrl = "http://127.0.0.1:${server.localPort}/"
+        MbTilesStore(file, "prefetch").use { store ->
+            runBlocking { RegionPrefetcher(parallelism = 4).run(baseUrl, region, zooms, store) }
+        }
+
+        val prefetcher = RegionPrefetcher(parallelism = 4)
+        MbTilesStore(file, "prefetch").use { store ->
+            assertTrue(region.tiles(zooms).all { store.contains(it) })
+            runBlocking { prefetcher.run(baseUrl, region, zooms, store) }
+        }
+        val progress = prefetcher.progress.value
+        assertEquals(0L, progress.downloaded)
+        assertEquals(region.count(zooms), progress.skipped)
+    }
+}
@@ -24,6 +24,7 @@ import androidx.compose.foundation.background
 import androidx.compose.foundation.clickable
 import androidx.compose.foundation.horizontalScroll
 import androidx.compose.foundation.layout.Arrangement
+import androidx.compose.foundation.Image
 import androidx.compose.foundation.layout.Box
 import androidx.compose.foundation.layout.Column
 import androidx.compose.foundation.layout.Row
@@ -91,9 +92,11 @@ import androidx.compose.material3.rememberDrawerState
 import androidx.compose.runtime.Composable
 import androidx.compose.runtime.LaunchedEffect
 import androidx.compose.runtime.getValue
+import androidx.compose.runtime.mutableIntStateOf
 import androidx.compose.runtime.mutableStateListOf
 import androidx.compose.runtime.mutableStateMapOf
 import androidx.compose.runtime.mutableStateOf
+import androidx.compose.runtime.produceState
 import androidx.compose.runtime.remember
 import androidx.compose.runtime.rememberCoroutineScope
 import androidx.compose.runtime.saveable.rememberSaveable
@@ -104,6 +107,9 @@ import androidx.compose.ui.Alignment
 import androidx.compose.ui.Modifier
 import androidx.compose.ui.graphics.Brush
 import androidx.compose.ui.graphics.Color
+import androidx.compose.ui.graphics.asImageBitmap
+import androidx.compose.ui.layout.ContentScale
+import androidx.compose.ui.draw.clip
 import androidx.compose.ui.platform.ClipboardManager
 import androidx.compose.ui.platform.LocalClipboardManager
 import androidx.compose.ui.platform.LocalConfiguration
@@ -115,7 +121,13 @@ import androidx.compose.ui.text.style.TextOverflow
 import androidx.compose.ui.tooling.preview.Preview
 import androidx.compose.ui.unit.dp
 import com.example.iax.IaxManager
+import com.example.isro_app.attachment.AttachmentDownloads
+import com.example.isro_app.attachment.Compression
+import com.example.isro_app.attachment.DownloadPriority
+import com.example.isro_app.attachment.DownloadState
+import com.example.isro_app.attachment.Thumbnails
 import com.example.isro_app.call.CallController
+import com.example.isro_app.geofence.GeofenceTransition
 import com.example.isro_app.ui.theme.Divider
 import com.example.isro_app.ui.theme.ISRO_APPTheme
 import com.example.isro_app.ui.theme.PrimaryBlue
@@ -126,6 +138,9 @@ import com.example.isro_app.ui.theme.TextSecondary
 import com.example.isro_app.mqtt.MqttManager
 import com.example.isro_app.mqtt.MqttConnectionState
 import com.example.isro_app.mqtt.CallEvent
+import com.example.isro_app.mqtt.DeliveryState
+import com.example.isro_app.mqtt.GroupTopics
+import com.example.isro_app.settings.MapMode
 import com.example.isro_app.settings.MqttSettingsScreen
 import com.example.isro_app.settings.ServerSettingsScreen
 import com.example.isro_app.settings.ServerSettingsManager
@@ -134,7 +149,6 @@ import android.widget.Toast
 import androidx.compose.material3.CircularProgressIndicator
 import kotlinx.coroutines.delay
 import kotlinx.coroutines.launch
-import java.io.File
 import java.text.SimpleDateFormat
 import java.util.Date
 import java.util.Locale
@@ -164,11 +178,6 @@ class MainActivity : ComponentActivity() {
     override fun onCreate(savedInstanceState: Bundle?) {
         super.onCreate(savedInstanceState)
     
-        val config = org.osmdroid.config.Configuration.getInstance()
-        config.userAgentValue = packageName
-        config.osmdroidBasePath = filesDir
-        config.osmdroidTileCache = File(filesDir, "osmdroid")
-    
         val mqttManager = (application as MyApplication).mqttManager
         val serverSettings = ServerSettingsManager.loadSettings(this)
         iaxManager = IaxManager(serverSettings.asteriskServerIp)
@@ -233,9 +242,12 @@ private fun rememberWindowSize(): WindowSize {
 }
 
 private enum class DeviceStatus { Online, Offline }
-private enum class DeviceSort { NAME, STATUS }
+private enum class DeviceSort { NAME, STATUS, DISTANCE }
+
+// Devices the "Nearby" sort ranks by distance; the rest follow by name
+private const val NEARBY_RANKED = 20
+
 private enum class MessageOwner { Local, Remote }
-private enum class DeliveryState { Pending, Delivered, Failed }
 
 private data class Device(
     val clientId: String,
@@ -244,7 +256,9 @@ private data class Device(
     val status: DeviceStatus,
     val lastSeen: Long,
     val lat: Double,
-    val lon: Double
+    val lon: Double,
+    // Group conversation entry; not a device and never drawn on the map
+    val isGroup: Boolean = false
 )
 
 private data class Attachment(
@@ -252,7 +266,13 @@ private data class Attachment(
     val uri: android.net.Uri,
     val name: String,
     val sizeBytes: Long,
-    val mimeType: String
+    val mimeType: String,
+    // Content hash of received attachments; lets them be opened from the local cache
+    val sha256: String? = null,
+    // Sender gzipped the file before upload
+    val gzip: Boolean = false,
+    // Key into MqttManager.thumbnails for a preview sent with the attachment
+    val thumbnailKey: String? = null
 )
 
 private data class Message(
@@ -263,7 +283,11 @@ private data class Message(
     val attachment: Attachment? = null,
     val timestamp: Long,
     val owner: MessageOwner,
-    val state: DeliveryState = DeliveryState.Delivered
+    val state: DeliveryState = DeliveryState.Delivered,
+    // Attachment upload progress 0..1 while the upload runs
+    val uploadProgress: Float? = null,
+    // Received attachment download progress 0..1; 1 once it is on the device
+    val downloadProgress: Float? = null
 )
 
 @OptIn(ExperimentalMaterial3Api::class)
@@ -279,6 +303,7 @@ private fun IsroApp(
     
     // Server settings state
     var tileServerUrl by remember { mutableStateOf(ServerSettingsManager.loadSettings(context).tileServerUrl) }
+    var mapMode by remember { mutableStateOf(ServerSettingsManager.loadSettings(context).mapMode) }
     var asteriskServerIp by remember { mutableStateOf(ServerSettingsManager.loadSettings(context).asteriskServerIp) }
 
     // Get MQTT connection state from app-wide manager
@@ -315,8 +340,33 @@ private fun IsroApp(
         }
     }
 
+    // Joined groups are listed alongside devices and open a group chat pane
+    val joinedGroups by mqttManager.joinedGroups.collectAsState()
+    val groups by mqttManager.groups.collectAsState()
+    val groupEntries = remember(joinedGroups, groups) {
+        joinedGroups.sorted().map { groupId ->
+            val members = groups[groupId]?.members?.size ?: 1
+            Device(
+                clientId = GroupTopics.KEY_PREFIX + groupId,
+                displayName = "# $groupId",
+                ip = "$members members",
+                status = DeviceStatus.Online,
+                lastSeen = System.currentTimeMillis(),
+                lat = 0.0,
+                lon = 0.0,
+                isGroup = true
+            )
+        }
+    }
+    var showJoinGroupDialog by rememberSaveable { mutableStateOf(false) }
+
     val myDeviceId = mqttManager.myId
 
+    // GPS shard subscriptions follow whatever the map is showing
+    val onViewportChanged: (MapViewport) -> Unit = { viewport ->
+        mqttManager.updateViewport(viewport.south, viewport.west, viewport.north, viewport.east)
+    }
+
     var isMapFullscreen by rememberSaveable { mutableStateOf(false) }
     var showSettingsDialog by rememberSaveable { mutableStateOf(false) }
     var showServerSettingsDialog by rememberSaveable { mutableStateOf(false) }
@@ -326,31 +376,41 @@ private fun IsroApp(
         mutableStateOf("")
     }
 
-    // Call event handling
-    val callEvent by mqttManager.callEvents.collectAsState()
+    // Call event handling (channel-backed: every signal is delivered, none conflated)
     var incomingCallFrom by remember { mutableStateOf<String?>(null) }
     var activeCallPeerId by remember { mutableStateOf<String?>(null) }
 
-    LaunchedEffect(callEvent) {
-        when (val event = callEvent) {
-            is CallEvent.Incoming -> incomingCallFrom = event.from
-            is CallEvent.Rejected -> {
-                incomingCallFrom = null
-                // Show toast for rejected call
-                Toast.makeText(context, "Call rejected by ${event.from}", Toast.LENGTH_SHORT).show()
-            }
-            is CallEvent.Ended -> {
-                callController.onCallEnded()
-                incomingCallFrom = null
-                activeCallPeerId = null
-            }
-            is CallEvent.Accepted -> {
-                callController.onCallAccepted(event.from)
-                incomingCallFrom = null
-                activeCallPeerId = event.from
-                // Call interface will show automatically when activeCallPeerId is set
+    LaunchedEffect(callController) {
+        mqttManager.callEvents.collect { event ->
+            when (event) {
+                is CallEvent.Incoming -> {
+                    incomingCallFrom = event.from
+                    callController.onRinging(event.from)
+                }
+                is CallEvent.Rejected -> {
+                    incomingCallFrom = null
+                    // Show toast for rejected call
+                    Toast.makeText(context, "Call rejected by ${event.from}", Toast.LENGTH_SHORT).show()
+                }
+                is CallEvent.Ended -> {
+                    callController.onCallEnded()
+                    incomingCallFrom = null
+                    activeCallPeerId = null
+                }
+                is CallEvent.Accepted -> {
+                    callController.onCallAccepted(event.from)
+                    incomingCallFrom = null
+                    activeCallPeerId = event.from
+                    // Call interface will show automatically when activeCallPeerId is set
+                }
             }
-            null -> {}
+        }
+    }
+
+    LaunchedEffect(mqttManager) {
+        mqttManager.geofenceEvents.collect { event ->
+            val verb = if (event.transition == GeofenceTransition.Enter) "entered" else "left"
+            Toast.makeText(context, "${event.deviceId} $verb ${event.fenceName}", Toast.LENGTH_SHORT).show()
         }
     }
 
@@ -471,27 +531,39 @@ private fun IsroApp(
     // Collect incoming MQTT chat items (text + attachments)
     val incomingChatItems by mqttManager.chatItems.collectAsState()
 
+    val downloads = (context.applicationContext as MyApplication).attachmentDownloads
+    // Download key -> received messages showing that attachment, until it is on the device
+    val awaitingDownload = remember { HashMap<String, MutableList<Pair<String, String>>>() }
+
+    // Chat items already bridged; the MQTT list only grows, so only the tail is new
+    var bridgedCount by remember { mutableIntStateOf(0) }
+    val bridgedIds = remember { HashSet<String>() }
+
     // Bridge MQTT chat items into per-device UI message lists
     LaunchedEffect(incomingChatItems) {
-        incomingChatItems.forEach { item ->
+        if (incomingChatItems.size < bridgedCount) bridgedCount = 0
+        for (index in bridgedCount until incomingChatItems.size) {
+            val item = incomingChatItems[index]
+            // avoid duplicates (MqttManager already drops redelivered envelopes)
+            if (!bridgedIds.add(item.id)) continue
             when (item) {
                 is com.example.isro_app.mqtt.ChatItem.Text -> {
                     val from = item.from
+                    // Group messages go to the group's conversation, not the sender's
+                    val key = item.group?.let { GroupTopics.KEY_PREFIX + it } ?: from
                     val list =
-                        messagesPerDevice.getOrPut(from) { mutableStateListOf() }
-
-                    // avoid duplicates
-                    if (list.none { it.timestamp == item.timestamp }) {
-                        list.add(
-                            Message(
-                                from = from,
-                                to = myDeviceId,
-                                text = item.text,
-                                timestamp = item.timestamp,
-                                owner = MessageOwner.Remote
-                            )
+                        messagesPerDevice.getOrPut(key) { mutableStateListOf() }
+
+                    list.add(
+                        Message(
+                            id = item.id,
+                            from = from,
+                            to = if (item.group != null) key else myDeviceId,
+                            text = item.text,
+                            timestamp = item.timestamp,
+                            owner = MessageOwner.Remote
                         )
-                    }
+                    )
                 }
 
                 is com.example.isro_app.mqtt.ChatItem.Attachment -> {
@@ -499,37 +571,145 @@ private fun IsroApp(
                     val list =
                         messagesPerDevice.getOrPut(from) { mutableStateListOf() }
 
-                    if (list.none { it.timestamp == item.timestamp }) {
-                        list.add(
-                            Message(
-                                from = from,
-                                to = myDeviceId,
-                                text = null,
-                                attachment = Attachment(
-                                    uri = android.net.Uri.parse(item.downloadUrl),
-                                    name = item.filename,
-                                    sizeBytes = 0,
-                                    mimeType = "application/octet-stream"
-                                ),
-                                timestamp = item.timestamp,
-                                owner = MessageOwner.Remote
-                            )
+                    list.add(
+                        Message(
+                            id = item.id,
+                            from = from,
+                            to = myDeviceId,
+                            text = null,
+                            attachment = Attachment(
+                                uri = android.net.Uri.parse(item.downloadUrl),
+                                name = item.filename,
+                                sizeBytes = item.size,
+                                mimeType = "application/octet-stream",
+                                sha256 = item.sha256,
+                                gzip = item.contentEncoding == Compression.GZIP,
+                                thumbnailKey = item.thumbnailKey
+                            ),
+                            timestamp = item.timestamp,
+                            owner = MessageOwner.Remote
                         )
-                    }
+                    )
+                    awaitingDownload.getOrPut(AttachmentDownloads.keyOf(item.downloadUrl, item.sha256)) { ArrayList() }
+                        .add(from to item.id)
+                    // Small files arrive ready to open; the open chat's go first
+                    downloads.prefetch(
+                        url = item.downloadUrl,
+                        sha256 = item.sha256,
+                        filename = item.filename,
+                        gzip = item.contentEncoding == Compression.GZIP,
+                        size = item.size,
+                        priority = if (from == selectedDeviceId) DownloadPriority.VisibleChat else DownloadPriority.Background
+                    )
                 }
             }
         }
+        bridgedCount = incomingChatItems.size
+    }
+
+    // Opening a chat moves its queued prefetches ahead of the others
+    LaunchedEffect(selectedDeviceId) {
+        messagesPerDevice[selectedDeviceId]?.forEach { message ->
+            val attachment = message.attachment ?: return@forEach
+            if (message.owner != MessageOwner.Remote || message.downloadProgress == 1f) return@forEach
+            downloads.prefetch(
+                url = attachment.uri.toString(),
+                sha256 = attachment.sha256,
+                filename = attachment.name,
+                gzip = attachment.gzip,
+                size = attachment.sizeBytes,
+                priority = DownloadPriority.VisibleChat
+            )
+        }
+    }
+
+    // Download progress of received attachments
+    val downloadStates by downloads.progress.collectAsState()
+    LaunchedEffect(downloadStates) {
+        val finished = ArrayList<String>()
+        awaitingDownload.forEach { (key, targets) ->
+            val progress = downloadStates[key] ?: return@forEach
+            val fraction = when (progress.state) {
+                DownloadState.Done -> 1f
+                DownloadState.Downloading -> progress.fraction
+                else -> null
+            }
+            targets.forEach { (deviceId, messageId) ->
+                val list = messagesPerDevice[deviceId] ?: return@forEach
+                val idx = list.indexOfLast { it.id == messageId }
+                if (idx >= 0 && list[idx].downloadProgress != fraction) {
+                    list[idx] = list[idx].copy(downloadProgress = fraction)
+                }
+            }
+            if (progress.state == DownloadState.Done) finished.add(key)
+        }
+        finished.forEach { awaitingDownload.remove(it) }
+    }
+
+    // Outgoing message id -> (deviceId, MQTT delivery ids) until Delivered or Failed
+    val awaitingDelivery = remember { HashMap<String, Pair<String, List<String>>>() }
+    val deliveryStates by mqttManager.delivery.states.collectAsState()
+
+    // Reflect Pending / Sent / Delivered / Failed from real acknowledgements
+    LaunchedEffect(deliveryStates) {
+        val finished = ArrayList<String>()
+        awaitingDelivery.forEach { (messageId, target) ->
+            val (deviceId, ids) = target
+            val states = ids.map { deliveryStates[it] ?: DeliveryState.Pending }
+            // A message with text and attachment is only as far along as its slowest part
+            val state = if (DeliveryState.Failed in states) DeliveryState.Failed else states.minBy { it.ordinal }
+            val list = messagesPerDevice[deviceId] ?: return@forEach
+            val idx = list.indexOfLast { it.id == messageId }
+            if (idx >= 0 && list[idx].state != state) {
+                list[idx] = list[idx].copy(state = state)
+            }
+            if (state == DeliveryState.Delivered || state == DeliveryState.Failed) finished.add(messageId)
+        }
+        finished.forEach { awaitingDelivery.remove(it) }
+    }
+
+    // Chunked upload progress for outgoing attachments
+    val uploads by mqttManager.uploads.collectAsState()
+    LaunchedEffect(uploads) {
+        awaitingDelivery.forEach { (messageId, target) ->
+            val (deviceId, ids) = target
+            val progress = ids.firstNotNullOfOrNull { uploads[it] } ?: return@forEach
+            val list = messagesPerDevice[deviceId] ?: return@forEach
+            val idx = list.indexOfLast { it.id == messageId }
+            if (idx >= 0 && list[idx].uploadProgress != progress.fraction) {
+                list[idx] = list[idx].copy(uploadProgress = progress.fraction)
+            }
+        }
     }
 
     val drafts = remember { mutableStateMapOf<String, String>() }
 
-    val filtered = remember(searchQuery, sortBy, devices) {
-        devices
+    // Ranks of the nearest devices from the spatial index, redone as they or we move;
+    // only computed when sorting by distance, and the rest of the list follows by name
+    val hasFix = locationState.hasFix
+    val distanceRank = remember(sortBy, devices, hasFix, locationState.latitude, locationState.longitude) {
+        if (sortBy != DeviceSort.DISTANCE || !hasFix) {
+            emptyMap()
+        } else {
+            mqttManager.nearestDevices(locationState.latitude, locationState.longitude, NEARBY_RANKED)
+                .withIndex()
+                .associate { (rank, id) -> id to rank }
+        }
+    }
+
+    val filtered = remember(searchQuery, sortBy, devices, groupEntries, distanceRank) {
+        (groupEntries + devices)
             .filter { it.displayName.contains(searchQuery, ignoreCase = true) || it.ip.contains(searchQuery, true) }
             .sortedWith(
                 when (sortBy) {
-                    DeviceSort.NAME -> compareBy { it.displayName.lowercase() }
-                    DeviceSort.STATUS -> compareBy<Device> { it.status == DeviceStatus.Online }.reversed()
+                    // Groups stay on top of the list
+                    DeviceSort.NAME -> compareBy<Device>({ !it.isGroup }, { it.displayName.lowercase() })
+                    DeviceSort.STATUS -> compareBy<Device>({ !it.isGroup }, { it.status != DeviceStatus.Online })
+                    DeviceSort.DISTANCE -> compareBy<Device>(
+                        { !it.isGroup },
+                        { distanceRank[it.clientId] ?: Int.MAX_VALUE },
+                        { it.displayName.lowercase() }
+                    )
                 }
             )
     }
@@ -547,43 +727,67 @@ private fun IsroApp(
         }
 
         val msgList = messagesPerDevice.getOrPut(deviceId) { mutableStateListOf() }
+        val groupId = deviceId.removePrefix(GroupTopics.KEY_PREFIX).takeIf { deviceId.startsWith(GroupTopics.KEY_PREFIX) }
 
-        // Create single message with both text and attachment if present
-        val pending = Message(
-            from = "you",
-            to = deviceId,
-            text = text.ifBlank { null },
-            attachment = attachment,
-            timestamp = System.currentTimeMillis(),
-            owner = MessageOwner.Local,
-            state = DeliveryState.Pending
-        )
-        msgList.add(pending)
+        if (groupId != null) {
+            if (text.isBlank()) {
+                Toast.makeText(context, "Attachments can't be sent to groups yet", Toast.LENGTH_SHORT).show()
+                return@sendMessage
+            }
+            // One publish to the group topic; the broker fans it out to every member
+            val chatId = mqttManager.sendGroupChat(groupId, text)
+            msgList.add(
+                Message(
+                    id = chatId,
+                    from = "you",
+                    to = deviceId,
+                    text = text,
+                    timestamp = System.currentTimeMillis(),
+                    owner = MessageOwner.Local,
+                    state = DeliveryState.Pending
+                )
+            )
+            bridgedIds.add(chatId)
+            awaitingDelivery[chatId] = deviceId to listOf(chatId)
+            return@sendMessage
+        }
 
         // Handle attachment upload
-        if (attachment != null) {
+        val attachmentId = attachment?.let {
             // Send attachment via HTTP + MQTT
             mqttManager.sendAttachment(
                 peerId = deviceId,
-                fileUri = attachment.uri,
+                fileUri = it.uri,
                 resolver = context.contentResolver
             )
         }
 
         // Handle text message
-        if (text.isNotBlank()) {
+        val chatId = if (text.isNotBlank()) {
             // Send via MQTT
             mqttManager.sendChat(deviceId, text)
+        } else {
+            null
         }
-        
-        // Update to delivered after a short delay
-        scope.launch {
-            delay(600)
-            val idx = msgList.indexOfFirst { it.id == pending.id }
-            if (idx >= 0) {
-                msgList[idx] = msgList[idx].copy(state = DeliveryState.Delivered)
-            }
-        }
+
+        val deliveryIds = listOfNotNull(chatId, attachmentId)
+
+        // Create single message with both text and attachment if present
+        val pending = Message(
+            id = deliveryIds.first(),
+            from = "you",
+            to = deviceId,
+            text = text.ifBlank { null },
+            attachment = attachment,
+            timestamp = System.currentTimeMillis(),
+            owner = MessageOwner.Local,
+            state = DeliveryState.Pending
+        )
+        msgList.add(pending)
+
+        // Our own copies also come back through chatItems; keep them out of the lists
+        bridgedIds.addAll(deliveryIds)
+        awaitingDelivery[pending.id] = deviceId to deliveryIds
     }
 
 
@@ -688,6 +892,23 @@ private fun IsroApp(
                                         showServerSettingsDialog = true
                                     }
                                 )
+                                DropdownMenuItem(
+                                    text = { Text("Join group") },
+                                    onClick = {
+                                        showMenu = false
+                                        showJoinGroupDialog = true
+                                    }
+                                )
+                                if (selectedDeviceId.startsWith(GroupTopics.KEY_PREFIX)) {
+                                    DropdownMenuItem(
+                                        text = { Text("Leave ${selectedDeviceId.removePrefix(GroupTopics.KEY_PREFIX)}") },
+                                        onClick = {
+                                            showMenu = false
+                                            mqttManager.leaveGroup(selectedDeviceId.removePrefix(GroupTopics.KEY_PREFIX))
+                                            selectedDeviceId = ""
+                                        }
+                                    )
+                                }
                             }
                         }
                     }
@@ -702,12 +923,14 @@ private fun IsroApp(
                         .padding(paddingValues)
                 ) {
                             OfflineMapView(
-                        devices = filtered.map {
+                        devices = filtered.filterNot { it.isGroup }.map {
                             MapDevice(it.clientId, it.lat, it.lon)
                         },
                         currentLocation = locationState,
                         myDeviceId = myDeviceId,
                         tileServerUrl = tileServerUrl,
+                        mapMode = mapMode,
+                        onViewportChanged = onViewportChanged,
                         modifier = Modifier.fillMaxSize()
                     )
 
@@ -760,6 +983,8 @@ private fun IsroApp(
                             locationState = locationState,
                             myDeviceId = myDeviceId,
                             tileServerUrl = tileServerUrl,
+                            mapMode = mapMode,
+                            onViewportChanged = onViewportChanged,
                             onFullMap = { isMapFullscreen = true },
                             onPickFile = pickFile,
                             callController = callController
@@ -793,6 +1018,8 @@ private fun IsroApp(
                             locationState = locationState,
                             myDeviceId = myDeviceId,
                             tileServerUrl = tileServerUrl,
+                            mapMode = mapMode,
+                            onViewportChanged = onViewportChanged,
                             onFullMap = { isMapFullscreen = true },
                             onPickFile = pickFile,
                             callController = callController
@@ -824,6 +1051,8 @@ private fun IsroApp(
                             locationState = locationState,
                             myDeviceId = myDeviceId,
                             tileServerUrl = tileServerUrl,
+                            mapMode = mapMode,
+                            onViewportChanged = onViewportChanged,
                             onFullMap = { isMapFullscreen = true },
                             onPickFile = pickFile,
                             callController = callController
@@ -876,6 +1105,38 @@ private fun IsroApp(
             }
         }
 
+        // 👥 Join group dialog
+        if (showJoinGroupDialog) {
+            var groupName by remember { mutableStateOf("") }
+            AlertDialog(
+                onDismissRequest = { showJoinGroupDialog = false },
+                title = { Text("Join group") },
+                text = {
+                    OutlinedTextField(
+                        value = groupName,
+                        onValueChange = { groupName = it.trim() },
+                        label = { Text("Group name") },
+                        supportingText = { Text("Letters, numbers, - and _. Joining an unknown name creates it.") },
+                        isError = groupName.isNotEmpty() && !GroupTopics.isValidGroupId(groupName),
+                        singleLine = true
+                    )
+                },
+                confirmButton = {
+                    TextButton(
+                        onClick = {
+                            mqttManager.joinGroup(groupName)
+                            selectedDeviceId = GroupTopics.KEY_PREFIX + groupName
+                            showJoinGroupDialog = false
+                        },
+                        enabled = GroupTopics.isValidGroupId(groupName)
+                    ) { Text("Join") }
+                },
+                dismissButton = {
+                    TextButton(onClick = { showJoinGroupDialog = false }) { Text("Cancel") }
+                }
+            )
+        }
+
         // ⚙️ MQTT Settings Dialog
         if (showSettingsDialog) {
             MqttSettingsScreen(
@@ -894,6 +1155,9 @@ private fun IsroApp(
                 onTileServerUpdate = { newUrl ->
                     tileServerUrl = newUrl
                 },
+                onMapModeUpdate = { newMode ->
+                    mapMode = newMode
+                },
                 onAsteriskServerUpdate = { newIp ->
                     asteriskServerIp = newIp
                     // Reconnect IAX with new IP
@@ -972,6 +1236,13 @@ private fun DrawerHeader(
                     containerColor = if (sortBy == DeviceSort.STATUS) PrimaryBlue.copy(alpha = 0.15f) else MaterialTheme.colorScheme.surface
                 )
             )
+            AssistChip(
+                onClick = { onSortChange(DeviceSort.DISTANCE) },
+                label = { Text("Nearby") },
+                colors = androidx.compose.material3.AssistChipDefaults.assistChipColors(
+                    containerColor = if (sortBy == DeviceSort.DISTANCE) PrimaryBlue.copy(alpha = 0.15f) else MaterialTheme.colorScheme.surface
+                )
+            )
         }
     }
 }
@@ -1034,6 +1305,8 @@ private fun MobileLayout(
     locationState: LocationState,
     myDeviceId: String,
     tileServerUrl: String,
+    mapMode: MapMode,
+    onViewportChanged: (MapViewport) -> Unit,
     onFullMap: () -> Unit,
     onPickFile: () -> Unit,
     callController: CallController
@@ -1049,6 +1322,8 @@ private fun MobileLayout(
             locationState = locationState,
             myDeviceId = myDeviceId,
             tileServerUrl = tileServerUrl,
+            mapMode = mapMode,
+            onViewportChanged = onViewportChanged,
             onFullScreen = onFullMap
         )
         ChatPane(
@@ -1088,6 +1363,8 @@ private fun MediumLayout(
     locationState: LocationState,
     myDeviceId: String,
     tileServerUrl: String,
+    mapMode: MapMode,
+    onViewportChanged: (MapViewport) -> Unit,
     onFullMap: () -> Unit,
     onPickFile: () -> Unit,
     callController: CallController
@@ -1123,6 +1400,8 @@ private fun MediumLayout(
                 locationState = locationState,
                 myDeviceId = myDeviceId,
                 tileServerUrl = tileServerUrl,
+                mapMode = mapMode,
+                onViewportChanged = onViewportChanged,
                 onFullScreen = onFullMap
             )
             ChatPane(
@@ -1161,6 +1440,8 @@ private fun ExpandedLayout(
     locationState: LocationState,
     myDeviceId: String,
     tileServerUrl: String,
+    mapMode: MapMode,
+    onViewportChanged: (MapViewport) -> Unit,
     onFullMap: () -> Unit,
     onPickFile: () -> Unit,
     callController: CallController
@@ -1194,6 +1475,8 @@ private fun ExpandedLayout(
                 locationState = locationState,
                 myDeviceId = myDeviceId,
                 tileServerUrl = tileServerUrl,
+                mapMode = mapMode,
+                onViewportChanged = onViewportChanged,
                 onFullScreen = onFullMap
             )
         }
@@ -1279,6 +1562,8 @@ private fun MapCard(
     locationState: LocationState,
     myDeviceId: String,
     tileServerUrl: String,
+    mapMode: MapMode,
+    onViewportChanged: (MapViewport) -> Unit,
     onFullScreen: () -> Unit
 ){
     ElevatedCard(
@@ -1293,7 +1578,7 @@ private fun MapCard(
 
             // 🔥 REAL OFFLINE MAP
             OfflineMapView(
-                devices = devices.map { device ->
+                devices = devices.filterNot { it.isGroup }.map { device ->
                     MapDevice(
                         id = device.clientId,
                         latitude = device.lat,
@@ -1303,6 +1588,8 @@ private fun MapCard(
                 currentLocation = locationState,
                 myDeviceId = myDeviceId,
                 tileServerUrl = tileServerUrl,
+                mapMode = mapMode,
+                onViewportChanged = onViewportChanged,
                 modifier = Modifier.fillMaxSize()
             )
 
@@ -1385,13 +1672,13 @@ private fun ChatPane(
                     Text(device?.displayName ?: "No device selected", style = MaterialTheme.typography.headlineSmall)
                     if (device != null) {
                         Text(
-                            "Last seen ${formatRelativeTime(device.lastSeen)}",
+                            if (device.isGroup) device.ip else "Last seen ${formatRelativeTime(device.lastSeen)}",
                             style = MaterialTheme.typography.bodyMedium,
                             color = TextSecondary
                         )
                     }
                 }
-                device?.let {
+                device?.takeUnless { it.isGroup }?.let {
                     IconButton(onClick = {
                         callController.outgoingCall(it.clientId)
                         // Will show call interface when CALL_ACCEPT is received
@@ -1443,16 +1730,25 @@ private fun ChatBubble(message: Message) {
                 .background(bubbleColor, shape = RoundedCornerShape(12.dp))
                 .padding(12.dp)
         ) {
+            // In group conversations, say who wrote it
+            if (!alignEnd && message.to.startsWith(GroupTopics.KEY_PREFIX)) {
+                Text(message.from, style = MaterialTheme.typography.labelMedium, color = PrimaryBlue)
+            }
             message.text?.let { Text(it, color = TextPrimary) }
             message.attachment?.let {
                 Spacer(modifier = Modifier.height(6.dp))
-                AttachmentChip(it)
+                AttachmentChip(it, message.downloadProgress)
             }
             Spacer(modifier = Modifier.height(4.dp))
             Row(horizontalArrangement = Arrangement.spacedBy(8.dp), verticalAlignment = Alignment.CenterVertically) {
                 Text(formatTime(message.timestamp), style = MaterialTheme.typography.bodyMedium, color = TextSecondary)
                 when (message.state) {
-                    DeliveryState.Pending -> Text("Sending…", style = MaterialTheme.typography.bodyMedium, color = TextSecondary)
+                    DeliveryState.Pending -> Text(
+                        message.uploadProgress?.takeIf { it < 1f }?.let { "Uploading ${(it * 100).toInt()}%" } ?: "Sending…",
+                        style = MaterialTheme.typography.bodyMedium,
+                        color = TextSecondary
+                    )
+                    DeliveryState.Sent -> Text("Sent", style = MaterialTheme.typography.bodyMedium, color = TextSecondary)
                     DeliveryState.Delivered -> Text("✓", style = MaterialTheme.typography.bodyMedium, color = TextSecondary)
                     DeliveryState.Failed -> Text("Retry", style = MaterialTheme.typography.bodyMedium, color = Color.Red)
                 }
@@ -1462,9 +1758,10 @@ private fun ChatBubble(message: Message) {
 }
 
 @Composable
-private fun AttachmentChip(attachment: Attachment) {
+private fun AttachmentChip(attachment: Attachment, downloadProgress: Float? = null) {
     val context = LocalContext.current
-    
+    val scope = rememberCoroutineScope()
+
     Row(
         modifier = Modifier
             .background(PrimaryBlue.copy(alpha = 0.1f), RoundedCornerShape(8.dp))
@@ -1472,19 +1769,80 @@ private fun AttachmentChip(attachment: Attachment) {
                 // Only download if URI is HTTP/HTTPS (received attachments)
                 val uriString = attachment.uri.toString()
                 if (uriString.startsWith("http://") || uriString.startsWith("https://")) {
-                    com.example.isro_app.mqtt.downloadAttachment(
-                        context = context,
-                        url = uriString,
-                        filename = attachment.name
-                    )
+                    scope.launch {
+                        com.example.isro_app.mqtt.openAttachment(
+                            context = context,
+                            downloads = (context.applicationContext as MyApplication).attachmentDownloads,
+                            url = uriString,
+                            filename = attachment.name,
+                            sha256 = attachment.sha256,
+                            gzip = attachment.gzip,
+                            size = attachment.sizeBytes
+                        )
+                    }
                 }
             }
             .padding(horizontal = 8.dp, vertical = 4.dp),
         verticalAlignment = Alignment.CenterVertically,
         horizontalArrangement = Arrangement.spacedBy(6.dp)
     ) {
-        Icon(Icons.Default.Attachment, contentDescription = null, tint = PrimaryBlue)
-        Text("${attachment.name} • ${formatSize(attachment.sizeBytes)}", color = TextPrimary)
+        Column(verticalArrangement = Arrangement.spacedBy(4.dp)) {
+            if (thumbnailKey(attachment) != null) {
+                AttachmentThumbnail(attachment, Modifier.size(width = 160.dp, height = 120.dp))
+            }
+            Row(verticalAlignment = Alignment.CenterVertically, horizontalArrangement = Arrangement.spacedBy(6.dp)) {
+                Icon(Icons.Default.Attachment, contentDescription = null, tint = PrimaryBlue)
+                Text("${attachment.name} • ${formatSize(attachment.sizeBytes)}", color = TextPrimary)
+            }
+            downloadProgress?.takeIf { it < 1f }?.let {
+                Text("Downloading ${(it * 100).toInt()}%", style = MaterialTheme.typography.bodyMedium, color = TextSecondary)
+            }
+        }
+    }
+}
+
+private fun thumbnailKey(attachment: Attachment): String? = when {
+    attachment.thumbnailKey != null -> attachment.thumbnailKey
+    // Picked locally and not sent yet: build the preview from the file itself
+    Thumbnails.isImage(attachment.mimeType) && attachment.uri.scheme in setOf("content", "file") ->
+        "local:${attachment.uri}"
+    else -> null
+}
+
+/**
+ * Image preview from the thumbnail cache. A memory hit renders in the first frame;
+ * otherwise it is decoded off the main thread while the reserved box stays in place,
+ * so scrolling through many images neither blocks nor shifts the list.
+ */
+@Composable
+private fun AttachmentThumbnail(attachment: Attachment, modifier: Modifier) {
+    val context = LocalContext.current
+    val key = thumbnailKey(attachment) ?: return
+    val cache = (context.applicationContext as MyApplication).mqttManager.thumbnails
+    val bitmap by produceState(cache.memory(key), key) {
+        if (value != null) return@produceState
+        val local = attachment.thumbnailKey == null
+        value = cache.load(key, create = if (local) {
+            {
+                Thumbnails.encode {
+                    context.contentResolver.openInputStream(attachment.uri)
+                        ?: throw java.io.IOException("Cannot read ${attachment.uri}")
+                }
+            }
+        } else {
+            null
+        })
+    }
+    Box(modifier.clip(RoundedCornerShape(6.dp)).background(SurfaceMuted)) {
+        bitmap?.let {
+            val image = remember(it) { it.asImageBitmap() }
+            Image(
+                bitmap = image,
+                contentDescription = attachment.name,
+                contentScale = ContentScale.Crop,
+                modifier = Modifier.fillMaxSize()
+            )
+        }
     }
 }
 
@@ -1508,7 +1866,11 @@ private fun AttachmentPreviewRow(
                     verticalAlignment = Alignment.CenterVertically,
                     horizontalArrangement = Arrangement.spacedBy(8.dp)
                 ) {
-                    Icon(Icons.Default.Attachment, contentDescription = null)
+                    if (thumbnailKey(att) != null) {
+                        AttachmentThumbnail(att, Modifier.size(40.dp))
+                    } else {
+                        Icon(Icons.Default.Attachment, contentDescription = null)
+                    }
                     Column {
                         Text(att.name, maxLines = 1, overflow = TextOverflow.Ellipsis)
                         Text(formatSize(att.sizeBytes), style = MaterialTheme.typography.bodyMedium, color = TextSecondary)
@@ -1,12 +1,21 @@
 package com.example.isro_app
 
 import android.app.Application
-import android.os.Environment
+import android.net.ConnectivityManager
+import android.net.Network
 import androidx.preference.PreferenceManager
+import com.example.isro_app.attachment.AttachmentCache
+import com.example.isro_app.attachment.AttachmentDownloads
+import com.example.isro_app.map.OfflineFirstTileProvider
+import com.example.isro_app.map.RegionPrefetcher
+import com.example.isro_app.map.TileCache
+import com.example.isro_app.map.TileScheduler
 import com.example.isro_app.mqtt.MqttManager
 import com.example.isro_app.mqtt.MqttSettingsManager
+import com.example.isro_app.settings.AttachmentSettingsManager
 import com.example.isro_app.settings.ServerSettingsManager
 import org.osmdroid.config.Configuration
+import org.osmdroid.mapsforge.MapsForgeTileSource
 import java.io.File
 
 class MyApplication : Application() {
@@ -20,6 +29,41 @@ class MyApplication : Application() {
     lateinit var mqttManager: MqttManager
         private set
 
+    private val downloadsDir: File by lazy { File(filesDir, "downloads") }
+
+    /**
+     * Downloaded attachments keyed by SHA-256, so reopening one needs no network;
+     * unhashed ones in [downloadsDir] share its size limit
+     */
+    val attachmentCache: AttachmentCache by lazy {
+        AttachmentCache(File(filesDir, "attachment_cache"), legacyDir = downloadsDir)
+    }
+
+    /** In-app attachment downloads feeding [attachmentCache] */
+    val attachmentDownloads: AttachmentDownloads by lazy {
+        AttachmentDownloads(attachmentCache, downloadsDir)
+    }
+
+    /** Disk tier and metrics for LAN map tiles */
+    val tileCache: TileCache by lazy {
+        TileCache(File(cacheDir, "tiles"))
+    }
+
+    /** Order of LAN tile downloads, fed the visible tiles by the map screen */
+    val tileScheduler: TileScheduler by lazy { TileScheduler() }
+
+    /** Disk tier for map tiles rendered from vector .map files */
+    val renderedTileCache: TileCache by lazy {
+        TileCache(File(cacheDir, "rendered_tiles"))
+    }
+
+    /** Region downloads for offline maps; outlives any one map screen */
+    val regionPrefetcher: RegionPrefetcher by lazy { RegionPrefetcher() }
+
+    /** MBTiles file region downloads are written to, read by the map like any other archive */
+    val prefetchArchive: File
+        get() = File(OfflineFirstTileProvider.archiveDirs(this).first().apply { mkdirs() }, "prefetch.mbtiles")
+
     override fun onCreate() {
         super.onCreate()
 
@@ -36,34 +80,34 @@ class MyApplication : Application() {
         mqttManager = MqttManager(
             myId = deviceId,
             settings = mqttSettings,
-            attachmentServer = serverSettings.attachmentServerUrl
+            attachmentServer = serverSettings.attachmentServerUrl,
+            storageDir = filesDir,
+            contentResolver = contentResolver,
+            attachmentSettings = AttachmentSettingsManager.loadSettings(applicationContext)
         )
         mqttManager.connect()
 
-        // ---- Initialize OSMDroid base paths ----
-        val osmBasePath = File(
-            Environment.getExternalStorageDirectory(),
-            "osmdroid"
-        )
-
-        // Ensure directory exists
-        if (!osmBasePath.exists()) {
-            osmBasePath.mkdirs()
-        }
+        // ---- Resume the MQTT session as soon as the network returns ----
+        val connectivity = getSystemService(ConnectivityManager::class.java)
+        connectivity?.registerDefaultNetworkCallback(object : ConnectivityManager.NetworkCallback() {
+            override fun onAvailable(network: Network) {
+                mqttManager.onNetworkAvailable()
+            }
+        })
 
+        // ---- Initialize OSMDroid (app-private paths, no storage permission) ----
         Configuration.getInstance().apply {
             load(
                 applicationContext,
                 PreferenceManager.getDefaultSharedPreferences(applicationContext)
             )
-
-            // ✅ MUST point directly to /storage/emulated/0/osmdroid
-            osmdroidBasePath = osmBasePath
-
-            // ❌ DO NOT set osmdroidTileCache for MBTiles
-            // osmdroidTileCache = File(osmBasePath, "tiles")  <-- KEEP DISABLED
-
+            osmdroidBasePath = File(filesDir, "osmdroid")
+            // Unused by the map, whose tiles go through [tileCache]
+            osmdroidTileCache = File(cacheDir, "osmdroid")
             userAgentValue = packageName
         }
+
+        // Graphics backend for rendering vector .map files
+        MapsForgeTileSource.createInstance(this)
     }
 }
@@ -1,20 +1,29 @@
 package com.example.isro_app
 
+import android.content.Context
+import android.graphics.Rect
+import android.util.Log
+import android.view.MotionEvent
 import androidx.compose.foundation.background
 import androidx.compose.foundation.layout.Box
+import androidx.compose.foundation.layout.Row
 import androidx.compose.foundation.layout.Column
 import androidx.compose.foundation.layout.Arrangement
 import androidx.compose.foundation.layout.fillMaxSize
 import androidx.compose.foundation.layout.padding
 import androidx.compose.foundation.shape.CircleShape
+import androidx.compose.material3.AlertDialog
 import androidx.compose.material3.IconButton
 import androidx.compose.material3.Text
+import androidx.compose.material3.TextButton
 import androidx.compose.runtime.Composable
 import androidx.compose.runtime.DisposableEffect
 import androidx.compose.runtime.LaunchedEffect
-import androidx.compose.runtime.mutableStateMapOf
+import androidx.compose.runtime.collectAsState
+import androidx.compose.runtime.getValue
 import androidx.compose.runtime.mutableStateOf
 import androidx.compose.runtime.remember
+import androidx.compose.runtime.rememberCoroutineScope
 import androidx.compose.ui.Modifier
 import androidx.compose.ui.Alignment
 import androidx.compose.ui.graphics.Color
@@ -23,35 +32,125 @@ import androidx.compose.ui.platform.LocalContext
 import androidx.compose.ui.unit.dp
 import androidx.compose.ui.viewinterop.AndroidView
 import com.example.isro_app.location.LocationState
+import com.example.isro_app.map.DeviceClusterOverlay
+import com.example.isro_app.map.MbTilesStore
+import com.example.isro_app.map.OfflineFirstTileProvider
+import com.example.isro_app.map.PrefetchEstimate
+import com.example.isro_app.map.PrefetchState
+import com.example.isro_app.map.TileRegion
+import com.example.isro_app.map.TileScheduler
+import com.example.isro_app.map.TrackOverlay
+import com.example.isro_app.map.VectorTileProvider
+import com.example.isro_app.settings.MapMode
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
+import org.osmdroid.events.DelayedMapListener
+import org.osmdroid.events.MapListener
+import org.osmdroid.events.ScrollEvent
+import org.osmdroid.events.ZoomEvent
+import org.osmdroid.mapsforge.MapsForgeTileSource
+import org.osmdroid.tileprovider.MapTileProviderBase
 import org.osmdroid.util.GeoPoint
+import org.osmdroid.util.TileSystem
 import org.osmdroid.views.MapView
-import org.osmdroid.views.overlay.Marker
 import org.osmdroid.tileprovider.tilesource.XYTileSource
 import com.example.isro_app.settings.ServerSettingsManager
 
+// Highest zoom the LAN tile source serves
+private const val MAX_TILE_ZOOM = 14
+
+// Device track windows the 🕘 button cycles through; 0 hides tracks. A track holds
+// about 1.5 h of driving (more when parked), so the longest window is "all kept"
+private const val TRACK_HOUR_MS = 60 * 60 * 1000L
+private val TRACK_WINDOWS_MS = listOf(0L, TRACK_HOUR_MS, TrackOverlay.WINDOW_ALL)
+
+// Deepest zoom in vector mode; .map data stops adding detail around 14 but stays sharp
+private const val VECTOR_MAX_ZOOM = 20
+
 fun createTileSource(tileServerUrl: String): XYTileSource {
     return XYTileSource(
         "LAN-TILES",
         0,          // min zoom
-        14,         // max zoom
+        MAX_TILE_ZOOM,
         256,        // tile size
         ".png",
         arrayOf(tileServerUrl)
     )
 }
 
+/**
+ * Tile provider for [mode]. Vector mode needs .map files in the tile folder and falls
+ * back to raster tiles without them.
+ */
+private fun createTileProvider(context: Context, mode: MapMode, tileServerUrl: String, app: MyApplication): MapTileProviderBase {
+    if (mode == MapMode.Vector) {
+        val mapFiles = VectorTileProvider.mapFiles(OfflineFirstTileProvider.archiveDirs(context))
+        if (mapFiles.isEmpty()) {
+            Log.w("VECTOR-TILES", "No .map files found, showing raster tiles")
+        } else {
+            try {
+                return VectorTileProvider(context, mapFiles, app.renderedTileCache)
+            } catch (e: Exception) {
+                Log.e("VECTOR-TILES", "Could not open ${mapFiles.joinToString { it.name }}", e)
+            }
+        }
+    }
+    return OfflineFirstTileProvider(context, createTileSource(tileServerUrl), app.tileCache, app.tileScheduler)
+}
+
+// zoom limits must match tiles
+private fun MapView.setZoomLimits(provider: MapTileProviderBase) {
+    if (provider is VectorTileProvider) {
+        minZoomLevel = MapsForgeTileSource.MIN_ZOOM.toDouble()
+        maxZoomLevel = VECTOR_MAX_ZOOM.toDouble()
+    } else {
+        minZoomLevel = 0.0
+        maxZoomLevel = MAX_TILE_ZOOM.toDouble()
+    }
+}
+
+// Visible tile range, computed the way osmdroid's TilesOverlay does
+private fun MapView.reportVisibleTiles(scheduler: TileScheduler) {
+    val zoom = projection.zoomLevel
+    val tiles = TileSystem.getTileFromMercator(projection.getMercatorViewPort(null), TileSystem.getTileSize(zoom), Rect())
+    scheduler.setViewport(TileSystem.getInputTileZoomLevel(zoom), tiles.left, tiles.top, tiles.right, tiles.bottom)
+}
+
 data class MapDevice(
     val id: String,
     val latitude: Double,
     val longitude: Double
 )
 
+/**
+ * Visible map area, reported when the user pans or zooms
+ */
+data class MapViewport(
+    val south: Double,
+    val west: Double,
+    val north: Double,
+    val east: Double
+)
+
+private fun MapView.currentViewport(): MapViewport {
+    val box = boundingBox
+    return MapViewport(
+        south = box.latSouth,
+        west = box.lonWest,
+        north = box.latNorth,
+        east = box.lonEast
+    )
+}
+
 @Composable
 fun OfflineMapView(
     devices: List<MapDevice>,
     currentLocation: LocationState,
     myDeviceId: String,
     tileServerUrl: String = ServerSettingsManager.loadSettings(androidx.compose.ui.platform.LocalContext.current).tileServerUrl,
+    mapMode: MapMode = ServerSettingsManager.loadSettings(androidx.compose.ui.platform.LocalContext.current).mapMode,
+    onViewportChanged: (MapViewport) -> Unit = {},
     modifier: Modifier = Modifier
 ) {
     val isPreview = LocalInspectionMode.current
@@ -72,41 +171,103 @@ fun OfflineMapView(
     val followMode = remember { mutableStateOf(true) }
     val userInteracting = remember { mutableStateOf(false) }
 
-    val markerMap = remember { mutableStateMapOf<String, Marker>() }
-    val selfMarker = remember { mutableStateOf<Marker?>(null) }
+    val clusterOverlay = remember { mutableStateOf<DeviceClusterOverlay?>(null) }
+    val trackOverlay = remember { mutableStateOf<TrackOverlay?>(null) }
+    // 🕘 How far back device tracks are drawn; 0 = hidden
+    val trackWindowMs = remember { mutableStateOf(0L) }
     val mapViewState = remember { mutableStateOf<MapView?>(null) }
     val currentTileServerUrl = remember { mutableStateOf(tileServerUrl) }
+    val currentMapMode = remember { mutableStateOf(mapMode) }
+    // Vector tiles are on screen (vector mode with .map files present)
+    val vectorMap = remember { mutableStateOf(false) }
     
+    // ⬇ Region download for offline use
+    val app = LocalContext.current.applicationContext as MyApplication
+    val prefetcher = app.regionPrefetcher
+    val prefetch by prefetcher.progress.collectAsState()
+    val scope = rememberCoroutineScope()
+    val pendingRegion = remember { mutableStateOf<Pair<TileRegion.Box, IntRange>?>(null) }
+    val estimate = remember { mutableStateOf<PrefetchEstimate?>(null) }
+
+    // A finished download is a new archive; reopen the tile provider to read it. Runs
+    // that finished before this map was built are already in its provider.
+    val finishedRuns by prefetcher.finishedRuns.collectAsState()
+    val providerRuns = remember { mutableStateOf(finishedRuns) }
+    LaunchedEffect(finishedRuns) {
+        if (finishedRuns != providerRuns.value) {
+            providerRuns.value = finishedRuns
+            if (vectorMap.value) return@LaunchedEffect
+            mapViewState.value?.let { mapView ->
+                val tileSource = createTileSource(currentTileServerUrl.value)
+                mapView.setTileProvider(OfflineFirstTileProvider(mapView.context, tileSource, app.tileCache, app.tileScheduler))
+            }
+        }
+    }
+
     // Update tile source when URL changes
     LaunchedEffect(tileServerUrl) {
         if (currentTileServerUrl.value != tileServerUrl) {
             currentTileServerUrl.value = tileServerUrl
-            mapViewState.value?.let { mapView ->
+            mapViewState.value?.takeIf { !vectorMap.value }?.let { mapView ->
                 val newTileSource = createTileSource(tileServerUrl)
                 mapView.setTileSource(newTileSource)
             }
         }
     }
 
+    // Switch between LAN raster tiles and on-device vector rendering
+    LaunchedEffect(mapMode) {
+        if (currentMapMode.value != mapMode) {
+            currentMapMode.value = mapMode
+            mapViewState.value?.let { mapView ->
+                val provider = createTileProvider(mapView.context, mapMode, currentTileServerUrl.value, app)
+                vectorMap.value = provider is VectorTileProvider
+                mapView.setTileProvider(provider)
+                mapView.setZoomLimits(provider)
+            }
+        }
+    }
+
+    // 🔵 CURRENT DEVICE LOCATION (GPS fallback when MQTT doesn't have self)
+    val isMyDeviceInMqtt = devices.any { it.id == myDeviceId }
+    val shownDevices = if (currentLocation.hasFix && !isMyDeviceInMqtt) {
+        devices + MapDevice(myDeviceId, currentLocation.latitude, currentLocation.longitude)
+    } else {
+        devices
+    }
+
+    // 🎯 AUTO-FOLLOW: one camera move per new fix, not per recomposition
+    LaunchedEffect(currentLocation.latitude, currentLocation.longitude, currentLocation.hasFix, followMode.value) {
+        val mapView = mapViewState.value ?: return@LaunchedEffect
+        if (followMode.value && currentLocation.hasFix && !userInteracting.value) {
+            mapView.controller.animateTo(GeoPoint(currentLocation.latitude, currentLocation.longitude))
+        }
+    }
+
+    // 🕘 Show or hide device tracks
+    LaunchedEffect(trackWindowMs.value) {
+        trackOverlay.value?.windowMs = trackWindowMs.value
+        mapViewState.value?.invalidate()
+    }
+
     Box(
         modifier = modifier.fillMaxSize()
     ) {
         AndroidView(
             modifier = Modifier.fillMaxSize(),
             factory = { ctx ->
-                MapView(ctx).apply {
+                // ✅ Local MBTiles first, then the cached LAN tile server (dynamic),
+                // or vector .map files rendered on the device
+                val provider = createTileProvider(ctx, currentMapMode.value, currentTileServerUrl.value, app)
+                vectorMap.value = provider is VectorTileProvider
+                MapView(ctx, provider).apply {
                     mapViewState.value = this
-
-                    // ✅ Use LAN tile server (dynamic)
-                    val tileSource = createTileSource(currentTileServerUrl.value)
-                    setTileSource(tileSource)
+                    setTileSource(provider.tileSource)
 
                     // ✅ Allow LAN HTTP (not general internet)
                     setUseDataConnection(true)
 
-                    // zoom limits must match tiles
-                    minZoomLevel = 0.0
-                    maxZoomLevel = 14.0
+                    setZoomLimits(provider)
 
                     setMultiTouchControls(true)
 
@@ -115,76 +276,86 @@ fun OfflineMapView(
                         org.osmdroid.views.CustomZoomButtonsController.Visibility.NEVER
                     )
 
-                    // 🔹 Detect user drag / touch to disable follow
-                    // setOnTouchListener { _, _ ->
-                    //     if (followMode.value) {
-                    //         followMode.value = false   // 🖐️ disable follow when user drags
-                    //     }
-                    //     false
-                    // }
+                    // 🔹 Report viewport (debounced) so GPS subscriptions follow the map
+                    addMapListener(DelayedMapListener(object : MapListener {
+                        override fun onScroll(event: ScrollEvent?): Boolean {
+                            onViewportChanged(currentViewport())
+                            return false
+                        }
+
+                        override fun onZoom(event: ZoomEvent?): Boolean {
+                            onViewportChanged(currentViewport())
+                            return false
+                        }
+                    }, 400))
+                    addOnFirstLayoutListener { _, _, _, _, _ ->
+                        onViewportChanged(currentViewport())
+                        reportVisibleTiles(app.tileScheduler)
+                    }
+
+                    // 🔹 Visible tiles on every move (not debounced), so queued downloads follow the screen
+                    addMapListener(object : MapListener {
+                        override fun onScroll(event: ScrollEvent?): Boolean {
+                            reportVisibleTiles(app.tileScheduler)
+                            return false
+                        }
+
+                        override fun onZoom(event: ZoomEvent?): Boolean {
+                            reportVisibleTiles(app.tileScheduler)
+                            return false
+                        }
+                    })
+
+                    // 🔹 Track fingers on the map so follow mode never fights a gesture
+                    setOnTouchListener { _, event ->
+                        userInteracting.value = event.actionMasked != MotionEvent.ACTION_UP &&
+                            event.actionMasked != MotionEvent.ACTION_CANCEL
+                        false
+                    }
+
+                    // 〰 Where devices have been, under the markers
+                    val tracks = TrackOverlay(ctx, app.mqttManager.trackHistory, myDeviceId)
+                    tracks.windowMs = trackWindowMs.value
+                    overlays.add(tracks)
+                    trackOverlay.value = tracks
+
+                    // 🔴 All devices in one clustered overlay
+                    val overlay = DeviceClusterOverlay(ctx, myDeviceId)
+                    overlays.add(overlay)
+                    clusterOverlay.value = overlay
 
                     // Initial position
                     val first = devices.firstOrNull()
                     if (first != null) {
                         controller.setZoom(12.0)
                         controller.setCenter(GeoPoint(first.latitude, first.longitude))
-
-                        addOrUpdateMarker(
-                            id = first.id,
-                            lat = first.latitude,
-                            lon = first.longitude,
-                            map = this,
-                            markerMap = markerMap,
-                            isSelf = first.id == myDeviceId
-                        )
                     }
                 }
             },
             update = { mapView ->
-                // 🔴 MQTT / other devices (and self when present)
-                devices.forEach { device ->
-                    val isSelfDevice = device.id == myDeviceId
-                    addOrUpdateMarker(
-                        id = device.id,
-                        lat = device.latitude,
-                        lon = device.longitude,
-                        map = mapView,
-                        markerMap = markerMap,
-                        isSelf = isSelfDevice
-                    )
-                }
-
-                // 🔵 CURRENT DEVICE LOCATION (GPS fallback when MQTT doesn't have self)
-                val isMyDeviceInMqtt = devices.any { it.id == myDeviceId }
-
-                if (currentLocation.hasFix && !isMyDeviceInMqtt) {
-                    val position = GeoPoint(
-                        currentLocation.latitude,
-                        currentLocation.longitude
-                    )
-
-                    if (selfMarker.value == null) {
-                        val marker = Marker(mapView).apply {
-                            this.position = position
-                            this.title = "You"
-                            this.icon = mapView.context.getDrawable(
-                                com.example.isro_app.R.drawable.ic_marker_self
-                            )
-                        }
-                        mapView.overlays.add(marker)
-                        selfMarker.value = marker
-                    } else {
-                        selfMarker.value?.position = position
-                    }
-
-                    // 🎯 AUTO-FOLLOW ONLY IF ENABLED
-                    if (followMode.value) {
-                        mapView.controller.animateTo(position)
-                    }
-                }
+                // 🔴 All devices, animated between fixes; unchanged lists cost nothing
+                clusterOverlay.value?.setDevices(shownDevices, mapView)
             }
         )
 
+        // ⬇ Region download progress
+        if (prefetch.state == PrefetchState.Running) {
+            Row(
+                modifier = Modifier
+                    .align(Alignment.TopCenter)
+                    .padding(12.dp)
+                    .background(Color.Black.copy(alpha = 0.6f), CircleShape)
+                    .padding(start = 12.dp),
+                verticalAlignment = Alignment.CenterVertically
+            ) {
+                Text(
+                    "Offline tiles ${(prefetch.fraction * 100).toInt()}% (${prefetch.finished}/${prefetch.total})",
+                    color = Color.White
+                )
+                TextButton(onClick = { prefetcher.cancel() }) { Text("Stop") }
+            }
+        }
+
         // 🎛 MAP CONTROLS
         Column(
             modifier = Modifier
@@ -208,6 +379,56 @@ fun OfflineMapView(
                 Text("🎯", color = Color.White)
             }
 
+            // 🕘 TRACKS: off → last hour → everything kept
+            IconButton(
+                onClick = {
+                    val windows = TRACK_WINDOWS_MS
+                    trackWindowMs.value = windows[(windows.indexOf(trackWindowMs.value) + 1) % windows.size]
+                },
+                modifier = Modifier.background(Color.Black.copy(alpha = 0.6f), CircleShape)
+            ) {
+                Text(
+                    when (trackWindowMs.value) {
+                        0L -> "🕘"
+                        TRACK_HOUR_MS -> "1h"
+                        else -> "All"
+                    },
+                    color = Color.White
+                )
+            }
+
+            // ⬇ DOWNLOAD VISIBLE AREA (current zoom down to the most detailed);
+            // raster only: a .map file already covers every zoom
+            if (!vectorMap.value) {
+                IconButton(
+                    onClick = {
+                        val mapView = mapViewState.value
+                        if (mapView != null && prefetch.state != PrefetchState.Running) {
+                            val box = mapView.boundingBox
+                            val region = TileRegion.Box(box.latSouth, box.lonWest, box.latNorth, box.lonEast)
+                            val zooms = mapView.zoomLevelDouble.toInt().coerceAtMost(MAX_TILE_ZOOM)..MAX_TILE_ZOOM
+                            pendingRegion.value = region to zooms
+                            estimate.value = null
+                            scope.launch {
+                                try {
+                                    estimate.value = withContext(Dispatchers.IO) {
+                                        MbTilesStore(app.prefetchArchive, "prefetch").use { store ->
+                                            prefetcher.estimate(currentTileServerUrl.value, region, zooms, store)
+                                        }
+                                    }
+                                } catch (e: Exception) {
+                                    Log.e("TILE-PREFETCH", "Estimate failed", e)
+                                    pendingRegion.value = null
+                                }
+                            }
+                        }
+                    },
+                    modifier = Modifier.background(Color.Black.copy(alpha = 0.6f), CircleShape)
+                ) {
+                    Text("⬇", color = Color.White)
+                }
+            }
+
             // ➕ ZOOM IN
             IconButton(
                 onClick = { mapViewState.value?.controller?.zoomIn() },
@@ -226,38 +447,40 @@ fun OfflineMapView(
         }
     }
 
-    DisposableEffect(Unit) {
-        onDispose { }
+    pendingRegion.value?.let { (region, zooms) ->
+        val e = estimate.value
+        AlertDialog(
+            onDismissRequest = { pendingRegion.value = null },
+            title = { Text("Download for offline use") },
+            text = {
+                Text(
+                    if (e == null) {
+                        "Estimating size…"
+                    } else {
+                        "Zoom ${zooms.first}–${zooms.last}: ${e.tiles} tiles, ${e.alreadyStored} already saved. " +
+                            "About ${"%.1f".format(e.estimatedBytes / 1_048_576.0)} MB to download."
+                    }
+                )
+            },
+            confirmButton = {
+                TextButton(
+                    enabled = e != null,
+                    onClick = {
+                        pendingRegion.value = null
+                        scope.launch {
+                            val store = withContext(Dispatchers.IO) { MbTilesStore(app.prefetchArchive, "prefetch") }
+                            prefetcher.start(currentTileServerUrl.value, region, zooms, store)
+                        }
+                    }
+                ) { Text("Download") }
+            },
+            dismissButton = {
+                TextButton(onClick = { pendingRegion.value = null }) { Text("Cancel") }
+            }
+        )
     }
-}
-
-fun addOrUpdateMarker(
-    id: String,
-    lat: Double,
-    lon: Double,
-    map: MapView,
-    markerMap: MutableMap<String, Marker>,
-    isSelf: Boolean
-) {
-    val position = GeoPoint(lat, lon)
 
-    if (markerMap.containsKey(id)) {
-        markerMap[id]?.position = position
-    } else {
-        val marker = Marker(map).apply {
-            this.position = position
-            this.title = if (isSelf) "You" else id
-            this.icon = map.context.getDrawable(
-                if (isSelf) {
-                    com.example.isro_app.R.drawable.ic_marker_self
-                } else {
-                    com.example.isro_app.R.drawable.ic_marker_other
-                }
-            )
-        }
-        map.overlays.add(marker)
-        markerMap[id] = marker
+    DisposableEffect(Unit) {
+        onDispose { }
     }
-
-    map.invalidate()
 }
@@ -0,0 +1,133 @@
+package com.example.isro_app.attachment
+
+import android.util.Log
+import java.io.File
+import java.io.IOException
+import java.util.UUID
+import java.util.zip.GZIPInputStream
+
+/**
+ * Size-bounded LRU of downloaded attachments, one file per SHA-256 under [dir].
+ *
+ * Recency is the file's mtime, so the order survives restarts; the in-memory
+ * index is rebuilt from the directory on creation. Callers hand over files whose
+ * hash they already checked; the hash is of the bytes on the wire, and gzipped
+ * attachments are stored decompressed.
+ *
+ * Attachments sent without a hash are kept by name under [legacyDir] and share
+ * the same budget and eviction order, so they cannot grow without bound.
+ * `.part` files there belong to [AttachmentDownloads] and are not counted.
+ */
+class AttachmentCache(
+    private val dir: File,
+    private val maxBytes: Long = DEFAULT_MAX_BYTES,
+    private val legacyDir: File? = null
+) {
+
+    companion object {
+        const val DEFAULT_MAX_BYTES = 256L * 1024 * 1024
+        private const val PART_SUFFIX = ".part"
+        // Index keys of legacy files; a hash never contains it
+        private const val LEGACY_PREFIX = "~"
+        private const val TAG = "ATTACH-CACHE"
+    }
+
+    // hash (or LEGACY_PREFIX + name) -> size, in access order (eldest first)
+    private val entries = LinkedHashMap<String, Long>(16, 0.75f, true)
+    private var totalBytes = 0L
+
+    init {
+        dir.mkdirs()
+        val found = ArrayList<Pair<String, File>>()
+        dir.listFiles()?.forEach { f ->
+            // Leftovers of interrupted inflates
+            if (f.name.endsWith(PART_SUFFIX)) f.delete()
+            else if (ContentHash.isValid(f.name)) found.add(f.name to f)
+        }
+        legacyDir?.listFiles()?.forEach { f ->
+            if (f.isFile && !f.name.endsWith(PART_SUFFIX)) found.add(LEGACY_PREFIX + f.name to f)
+        }
+        found.sortedBy { it.second.lastModified() }.forEach { (key, f) ->
+            entries[key] = f.length()
+            totalBytes += f.length()
+        }
+        trim()
+    }
+
+    val sizeBytes: Long
+        @Synchronized get() = totalBytes
+
+    /**
+     * Cached file for [sha256], marked as most recently used, or null
+     */
+    fun get(sha256: String): File? = lookup(sha256)
+
+    /**
+     * Unhashed attachment stored as [name] by [storeLegacy], marked as most recently used, or null
+     */
+    fun legacy(name: String): File? = if (legacyDir == null) null else lookup(LEGACY_PREFIX + name)
+
+    /**
+     * Move [part], a completed download without a hash, into [legacyDir] as [name]
+     */
+    fun storeLegacy(name: String, part: File): File {
+        checkNotNull(legacyDir) { "No directory for unhashed attachments" }
+        return put(LEGACY_PREFIX + name, part)
+    }
+
+    /**
+     * Move [raw], whose bytes already matched [sha256], into the cache, inflating
+     * it first when [gzip] is set. [raw] is consumed.
+     */
+    fun store(sha256: String, raw: File, gzip: Boolean = false): File {
+        if (!gzip) return put(sha256, raw)
+        val inflated = File(dir, "$sha256-${UUID.randomUUID()}$PART_SUFFIX")
+        try {
+            GZIPInputStream(raw.inputStream(), 64 * 1024).use { input ->
+                inflated.outputStream().use { input.copyTo(it, 64 * 1024) }
+            }
+            raw.delete()
+            return put(sha256, inflated)
+        } finally {
+            inflated.delete()
+        }
+    }
+
+    private fun fileOf(key: String): File =
+        if (key.startsWith(LEGACY_PREFIX)) File(legacyDir, key.substring(LEGACY_PREFIX.length)) else File(dir, key)
+
+    @Synchronized
+    private fun lookup(key: String): File? {
+        if (entries[key] == null) return null
+        val file = fileOf(key)
+        if (!file.exists()) {
+            totalBytes -= entries.remove(key) ?: 0L
+            return null
+        }
+        file.setLastModified(System.currentTimeMillis())
+        return file
+    }
+
+    @Synchronized
+    private fun put(key: String, part: File): File {
+        val file = fileOf(key)
+        if (!part.renameTo(file)) throw IOException("Could not move ${part.name} into cache")
+        totalBytes -= entries.put(key, file.length()) ?: 0L
+        totalBytes += file.length()
+        trim(keep = key)
+        return file
+    }
+
+    @Synchronized
+    private fun trim(keep: String? = null) {
+        val iterator = entries.entries.iterator()
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            val (key, size) = iterator.next()
+            if (key == keep) continue
+            fileOf(key).delete()
+            iterator.remove()
+            totalBytes -= size
+            Log.d(TAG, "Evicted $key ($size B)")
+        }
+    }
+}
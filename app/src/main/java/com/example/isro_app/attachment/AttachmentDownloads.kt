@@ -0,0 +1,306 @@
+package com.example.isro_app.attachment
+
+import android.util.Log
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.ensureActive
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.update
+import kotlinx.coroutines.launch
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.net.HttpURLConnection
+import java.net.URL
+import java.nio.channels.Channels
+import java.util.PriorityQueue
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.coroutines.coroutineContext
+
+/**
+ * Queue order: an attachment the user tapped goes first, then prefetches for the
+ * chat on screen, then everything else
+ */
+enum class DownloadPriority {
+    Open,
+    VisibleChat,
+    Background
+}
+
+enum class DownloadState {
+    Queued,
+    Downloading,
+    Done,
+    Failed
+}
+
+data class DownloadProgress(
+    val receivedBytes: Long,
+    val totalBytes: Long,
+    val state: DownloadState
+) {
+    val fraction: Float
+        get() = if (totalBytes > 0) (receivedBytes.toFloat() / totalBytes).coerceAtMost(1f) else 0f
+}
+
+/**
+ * In-app attachment downloads with a bounded number running at once.
+ *
+ * Each download streams into a `.part` file under [dir] through a [java.nio.channels.FileChannel].
+ * After a dropped link, a retry or a later request for the same attachment asks for
+ * `Range: bytes=<part length>-` and appends, so only the missing tail is fetched.
+ * Servers that ignore Range answer 200 and the file starts over.
+ *
+ * Attachments with a SHA-256 are verified and handed to [cache]; older messages
+ * without one go to the cache's legacy directory, normally [dir] itself. Requests
+ * for the same attachment share one download, and queuing it again at a higher
+ * [DownloadPriority] moves it up. [progress] is keyed by [keyOf]; [hits] and
+ * [misses] count requests served from disk and ones that needed a download.
+ */
+class AttachmentDownloads(
+    private val cache: AttachmentCache,
+    private val dir: File,
+    parallelism: Int = 3
+) {
+
+    companion object {
+        // Received attachments up to this size are fetched without a tap
+        const val PREFETCH_MAX_BYTES = 512L * 1024
+        // Bytes per channel transfer; progress and cancellation are checked between them
+        private const val BLOCK_BYTES = 256L * 1024
+        private const val MAX_ATTEMPTS = 3
+        private const val RETRY_BASE_MS = 500L
+        private const val PART_SUFFIX = ".part"
+        private const val TAG = "ATTACH-DOWNLOAD"
+
+        fun keyOf(url: String, sha256: String?): String =
+            sha256 ?: ContentHash.hex(ContentHash.newDigest().digest(url.toByteArray()))
+    }
+
+    private class Request(
+        val key: String,
+        val url: String,
+        val sha256: String?,
+        val filename: String,
+        val gzip: Boolean,
+        val size: Long,
+        var priority: DownloadPriority,
+        val seq: Long
+    ) {
+        val result = CompletableDeferred<File>()
+    }
+
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+
+    // Guarded by itself; [active] holds queued and running requests by key
+    private val queue = PriorityQueue(11, compareBy<Request>({ it.priority }, { it.seq }))
+    private val active = HashMap<String, Request>()
+    private val seq = AtomicLong()
+
+    // One token per queued request; each worker takes a token, then the best request
+    private val wakeups = Channel<Unit>(Channel.UNLIMITED)
+
+    private val _progress = MutableStateFlow<Map<String, DownloadProgress>>(emptyMap())
+    val progress: StateFlow<Map<String, DownloadProgress>> = _progress
+
+    val hits = AtomicLong()
+    val misses = AtomicLong()
+
+    init {
+        dir.mkdirs()
+        repeat(parallelism) {
+            scope.launch {
+                for (token in wakeups) {
+                    val request = synchronized(queue) { queue.poll() } ?: continue
+                    run(request)
+                }
+            }
+        }
+    }
+
+    /**
+     * The attachment if it is already on the device; never touches the network
+     */
+    fun local(url: String, sha256: String?, filename: String): File? =
+        if (sha256 != null) cache.get(sha256) else cache.legacy(completedName(keyOf(url, null), filename))
+
+    /**
+     * Queue a download (or raise the priority of a queued one) and wait for the file
+     */
+    suspend fun download(
+        url: String,
+        sha256: String?,
+        filename: String,
+        gzip: Boolean = false,
+        size: Long = 0,
+        priority: DownloadPriority = DownloadPriority.Open
+    ): File = enqueue(url, sha256, filename, gzip, size, priority).await()
+
+    /**
+     * Fetch a small attachment ahead of a tap; larger ones wait until opened.
+     * Safe to call from the main thread.
+     */
+    fun prefetch(url: String, sha256: String?, filename: String, gzip: Boolean, size: Long, priority: DownloadPriority) {
+        if (size !in 1..PREFETCH_MAX_BYTES) return
+        scope.launch { enqueue(url, sha256, filename, gzip, size, priority) }
+    }
+
+    fun enqueue(
+        url: String,
+        sha256: String?,
+        filename: String,
+        gzip: Boolean = false,
+        size: Long = 0,
+        priority: DownloadPriority = DownloadPriority.Open
+    ): Deferred<File> {
+        val key = keyOf(url, sha256)
+        local(url, sha256, filename)?.let {
+            hits.incrementAndGet()
+            if (_progress.value[key]?.state != DownloadState.Done) setProgress(key, it.length(), it.length(), DownloadState.Done)
+            return CompletableDeferred(it)
+        }
+
+        val request = synchronized(queue) {
+            active[key]?.let { existing ->
+                // Already running, or queued at the same or a better priority
+                if (priority < existing.priority && queue.remove(existing)) {
+                    existing.priority = priority
+                    queue.add(existing)
+                }
+                return existing.result
+            }
+            misses.incrementAndGet()
+            Request(key, url, sha256, filename, gzip, size, priority, seq.incrementAndGet()).also {
+                active[key] = it
+                queue.add(it)
+            }
+        }
+        setProgress(key, partFile(key).length(), size, DownloadState.Queued)
+        wakeups.trySend(Unit)
+        return request.result
+    }
+
+    private suspend fun run(request: Request) {
+        try {
+            val startedAt = System.nanoTime()
+            val file = fetch(request)
+            setProgress(request.key, file.length(), file.length(), DownloadState.Done)
+            Log.d(TAG, "Downloaded ${request.filename} in ${(System.nanoTime() - startedAt) / 1_000_000}ms")
+            request.result.complete(file)
+        } catch (e: CancellationException) {
+            request.result.completeExceptionally(e)
+            throw e
+        } catch (e: Exception) {
+            // The .part file stays, so the next attempt resumes where this one stopped
+            Log.w(TAG, "Download of ${request.filename} failed", e)
+            _progress.update { map ->
+                val current = map[request.key] ?: DownloadProgress(0, request.size, DownloadState.Failed)
+                map + (request.key to current.copy(state = DownloadState.Failed))
+            }
+            request.result.completeExceptionally(e)
+        } finally {
+            synchronized(queue) { active.remove(request.key) }
+        }
+    }
+
+    private suspend fun fetch(request: Request): File {
+        val part = partFile(request.key)
+        var attempt = 0
+        while (true) {
+            try {
+                transfer(request, part)
+                break
+            } catch (e: IOException) {
+                if (++attempt >= MAX_ATTEMPTS) throw e
+                delay(RETRY_BASE_MS shl (attempt - 1))
+            }
+        }
+
+        val sha256 = request.sha256
+        if (sha256 == null) return cache.storeLegacy(completedName(request.key, request.filename), part)
+        val actual = ChannelChunkSource(part).use { ContentHash.sha256(it) }
+        if (actual != sha256) {
+            // Corrupt or stale bytes; resuming from them would never verify
+            part.delete()
+            throw IOException("Hash mismatch for ${request.url}: got $actual")
+        }
+        return cache.store(sha256, part, request.gzip)
+    }
+
+    /**
+     * Append the rest of [request] to [part], resuming from its current length
+     */
+    private suspend fun transfer(request: Request, part: File) {
+        RandomAccessFile(part, "rw").use { file ->
+            val channel = file.channel
+            var offset = channel.size()
+            val conn = URL(request.url).openConnection() as HttpURLConnection
+            try {
+                conn.connectTimeout = 10_000
+                conn.readTimeout = 30_000
+                if (offset > 0) conn.setRequestProperty("Range", "bytes=$offset-")
+
+                val total = when (val code = conn.responseCode) {
+                    HttpURLConnection.HTTP_PARTIAL -> {
+                        val range = parseContentRange(conn.getHeaderField("Content-Range"))
+                        if (range == null || range.first != offset) throw IOException("Unexpected Content-Range for ${request.filename}")
+                        range.second
+                    }
+                    HttpURLConnection.HTTP_OK -> {
+                        // Whole body: the server ignored Range or there was nothing to resume
+                        offset = 0
+                        conn.contentLengthLong
+                    }
+                    416 -> {
+                        // The part no longer fits the remote file; start over on the next attempt
+                        channel.truncate(0)
+                        throw IOException("Range not satisfiable for ${request.filename}")
+                    }
+                    else -> throw IOException("Download failed: HTTP $code")
+                }
+                channel.truncate(offset)
+                setProgress(request.key, offset, if (total > 0) total else request.size, DownloadState.Downloading)
+
+                conn.inputStream.use { input ->
+                    val source = Channels.newChannel(input)
+                    while (true) {
+                        coroutineContext.ensureActive()
+                        val n = channel.transferFrom(source, offset, BLOCK_BYTES)
+                        if (n <= 0) break
+                        offset += n
+                        setProgress(request.key, offset, if (total > 0) total else request.size, DownloadState.Downloading)
+                    }
+                }
+                channel.force(false)
+                if (total >= 0 && offset != total) throw IOException("Download of ${request.filename} stopped at $offset of $total bytes")
+            } finally {
+                conn.disconnect()
+            }
+        }
+    }
+
+    /**
+     * (first byte, total length) from "bytes <first>-<last>/<total>"; total is -1 when "*"
+     */
+    private fun parseContentRange(header: String?): Pair<Long, Long>? {
+        val match = Regex("""bytes (\d+)-\d+/(\d+|\*)""").find(header ?: return null) ?: return null
+        val total = match.groupValues[2].toLongOrNull() ?: -1L
+        return Pair(match.groupValues[1].toLong(), total)
+    }
+
+    private fun partFile(key: String) = File(dir, key + PART_SUFFIX)
+
+    private fun completedName(key: String, filename: String) =
+        key.take(16) + "-" + filename.replace('/', '_')
+
+    private fun setProgress(key: String, received: Long, total: Long, state: DownloadState) {
+        _progress.update { it + (key to DownloadProgress(received, total, state)) }
+    }
+}
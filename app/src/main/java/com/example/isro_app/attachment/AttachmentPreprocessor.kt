@@ -0,0 +1,184 @@
+package com.example.isro_app.attachment
+
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import android.graphics.Matrix
+import android.util.Log
+import com.example.isro_app.settings.AttachmentSettings
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.withContext
+import java.io.BufferedOutputStream
+import java.io.File
+import java.io.InputStream
+
+/**
+ * Result of shrinking one attachment
+ */
+data class PreprocessStats(
+    val kind: String,
+    val inputBytes: Long,
+    val outputBytes: Long,
+    val millis: Long
+) {
+    val ratio: Float
+        get() = if (outputBytes > 0) inputBytes.toFloat() / outputBytes else 1f
+}
+
+/**
+ * How a shrunk image is re-encoded: JPEG, unless it has transparency to keep
+ */
+internal enum class ImageFormat(val extension: String) {
+    Jpeg("jpg"),
+    Png("png"),
+    Webp("webp")
+}
+
+/**
+ * Shrinks attachments before upload: images are downsampled while decoding and
+ * re-encoded (as JPEG, or PNG/WebP when they have alpha), compressible files are
+ * gzipped. Both stream from the source to a file in [outputDir]; an image is never
+ * decoded at full resolution.
+ *
+ * Work runs on at most [parallelism] IO threads so several large photos queued
+ * at once cannot exhaust memory. The original is kept whenever the result would
+ * not be meaningfully smaller.
+ */
+class AttachmentPreprocessor(
+    private val outputDir: File,
+    parallelism: Int = 2
+) {
+
+    companion object {
+        // Images below this are sent as-is unless they exceed the dimension limit
+        private const val SMALL_IMAGE_BYTES = 512L * 1024
+        // Keep the output only if it saves at least 10%
+        private const val MIN_SAVING = 0.9
+        private const val TAG = "ATTACH-PREP"
+
+        internal fun outputFormat(mimeType: String?, hasAlpha: Boolean): ImageFormat = when {
+            !hasAlpha -> ImageFormat.Jpeg
+            mimeType?.lowercase() == "image/webp" -> ImageFormat.Webp
+            else -> ImageFormat.Png
+        }
+    }
+
+    /** Shrunk file plus what to call it on the wire */
+    data class Output(
+        val file: File,
+        val filename: String,
+        val contentEncoding: String?,
+        val stats: PreprocessStats
+    )
+
+    private class Encoded(val file: File, val filename: String, val contentEncoding: String?, val kind: String)
+
+    @OptIn(ExperimentalCoroutinesApi::class)
+    private val dispatcher = Dispatchers.IO.limitedParallelism(parallelism)
+
+    private val _lastStats = MutableStateFlow<PreprocessStats?>(null)
+    val lastStats: StateFlow<PreprocessStats?> = _lastStats
+
+    /**
+     * [open] must return a fresh stream each call (images are read more than once).
+     * Returns null when the original should be uploaded unchanged.
+     */
+    suspend fun process(
+        open: () -> InputStream,
+        inputBytes: Long,
+        mimeType: String?,
+        filename: String,
+        name: String,
+        settings: AttachmentSettings
+    ): Output? {
+        if (!settings.preprocess) return null
+        return withContext(dispatcher) {
+            outputDir.mkdirs()
+            val startedAt = System.nanoTime()
+            val output = try {
+                when {
+                    Thumbnails.isImage(mimeType) -> shrinkImage(open, inputBytes, filename, name, settings)
+                    Compression.isCompressible(mimeType, filename) -> compress(open, filename, name)
+                    else -> null
+                }
+            } catch (e: Exception) {
+                Log.e(TAG, "Preprocessing $filename failed, sending original", e)
+                outputDir.listFiles { f -> f.name.startsWith("$name.") }?.forEach { it.delete() }
+                null
+            } ?: return@withContext null
+
+            val outputBytes = output.file.length()
+            if (outputBytes >= inputBytes * MIN_SAVING) {
+                output.file.delete()
+                return@withContext null
+            }
+
+            val stats = PreprocessStats(
+                kind = output.kind,
+                inputBytes = inputBytes,
+                outputBytes = outputBytes,
+                millis = (System.nanoTime() - startedAt) / 1_000_000
+            )
+            _lastStats.value = stats
+            Log.d(TAG, "$filename: $inputBytes B -> $outputBytes B (${"%.1f".format(stats.ratio)}x) in ${stats.millis}ms")
+            Output(output.file, output.filename, output.contentEncoding, stats)
+        }
+    }
+
+    private fun compress(open: () -> InputStream, filename: String, name: String): Encoded {
+        val out = File(outputDir, "$name.gz")
+        open().use { Compression.gzip(it, out) }
+        return Encoded(out, filename, Compression.GZIP, "gzip")
+    }
+
+    private fun shrinkImage(
+        open: () -> InputStream,
+        inputBytes: Long,
+        filename: String,
+        name: String,
+        settings: AttachmentSettings
+    ): Encoded? {
+        val bounds = BitmapFactory.Options().apply { inJustDecodeBounds = true }
+        open().use { BitmapFactory.decodeStream(it, null, bounds) }
+        val longest = maxOf(bounds.outWidth, bounds.outHeight)
+        if (longest <= 0) return null
+        if (longest <= settings.maxImageDimension && inputBytes < SMALL_IMAGE_BYTES) return null
+
+        // Largest power of two that keeps the decoded image at or above the target
+        var sample = 1
+        while (longest / (sample * 2) >= settings.maxImageDimension) sample *= 2
+
+        val options = BitmapFactory.Options().apply { inSampleSize = sample }
+        var bitmap = open().use { BitmapFactory.decodeStream(it, null, options) } ?: return null
+
+        val transform = Matrix()
+        val scale = settings.maxImageDimension.toFloat() / maxOf(bitmap.width, bitmap.height)
+        if (scale < 1f) transform.postScale(scale, scale)
+        transform.postRotate(Thumbnails.exifRotation(open).toFloat())
+        if (!transform.isIdentity) {
+            val transformed = Bitmap.createBitmap(bitmap, 0, 0, bitmap.width, bitmap.height, transform, true)
+            if (transformed !== bitmap) bitmap.recycle()
+            bitmap = transformed
+        }
+
+        val format = outputFormat(bounds.outMimeType, bitmap.hasAlpha())
+        val out = File(outputDir, "$name.${format.extension}")
+        try {
+            BufferedOutputStream(out.outputStream()).use {
+                @Suppress("DEPRECATION")
+                val compressFormat = when (format) {
+                    ImageFormat.Jpeg -> Bitmap.CompressFormat.JPEG
+                    ImageFormat.Png -> Bitmap.CompressFormat.PNG
+                    // Lossy below quality 100 on every API level
+                    ImageFormat.Webp -> Bitmap.CompressFormat.WEBP
+                }
+                bitmap.compress(compressFormat, settings.jpegQuality, it)
+            }
+        } finally {
+            bitmap.recycle()
+        }
+        return Encoded(out, filename.substringBeforeLast('.') + "." + format.extension, null, "image")
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.isro_app.attachment
+
+import java.io.Closeable
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+
+/**
+ * Random-access view of an attachment's bytes.
+ *
+ * Reads are positional, so several chunks can be read in parallel from one source.
+ */
+interface ChunkSource : Closeable {
+    val size: Long
+
+    /**
+     * Read up to [length] bytes at [offset] into [into]; returns the count read
+     */
+    fun read(offset: Long, into: ByteArray, length: Int): Int
+}
+
+/**
+ * [ChunkSource] over a seekable channel (a local file or a file-backed content URI)
+ */
+class ChannelChunkSource(
+    private val channel: FileChannel,
+    private val onClose: () -> Unit = { channel.close() }
+) : ChunkSource {
+
+    constructor(file: File) : this(RandomAccessFile(file, "r").channel)
+
+    override val size: Long = channel.size()
+
+    override fun read(offset: Long, into: ByteArray, length: Int): Int {
+        val buffer = ByteBuffer.wrap(into, 0, length)
+        var position = offset
+        while (buffer.hasRemaining()) {
+            val n = channel.read(buffer, position)
+            if (n < 0) break
+            position += n
+        }
+        return buffer.position()
+    }
+
+    override fun close() = onClose()
+}
@@ -0,0 +1,438 @@
+package com.example.isro_app.attachment
+
+import android.util.Log
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.ensureActive
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.update
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import org.json.JSONArray
+import org.json.JSONObject
+import java.io.File
+import java.io.IOException
+import java.net.HttpURLConnection
+import java.net.URL
+import java.net.URLEncoder
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * One outgoing attachment. Persisted as JSON so an upload survives process death.
+ *
+ * [source] is whatever the source opener understands (a content URI or a file path).
+ * [uploadId] is set once the server has accepted the upload, [sha256] once the
+ * content has been hashed. [contentEncoding] is "gzip" when the bytes were
+ * compressed before upload.
+ */
+data class UploadJob(
+    val messageId: String,
+    val peerId: String,
+    val source: String,
+    val filename: String,
+    val size: Long,
+    val chunkSize: Int = ChunkedUploader.DEFAULT_CHUNK_SIZE,
+    val uploadId: String? = null,
+    val sha256: String? = null,
+    val contentEncoding: String? = null
+) {
+    val chunkCount: Int
+        get() = ((size + chunkSize - 1) / chunkSize).toInt()
+
+    fun chunkLength(index: Int): Int =
+        minOf(chunkSize.toLong(), size - index.toLong() * chunkSize).toInt()
+
+    fun toJson(): String =
+        JSONObject().apply {
+            put("message_id", messageId)
+            put("peer_id", peerId)
+            put("source", source)
+            put("filename", filename)
+            put("size", size)
+            put("chunk_size", chunkSize)
+            uploadId?.let { put("upload_id", it) }
+            sha256?.let { put("sha256", it) }
+            contentEncoding?.let { put("content_encoding", it) }
+        }.toString()
+
+    companion object {
+        fun fromJson(text: String): UploadJob? =
+            try {
+                val json = JSONObject(text)
+                UploadJob(
+                    messageId = json.getString("message_id"),
+                    peerId = json.getString("peer_id"),
+                    source = json.getString("source"),
+                    filename = json.getString("filename"),
+                    size = json.getLong("size"),
+                    chunkSize = json.getInt("chunk_size"),
+                    uploadId = json.optString("upload_id").ifBlank { null },
+                    sha256 = json.optString("sha256").ifBlank { null },
+                    contentEncoding = json.optString("content_encoding").ifBlank { null }
+                )
+            } catch (_: Exception) {
+                null
+            }
+    }
+}
+
+data class UploadResult(
+    val fileId: String,
+    val filename: String,
+    val downloadUrl: String,
+    val sha256: String? = null
+)
+
+enum class UploadState {
+    Uploading,
+    Paused,
+    Done,
+    Failed
+}
+
+data class UploadProgress(
+    val sentBytes: Long,
+    val totalBytes: Long,
+    val state: UploadState
+) {
+    val fraction: Float
+        get() = if (totalBytes > 0) sentBytes.toFloat() / totalBytes else 1f
+}
+
+/**
+ * Chunked, resumable, parallel uploads against the attachment server.
+ *
+ * Protocol (see README, attachment_server.py):
+ *   POST /upload/init               {"filename","size","chunk_size"} -> {"upload_id","chunk_size","received":[...]}
+ *   PUT  /upload/<id>/chunk/<index> raw bytes at offset index * chunk_size
+ *   GET  /upload/<id>               -> {"received":[...]} (404 if the server forgot it)
+ *   POST /upload/<id>/complete      -> {"file_id","filename","download_url"}
+ *   GET  /files/sha256/<hash>       -> same JSON if the server already stores that content
+ *
+ * Content is addressed by SHA-256: before uploading, the server is asked whether it
+ * already has the hash, and uploads of the same content from this device are
+ * serialized so forwarding one file to many peers uploads it once.
+ *
+ * Chunks are idempotent, so a retry or a resume only sends what the server is missing.
+ * A job that fails part-way is paused, stays on disk and is picked up by [resumePending]
+ * (called on reconnect and at startup). Servers without /upload/init get the
+ * single-request POST /upload.
+ */
+class ChunkedUploader(
+    private val serverUrl: () -> String,
+    private val stateDir: File?,
+    private val openSource: (UploadJob) -> ChunkSource?,
+    private val onComplete: (UploadJob, UploadResult) -> Unit,
+    private val onFailed: (UploadJob) -> Unit,
+    private val parallelism: Int = 3
+) {
+
+    companion object {
+        const val DEFAULT_CHUNK_SIZE = 256 * 1024
+        private const val MAX_ATTEMPTS = 3
+        private const val RETRY_BASE_MS = 500L
+        private const val TAG = "ATTACH-UPLOAD"
+    }
+
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+
+    // messageIds with an upload coroutine in flight
+    private val running = ConcurrentHashMap.newKeySet<String>()
+
+    // Content already on the server (keyed by server + hash), and one lock per key so
+    // duplicates wait for the first upload instead of racing it
+    private val uploaded = ConcurrentHashMap<String, UploadResult>()
+    private val hashLocks = ConcurrentHashMap<String, Mutex>()
+
+    private val _progress = MutableStateFlow<Map<String, UploadProgress>>(emptyMap())
+    val progress: StateFlow<Map<String, UploadProgress>> = _progress
+
+    init {
+        stateDir?.mkdirs()
+    }
+
+    fun start(job: UploadJob) {
+        save(job)
+        launch(job)
+    }
+
+    /**
+     * Restart every persisted job that is not already running
+     */
+    fun resumePending() {
+        val files = stateDir?.listFiles { f -> f.name.endsWith(".json") } ?: return
+        files.forEach { file ->
+            val job = UploadJob.fromJson(file.readText())
+            if (job == null) {
+                file.delete()
+            } else {
+                launch(job)
+            }
+        }
+    }
+
+    private fun launch(job: UploadJob) {
+        if (!running.add(job.messageId)) return
+        scope.launch {
+            try {
+                run(job)
+            } finally {
+                running.remove(job.messageId)
+            }
+        }
+    }
+
+    private suspend fun run(job: UploadJob) {
+        val source = try {
+            openSource(job)
+        } catch (e: Exception) {
+            Log.e(TAG, "Cannot open ${job.filename}", e)
+            null
+        }
+        if (source == null) {
+            // Nothing to resume from (file deleted, permission revoked)
+            delete(job)
+            setProgress(job, 0, UploadState.Failed)
+            onFailed(job)
+            return
+        }
+
+        source.use {
+            try {
+                val startedAt = System.nanoTime()
+                val result = upload(job, it)
+                delete(job)
+                setProgress(job, job.size, UploadState.Done)
+                Log.d(TAG, "Uploaded ${job.filename} (${job.size} B) in ${(System.nanoTime() - startedAt) / 1_000_000}ms")
+                onComplete(job, result)
+            } catch (e: Exception) {
+                Log.w(TAG, "Upload of ${job.filename} paused, will resume", e)
+                _progress.update { map ->
+                    val current = map[job.messageId] ?: UploadProgress(0, job.size, UploadState.Paused)
+                    map + (job.messageId to current.copy(state = UploadState.Paused))
+                }
+            }
+        }
+    }
+
+    private suspend fun upload(initial: UploadJob, source: ChunkSource): UploadResult {
+        val sha256 = initial.sha256 ?: ContentHash.sha256(source)
+        val job = initial.copy(sha256 = sha256)
+        if (initial.sha256 == null) save(job)
+
+        val base = serverUrl()
+        val key = "$base#$sha256"
+        return hashLocks.computeIfAbsent(key) { Mutex() }.withLock {
+            uploaded[key]?.let { return@withLock it }
+            val result = (if (job.uploadId == null) lookup(base, sha256) else null)
+                ?: uploadContent(base, job, source)
+            result.copy(sha256 = sha256).also { uploaded[key] = it }
+        }
+    }
+
+    private suspend fun uploadContent(base: String, initial: UploadJob, source: ChunkSource): UploadResult {
+        var job = initial
+        var received: Set<Int>? = job.uploadId?.let { retrying { status(base, it) } }
+
+        if (received == null) {
+            val init = retrying { initUpload(base, job) } ?: return legacyUpload(base, job, source)
+            job = job.copy(uploadId = init.first, chunkSize = init.second)
+            save(job)
+            received = init.third
+        }
+        val uploadId = job.uploadId!!
+
+        val missing = ConcurrentLinkedQueue((0 until job.chunkCount).filter { it !in received })
+        val sent = AtomicLong(received.sumOf { job.chunkLength(it).toLong() })
+        setProgress(job, sent.get(), UploadState.Uploading)
+
+        coroutineScope {
+            repeat(parallelism.coerceAtMost(missing.size)) {
+                launch {
+                    val buffer = ByteArray(job.chunkSize)
+                    while (true) {
+                        // Chunk I/O blocks; stop picking up work once a sibling has failed
+                        ensureActive()
+                        val index = missing.poll() ?: break
+                        val length = job.chunkLength(index)
+                        if (source.read(index.toLong() * job.chunkSize, buffer, length) != length) {
+                            throw IOException("Short read at chunk $index of ${job.filename}")
+                        }
+                        putChunk(base, uploadId, index, buffer, length)
+                        setProgress(job, sent.addAndGet(length.toLong()), UploadState.Uploading)
+                    }
+                }
+            }
+        }
+
+        val (code, body) = retrying { request("POST", "$base/upload/$uploadId/complete") }
+        if (code != 200) throw IOException("Complete failed: HTTP $code")
+        return parseResult(body)
+    }
+
+    /**
+     * Stored file with this content, or null if the server does not have it
+     * (or predates content addressing)
+     */
+    private fun lookup(base: String, sha256: String): UploadResult? {
+        val (code, response) = try {
+            request("GET", "$base/files/sha256/$sha256")
+        } catch (e: IOException) {
+            return null
+        }
+        if (code != 200) return null
+        Log.d(TAG, "Server already has $sha256, skipping upload")
+        return parseResult(response)
+    }
+
+    /**
+     * (uploadId, chunkSize, received) or null when the server has no chunked API
+     */
+    private fun initUpload(base: String, job: UploadJob): Triple<String, Int, Set<Int>>? {
+        val body = JSONObject().apply {
+            put("filename", job.filename)
+            put("size", job.size)
+            put("chunk_size", job.chunkSize)
+            job.sha256?.let { put("sha256", it) }
+        }.toString().toByteArray()
+        val (code, response) = request("POST", "$base/upload/init", body, "application/json")
+        if (code == 404 || code == 501) return null
+        if (code != 200) throw IOException("Init failed: HTTP $code")
+        val json = JSONObject(response)
+        return Triple(
+            json.getString("upload_id"),
+            json.optInt("chunk_size", job.chunkSize),
+            receivedOf(json)
+        )
+    }
+
+    /**
+     * Chunks the server already has, or null if it no longer knows the upload
+     */
+    private fun status(base: String, uploadId: String): Set<Int>? {
+        val (code, response) = request("GET", "$base/upload/$uploadId")
+        if (code == 404) return null
+        if (code != 200) throw IOException("Status failed: HTTP $code")
+        return receivedOf(JSONObject(response))
+    }
+
+    private suspend fun putChunk(base: String, uploadId: String, index: Int, buffer: ByteArray, length: Int) {
+        retrying {
+            val (code, _) = request("PUT", "$base/upload/$uploadId/chunk/$index", buffer, "application/octet-stream", length)
+            if (code != 200 && code != 204) throw IOException("Chunk $index failed: HTTP $code")
+        }
+    }
+
+    /**
+     * Run [block] up to [MAX_ATTEMPTS] times with exponential backoff on I/O errors
+     * (dropped links, stale keep-alive connections, 5xx)
+     */
+    private suspend fun <T> retrying(block: () -> T): T {
+        var attempt = 0
+        while (true) {
+            try {
+                return block()
+            } catch (e: IOException) {
+                if (++attempt >= MAX_ATTEMPTS) throw e
+                delay(RETRY_BASE_MS shl (attempt - 1))
+            }
+        }
+    }
+
+    private fun legacyUpload(base: String, job: UploadJob, source: ChunkSource): UploadResult {
+        Log.d(TAG, "Server has no chunked upload, sending ${job.filename} in one request")
+        val conn = URL("$base/upload").openConnection() as HttpURLConnection
+        try {
+            conn.requestMethod = "POST"
+            conn.setRequestProperty("X-Filename", job.filename)
+            job.sha256?.let { conn.setRequestProperty("X-Sha256", it) }
+            conn.setFixedLengthStreamingMode(job.size)
+            conn.doOutput = true
+            conn.outputStream.use { out ->
+                val buffer = ByteArray(64 * 1024)
+                var offset = 0L
+                while (offset < job.size) {
+                    val n = source.read(offset, buffer, minOf(buffer.size.toLong(), job.size - offset).toInt())
+                    if (n <= 0) throw IOException("Short read at $offset of ${job.filename}")
+                    out.write(buffer, 0, n)
+                    offset += n
+                    setProgress(job, offset, UploadState.Uploading)
+                }
+            }
+            if (conn.responseCode != 200) throw IOException("Upload failed: HTTP ${conn.responseCode}")
+            return parseResult(conn.inputStream.bufferedReader().readText())
+        } finally {
+            conn.disconnect()
+        }
+    }
+
+    private fun request(
+        method: String,
+        url: String,
+        body: ByteArray? = null,
+        contentType: String? = null,
+        length: Int = body?.size ?: 0
+    ): Pair<Int, String> {
+        val conn = URL(url).openConnection() as HttpURLConnection
+        try {
+            conn.requestMethod = method
+            conn.connectTimeout = 10_000
+            conn.readTimeout = 30_000
+            if (body != null) {
+                contentType?.let { conn.setRequestProperty("Content-Type", it) }
+                conn.doOutput = true
+                conn.setFixedLengthStreamingMode(length)
+                conn.outputStream.use { it.write(body, 0, length) }
+            }
+            val code = conn.responseCode
+            val stream = if (code < 400) conn.inputStream else conn.errorStream
+            val text = stream?.bufferedReader()?.use { it.readText() } ?: ""
+            return Pair(code, text)
+        } finally {
+            conn.disconnect()
+        }
+    }
+
+    private fun receivedOf(json: JSONObject): Set<Int> {
+        val array: JSONArray = json.optJSONArray("received") ?: return emptySet()
+        return (0 until array.length()).mapTo(HashSet()) { array.getInt(it) }
+    }
+
+    private fun parseResult(body: String): UploadResult {
+        val json = JSONObject(body)
+        return UploadResult(
+            fileId = json.getString("file_id"),
+            filename = json.getString("filename"),
+            downloadUrl = json.getString("download_url")
+        )
+    }
+
+    private fun setProgress(job: UploadJob, sent: Long, state: UploadState) {
+        _progress.update { it + (job.messageId to UploadProgress(sent, job.size, state)) }
+    }
+
+    private fun fileFor(job: UploadJob): File? =
+        stateDir?.let { File(it, URLEncoder.encode(job.messageId, "UTF-8") + ".json") }
+
+    private fun save(job: UploadJob) {
+        val file = fileFor(job) ?: return
+        try {
+            val tmp = File(file.parentFile, file.name + ".tmp")
+            tmp.writeText(job.toJson())
+            if (!tmp.renameTo(file)) Log.e(TAG, "Could not persist ${file.name}")
+        } catch (e: Exception) {
+            Log.e(TAG, "Could not persist upload ${job.messageId}", e)
+        }
+    }
+
+    private fun delete(job: UploadJob) {
+        fileFor(job)?.delete()
+    }
+}
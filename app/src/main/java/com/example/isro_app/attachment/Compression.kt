@@ -0,0 +1,40 @@
+package com.example.isro_app.attachment
+
+import java.io.BufferedOutputStream
+import java.io.File
+import java.io.InputStream
+import java.util.zip.GZIPOutputStream
+
+/**
+ * Streaming gzip for attachments that compress well (text, logs, CSV, KML/GPX, JSON).
+ * Media and archives are already compressed and are left alone.
+ */
+object Compression {
+
+    const val GZIP = "gzip"
+
+    private const val BUFFER_SIZE = 64 * 1024
+
+    private val TEXT_EXTENSIONS = setOf(
+        "txt", "log", "csv", "tsv", "json", "geojson", "xml", "kml", "gpx", "html", "htm", "svg", "md", "nmea"
+    )
+
+    fun isCompressible(mimeType: String?, filename: String): Boolean {
+        val mime = mimeType?.lowercase()
+        if (mime != null) {
+            if (mime.startsWith("text/")) return true
+            if (mime.endsWith("json") || mime.endsWith("xml")) return true
+        }
+        return filename.substringAfterLast('.', "").lowercase() in TEXT_EXTENSIONS
+    }
+
+    /**
+     * Gzip [input] into [out] with constant memory; returns the compressed size
+     */
+    fun gzip(input: InputStream, out: File): Long {
+        GZIPOutputStream(BufferedOutputStream(out.outputStream(), BUFFER_SIZE), BUFFER_SIZE).use { gz ->
+            input.copyTo(gz, BUFFER_SIZE)
+        }
+        return out.length()
+    }
+}
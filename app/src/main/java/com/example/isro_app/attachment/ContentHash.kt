@@ -0,0 +1,40 @@
+package com.example.isro_app.attachment
+
+import java.security.MessageDigest
+
+/**
+ * SHA-256 content addresses for attachments, as lowercase hex
+ */
+object ContentHash {
+
+    private const val BLOCK_SIZE = 64 * 1024
+
+    fun newDigest(): MessageDigest = MessageDigest.getInstance("SHA-256")
+
+    /**
+     * Hash [source] in one sequential pass of [BLOCK_SIZE] reads
+     */
+    fun sha256(source: ChunkSource): String {
+        val digest = newDigest()
+        val buffer = ByteArray(BLOCK_SIZE)
+        var offset = 0L
+        while (offset < source.size) {
+            val n = source.read(offset, buffer, minOf(BLOCK_SIZE.toLong(), source.size - offset).toInt())
+            if (n <= 0) break
+            digest.update(buffer, 0, n)
+            offset += n
+        }
+        return hex(digest.digest())
+    }
+
+    fun hex(bytes: ByteArray): String {
+        val out = StringBuilder(bytes.size * 2)
+        bytes.forEach { out.append(HEX[(it.toInt() shr 4) and 0xF]).append(HEX[it.toInt() and 0xF]) }
+        return out.toString()
+    }
+
+    fun isValid(hash: String): Boolean =
+        hash.length == 64 && hash.all { it in '0'..'9' || it in 'a'..'f' }
+
+    private val HEX = "0123456789abcdef".toCharArray()
+}
@@ -0,0 +1,117 @@
+package com.example.isro_app.attachment
+
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import android.util.Log
+import android.util.LruCache
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.withContext
+import java.io.File
+import java.net.URLEncoder
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Two-tier cache of attachment thumbnails.
+ *
+ * Memory: an [LruCache] of decoded bitmaps bounded by [Bitmap.getByteCount], so a
+ * chat with hundreds of images holds at most [memoryBytes] of pixels.
+ * Disk: the encoded JPEGs under [dir], trimmed oldest-first to [diskBytes].
+ *
+ * [memory] is cheap enough to call during composition; [load] decodes off the main
+ * thread on a small pool so fast scrolling cannot queue unbounded decodes.
+ */
+class ThumbnailCache(
+    private val dir: File,
+    memoryBytes: Int = defaultMemoryBytes(),
+    private val diskBytes: Long = 32L * 1024 * 1024
+) {
+
+    companion object {
+        private const val TAG = "THUMB-CACHE"
+        // Trim the disk tier every this many writes
+        private const val TRIM_EVERY = 32
+
+        // 1/16 of the heap, the usual share for an image cache
+        fun defaultMemoryBytes(): Int =
+            (Runtime.getRuntime().maxMemory() / 16).coerceAtMost(Int.MAX_VALUE.toLong()).toInt()
+    }
+
+    private val memory = object : LruCache<String, Bitmap>(memoryBytes) {
+        override fun sizeOf(key: String, value: Bitmap): Int = value.byteCount
+    }
+
+    @OptIn(ExperimentalCoroutinesApi::class)
+    private val decodeDispatcher = Dispatchers.IO.limitedParallelism(2)
+
+    private val writes = AtomicInteger()
+
+    init {
+        dir.mkdirs()
+    }
+
+    /**
+     * Decoded thumbnail if it is in memory; never touches disk
+     */
+    fun memory(key: String): Bitmap? = memory.get(key)
+
+    /**
+     * Encoded JPEG from the disk tier, e.g. to forward it in a message
+     */
+    fun readEncoded(key: String): ByteArray? =
+        fileFor(key).takeIf { it.exists() }?.readBytes()
+
+    /**
+     * Store an encoded thumbnail on disk (decoded lazily on first [load])
+     */
+    fun putEncoded(key: String, jpeg: ByteArray) {
+        try {
+            val file = fileFor(key)
+            val tmp = File(dir, file.name + ".tmp")
+            tmp.writeBytes(jpeg)
+            if (!tmp.renameTo(file)) tmp.delete()
+        } catch (e: Exception) {
+            Log.e(TAG, "Could not store thumbnail $key", e)
+        }
+        if (writes.incrementAndGet() % TRIM_EVERY == 0) trimDisk()
+    }
+
+    /**
+     * Memory, then disk, then [create] (which returns encoded JPEG bytes).
+     */
+    suspend fun load(key: String, create: (() -> ByteArray?)? = null): Bitmap? {
+        memory.get(key)?.let { return it }
+        return withContext(decodeDispatcher) {
+            memory.get(key)?.let { return@withContext it }
+            val file = fileFor(key)
+            if (!file.exists()) {
+                val jpeg = try {
+                    create?.invoke()
+                } catch (e: Exception) {
+                    Log.e(TAG, "Could not create thumbnail $key", e)
+                    null
+                } ?: return@withContext null
+                putEncoded(key, jpeg)
+            }
+            val options = BitmapFactory.Options().apply { inPreferredConfig = Bitmap.Config.RGB_565 }
+            val bitmap = BitmapFactory.decodeFile(file.path, options) ?: return@withContext null
+            // Touch so the disk tier trims least recently shown first
+            file.setLastModified(System.currentTimeMillis())
+            memory.put(key, bitmap)
+            bitmap
+        }
+    }
+
+    private fun fileFor(key: String) = File(dir, URLEncoder.encode(key, "UTF-8") + ".jpg")
+
+    private fun trimDisk() {
+        val files = dir.listFiles { f -> f.name.endsWith(".jpg") } ?: return
+        var total = files.sumOf { it.length() }
+        if (total <= diskBytes) return
+        files.sortedBy { it.lastModified() }.forEach { file ->
+            if (total <= diskBytes) return
+            total -= file.length()
+            file.delete()
+        }
+    }
+}
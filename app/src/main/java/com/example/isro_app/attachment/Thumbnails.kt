@@ -0,0 +1,77 @@
+package com.example.isro_app.attachment
+
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import android.graphics.Matrix
+import android.media.ExifInterface
+import java.io.ByteArrayOutputStream
+import java.io.InputStream
+
+/**
+ * Small JPEG previews of image attachments, sent inline in the attachment message
+ * so the receiver can show the picture without downloading the file.
+ */
+object Thumbnails {
+
+    // Longest side of a thumbnail; about 5-10 KB as JPEG
+    const val MAX_SIDE = 160
+    // Larger thumbnails are not sent (they travel in a QoS 1 MQTT message)
+    const val MAX_BYTES = 16 * 1024
+
+    private const val QUALITY = 60
+
+    private val IMAGE_TYPES = setOf("image/jpeg", "image/png", "image/webp", "image/heic", "image/heif")
+
+    fun isImage(mimeType: String?): Boolean = mimeType?.lowercase() in IMAGE_TYPES
+
+    /**
+     * JPEG thumbnail of the image behind [open], or null if it cannot be decoded.
+     * Decodes with inSampleSize so memory stays proportional to the thumbnail, and
+     * applies the EXIF orientation so camera photos are not sent sideways.
+     */
+    fun encode(open: () -> InputStream): ByteArray? {
+        val bounds = BitmapFactory.Options().apply { inJustDecodeBounds = true }
+        open().use { BitmapFactory.decodeStream(it, null, bounds) }
+        val longest = maxOf(bounds.outWidth, bounds.outHeight)
+        if (longest <= 0) return null
+
+        var sample = 1
+        while (longest / (sample * 2) >= MAX_SIDE) sample *= 2
+        val options = BitmapFactory.Options().apply {
+            inSampleSize = sample
+            inPreferredConfig = Bitmap.Config.RGB_565
+        }
+        val decoded = open().use { BitmapFactory.decodeStream(it, null, options) } ?: return null
+
+        val transform = Matrix()
+        val scale = MAX_SIDE.toFloat() / maxOf(decoded.width, decoded.height)
+        if (scale < 1f) transform.postScale(scale, scale)
+        transform.postRotate(exifRotation(open).toFloat())
+        val thumb = if (!transform.isIdentity) {
+            Bitmap.createBitmap(decoded, 0, 0, decoded.width, decoded.height, transform, true)
+        } else {
+            decoded
+        }
+        val out = ByteArrayOutputStream()
+        thumb.compress(Bitmap.CompressFormat.JPEG, QUALITY, out)
+        if (thumb !== decoded) thumb.recycle()
+        decoded.recycle()
+        return out.toByteArray().takeIf { it.size <= MAX_BYTES }
+    }
+
+    /**
+     * Clockwise degrees the image behind [open] must be turned to display upright,
+     * from its EXIF orientation; 0 when there is none
+     */
+    internal fun exifRotation(open: () -> InputStream): Int =
+        try {
+            when (open().use { ExifInterface(it) }.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL)) {
+                ExifInterface.ORIENTATION_ROTATE_90 -> 90
+                ExifInterface.ORIENTATION_ROTATE_180 -> 180
+                ExifInterface.ORIENTATION_ROTATE_270 -> 270
+                else -> 0
+            }
+        } catch (e: Exception) {
+            0
+        }
+}
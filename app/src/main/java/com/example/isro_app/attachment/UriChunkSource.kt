@@ -0,0 +1,64 @@
+package com.example.isro_app.attachment
+
+import android.content.ContentResolver
+import android.net.Uri
+import java.io.File
+import java.io.FileInputStream
+import java.io.IOException
+import java.io.InputStream
+import java.security.DigestInputStream
+
+/**
+ * Opens content and file URIs as [ChunkSource]s.
+ *
+ * Most providers hand out a regular file descriptor, which is read in place.
+ * Streams that cannot seek (pipes, some cloud providers) are copied once into
+ * [stagingDir] so chunks can be read at any offset and a resume does not depend on
+ * the provider still being readable.
+ */
+object UriChunkSource {
+
+    /**
+     * Source string for an [UploadJob] plus the exact byte size, and the
+     * SHA-256 when it was computed during staging
+     */
+    data class Prepared(val source: String, val size: Long, val sha256: String? = null)
+
+    fun prepare(resolver: ContentResolver, uri: Uri, stagingDir: File, name: String): Prepared {
+        if (uri.scheme == ContentResolver.SCHEME_FILE) {
+            val file = File(uri.path ?: throw IOException("Bad file uri $uri"))
+            return Prepared(uri.toString(), file.length())
+        }
+
+        val statSize = resolver.openFileDescriptor(uri, "r")?.use { it.statSize } ?: -1L
+        if (statSize >= 0) return Prepared(uri.toString(), statSize)
+
+        stagingDir.mkdirs()
+        val staged = File(stagingDir, name)
+        val digest = ContentHash.newDigest()
+        resolver.openInputStream(uri)?.use { input ->
+            staged.outputStream().use { DigestInputStream(input, digest).copyTo(it) }
+        } ?: throw IOException("Cannot read $uri")
+        return Prepared(Uri.fromFile(staged).toString(), staged.length(), ContentHash.hex(digest.digest()))
+    }
+
+    fun openStream(resolver: ContentResolver, source: String): InputStream {
+        val uri = Uri.parse(source)
+        if (uri.scheme == ContentResolver.SCHEME_FILE) return File(uri.path ?: throw IOException("Bad file uri $uri")).inputStream()
+        return resolver.openInputStream(uri) ?: throw IOException("Cannot read $uri")
+    }
+
+    fun open(resolver: ContentResolver?, source: String): ChunkSource? {
+        val uri = Uri.parse(source)
+        if (uri.scheme == ContentResolver.SCHEME_FILE) {
+            val file = File(uri.path ?: return null)
+            return if (file.exists()) ChannelChunkSource(file) else null
+        }
+        val pfd = resolver?.openFileDescriptor(uri, "r") ?: return null
+        val stream = FileInputStream(pfd.fileDescriptor)
+        return ChannelChunkSource(stream.channel) {
+            stream.close()
+            pfd.close()
+        }
+    }
+}
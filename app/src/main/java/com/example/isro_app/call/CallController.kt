@@ -47,6 +47,13 @@ class CallController(
         // Note: IAX call will start when we receive CALL_ACCEPT
     }
 
+    /**
+     * Incoming call dialog is showing (used for request → ring latency)
+     */
+    fun onRinging(peerId: String) {
+        mqtt.onCallRinging(peerId)
+    }
+
     /**
      * Accept incoming call
      * Flow: MQTT CALL_ACCEPT → Start IAX call → Audio starts
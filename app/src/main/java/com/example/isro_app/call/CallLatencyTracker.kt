@@ -0,0 +1,91 @@
+package com.example.isro_app.call
+
+import android.util.Log
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * End-to-end timing of one answered call, all values in milliseconds.
+ *
+ * requestToAccept is measured on the caller's clock. requestToRing and ringToAccept
+ * are measured on the callee's clock and reported back in the accept signal, so no
+ * clock sync is needed. network is what remains: both signalling hops.
+ */
+data class CallLatency(
+    val callId: String,
+    val peerId: String,
+    val requestToAccept: Long,
+    val requestToRing: Long,
+    val ringToAccept: Long,
+    val network: Long
+)
+
+/**
+ * Tracks request → ring → accept timings for call signalling
+ */
+class CallLatencyTracker {
+
+    private class IncomingTiming(val receivedAt: Long) {
+        @Volatile
+        var ringAt: Long = 0
+    }
+
+    // callId -> monotonic send time (caller side)
+    private val outgoing = ConcurrentHashMap<String, Long>()
+
+    // callId -> receive/ring times (callee side)
+    private val incoming = ConcurrentHashMap<String, IncomingTiming>()
+
+    private val _last = MutableStateFlow<CallLatency?>(null)
+    val last: StateFlow<CallLatency?> = _last
+
+    private fun now(): Long = System.nanoTime() / 1_000_000
+
+    fun onRequestSent(callId: String) {
+        outgoing[callId] = now()
+    }
+
+    fun onRequestReceived(callId: String) {
+        incoming[callId] = IncomingTiming(now())
+    }
+
+    /**
+     * Incoming call is visible to the user
+     */
+    fun onRing(callId: String) {
+        incoming[callId]?.let { if (it.ringAt == 0L) it.ringAt = now() }
+    }
+
+    /**
+     * Callee-side (ringMs, answerMs) to report in the accept signal
+     */
+    fun takeAcceptTimings(callId: String): Pair<Long, Long>? {
+        val timing = incoming.remove(callId) ?: return null
+        val ringAt = if (timing.ringAt == 0L) timing.receivedAt else timing.ringAt
+        return Pair(ringAt - timing.receivedAt, now() - ringAt)
+    }
+
+    fun onAcceptReceived(callId: String, peerId: String, ringMs: Long, answerMs: Long) {
+        val sentAt = outgoing.remove(callId) ?: return
+        val total = now() - sentAt
+        val latency = CallLatency(
+            callId = callId,
+            peerId = peerId,
+            requestToAccept = total,
+            requestToRing = ringMs,
+            ringToAccept = answerMs,
+            network = if (ringMs >= 0 && answerMs >= 0) total - ringMs - answerMs else -1
+        )
+        _last.value = latency
+        Log.d(
+            "CALL-LATENCY",
+            "call=$callId peer=$peerId total=${total}ms ring=${ringMs}ms answer=${answerMs}ms network=${latency.network}ms"
+        )
+    }
+
+    fun forget(callId: String) {
+        outgoing.remove(callId)
+        incoming.remove(callId)
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.isro_app.geofence
+
+import org.json.JSONArray
+import org.json.JSONObject
+
+/**
+ * A zone devices can enter and leave: a simple polygon of latitude/longitude
+ * vertices, not closed (the last vertex joins the first). Must not cross the
+ * antimeridian.
+ */
+class Geofence(
+    val id: String,
+    val name: String,
+    val latitudes: DoubleArray,
+    val longitudes: DoubleArray
+) {
+    init {
+        require(latitudes.size == longitudes.size && latitudes.size >= 3) { "A fence needs at least 3 vertices" }
+    }
+
+    val south = latitudes.minOrNull()!!
+    val west = longitudes.minOrNull()!!
+    val north = latitudes.maxOrNull()!!
+    val east = longitudes.maxOrNull()!!
+
+    /**
+     * Whether the point is inside (even-odd ray casting; points exactly on an edge
+     * may go either way)
+     */
+    fun contains(latitude: Double, longitude: Double): Boolean {
+        if (latitude < south || latitude > north || longitude < west || longitude > east) return false
+        var inside = false
+        var j = latitudes.size - 1
+        for (i in latitudes.indices) {
+            val latI = latitudes[i]
+            val latJ = latitudes[j]
+            if ((latI > latitude) != (latJ > latitude)) {
+                val crossLon = longitudes[i] + (latitude - latI) / (latJ - latI) * (longitudes[j] - longitudes[i])
+                if (longitude < crossLon) inside = !inside
+            }
+            j = i
+        }
+        return inside
+    }
+
+    override fun toString() = "Geofence($id, $name, ${latitudes.size} vertices)"
+
+    companion object {
+        /**
+         * Fence from a retained geofence message: {"name": "...", "points": [[lat, lon], ...]}.
+         * Null if the payload is not a valid fence.
+         */
+        fun fromJson(id: String, payload: String): Geofence? =
+            try {
+                val json = JSONObject(payload)
+                val points: JSONArray = json.getJSONArray("points")
+                Geofence(
+                    id = id,
+                    name = json.optString("name", id).ifBlank { id },
+                    latitudes = DoubleArray(points.length()) { points.getJSONArray(it).getDouble(0) },
+                    longitudes = DoubleArray(points.length()) { points.getJSONArray(it).getDouble(1) }
+                )
+            } catch (e: Exception) {
+                null
+            }
+    }
+}
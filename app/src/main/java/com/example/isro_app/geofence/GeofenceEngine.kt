@@ -0,0 +1,103 @@
+package com.example.isro_app.geofence
+
+import com.example.isro_app.location.RTree
+
+enum class GeofenceTransition {
+    Enter,
+    Exit
+}
+
+/**
+ * A device crossed a fence boundary
+ */
+data class GeofenceEvent(
+    val deviceId: String,
+    val fenceId: String,
+    val fenceName: String,
+    val transition: GeofenceTransition,
+    val latitude: Double,
+    val longitude: Double,
+    val timeMs: Long
+)
+
+/**
+ * Tracks which fences each device is inside and reports crossings as fixes arrive.
+ *
+ * Fences are indexed by bounding box in an [RTree], so a fix is only tested against
+ * the polygons whose box contains it: a few lookups and point-in-polygon tests per
+ * fix however many fences exist, instead of one test per fence. A device's first
+ * fix only sets its state; a device already inside a zone when first seen did not
+ * enter it. Removing a fence produces no exits. A replaced fence keeps its id, so
+ * devices are checked against the new shape at their next fix. Thread-safe.
+ */
+class GeofenceEngine {
+
+    private val index = RTree<Geofence>()
+    private val fences = HashMap<String, Geofence>()
+    // Device id -> ids of the fences it is inside
+    private val inside = HashMap<String, Set<String>>()
+
+    val fenceCount: Int
+        @Synchronized get() = fences.size
+
+    /** Add [fence], replacing one with the same id */
+    @Synchronized
+    fun put(fence: Geofence) {
+        fences.put(fence.id, fence)?.let { index.remove(it.south, it.west, it.north, it.east, it) }
+        index.insert(fence.south, fence.west, fence.north, fence.east, fence)
+    }
+
+    @Synchronized
+    fun remove(fenceId: String) {
+        val fence = fences.remove(fenceId) ?: return
+        index.remove(fence.south, fence.west, fence.north, fence.east, fence)
+    }
+
+    @Synchronized
+    fun fence(fenceId: String): Geofence? = fences[fenceId]
+
+    @Synchronized
+    fun fences(): List<Geofence> = fences.values.toList()
+
+    /**
+     * Record a fix and return the fences [deviceId] entered and left since its last one
+     */
+    @Synchronized
+    fun update(deviceId: String, latitude: Double, longitude: Double, timeMs: Long): List<GeofenceEvent> {
+        val now = index.search(latitude, longitude)
+            .filter { it.contains(latitude, longitude) }
+            .mapTo(HashSet()) { it.id }
+        val before = inside.put(deviceId, now) ?: return emptyList()
+        if (before == now) return emptyList()
+
+        val events = ArrayList<GeofenceEvent>()
+        for (id in now) {
+            if (id !in before) events.add(event(deviceId, fences.getValue(id), GeofenceTransition.Enter, latitude, longitude, timeMs))
+        }
+        for (id in before) {
+            // A fence removed meanwhile was not left
+            val fence = fences[id] ?: continue
+            if (id !in now) events.add(event(deviceId, fence, GeofenceTransition.Exit, latitude, longitude, timeMs))
+        }
+        return events
+    }
+
+    /** Ids of the fences [deviceId] was inside at its last fix */
+    @Synchronized
+    fun fencesOf(deviceId: String): Set<String> = inside[deviceId].orEmpty().filterTo(HashSet()) { it in fences }
+
+    /** Forget a device, e.g. one that changed its id */
+    @Synchronized
+    fun removeDevice(deviceId: String) {
+        inside.remove(deviceId)
+    }
+
+    private fun event(
+        deviceId: String,
+        fence: Geofence,
+        transition: GeofenceTransition,
+        latitude: Double,
+        longitude: Double,
+        timeMs: Long
+    ) = GeofenceEvent(deviceId, fence.id, fence.name, transition, latitude, longitude, timeMs)
+}
@@ -0,0 +1,115 @@
+package com.example.isro_app.location
+
+import kotlin.math.floor
+
+/**
+ * Minimal geohash encoder used to shard GPS topics by region.
+ *
+ * Cells at a given precision form a regular lat/lon grid, so the cells
+ * covering a bounding box can be enumerated without decoding.
+ */
+object Geohash {
+    private const val BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz"
+
+    /**
+     * Encode a coordinate to a geohash of [precision] characters
+     */
+    fun encode(lat: Double, lon: Double, precision: Int): String {
+        var latMin = -90.0
+        var latMax = 90.0
+        var lonMin = -180.0
+        var lonMax = 180.0
+
+        val hash = StringBuilder(precision)
+        var isLon = true
+        var bit = 0
+        var ch = 0
+
+        while (hash.length < precision) {
+            if (isLon) {
+                val mid = (lonMin + lonMax) / 2
+                if (lon >= mid) {
+                    ch = (ch shl 1) or 1
+                    lonMin = mid
+                } else {
+                    ch = ch shl 1
+                    lonMax = mid
+                }
+            } else {
+                val mid = (latMin + latMax) / 2
+                if (lat >= mid) {
+                    ch = (ch shl 1) or 1
+                    latMin = mid
+                } else {
+                    ch = ch shl 1
+                    latMax = mid
+                }
+            }
+            isLon = !isLon
+
+            if (++bit == 5) {
+                hash.append(BASE32[ch])
+                bit = 0
+                ch = 0
+            }
+        }
+        return hash.toString()
+    }
+
+    /**
+     * Height in degrees of a cell at [precision]
+     */
+    fun cellHeight(precision: Int): Double {
+        val latBits = (precision * 5) / 2
+        return 180.0 / (1L shl latBits)
+    }
+
+    /**
+     * Width in degrees of a cell at [precision]
+     */
+    fun cellWidth(precision: Int): Double {
+        val lonBits = (precision * 5 + 1) / 2
+        return 360.0 / (1L shl lonBits)
+    }
+
+    /**
+     * All cells at [precision] intersecting the bounding box.
+     * Returns null if more than [maxCells] would be needed or the box crosses the antimeridian.
+     */
+    fun cellsCovering(
+        south: Double,
+        west: Double,
+        north: Double,
+        east: Double,
+        precision: Int,
+        maxCells: Int
+    ): Set<String>? {
+        if (west > east || south > north) return null
+
+        val height = cellHeight(precision)
+        val width = cellWidth(precision)
+
+        val latStart = cellIndex(south.coerceIn(-90.0, 90.0), -90.0, height)
+        val latEnd = cellIndex(north.coerceIn(-90.0, 90.0), -90.0, height)
+        val lonStart = cellIndex(west.coerceIn(-180.0, 180.0), -180.0, width)
+        val lonEnd = cellIndex(east.coerceIn(-180.0, 180.0), -180.0, width)
+
+        val count = (latEnd - latStart + 1).toLong() * (lonEnd - lonStart + 1)
+        if (count > maxCells) return null
+
+        val cells = HashSet<String>(count.toInt() * 2)
+        for (i in latStart..latEnd) {
+            val lat = -90.0 + (i + 0.5) * height
+            for (j in lonStart..lonEnd) {
+                val lon = -180.0 + (j + 0.5) * width
+                cells.add(encode(lat, lon, precision))
+            }
+        }
+        return cells
+    }
+
+    private fun cellIndex(value: Double, origin: Double, size: Double): Int {
+        val maxIndex = (((-origin) * 2) / size).toInt() - 1
+        return floor((value - origin) / size).toInt().coerceIn(0, maxIndex)
+    }
+}
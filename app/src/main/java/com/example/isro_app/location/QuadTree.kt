@@ -0,0 +1,267 @@
+package com.example.isro_app.location
+
+import java.util.PriorityQueue
+import kotlin.math.abs
+import kotlin.math.asin
+import kotlin.math.cos
+import kotlin.math.min
+import kotlin.math.sin
+import kotlin.math.sqrt
+
+/**
+ * A position stored in a [QuadTree]
+ */
+data class IndexedPoint(
+    val id: String,
+    val latitude: Double,
+    val longitude: Double
+)
+
+/**
+ * Point quadtree over latitude/longitude, keyed by id and updated in place as
+ * positions change.
+ *
+ * A leaf holds up to [leafCapacity] points and splits into four quadrants when it
+ * overflows; a subtree that shrinks to half a leaf is merged back, so depth follows
+ * the current data rather than its history. Bounding-box, radius and
+ * k-nearest queries only visit nodes that can hold an answer: about O(log n + k)
+ * for spread-out fleets, instead of a scan over every device.
+ *
+ * Distances are great-circle metres. The nearest-neighbour bound clamps the query
+ * to each quadrant's box, which is exact for the regional extents this app covers.
+ * All methods are thread-safe.
+ */
+class QuadTree(private val leafCapacity: Int = 16) {
+
+    companion object {
+        const val EARTH_RADIUS_M = 6_371_000.0
+        // Stop splitting when many devices report the same coordinate
+        private const val MAX_DEPTH = 24
+
+        fun distanceMeters(lat1: Double, lon1: Double, lat2: Double, lon2: Double): Double {
+            val dLat = Math.toRadians(lat2 - lat1)
+            val dLon = Math.toRadians(lon2 - lon1)
+            val a = sin(dLat / 2) * sin(dLat / 2) +
+                cos(Math.toRadians(lat1)) * cos(Math.toRadians(lat2)) * sin(dLon / 2) * sin(dLon / 2)
+            return 2 * EARTH_RADIUS_M * asin(sqrt(min(1.0, a)))
+        }
+    }
+
+    private class Node(
+        val south: Double,
+        val west: Double,
+        val north: Double,
+        val east: Double,
+        val depth: Int
+    ) {
+        val midLat = (south + north) / 2
+        val midLon = (west + east) / 2
+        var points: ArrayList<IndexedPoint>? = ArrayList()
+        var children: Array<Node>? = null
+        // Points in this subtree
+        var count = 0
+
+        fun child(lat: Double, lon: Double): Node =
+            children!![(if (lat >= midLat) 2 else 0) + (if (lon >= midLon) 1 else 0)]
+
+        fun intersects(s: Double, w: Double, n: Double, e: Double) =
+            s <= north && n >= south && w <= east && e >= west
+
+        fun inside(s: Double, w: Double, n: Double, e: Double) =
+            south >= s && north <= n && west >= w && east <= e
+    }
+
+    private var root = newRoot()
+    private val byId = HashMap<String, IndexedPoint>()
+
+    private fun newRoot() = Node(-90.0, -180.0, 90.0, 180.0, 0)
+
+    val size: Int
+        @Synchronized get() = byId.size
+
+    @Synchronized
+    operator fun get(id: String): IndexedPoint? = byId[id]
+
+    /**
+     * Insert [id] or move it to a new position
+     */
+    @Synchronized
+    fun put(id: String, latitude: Double, longitude: Double) {
+        if (latitude.isNaN() || longitude.isNaN()) return
+        val lat = latitude.coerceIn(-90.0, 90.0)
+        val lon = longitude.coerceIn(-180.0, 180.0)
+        val old = byId[id]
+        if (old != null) {
+            if (old.latitude == lat && old.longitude == lon) return
+            remove(root, old)
+        }
+        val point = IndexedPoint(id, lat, lon)
+        byId[id] = point
+        insert(root, point)
+    }
+
+    @Synchronized
+    fun remove(id: String): Boolean {
+        val point = byId.remove(id) ?: return false
+        remove(root, point)
+        return true
+    }
+
+    @Synchronized
+    fun clear() {
+        byId.clear()
+        root = newRoot()
+    }
+
+    /**
+     * Points inside the box, edges included. A box with [west] > [east] crosses the antimeridian.
+     */
+    @Synchronized
+    fun within(south: Double, west: Double, north: Double, east: Double): List<IndexedPoint> {
+        val out = ArrayList<IndexedPoint>()
+        if (west > east) {
+            collect(root, south, west, north, 180.0, out)
+            collect(root, south, -180.0, north, east, out)
+        } else {
+            collect(root, south, west, north, east, out)
+        }
+        return out
+    }
+
+    /**
+     * Points within [radiusMeters] of the given position, nearest first
+     */
+    @Synchronized
+    fun withinRadius(latitude: Double, longitude: Double, radiusMeters: Double): List<IndexedPoint> {
+        val dLat = Math.toDegrees(radiusMeters / EARTH_RADIUS_M)
+        val south = (latitude - dLat).coerceAtLeast(-90.0)
+        val north = (latitude + dLat).coerceAtMost(90.0)
+        // The box's widest latitude decides how many degrees of longitude the radius spans
+        val widest = maxOf(abs(south), abs(north))
+        val candidates = if (widest >= 89.9 || dLat / cos(Math.toRadians(widest)) >= 180.0) {
+            within(south, -180.0, north, 180.0)
+        } else {
+            val dLon = dLat / cos(Math.toRadians(widest))
+            within(south, wrap(longitude - dLon), north, wrap(longitude + dLon))
+        }
+        return candidates
+            .map { it to distanceMeters(latitude, longitude, it.latitude, it.longitude) }
+            .filter { it.second <= radiusMeters }
+            .sortedBy { it.second }
+            .map { it.first }
+    }
+
+    /**
+     * The [k] points nearest to the given position, nearest first (best-first search)
+     */
+    @Synchronized
+    fun nearest(latitude: Double, longitude: Double, k: Int): List<IndexedPoint> {
+        if (k <= 0 || root.count == 0) return emptyList()
+        val out = ArrayList<IndexedPoint>(min(k, root.count))
+        // Entries are nodes (by lower-bound distance) or points (by exact distance)
+        val queue = PriorityQueue<Pair<Double, Any>>(64, compareBy { it.first })
+        queue.add(0.0 to root)
+        while (queue.isNotEmpty() && out.size < k) {
+            val (_, item) = queue.poll()!!
+            if (item is IndexedPoint) {
+                out.add(item)
+                continue
+            }
+            val node = item as Node
+            node.points?.forEach { p ->
+                queue.add(distanceMeters(latitude, longitude, p.latitude, p.longitude) to p)
+            }
+            node.children?.forEach { child ->
+                if (child.count > 0) queue.add(lowerBound(child, latitude, longitude) to child)
+            }
+        }
+        return out
+    }
+
+    private fun insert(node: Node, point: IndexedPoint) {
+        node.count++
+        if (node.children != null) {
+            insert(node.child(point.latitude, point.longitude), point)
+            return
+        }
+        val points = node.points!!
+        points.add(point)
+        if (points.size > leafCapacity && node.depth < MAX_DEPTH) split(node)
+    }
+
+    private fun split(node: Node) {
+        val d = node.depth + 1
+        node.children = arrayOf(
+            Node(node.south, node.west, node.midLat, node.midLon, d),
+            Node(node.south, node.midLon, node.midLat, node.east, d),
+            Node(node.midLat, node.west, node.north, node.midLon, d),
+            Node(node.midLat, node.midLon, node.north, node.east, d)
+        )
+        val points = node.points!!
+        node.points = null
+        node.count = 0
+        points.forEach { insert(node, it) }
+    }
+
+    private fun remove(node: Node, point: IndexedPoint): Boolean {
+        val removed = if (node.children == null) {
+            node.points!!.remove(point)
+        } else {
+            remove(node.child(point.latitude, point.longitude), point)
+        }
+        if (!removed) return false
+        node.count--
+        // Merge well below the split size so a device hovering at the limit does not
+        // split and merge on every update
+        if (node.children != null && node.count <= leafCapacity / 2) {
+            val merged = ArrayList<IndexedPoint>(node.count)
+            collectAll(node, merged)
+            node.children = null
+            node.points = merged
+        }
+        return true
+    }
+
+    private fun collect(node: Node, s: Double, w: Double, n: Double, e: Double, out: MutableList<IndexedPoint>) {
+        if (node.count == 0 || !node.intersects(s, w, n, e)) return
+        if (node.inside(s, w, n, e)) {
+            collectAll(node, out)
+            return
+        }
+        node.points?.forEach { p ->
+            if (p.latitude in s..n && p.longitude in w..e) out.add(p)
+        }
+        node.children?.forEach { collect(it, s, w, n, e, out) }
+    }
+
+    private fun collectAll(node: Node, out: MutableList<IndexedPoint>) {
+        node.points?.let { out.addAll(it) }
+        node.children?.forEach { collectAll(it, out) }
+    }
+
+    /**
+     * Distance to the nearest point of [node]'s box, taking the short way round in longitude
+     */
+    private fun lowerBound(node: Node, lat: Double, lon: Double): Double {
+        val nearLat = lat.coerceIn(node.south, node.north)
+        val nearLon = if (lon in node.west..node.east) {
+            lon
+        } else if (wrappedGap(lon, node.west) <= wrappedGap(lon, node.east)) {
+            node.west
+        } else {
+            node.east
+        }
+        return distanceMeters(lat, lon, nearLat, nearLon)
+    }
+
+    private fun wrappedGap(a: Double, b: Double): Double {
+        val d = abs(a - b) % 360.0
+        return if (d > 180.0) 360.0 - d else d
+    }
+
+    private fun wrap(lon: Double): Double = when {
+        lon > 180.0 -> lon - 360.0
+        lon < -180.0 -> lon + 360.0
+        else -> lon
+    }
+}
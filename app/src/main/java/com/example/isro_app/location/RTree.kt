@@ -0,0 +1,256 @@
+package com.example.isro_app.location
+
+/**
+ * R-tree over latitude/longitude rectangles, for areas such as geofences (points
+ * go in a [QuadTree]).
+ *
+ * Guttman's dynamic R-tree: an entry goes into the subtree whose box grows least,
+ * and a node with more than [maxEntries] is split quadratically. Removing an entry
+ * dissolves nodes left with fewer than [maxEntries] / 3 and reinserts what they
+ * held, so the tree stays balanced under churn. A point query only descends into
+ * boxes containing the point: about O(log n) plus the rectangles that match.
+ *
+ * Rectangles are [west] <= [east]; nothing handles the antimeridian. All methods
+ * are thread-safe.
+ */
+class RTree<T : Any>(private val maxEntries: Int = 16) {
+
+    private val minEntries = maxOf(2, maxEntries / 3)
+
+    private class Entry<T>(
+        var south: Double,
+        var west: Double,
+        var north: Double,
+        var east: Double,
+        val child: Node<T>?,
+        val value: T?
+    ) {
+        fun contains(lat: Double, lon: Double) = lat in south..north && lon in west..east
+
+        fun covers(other: Entry<T>) =
+            other.south >= south && other.north <= north && other.west >= west && other.east <= east
+
+        fun area() = (north - south) * (east - west)
+
+        fun areaWith(other: Entry<T>) =
+            (maxOf(north, other.north) - minOf(south, other.south)) * (maxOf(east, other.east) - minOf(west, other.west))
+
+        fun include(other: Entry<T>) {
+            south = minOf(south, other.south)
+            west = minOf(west, other.west)
+            north = maxOf(north, other.north)
+            east = maxOf(east, other.east)
+        }
+    }
+
+    private class Node<T>(val leaf: Boolean) {
+        val entries = ArrayList<Entry<T>>()
+
+        fun bounds(): Entry<T> {
+            val first = entries[0]
+            val box = Entry<T>(first.south, first.west, first.north, first.east, this, null)
+            for (i in 1 until entries.size) box.include(entries[i])
+            return box
+        }
+    }
+
+    private var root = Node<T>(leaf = true)
+    private var count = 0
+
+    val size: Int
+        @Synchronized get() = count
+
+    @Synchronized
+    fun insert(south: Double, west: Double, north: Double, east: Double, value: T) {
+        insertEntry(Entry(south, west, north, east, null, value))
+        count++
+    }
+
+    /**
+     * Remove [value], which was inserted with this rectangle; false if it is not there
+     */
+    @Synchronized
+    fun remove(south: Double, west: Double, north: Double, east: Double, value: T): Boolean {
+        val orphans = ArrayList<Entry<T>>()
+        if (!remove(root, Entry(south, west, north, east, null, value), orphans)) return false
+        count--
+        if (!root.leaf && root.entries.size == 1) root = root.entries[0].child!!
+        if (root.entries.isEmpty()) root = Node(leaf = true)
+        orphans.forEach { insertEntry(it) }
+        return true
+    }
+
+    /**
+     * Values whose rectangle contains the point
+     */
+    @Synchronized
+    fun search(lat: Double, lon: Double): List<T> {
+        val found = ArrayList<T>()
+        val stack = ArrayList<Node<T>>()
+        stack.add(root)
+        while (stack.isNotEmpty()) {
+            val node = stack.removeAt(stack.size - 1)
+            for (entry in node.entries) {
+                if (!entry.contains(lat, lon)) continue
+                if (node.leaf) found.add(entry.value!!) else stack.add(entry.child!!)
+            }
+        }
+        return found
+    }
+
+    @Synchronized
+    fun clear() {
+        root = Node(leaf = true)
+        count = 0
+    }
+
+    private fun insertEntry(entry: Entry<T>) {
+        val sibling = insert(root, entry) ?: return
+        // The root split: grow the tree by one level
+        val newRoot = Node<T>(leaf = false)
+        newRoot.entries.add(root.bounds())
+        newRoot.entries.add(sibling.bounds())
+        root = newRoot
+    }
+
+    // Returns the new sibling when [node] had to split
+    private fun insert(node: Node<T>, entry: Entry<T>): Node<T>? {
+        if (node.leaf) {
+            node.entries.add(entry)
+        } else {
+            val best = chooseSubtree(node, entry)
+            val child = best.child!!
+            val split = insert(child, entry)
+            if (split == null) {
+                best.include(entry)
+            } else {
+                val shrunk = child.bounds()
+                best.south = shrunk.south
+                best.west = shrunk.west
+                best.north = shrunk.north
+                best.east = shrunk.east
+                node.entries.add(split.bounds())
+            }
+        }
+        return if (node.entries.size > maxEntries) split(node) else null
+    }
+
+    // Least enlargement, then smallest area
+    private fun chooseSubtree(node: Node<T>, entry: Entry<T>): Entry<T> {
+        var best = node.entries[0]
+        var bestGrowth = Double.MAX_VALUE
+        var bestArea = Double.MAX_VALUE
+        for (candidate in node.entries) {
+            val area = candidate.area()
+            val growth = candidate.areaWith(entry) - area
+            if (growth < bestGrowth || (growth == bestGrowth && area < bestArea)) {
+                best = candidate
+                bestGrowth = growth
+                bestArea = area
+            }
+        }
+        return best
+    }
+
+    // Quadratic split: [node] keeps one group, the returned sibling gets the other
+    private fun split(node: Node<T>): Node<T> {
+        val entries = ArrayList(node.entries)
+        node.entries.clear()
+        val sibling = Node<T>(node.leaf)
+
+        // Seeds: the pair that would waste the most area together
+        var seedA = 0
+        var seedB = 1
+        var worst = Double.NEGATIVE_INFINITY
+        for (i in entries.indices) {
+            for (j in i + 1 until entries.size) {
+                val waste = entries[i].areaWith(entries[j]) - entries[i].area() - entries[j].area()
+                if (waste > worst) {
+                    worst = waste
+                    seedA = i
+                    seedB = j
+                }
+            }
+        }
+        val a = entries[seedA]
+        val b = entries[seedB]
+        entries.removeAt(seedB)
+        entries.removeAt(seedA)
+        node.entries.add(a)
+        sibling.entries.add(b)
+        val boxA = Entry<T>(a.south, a.west, a.north, a.east, null, null)
+        val boxB = Entry<T>(b.south, b.west, b.north, b.east, null, null)
+
+        while (entries.isNotEmpty()) {
+            // Whatever is left must fill a group that would otherwise end up too small
+            if (node.entries.size + entries.size == minEntries) {
+                entries.forEach { node.entries.add(it) }
+                break
+            }
+            if (sibling.entries.size + entries.size == minEntries) {
+                entries.forEach { sibling.entries.add(it) }
+                break
+            }
+            // Next: the entry with the strongest preference for one group
+            var pick = 0
+            var preference = Double.NEGATIVE_INFINITY
+            for (i in entries.indices) {
+                val growA = boxA.areaWith(entries[i]) - boxA.area()
+                val growB = boxB.areaWith(entries[i]) - boxB.area()
+                val diff = Math.abs(growA - growB)
+                if (diff > preference) {
+                    preference = diff
+                    pick = i
+                }
+            }
+            val entry = entries.removeAt(pick)
+            val growA = boxA.areaWith(entry) - boxA.area()
+            val growB = boxB.areaWith(entry) - boxB.area()
+            val toA = when {
+                growA != growB -> growA < growB
+                boxA.area() != boxB.area() -> boxA.area() < boxB.area()
+                else -> node.entries.size <= sibling.entries.size
+            }
+            if (toA) {
+                node.entries.add(entry)
+                boxA.include(entry)
+            } else {
+                sibling.entries.add(entry)
+                boxB.include(entry)
+            }
+        }
+        return sibling
+    }
+
+    private fun remove(node: Node<T>, target: Entry<T>, orphans: MutableList<Entry<T>>): Boolean {
+        if (node.leaf) {
+            val i = node.entries.indexOfFirst { it.value == target.value && it.covers(target) && target.covers(it) }
+            if (i < 0) return false
+            node.entries.removeAt(i)
+            return true
+        }
+        for (i in node.entries.indices) {
+            val entry = node.entries[i]
+            if (!entry.covers(target)) continue
+            val child = entry.child!!
+            if (!remove(child, target, orphans)) continue
+            if (child.entries.size < minEntries) {
+                // Dissolve the underfull child; its values are inserted again afterwards
+                node.entries.removeAt(i)
+                collectLeaves(child, orphans)
+            } else {
+                val shrunk = child.bounds()
+                entry.south = shrunk.south
+                entry.west = shrunk.west
+                entry.north = shrunk.north
+                entry.east = shrunk.east
+            }
+            return true
+        }
+        return false
+    }
+
+    private fun collectLeaves(node: Node<T>, into: MutableList<Entry<T>>) {
+        if (node.leaf) into.addAll(node.entries) else node.entries.forEach { collectLeaves(it.child!!, into) }
+    }
+}
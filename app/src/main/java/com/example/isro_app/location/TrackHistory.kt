@@ -0,0 +1,152 @@
+package com.example.isro_app.location
+
+/**
+ * Fixes copied out of a [TrackBuffer], oldest first. Only the first [size] entries
+ * of each array are valid.
+ */
+class TrackPoints(
+    val times: LongArray,
+    val latitudes: DoubleArray,
+    val longitudes: DoubleArray,
+    val size: Int
+)
+
+/**
+ * Recent fixes of one device in a ring of primitive arrays: no object per fix and 24
+ * bytes per slot. The arrays start at [INITIAL_SLOTS] and double as fixes arrive, up
+ * to [capacity]; when full, the oldest fix is overwritten.
+ *
+ * A fix closer than [minDistanceMeters] to the last stored one, and less than
+ * [minIntervalMs] after it, is not stored, so a parked device does not push its
+ * history out of the ring. [version] changes whenever the stored fixes do.
+ * Thread-safe.
+ */
+class TrackBuffer(
+    val capacity: Int,
+    private val minDistanceMeters: Double = 0.0,
+    private val minIntervalMs: Long = 0
+) {
+
+    companion object {
+        const val INITIAL_SLOTS = 64
+    }
+
+    private var times = LongArray(minOf(capacity, INITIAL_SLOTS))
+    private var latitudes = DoubleArray(times.size)
+    private var longitudes = DoubleArray(times.size)
+    // Slot of the oldest fix; stays 0 until the ring is at full capacity
+    private var start = 0
+    private var count = 0
+
+    @Volatile
+    var version = 0L
+        private set
+
+    val size: Int
+        @Synchronized get() = count
+
+    /**
+     * Store a fix taken at [timeMs]; returns false when it was thinned out. Fixes must
+     * arrive in time order; an older one is dropped.
+     */
+    @Synchronized
+    fun add(timeMs: Long, latitude: Double, longitude: Double): Boolean {
+        if (count > 0) {
+            val last = slot(count - 1)
+            if (timeMs < times[last]) return false
+            if (timeMs - times[last] < minIntervalMs &&
+                QuadTree.distanceMeters(latitudes[last], longitudes[last], latitude, longitude) < minDistanceMeters
+            ) return false
+        }
+        if (count == times.size && count < capacity) {
+            val slots = minOf(capacity, count * 2)
+            times = times.copyOf(slots)
+            latitudes = latitudes.copyOf(slots)
+            longitudes = longitudes.copyOf(slots)
+        }
+        val slot = if (count < capacity) slot(count++) else start.also { start = (start + 1) % capacity }
+        times[slot] = timeMs
+        latitudes[slot] = latitude
+        longitudes[slot] = longitude
+        version++
+        return true
+    }
+
+    /**
+     * Copy of the fixes taken at or after [sinceMs], oldest first
+     */
+    @Synchronized
+    fun since(sinceMs: Long): TrackPoints {
+        // Times only grow, so the first fix in range is found by binary search
+        var lo = 0
+        var hi = count
+        while (lo < hi) {
+            val mid = (lo + hi) ushr 1
+            if (times[slot(mid)] < sinceMs) lo = mid + 1 else hi = mid
+        }
+        val n = count - lo
+        val out = TrackPoints(LongArray(n), DoubleArray(n), DoubleArray(n), n)
+        for (i in 0 until n) {
+            val s = slot(lo + i)
+            out.times[i] = times[s]
+            out.latitudes[i] = latitudes[s]
+            out.longitudes[i] = longitudes[s]
+        }
+        return out
+    }
+
+    private fun slot(i: Int) = (start + i) % times.size
+}
+
+/**
+ * Where each device has been: one [TrackBuffer] per device, fed with every GPS fix.
+ *
+ * With the defaults a moving device keeps its last 2048 stored fixes (at most 48 KB),
+ * which at one fix every 3 s is about an hour and a half; a device that mostly stands
+ * still stores a fix a minute and keeps a day or more. Buffers only grow as fixes
+ * arrive, and beyond [maxDevices] the device heard from least recently is dropped,
+ * so memory stays bounded however many devices pass through. Thread-safe.
+ */
+class TrackHistory(
+    private val capacity: Int = DEFAULT_CAPACITY,
+    private val minDistanceMeters: Double = DEFAULT_MIN_DISTANCE_M,
+    private val minIntervalMs: Long = DEFAULT_MIN_INTERVAL_MS,
+    private val maxDevices: Int = DEFAULT_MAX_DEVICES
+) {
+
+    companion object {
+        const val DEFAULT_CAPACITY = 2048
+        const val DEFAULT_MIN_DISTANCE_M = 10.0
+        const val DEFAULT_MIN_INTERVAL_MS = 60_000L
+        const val DEFAULT_MAX_DEVICES = 256
+    }
+
+    // Least recently updated first; guarded by this
+    private val tracks = LinkedHashMap<String, TrackBuffer>()
+
+    fun record(id: String, timeMs: Long, latitude: Double, longitude: Double) {
+        val buffer = synchronized(this) {
+            // Re-insert to move the device to the most recent end
+            val buffer = tracks.remove(id) ?: TrackBuffer(capacity, minDistanceMeters, minIntervalMs)
+            tracks[id] = buffer
+            if (tracks.size > maxDevices) {
+                val it = tracks.keys.iterator()
+                it.next()
+                it.remove()
+            }
+            buffer
+        }
+        buffer.add(timeMs, latitude, longitude)
+    }
+
+    @Synchronized
+    fun remove(id: String) {
+        tracks.remove(id)
+    }
+
+    @Synchronized
+    fun track(id: String): TrackBuffer? = tracks[id]
+
+    @Synchronized
+    fun ids(): Set<String> = tracks.keys.toSet()
+}
@@ -0,0 +1,193 @@
+package com.example.isro_app.map
+
+import android.content.Context
+import android.graphics.Canvas
+import android.graphics.Paint
+import android.graphics.Point
+import android.graphics.drawable.Drawable
+import android.view.Choreographer
+import android.view.MotionEvent
+import android.widget.Toast
+import androidx.compose.ui.graphics.toArgb
+import com.example.isro_app.MapDevice
+import com.example.isro_app.MapViewport
+import com.example.isro_app.R
+import com.example.isro_app.ui.theme.PrimaryBlue
+import org.osmdroid.util.GeoPoint
+import org.osmdroid.views.MapView
+import org.osmdroid.views.Projection
+import org.osmdroid.views.overlay.Overlay
+import kotlin.math.ln
+import kotlin.math.min
+
+/**
+ * Draws every device on the map as one overlay instead of one osmdroid Marker each.
+ *
+ * Each frame only devices inside the visible box are projected: the interpolator
+ * looks them up in its quadtree of fixes rather than scanning every device. Those
+ * sharing a grid cell are drawn as a count badge ([GridClusterer]). [setDevices] can be called
+ * on every recomposition: it only records the fixes and asks for the next frame, so
+ * any number of updates between two frames cost a single redraw.
+ *
+ * Devices glide between fixes ([MarkerInterpolator]). Frames are driven by
+ * [Choreographer]: each one positions every device at the same vsync time and
+ * invalidates the map once, and the next is requested only while a device in view is
+ * still moving, so off-screen or parked devices cost no frames.
+ * Tapping a badge zooms in on it; tapping a single device shows its id.
+ */
+class DeviceClusterOverlay(
+    context: Context,
+    private val myDeviceId: String
+) : Overlay() {
+
+    companion object {
+        // Devices closer than this on screen share a badge
+        private const val CELL_DP = 56f
+        private const val BADGE_RADIUS_DP = 14f
+        private const val TAP_ZOOM_STEPS = 2.0
+    }
+
+    private val density = context.resources.displayMetrics.density
+    private val cellPx = (CELL_DP * density).toDouble()
+    private val badgeRadius = BADGE_RADIUS_DP * density
+
+    private val selfIcon: Drawable? = context.getDrawable(R.drawable.ic_marker_self)
+    private val otherIcon: Drawable? = context.getDrawable(R.drawable.ic_marker_other)
+
+    private val badgePaint = Paint(Paint.ANTI_ALIAS_FLAG).apply { color = PrimaryBlue.toArgb() }
+    private val ringPaint = Paint(Paint.ANTI_ALIAS_FLAG).apply {
+        color = android.graphics.Color.WHITE
+        style = Paint.Style.STROKE
+        strokeWidth = 2f * density
+    }
+    private val textPaint = Paint(Paint.ANTI_ALIAS_FLAG).apply {
+        color = android.graphics.Color.WHITE
+        textAlign = Paint.Align.CENTER
+        textSize = 12f * density
+        isFakeBoldText = true
+    }
+
+    private var devices: List<MapDevice> = emptyList()
+    private val interpolator = MarkerInterpolator()
+
+    // Frame scheduling; all on the UI thread
+    private val choreographer = Choreographer.getInstance()
+    private var host: MapView? = null
+    private var frameRequested = false
+    // Vsync time of the frame being drawn, or null when the redraw is not ours (e.g. a pan)
+    private var frameNanos: Long? = null
+    private val frameCallback = Choreographer.FrameCallback { time ->
+        frameRequested = false
+        frameNanos = time
+        host?.invalidate()
+    }
+
+    // Reused while drawing, so a frame allocates only the cluster list
+    private val geo = GeoPoint(0.0, 0.0)
+    private val screen = Point()
+
+    // Symbols of the last frame with their screen position, for taps
+    private var drawn: List<Pair<DeviceCluster, Point>> = emptyList()
+
+    fun setDevices(devices: List<MapDevice>, mapView: MapView) {
+        if (devices == this.devices) return
+        this.devices = devices
+        interpolator.update(devices, System.nanoTime())
+        requestFrame(mapView)
+    }
+
+    /**
+     * Redraw on the next frame; repeated calls before it are merged
+     */
+    fun requestFrame(mapView: MapView) {
+        host = mapView
+        if (!frameRequested) {
+            frameRequested = true
+            choreographer.postFrameCallback(frameCallback)
+        }
+    }
+
+    override fun onDetach(mapView: MapView) {
+        choreographer.removeFrameCallback(frameCallback)
+        frameRequested = false
+        host = null
+        super.onDetach(mapView)
+    }
+
+    override fun draw(canvas: Canvas, projection: Projection) {
+        val now = frameNanos ?: System.nanoTime()
+        frameNanos = null
+        // Slightly larger than the screen so icons at the edge do not pop in
+        val box = projection.boundingBox.increaseByScale(1.2f)
+        val viewport = MapViewport(box.latSouth, box.lonWest, box.latNorth, box.lonEast)
+
+        val frame = interpolator.frame(now, viewport)
+        if (frame.moving) host?.let { requestFrame(it) }
+        val all = frame.devices
+        val self = all.firstOrNull { it.id == myDeviceId }
+        val visible = all.filter { it.id != myDeviceId }
+
+        val tileSystem = MapView.getTileSystem()
+        val mapSize = projection.worldMapSize
+        val clusters = GridClusterer.cluster(
+            visible,
+            cellPx,
+            { lon -> tileSystem.getMercatorXFromLongitude(lon, mapSize, false).toDouble() },
+            { lat -> tileSystem.getMercatorYFromLatitude(lat, mapSize, false).toDouble() }
+        )
+
+        val symbols = ArrayList<Pair<DeviceCluster, Point>>(clusters.size)
+        for (cluster in clusters) {
+            geo.setCoords(cluster.latitude, cluster.longitude)
+            projection.toPixels(geo, screen)
+            if (cluster.count == 1) {
+                drawPin(canvas, otherIcon, screen.x, screen.y)
+            } else {
+                drawBadge(canvas, cluster.count, screen.x.toFloat(), screen.y.toFloat())
+            }
+            symbols.add(cluster to Point(screen))
+        }
+        drawn = symbols
+
+        // Own position is never merged and stays on top
+        if (self != null) {
+            geo.setCoords(self.latitude, self.longitude)
+            projection.toPixels(geo, screen)
+            drawPin(canvas, selfIcon, screen.x, screen.y)
+        }
+    }
+
+    override fun onSingleTapConfirmed(e: MotionEvent, mapView: MapView): Boolean {
+        val (cluster, _) = drawn.lastOrNull { (c, p) ->
+            // Pins sit above their point, badges are centred on it
+            val dx = e.x - p.x
+            val dy = e.y - p.y + if (c.count == 1) badgeRadius else 0f
+            dx * dx + dy * dy <= badgeRadius * badgeRadius * 4
+        } ?: return false
+        if (cluster.count == 1) {
+            Toast.makeText(mapView.context, cluster.id, Toast.LENGTH_SHORT).show()
+            return true
+        }
+        val zoom = min(mapView.zoomLevelDouble + TAP_ZOOM_STEPS, mapView.maxZoomLevel)
+        mapView.controller.animateTo(GeoPoint(cluster.latitude, cluster.longitude), zoom, null)
+        return true
+    }
+
+    // Pin drawables point at the location with their bottom centre
+    private fun drawPin(canvas: Canvas, icon: Drawable?, x: Int, y: Int) {
+        icon ?: return
+        val w = icon.intrinsicWidth
+        val h = icon.intrinsicHeight
+        icon.setBounds(x - w / 2, y - h, x + w / 2, y)
+        icon.draw(canvas)
+    }
+
+    private fun drawBadge(canvas: Canvas, count: Int, x: Float, y: Float) {
+        // Grows slowly with the count so large groups stand out without covering the map
+        val radius = badgeRadius * (1f + ln(count.toFloat()) / 6f)
+        canvas.drawCircle(x, y, radius, badgePaint)
+        canvas.drawCircle(x, y, radius, ringPaint)
+        val label = if (count < 1000) count.toString() else "${count / 1000}k"
+        canvas.drawText(label, x, y - (textPaint.ascent() + textPaint.descent()) / 2, textPaint)
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.isro_app.map
+
+import com.example.isro_app.MapDevice
+import com.example.isro_app.MapViewport
+import kotlin.math.floor
+
+/**
+ * One map symbol: a single device ([id] set) or a count badge for several
+ */
+data class DeviceCluster(
+    val latitude: Double,
+    val longitude: Double,
+    val count: Int,
+    val id: String?
+)
+
+/**
+ * Grid clustering in projected pixel space.
+ *
+ * Devices whose world pixel positions share a [cellSize] square merge into one
+ * cluster drawn at their mean position. The grid is anchored to the world rather
+ * than the screen, so clusters do not reshuffle while the map pans.
+ */
+object GridClusterer {
+
+    private class Cell(var latSum: Double, var lonSum: Double, var count: Int, val firstId: String)
+
+    /**
+     * Whether a point lies inside [viewport], which may cross the antimeridian (west > east)
+     */
+    fun inside(viewport: MapViewport, latitude: Double, longitude: Double): Boolean =
+        latitude in viewport.south..viewport.north &&
+            if (viewport.west > viewport.east) longitude >= viewport.west || longitude <= viewport.east
+            else longitude in viewport.west..viewport.east
+
+    /**
+     * [worldX] maps a longitude and [worldY] a latitude to world pixels at the
+     * current zoom. Output order follows first appearance in [devices].
+     */
+    fun cluster(
+        devices: List<MapDevice>,
+        cellSize: Double,
+        worldX: (Double) -> Double,
+        worldY: (Double) -> Double
+    ): List<DeviceCluster> {
+        val cells = LinkedHashMap<Long, Cell>()
+        for (device in devices) {
+            val cx = floor(worldX(device.longitude) / cellSize).toLong()
+            val cy = floor(worldY(device.latitude) / cellSize).toLong()
+            val key = (cx shl 32) xor (cy and 0xffffffffL)
+            val cell = cells[key]
+            if (cell == null) {
+                cells[key] = Cell(device.latitude, device.longitude, 1, device.id)
+            } else {
+                cell.latSum += device.latitude
+                cell.lonSum += device.longitude
+                cell.count++
+            }
+        }
+        return cells.values.map { cell ->
+            DeviceCluster(
+                latitude = cell.latSum / cell.count,
+                longitude = cell.lonSum / cell.count,
+                count = cell.count,
+                id = if (cell.count == 1) cell.firstId else null
+            )
+        }
+    }
+}
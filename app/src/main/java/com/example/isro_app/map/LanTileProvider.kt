@@ -0,0 +1,146 @@
+package com.example.isro_app.map
+
+import android.content.res.Resources
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import android.graphics.drawable.BitmapDrawable
+import android.graphics.drawable.Drawable
+import android.util.Log
+import android.util.LruCache
+import org.osmdroid.config.Configuration
+import org.osmdroid.tileprovider.MapTileRequestState
+import org.osmdroid.tileprovider.modules.MapTileModuleProviderBase
+import org.osmdroid.tileprovider.tilesource.ITileSource
+import org.osmdroid.tileprovider.tilesource.OnlineTileSourceBase
+import org.osmdroid.util.MapTileIndex
+import org.osmdroid.util.TileSystem
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicReference
+
+/**
+ * osmdroid tile module for the LAN tile server, replacing osmdroid's downloader and
+ * its SQLite tile cache.
+ *
+ * Decoded tiles are kept in an [LruCache] bounded by [Bitmap.getByteCount]; below it
+ * [TileCache] serves from disk or revalidates with the server. Drawables handed to
+ * osmdroid are plain [BitmapDrawable]s, so osmdroid's bitmap pool never recycles a
+ * bitmap this cache still holds.
+ *
+ * osmdroid hands queued tiles to its loader threads newest first, so after a fast
+ * pan the link is busy with tiles already off screen. Here [scheduler] picks the
+ * queued tile nearest the viewport center and drops the ones no longer visible;
+ * there is one loader per connection [cache] allows to the tile server.
+ */
+class LanTileProvider(
+    private val resources: Resources,
+    tileSource: ITileSource,
+    private val cache: TileCache,
+    private val scheduler: TileScheduler,
+    memoryBytes: Int = defaultMemoryBytes()
+) : MapTileModuleProviderBase(
+    cache.maxConnectionsPerHost,
+    Configuration.getInstance().tileDownloadMaxQueueSize.toInt()
+) {
+
+    companion object {
+        private const val TAG = "TILE-CACHE"
+        // Log the cache metrics every this many tiles
+        private const val LOG_EVERY = 200
+
+        // 1/8 of the heap: tiles are what the map screen is made of
+        fun defaultMemoryBytes(): Int =
+            (Runtime.getRuntime().maxMemory() / 8).coerceAtMost(Int.MAX_VALUE.toLong()).toInt()
+    }
+
+    private val source = AtomicReference<OnlineTileSourceBase?>()
+    private val loaded = AtomicInteger()
+
+    private val memory = object : LruCache<Long, Bitmap>(memoryBytes) {
+        override fun sizeOf(key: Long, value: Bitmap): Int = value.byteCount
+    }
+
+    init {
+        setTileSource(tileSource)
+    }
+
+    override fun getName(): String = "LAN tile cache"
+
+    override fun getThreadGroupName(): String = "lantiles"
+
+    override fun getUsesDataConnection(): Boolean = true
+
+    override fun getMinimumZoomLevel(): Int = source.get()?.minimumZoomLevel ?: 0
+
+    override fun getMaximumZoomLevel(): Int = source.get()?.maximumZoomLevel ?: TileSystem.getMaximumZoomLevel()
+
+    override fun setTileSource(tileSource: ITileSource) {
+        // Only URL-based sources can be fetched; anything else leaves this module idle
+        source.set(tileSource as? OnlineTileSourceBase)
+        memory.evictAll()
+    }
+
+    override fun getTileLoader(): TileLoader = Loader()
+
+    private inner class Loader : TileLoader() {
+
+        // Nearest the viewport center first; off-screen tiles fail so osmdroid can ask again later
+        override fun nextTile(): MapTileRequestState? {
+            val stale = ArrayList<MapTileRequestState>()
+            var next: MapTileRequestState? = null
+            var drained = false
+            synchronized(mQueueLockObject) {
+                var nearest = Double.MAX_VALUE
+                val iterator = mPending.values.iterator()
+                while (iterator.hasNext()) {
+                    val state = iterator.next()
+                    val index = state.mapTile
+                    if (mWorking.containsKey(index)) continue
+                    val distance = scheduler.distance(MapTileIndex.getZoom(index), MapTileIndex.getX(index), MapTileIndex.getY(index))
+                    if (distance == null) {
+                        iterator.remove()
+                        stale.add(state)
+                    } else if (distance < nearest) {
+                        nearest = distance
+                        next = state
+                    }
+                }
+                next?.let { mWorking[it.mapTile] = it }
+                drained = next == null && mWorking.isEmpty()
+            }
+            // Outside the queue lock: the callback goes back into the provider array
+            stale.forEach { it.callback.mapTileRequestFailed(it) }
+            if (stale.isNotEmpty()) scheduler.cancelled(stale.size)
+            if (next != null) {
+                scheduler.picked()
+            } else if (drained) {
+                scheduler.drained()?.let { Log.d(TAG, "Viewport full in ${it / 1_000_000} ms") }
+            }
+            return next
+        }
+
+        override fun loadTile(index: Long): Drawable? {
+            val tileSource = source.get() ?: return null
+            val start = System.nanoTime()
+            memory.get(index)?.let {
+                cache.recordMemoryHit(System.nanoTime() - start)
+                return BitmapDrawable(resources, it)
+            }
+
+            val url = tileSource.getTileURLString(index)
+            val bytes = cache.get(url)
+            if (bytes == null) {
+                scheduler.failed()
+                return null
+            }
+            val bitmap = BitmapFactory.decodeByteArray(bytes, 0, bytes.size)
+            if (bitmap == null) {
+                Log.w(TAG, "Undecodable tile ${MapTileIndex.toString(index)}")
+                scheduler.failed()
+                return null
+            }
+            memory.put(index, bitmap)
+            if (loaded.incrementAndGet() % LOG_EVERY == 0) Log.d(TAG, "${cache.metrics()}; ${scheduler.metrics()}")
+            return BitmapDrawable(resources, bitmap)
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.isro_app.map
+
+import com.example.isro_app.MapDevice
+import com.example.isro_app.MapViewport
+import com.example.isro_app.location.IndexedPoint
+import com.example.isro_app.location.QuadTree
+import kotlin.math.abs
+
+/**
+ * Moves devices smoothly from one GPS fix to the next.
+ *
+ * A new fix does not move a device at once: it travels in a straight line, at constant
+ * speed, from where it is drawn now to the fix, taking as long as that fix took to
+ * arrive (at most [maxDurationNanos]). With fixes every few seconds a moving device
+ * glides continuously and is never more than one fix behind. A device's first fix, or
+ * one further than [snapDegrees] from where it is drawn, is shown immediately.
+ *
+ * Each device's target fix is kept in a [QuadTree]. As a path never spans more than
+ * [snapDegrees], a frame only looks at devices whose target lies within that margin
+ * of the viewport instead of at every device.
+ *
+ * Times are [System.nanoTime] values, such as Choreographer frame times. Not
+ * thread-safe; used from the UI thread.
+ */
+class MarkerInterpolator(
+    private val maxDurationNanos: Long = DEFAULT_MAX_DURATION_NANOS,
+    private val snapDegrees: Double = DEFAULT_SNAP_DEGREES
+) {
+
+    companion object {
+        const val DEFAULT_MAX_DURATION_NANOS = 5_000_000_000L
+        // About 5 km: further than that is a new position, not movement
+        const val DEFAULT_SNAP_DEGREES = 0.05
+    }
+
+    /** Devices to draw at one instant, and whether any of them is still on its way */
+    class Frame(val devices: List<MapDevice>, val moving: Boolean)
+
+    private class Track(
+        var fromLat: Double,
+        var fromLon: Double,
+        var toLat: Double,
+        var toLon: Double,
+        var startNanos: Long,
+        var durationNanos: Long,
+        var fixNanos: Long,
+        // Insertion order, so devices keep their draw order between frames
+        val order: Long
+    ) {
+        fun progress(now: Long): Double =
+            if (durationNanos <= 0) 1.0 else ((now - startNanos).toDouble() / durationNanos).coerceIn(0.0, 1.0)
+
+        fun latitude(t: Double) = fromLat + (toLat - fromLat) * t
+
+        fun longitude(t: Double) = wrap(fromLon + lonDelta(fromLon, toLon) * t)
+    }
+
+    private val tracks = HashMap<String, Track>()
+    private val targets = QuadTree()
+    private var nextOrder = 0L
+
+    /**
+     * The latest fixes, received at [now]. Devices missing from [devices] are dropped.
+     */
+    fun update(devices: List<MapDevice>, now: Long) {
+        val seen = HashSet<String>(devices.size * 2)
+        for (device in devices) {
+            seen.add(device.id)
+            val track = tracks[device.id]
+            if (track == null) {
+                tracks[device.id] = Track(device.latitude, device.longitude, device.latitude, device.longitude, now, 0, now, nextOrder++)
+                targets.put(device.id, device.latitude, device.longitude)
+                continue
+            }
+            if (track.toLat == device.latitude && track.toLon == device.longitude) continue
+
+            val t = track.progress(now)
+            val lat = track.latitude(t)
+            val lon = track.longitude(t)
+            val jump = abs(device.latitude - lat) > snapDegrees || abs(lonDelta(lon, device.longitude)) > snapDegrees
+            track.fromLat = if (jump) device.latitude else lat
+            track.fromLon = if (jump) device.longitude else lon
+            track.toLat = device.latitude
+            track.toLon = device.longitude
+            track.startNanos = now
+            track.durationNanos = if (jump) 0 else (now - track.fixNanos).coerceAtMost(maxDurationNanos)
+            track.fixNanos = now
+            targets.put(device.id, device.latitude, device.longitude)
+        }
+        val gone = tracks.keys.iterator()
+        while (gone.hasNext()) {
+            val id = gone.next()
+            if (id !in seen) {
+                gone.remove()
+                targets.remove(id)
+            }
+        }
+    }
+
+    /**
+     * Positions at [now] of the devices whose current path touches [viewport]; the
+     * others are not interpolated at all and do not count as [Frame.moving].
+     */
+    fun frame(now: Long, viewport: MapViewport): Frame {
+        val candidates = candidates(viewport)
+            .mapNotNull { point -> tracks[point.id]?.let { point.id to it } }
+            .sortedBy { it.second.order }
+        val devices = ArrayList<MapDevice>(candidates.size)
+        var moving = false
+        for ((id, track) in candidates) {
+            if (!GridClusterer.inside(viewport, track.fromLat, track.fromLon) &&
+                !GridClusterer.inside(viewport, track.toLat, track.toLon)
+            ) continue
+            val t = track.progress(now)
+            if (t < 1.0) moving = true
+            devices.add(MapDevice(id, track.latitude(t), track.longitude(t)))
+        }
+        return Frame(devices, moving)
+    }
+
+    // Targets within snapDegrees of the viewport: every path that can touch it
+    private fun candidates(viewport: MapViewport): List<IndexedPoint> {
+        val south = (viewport.south - snapDegrees).coerceAtLeast(-90.0)
+        val north = (viewport.north + snapDegrees).coerceAtMost(90.0)
+        val width = if (viewport.west > viewport.east) viewport.east - viewport.west + 360 else viewport.east - viewport.west
+        if (width + 2 * snapDegrees >= 360) return targets.within(south, -180.0, north, 180.0)
+        return targets.within(south, wrap(viewport.west - snapDegrees), north, wrap(viewport.east + snapDegrees))
+    }
+}
+
+// Shortest way round, so a device crossing the antimeridian does not circle the globe
+private fun lonDelta(from: Double, to: Double): Double {
+    val d = to - from
+    return when {
+        d > 180 -> d - 360
+        d < -180 -> d + 360
+        else -> d
+    }
+}
+
+private fun wrap(lon: Double): Double = when {
+    lon > 180 -> lon - 360
+    lon < -180 -> lon + 360
+    else -> lon
+}
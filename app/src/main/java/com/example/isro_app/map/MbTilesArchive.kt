@@ -0,0 +1,129 @@
+package com.example.isro_app.map
+
+import android.database.sqlite.SQLiteDatabase
+import android.util.Log
+import android.util.LruCache
+import org.osmdroid.tileprovider.modules.IArchiveFile
+import org.osmdroid.tileprovider.tilesource.ITileSource
+import org.osmdroid.util.MapTileIndex
+import java.io.ByteArrayInputStream
+import java.io.File
+import java.io.InputStream
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Read-only MBTiles archive for osmdroid's archive provider.
+ *
+ * Compared with osmdroid's own MBTilesFileArchive it asks SQLite to memory-map the
+ * file (`PRAGMA mmap_size`), so tile reads are page-cache copies instead of read()
+ * calls, and keeps recently used tiles as encoded bytes in a [LruCache] bounded by
+ * [hotBytes]. Tiles the archive does not have are remembered too, so panning over an
+ * area it does not cover goes straight to the next provider.
+ *
+ * MBTiles stores rows in TMS order (y grows northwards); osmdroid indexes are XYZ.
+ */
+class MbTilesArchive(
+    private val hotBytes: Int = DEFAULT_HOT_BYTES
+) : IArchiveFile {
+
+    companion object {
+        const val EXTENSION = "mbtiles"
+        const val DEFAULT_HOT_BYTES = 8 * 1024 * 1024
+        // Upper bound for the mapping; SQLite maps at most the file size
+        private const val MMAP_BYTES = 256L * 1024 * 1024
+        private const val MISSING_ENTRIES = 4096
+        private const val TAG = "MBTILES"
+
+        /**
+         * Open every *.mbtiles file in [dirs]; unreadable files are skipped
+         */
+        fun openAll(dirs: List<File>): List<MbTilesArchive> =
+            dirs.flatMap { dir -> dir.listFiles { f -> f.extension.equals(EXTENSION, true) }?.toList() ?: emptyList() }
+                .sortedBy { it.name }
+                .mapNotNull { file ->
+                    try {
+                        MbTilesArchive().apply { init(file) }
+                    } catch (e: Exception) {
+                        Log.e(TAG, "Cannot open ${file.name}", e)
+                        null
+                    }
+                }
+    }
+
+    private lateinit var db: SQLiteDatabase
+    private var name = ""
+
+    private val hot = object : LruCache<Long, ByteArray>(hotBytes) {
+        override fun sizeOf(key: Long, value: ByteArray): Int = value.size
+    }
+    private val missing = LruCache<Long, Boolean>(MISSING_ENTRIES)
+
+    val hits = AtomicLong()
+    val reads = AtomicLong()
+    val misses = AtomicLong()
+    val readNanos = AtomicLong()
+
+    override fun init(file: File) {
+        name = file.name
+        db = SQLiteDatabase.openDatabase(
+            file.path,
+            null,
+            SQLiteDatabase.OPEN_READONLY or SQLiteDatabase.NO_LOCALIZED_COLLATORS
+        )
+        // PRAGMA returns a row, so it has to go through a query
+        db.rawQuery("PRAGMA mmap_size=$MMAP_BYTES", null).use { it.moveToFirst() }
+        Log.d(TAG, "Opened $name")
+    }
+
+    override fun getInputStream(tileSource: ITileSource?, index: Long): InputStream? =
+        tile(index)?.let { ByteArrayInputStream(it) }
+
+    /**
+     * Encoded tile bytes, or null when the archive does not cover [index]
+     */
+    fun tile(index: Long): ByteArray? {
+        hot.get(index)?.let {
+            hits.incrementAndGet()
+            return it
+        }
+        if (missing.get(index) != null) return null
+
+        val z = MapTileIndex.getZoom(index)
+        val x = MapTileIndex.getX(index)
+        val row = (1 shl z) - 1 - MapTileIndex.getY(index)
+        val start = System.nanoTime()
+        val bytes = try {
+            db.rawQuery(
+                "SELECT tile_data FROM tiles WHERE zoom_level = ? AND tile_column = ? AND tile_row = ?",
+                arrayOf(z.toString(), x.toString(), row.toString())
+            ).use { cursor -> if (cursor.moveToFirst()) cursor.getBlob(0) else null }
+        } catch (e: Exception) {
+            // E.g. busy while a prefetch commits; not remembered as missing
+            Log.e(TAG, "Read of ${MapTileIndex.toString(index)} from $name failed", e)
+            return null
+        }
+        readNanos.addAndGet(System.nanoTime() - start)
+        reads.incrementAndGet()
+
+        if (bytes == null) {
+            misses.incrementAndGet()
+            missing.put(index, true)
+            return null
+        }
+        hot.put(index, bytes)
+        return bytes
+    }
+
+    // Every table in an MBTiles file holds one tileset, whatever the source is called
+    override fun getTileSources(): Set<String> = emptySet()
+
+    override fun setIgnoreTileSource(ignore: Boolean) = Unit
+
+    override fun close() {
+        hot.evictAll()
+        missing.evictAll()
+        db.close()
+    }
+
+    override fun toString(): String = "MbTilesArchive($name)"
+}
@@ -0,0 +1,131 @@
+package com.example.isro_app.map
+
+import android.database.sqlite.SQLiteDatabase
+import android.database.sqlite.SQLiteStatement
+import java.io.Closeable
+import java.io.File
+import java.util.concurrent.Callable
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+
+/**
+ * Writable MBTiles file for [RegionPrefetcher], readable by [MbTilesArchive].
+ *
+ * Tiles are inserted in one open transaction that [flush] commits, since a
+ * transaction per tile would cost more than the download. The keys of stored tiles
+ * are loaded once when the file opens, so [contains] never reads the database.
+ * Bounds and zoom range in `metadata` are updated on every flush.
+ *
+ * SQLite ties a transaction to the thread that began it, while [RegionPrefetcher]
+ * calls in from several IO threads. Every database call therefore runs on one
+ * writer thread owned by the store; [put], [flush] and [close] hand their work to
+ * it and wait, so callers on any thread see them complete in order.
+ */
+class MbTilesStore(file: File, name: String) : TileStore, Closeable {
+
+    private val writer: ExecutorService = Executors.newSingleThreadExecutor { r ->
+        Thread(r, "mbtiles-writer").apply { isDaemon = true }
+    }
+
+    private val db: SQLiteDatabase
+    private val insert: SQLiteStatement
+    // Written on the writer thread, read from any
+    private val stored: MutableSet<Long> = ConcurrentHashMap.newKeySet()
+
+    // Only touched on the writer thread
+    private var south = 90.0
+    private var west = 180.0
+    private var north = -90.0
+    private var east = -180.0
+    private var minZoom = Int.MAX_VALUE
+    private var maxZoom = Int.MIN_VALUE
+
+    init {
+        db = onWriter { SQLiteDatabase.openOrCreateDatabase(file, null) }
+        insert = onWriter { open(name) }
+    }
+
+    private fun open(name: String): SQLiteStatement {
+        db.execSQL("CREATE TABLE IF NOT EXISTS metadata (name TEXT PRIMARY KEY, value TEXT)")
+        db.execSQL("CREATE TABLE IF NOT EXISTS tiles (zoom_level INTEGER, tile_column INTEGER, tile_row INTEGER, tile_data BLOB)")
+        db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS tile_index ON tiles (zoom_level, tile_column, tile_row)")
+        db.execSQL("INSERT OR REPLACE INTO metadata VALUES ('name', ?), ('format', 'png'), ('type', 'baselayer')", arrayOf(name))
+        val insert = db.compileStatement("INSERT OR REPLACE INTO tiles VALUES (?, ?, ?, ?)")
+
+        db.rawQuery("SELECT zoom_level, tile_column, tile_row FROM tiles", null).use { cursor ->
+            while (cursor.moveToNext()) {
+                val z = cursor.getInt(0)
+                add(TileKey(z, cursor.getInt(1), (1 shl z) - 1 - cursor.getInt(2)))
+            }
+        }
+        db.beginTransaction()
+        return insert
+    }
+
+    override fun contains(tile: TileKey): Boolean = tile.packed() in stored
+
+    override fun put(tile: TileKey, bytes: ByteArray) = onWriter {
+        insert.bindLong(1, tile.zoom.toLong())
+        insert.bindLong(2, tile.x.toLong())
+        // MBTiles rows count from the south
+        insert.bindLong(3, ((1 shl tile.zoom) - 1 - tile.y).toLong())
+        insert.bindBlob(4, bytes)
+        insert.executeInsert()
+        add(tile)
+    }
+
+    override fun flush() {
+        // A run's final flush may come after the store was closed
+        if (writer.isShutdown) return
+        onWriter { commit() }
+    }
+
+    override fun close() {
+        if (writer.isShutdown) return
+        try {
+            onWriter {
+                if (db.isOpen) {
+                    commit()
+                    db.endTransaction()
+                    insert.close()
+                    db.close()
+                }
+            }
+        } finally {
+            writer.shutdown()
+        }
+    }
+
+    private fun commit() {
+        if (!db.isOpen) return
+        if (stored.isNotEmpty()) {
+            db.execSQL(
+                "INSERT OR REPLACE INTO metadata VALUES ('bounds', ?), ('minzoom', ?), ('maxzoom', ?)",
+                arrayOf("$west,$south,$east,$north", minZoom.toString(), maxZoom.toString())
+            )
+        }
+        db.setTransactionSuccessful()
+        db.endTransaction()
+        db.beginTransaction()
+    }
+
+    /** Run [block] on the writer thread and wait for it, rethrowing what it threw */
+    private fun <T> onWriter(block: () -> T): T =
+        try {
+            writer.submit(Callable(block)).get()
+        } catch (e: ExecutionException) {
+            throw e.cause ?: e
+        }
+
+    private fun add(tile: TileKey) {
+        stored.add(tile.packed())
+        minZoom = minOf(minZoom, tile.zoom)
+        maxZoom = maxOf(maxZoom, tile.zoom)
+        south = minOf(south, TileRegion.tileLat(tile.y + 1, tile.zoom))
+        north = maxOf(north, TileRegion.tileLat(tile.y, tile.zoom))
+        west = minOf(west, TileRegion.tileLon(tile.x, tile.zoom))
+        east = maxOf(east, TileRegion.tileLon(tile.x + 1, tile.zoom))
+    }
+}
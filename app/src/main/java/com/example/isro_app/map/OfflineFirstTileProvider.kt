@@ -0,0 +1,58 @@
+package com.example.isro_app.map
+
+import android.content.Context
+import android.util.Log
+import org.osmdroid.tileprovider.MapTileProviderArray
+import org.osmdroid.tileprovider.modules.IArchiveFile
+import org.osmdroid.tileprovider.modules.MapTileFileArchiveProvider
+import org.osmdroid.tileprovider.tilesource.ITileSource
+import org.osmdroid.tileprovider.util.SimpleRegisterReceiver
+import java.io.File
+
+/**
+ * Tile provider chain for the map: local MBTiles archives, then the LAN tile server
+ * through [TileCache].
+ *
+ * A tile is looked up in [MbTilesArchive]s first, so areas covered by an archive draw
+ * with the server unreachable. Anything else goes to [LanTileProvider], which tries
+ * memory, then disk, then a conditional request to the server. [scheduler] picks
+ * which queued download goes next.
+ *
+ * Archives are the *.mbtiles files in [archiveDirs]. They are closed when the map
+ * view detaches.
+ */
+class OfflineFirstTileProvider(
+    context: Context,
+    tileSource: ITileSource,
+    cache: TileCache,
+    scheduler: TileScheduler,
+    archives: List<MbTilesArchive> = MbTilesArchive.openAll(archiveDirs(context))
+) : MapTileProviderArray(tileSource, SimpleRegisterReceiver(context)) {
+
+    companion object {
+        private const val TAG = "MBTILES"
+
+        /**
+         * Where MBTiles files are picked up: the app's external files dir (no storage
+         * permission needed to copy files there over USB) and internal storage
+         */
+        fun archiveDirs(context: Context): List<File> =
+            listOfNotNull(context.getExternalFilesDir("tiles"), File(context.filesDir, "tiles"))
+    }
+
+    init {
+        if (archives.isNotEmpty()) {
+            // Ignore the tile source name: an archive serves whatever source is active
+            mTileProviderList.add(
+                MapTileFileArchiveProvider(
+                    SimpleRegisterReceiver(context),
+                    tileSource,
+                    archives.toTypedArray<IArchiveFile>(),
+                    true
+                )
+            )
+        }
+        mTileProviderList.add(LanTileProvider(context.resources, tileSource, cache, scheduler))
+        Log.d(TAG, "Tile archives: ${archives.joinToString()}")
+    }
+}
@@ -0,0 +1,257 @@
+package com.example.isro_app.map
+
+import android.util.Log
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancelAndJoin
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.updateAndGet
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
+import java.io.Closeable
+import java.io.FileNotFoundException
+import java.io.IOException
+import java.net.HttpURLConnection
+import java.net.URL
+
+/**
+ * Where prefetched tiles go. Implementations must be safe to call from several threads.
+ */
+interface TileStore {
+    fun contains(tile: TileKey): Boolean
+    fun put(tile: TileKey, bytes: ByteArray)
+    /** Make everything put so far durable */
+    fun flush()
+}
+
+enum class PrefetchState {
+    Idle,
+    Running,
+    Done,
+    Cancelled,
+    Failed
+}
+
+data class PrefetchProgress(
+    val total: Long,
+    val downloaded: Long,
+    val skipped: Long,
+    val missing: Long,
+    val failed: Long,
+    val bytes: Long,
+    val state: PrefetchState
+) {
+    val finished: Long get() = downloaded + skipped + missing + failed
+
+    val fraction: Float
+        get() = if (total > 0) (finished.toFloat() / total).coerceAtMost(1f) else 0f
+}
+
+/**
+ * Size of a region before downloading it
+ */
+data class PrefetchEstimate(
+    val tiles: Long,
+    val alreadyStored: Long,
+    val averageTileBytes: Long
+) {
+    val estimatedBytes: Long get() = (tiles - alreadyStored) * averageTileBytes
+}
+
+/**
+ * Downloads every tile of a [TileRegion] from the LAN tile server into a [TileStore].
+ *
+ * [parallelism] workers share one keep-alive connection pool: each response body is
+ * read to the end and closed, never disconnected, so HttpURLConnection reuses the
+ * socket for the next tile. Tiles already in the store are skipped, which is also how
+ * an interrupted or cancelled run resumes. The server answering 404 means it has no
+ * such tile; that is counted as missing, not failed. Other errors are retried and
+ * then counted as failed, so the next run picks them up.
+ */
+class RegionPrefetcher(
+    private val parallelism: Int = 4
+) {
+
+    companion object {
+        // Tiles fetched up front to estimate the download size
+        private const val SAMPLE_TILES = 12
+        // Assumed tile size when no sample could be fetched
+        private const val FALLBACK_TILE_BYTES = 15L * 1024
+        private const val MAX_ATTEMPTS = 3
+        private const val RETRY_BASE_MS = 250L
+        // Store flushes during a run, so a killed process loses little work
+        private const val FLUSH_EVERY = 256
+        private const val TAG = "TILE-PREFETCH"
+
+        /** Tile URL in the layout of osmdroid's XYTileSource */
+        fun tileUrl(baseUrl: String, tile: TileKey, extension: String = ".png"): String =
+            "${baseUrl.trimEnd('/')}/${tile.zoom}/${tile.x}/${tile.y}$extension"
+    }
+
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+    private var job: Job? = null
+
+    private val _progress = MutableStateFlow(PrefetchProgress(0, 0, 0, 0, 0, 0, PrefetchState.Idle))
+    val progress: StateFlow<PrefetchProgress> = _progress
+
+    private val _finishedRuns = MutableStateFlow(0)
+
+    /**
+     * Background runs ([start]) that reached [PrefetchState.Done], counted once their
+     * store is closed; each new value is a new archive to read
+     */
+    val finishedRuns: StateFlow<Int> = _finishedRuns
+
+    /**
+     * Count the region's tiles and sample a few of them for an average size.
+     * Sampled tiles are kept in [store], so they are not fetched twice.
+     */
+    suspend fun estimate(baseUrl: String, region: TileRegion, zooms: IntRange, store: TileStore): PrefetchEstimate =
+        withContext(Dispatchers.IO) {
+            var total = 0L
+            var stored = 0L
+            region.tiles(zooms).forEach {
+                total++
+                if (store.contains(it)) stored++
+            }
+            // Evenly spread over the tiles still to fetch, which the highest zoom dominates
+            val step = maxOf(1L, (total - stored) / SAMPLE_TILES)
+            val sizes = region.tiles(zooms)
+                .filter { !store.contains(it) }
+                .filterIndexed { i, _ -> i % step == 0L }
+                .take(SAMPLE_TILES)
+                .mapNotNull { tile ->
+                    try {
+                        fetch(baseUrl, tile)?.also { store.put(tile, it) }?.size
+                    } catch (e: IOException) {
+                        Log.w(TAG, "Sample $tile failed: ${e.message}")
+                        null
+                    }
+                }
+                .toList()
+            store.flush()
+            PrefetchEstimate(total, stored, if (sizes.isEmpty()) FALLBACK_TILE_BYTES else sizes.average().toLong())
+        }
+
+    /**
+     * Start downloading in the background, replacing a run already in progress.
+     * A [Closeable] store is closed when the run ends.
+     */
+    fun start(baseUrl: String, region: TileRegion, zooms: IntRange, store: TileStore) {
+        val previous = job
+        job = scope.launch {
+            try {
+                previous?.cancelAndJoin()
+                run(baseUrl, region, zooms, store)
+            } finally {
+                (store as? Closeable)?.close()
+                if (_progress.value.state == PrefetchState.Done) _finishedRuns.value++
+            }
+        }
+    }
+
+    fun cancel() {
+        job?.cancel()
+    }
+
+    /**
+     * Download the region into [store], returning when every tile was tried
+     */
+    suspend fun run(baseUrl: String, region: TileRegion, zooms: IntRange, store: TileStore) {
+        val total = region.count(zooms)
+        _progress.value = PrefetchProgress(total, 0, 0, 0, 0, 0, PrefetchState.Running)
+        val startedAt = System.nanoTime()
+        try {
+            coroutineScope {
+                val tiles = Channel<TileKey>(parallelism * 4)
+                launch {
+                    region.tiles(zooms).forEach { tile ->
+                        if (store.contains(tile)) record { it.copy(skipped = it.skipped + 1) } else tiles.send(tile)
+                    }
+                    tiles.close()
+                }
+                repeat(parallelism) {
+                    launch {
+                        for (tile in tiles) download(baseUrl, tile, store)
+                    }
+                }
+            }
+            store.flush()
+            record { it.copy(state = PrefetchState.Done) }
+            val p = _progress.value
+            Log.d(TAG, "Prefetched ${p.downloaded} tiles (${p.bytes / 1024} KB), skipped ${p.skipped}, " +
+                "missing ${p.missing}, failed ${p.failed} in ${(System.nanoTime() - startedAt) / 1_000_000}ms")
+        } catch (e: CancellationException) {
+            store.flush()
+            record { it.copy(state = PrefetchState.Cancelled) }
+            throw e
+        } catch (e: Exception) {
+            Log.e(TAG, "Prefetch failed", e)
+            try {
+                store.flush()
+            } catch (flushError: Exception) {
+                Log.e(TAG, "Flush after failure failed", flushError)
+            }
+            record { it.copy(state = PrefetchState.Failed) }
+        }
+    }
+
+    private suspend fun download(baseUrl: String, tile: TileKey, store: TileStore) {
+        var attempt = 0
+        while (true) {
+            try {
+                val bytes = fetch(baseUrl, tile)
+                if (bytes == null) {
+                    record { it.copy(missing = it.missing + 1) }
+                } else {
+                    store.put(tile, bytes)
+                    val p = record { it.copy(downloaded = it.downloaded + 1, bytes = it.bytes + bytes.size) }
+                    if (p.downloaded % FLUSH_EVERY == 0L) store.flush()
+                }
+                return
+            } catch (e: IOException) {
+                if (++attempt >= MAX_ATTEMPTS) {
+                    Log.w(TAG, "Tile $tile failed: ${e.message}")
+                    record { it.copy(failed = it.failed + 1) }
+                    return
+                }
+                delay(RETRY_BASE_MS shl (attempt - 1))
+            }
+        }
+    }
+
+    /**
+     * Tile bytes, or null when the server has no such tile
+     */
+    private fun fetch(baseUrl: String, tile: TileKey): ByteArray? {
+        val conn = URL(tileUrl(baseUrl, tile)).openConnection() as HttpURLConnection
+        conn.connectTimeout = 10_000
+        conn.readTimeout = 15_000
+        return try {
+            when (val code = conn.responseCode) {
+                HttpURLConnection.HTTP_OK -> conn.inputStream.use { it.readBytes() }
+                HttpURLConnection.HTTP_NOT_FOUND -> {
+                    // Drain the error page so the connection can be reused
+                    conn.errorStream?.use { it.readBytes() }
+                    null
+                }
+                else -> {
+                    conn.errorStream?.use { it.readBytes() }
+                    throw IOException("HTTP $code")
+                }
+            }
+        } catch (e: FileNotFoundException) {
+            null
+        }
+    }
+
+    private inline fun record(change: (PrefetchProgress) -> PrefetchProgress): PrefetchProgress =
+        _progress.updateAndGet(change)
+}
@@ -0,0 +1,357 @@
+package com.example.isro_app.map
+
+import android.util.Log
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.FileNotFoundException
+import java.io.IOException
+import java.io.InterruptedIOException
+import java.net.HttpURLConnection
+import java.net.URL
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Semaphore
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Where a tile came from
+ */
+enum class TileOrigin {
+    /** Decoded bitmap already in memory */
+    Memory,
+    /** Disk copy that was still fresh */
+    Disk,
+    /** Disk copy the server confirmed unchanged (304) */
+    Revalidated,
+    /** Full download */
+    Network,
+    /** Drawn on the device from vector map data */
+    Rendered,
+    /** Expired disk copy served because the server could not be reached */
+    Stale
+}
+
+/**
+ * Counters since the cache was created. [misses] are tiles nobody could provide.
+ */
+data class TileCacheMetrics(
+    val counts: Map<TileOrigin, Long>,
+    val meanMillis: Map<TileOrigin, Double>,
+    val misses: Long,
+    val diskBytes: Long
+) {
+    val requests: Long get() = counts.values.sum() + misses
+
+    /** Share of tiles served without downloading or rendering them */
+    val hitRate: Double
+        get() = if (requests == 0L) 0.0
+        else (requests - misses - (counts[TileOrigin.Network] ?: 0) - (counts[TileOrigin.Rendered] ?: 0)).toDouble() / requests
+
+    override fun toString(): String =
+        TileOrigin.values().joinToString(", ") { "${it.name} ${counts[it]} (%.1f ms)".format(meanMillis[it]) } +
+            ", misses $misses, hit rate %.0f%%, disk ${diskBytes / 1024} KB".format(hitRate * 100)
+}
+
+/**
+ * Disk tier for LAN tiles, with HTTP revalidation, or for tiles rendered on the device.
+ *
+ * Each tile is one file holding the body with its ETag, Last-Modified and expiry
+ * time. A fresh file is served without touching the network. An expired one is
+ * revalidated with If-None-Match / If-Modified-Since, so an unchanged tile costs a
+ * 304 and no body; if the server is unreachable the expired copy is served anyway.
+ * Expiry comes from the server's Cache-Control max-age or Expires, else
+ * [defaultMaxAgeMs]. Rendered tiles ([getOrCreate]) are stored the same way but
+ * never expire.
+ *
+ * The tier is trimmed least recently used first to [maxBytes], tracked in memory so
+ * no directory listing is needed after startup. The decoded-bitmap memory tier lives
+ * in [LanTileProvider] and [VectorTileProvider], which report their hits here so [metrics] covers both.
+ *
+ * At most [maxConnectionsPerHost] requests go to one server at a time, however many
+ * threads call [get]; responses are read to the end and closed, never disconnected,
+ * so HttpURLConnection keeps those few sockets alive between tiles.
+ * Safe to call from several tile loader threads.
+ */
+class TileCache(
+    private val dir: File,
+    private val maxBytes: Long = DEFAULT_MAX_BYTES,
+    private val defaultMaxAgeMs: Long = DEFAULT_MAX_AGE_MS,
+    val maxConnectionsPerHost: Int = DEFAULT_MAX_CONNECTIONS_PER_HOST
+) {
+
+    companion object {
+        const val DEFAULT_MAX_BYTES = 64L * 1024 * 1024
+        const val DEFAULT_MAX_AGE_MS = 24L * 60 * 60 * 1000
+        // Enough to hide request latency on a LAN without crowding out other traffic
+        const val DEFAULT_MAX_CONNECTIONS_PER_HOST = 4
+        private const val MAGIC = 0x54494c31 // "TIL1"
+        private const val SUFFIX = ".tile"
+        private const val TAG = "TILE-CACHE"
+    }
+
+    private class Entry(
+        val bytes: ByteArray,
+        val etag: String?,
+        val lastModified: String?,
+        val expiresAt: Long
+    )
+
+    private class Response(
+        val code: Int,
+        val bytes: ByteArray?,
+        val etag: String?,
+        val lastModified: String?,
+        val expiresAt: Long
+    )
+
+    // File name -> size, least recently used first; guarded by itself
+    private val index = LinkedHashMap<String, Long>(256, 0.75f, true)
+    private var totalBytes = 0L
+
+    private val counts = TileOrigin.values().associateWith { AtomicLong() }
+    private val nanos = TileOrigin.values().associateWith { AtomicLong() }
+    private val misses = AtomicLong()
+
+    // "host:port" -> permits for requests to it
+    private val hostPermits = ConcurrentHashMap<String, Semaphore>()
+
+    init {
+        dir.mkdirs()
+        dir.listFiles { f -> f.name.endsWith(SUFFIX) }
+            ?.sortedBy { it.lastModified() }
+            ?.forEach { file ->
+                index[file.name] = file.length()
+                totalBytes += file.length()
+            }
+    }
+
+    /**
+     * Tile bytes for [url] from disk or the server, or null when neither has it.
+     * Keyed by URL, so switching tile servers does not mix their tiles.
+     */
+    fun get(url: String): ByteArray? {
+        val start = System.nanoTime()
+        val file = fileFor(url)
+        val entry = read(file)
+        val now = System.currentTimeMillis()
+        if (entry != null && entry.expiresAt > now) {
+            touch(file, now)
+            return served(TileOrigin.Disk, start, entry.bytes)
+        }
+
+        val response = try {
+            request(url, entry, now)
+        } catch (e: IOException) {
+            Log.w(TAG, "Fetch of $url failed: ${e.message}")
+            null
+        }
+        return when {
+            response == null -> {
+                if (entry != null) {
+                    touch(file, now)
+                    served(TileOrigin.Stale, start, entry.bytes)
+                } else {
+                    missed()
+                }
+            }
+            response.code == HttpURLConnection.HTTP_NOT_MODIFIED && entry != null -> {
+                // Keep validators the 304 did not repeat
+                write(file, Entry(entry.bytes, response.etag ?: entry.etag, response.lastModified ?: entry.lastModified, response.expiresAt))
+                served(TileOrigin.Revalidated, start, entry.bytes)
+            }
+            response.bytes != null -> {
+                write(file, Entry(response.bytes, response.etag, response.lastModified, response.expiresAt))
+                served(TileOrigin.Network, start, response.bytes)
+            }
+            else -> {
+                // The server no longer has it
+                remove(file)
+                missed()
+            }
+        }
+    }
+
+    /**
+     * Tile bytes stored under [key], else the result of [create], stored for next time;
+     * null when [create] has nothing. For tiles made on the device: they never expire,
+     * so [key] must change whenever the inputs of [create] do.
+     */
+    fun getOrCreate(key: String, create: () -> ByteArray?): ByteArray? {
+        val start = System.nanoTime()
+        val file = fileFor(key)
+        read(file)?.let { entry ->
+            touch(file, System.currentTimeMillis())
+            return served(TileOrigin.Disk, start, entry.bytes)
+        }
+        val bytes = create() ?: return missed()
+        write(file, Entry(bytes, null, null, Long.MAX_VALUE))
+        return served(TileOrigin.Rendered, start, bytes)
+    }
+
+    /**
+     * Counted as a [TileOrigin.Memory] hit; called by the memory tier
+     */
+    fun recordMemoryHit(elapsedNanos: Long) {
+        counts.getValue(TileOrigin.Memory).incrementAndGet()
+        nanos.getValue(TileOrigin.Memory).addAndGet(elapsedNanos)
+    }
+
+    fun metrics(): TileCacheMetrics {
+        val snapshot = counts.mapValues { it.value.get() }
+        return TileCacheMetrics(
+            counts = snapshot,
+            meanMillis = snapshot.mapValues { (origin, n) -> if (n == 0L) 0.0 else nanos.getValue(origin).get() / 1e6 / n },
+            misses = misses.get(),
+            diskBytes = synchronized(index) { totalBytes }
+        )
+    }
+
+    fun clear() {
+        synchronized(index) {
+            index.keys.forEach { File(dir, it).delete() }
+            index.clear()
+            totalBytes = 0
+        }
+    }
+
+    private fun served(origin: TileOrigin, start: Long, bytes: ByteArray): ByteArray {
+        counts.getValue(origin).incrementAndGet()
+        nanos.getValue(origin).addAndGet(System.nanoTime() - start)
+        return bytes
+    }
+
+    private fun missed(): ByteArray? {
+        misses.incrementAndGet()
+        return null
+    }
+
+    /**
+     * GET [url], conditional on [cached]'s validators. Null body means 304 or 404.
+     */
+    private fun request(url: String, cached: Entry?, now: Long): Response {
+        val target = URL(url)
+        val permits = hostPermits.computeIfAbsent("${target.host}:${target.port}") { Semaphore(maxConnectionsPerHost) }
+        try {
+            permits.acquire()
+        } catch (e: InterruptedException) {
+            // The loader is being shut down; treated like an unreachable server
+            Thread.currentThread().interrupt()
+            throw InterruptedIOException("Interrupted waiting for a connection to ${target.host}")
+        }
+        try {
+            return send(target, cached, now)
+        } finally {
+            permits.release()
+        }
+    }
+
+    private fun send(url: URL, cached: Entry?, now: Long): Response {
+        val conn = url.openConnection() as HttpURLConnection
+        conn.connectTimeout = 5_000
+        conn.readTimeout = 10_000
+        cached?.etag?.let { conn.setRequestProperty("If-None-Match", it) }
+        cached?.lastModified?.let { conn.setRequestProperty("If-Modified-Since", it) }
+        try {
+            val code = conn.responseCode
+            val body = when (code) {
+                HttpURLConnection.HTTP_OK -> conn.inputStream.use { it.readBytes() }
+                HttpURLConnection.HTTP_NOT_MODIFIED, HttpURLConnection.HTTP_NOT_FOUND -> {
+                    // Drain so the connection goes back to the keep-alive pool
+                    conn.errorStream?.use { it.readBytes() }
+                    null
+                }
+                else -> {
+                    conn.errorStream?.use { it.readBytes() }
+                    throw IOException("HTTP $code")
+                }
+            }
+            return Response(code, body, conn.getHeaderField("ETag"), conn.getHeaderField("Last-Modified"), expiry(conn, now))
+        } catch (e: FileNotFoundException) {
+            return Response(HttpURLConnection.HTTP_NOT_FOUND, null, null, null, now)
+        }
+    }
+
+    private fun expiry(conn: HttpURLConnection, now: Long): Long {
+        val cacheControl = conn.getHeaderField("Cache-Control")
+        if (cacheControl != null) {
+            if (cacheControl.contains("no-cache") || cacheControl.contains("no-store")) return now
+            Regex("""max-age=(\d+)""").find(cacheControl)?.let { return now + it.groupValues[1].toLong() * 1000 }
+        }
+        val expires = conn.expiration
+        return if (expires > 0) expires else now + defaultMaxAgeMs
+    }
+
+    private fun read(file: File): Entry? {
+        if (!file.exists()) return null
+        return try {
+            DataInputStream(file.inputStream().buffered()).use { input ->
+                if (input.readInt() != MAGIC) throw IOException("Not a tile file")
+                val expiresAt = input.readLong()
+                val etag = input.readUTF().ifEmpty { null }
+                val lastModified = input.readUTF().ifEmpty { null }
+                val bytes = ByteArray(input.readInt())
+                input.readFully(bytes)
+                Entry(bytes, etag, lastModified, expiresAt)
+            }
+        } catch (e: IOException) {
+            Log.w(TAG, "Dropping unreadable ${file.name}", e)
+            remove(file)
+            null
+        }
+    }
+
+    private fun write(file: File, entry: Entry) {
+        val buffer = ByteArrayOutputStream(entry.bytes.size + 128)
+        DataOutputStream(buffer).use { out ->
+            out.writeInt(MAGIC)
+            out.writeLong(entry.expiresAt)
+            out.writeUTF(entry.etag ?: "")
+            out.writeUTF(entry.lastModified ?: "")
+            out.writeInt(entry.bytes.size)
+            out.write(entry.bytes)
+        }
+        try {
+            // Written aside and renamed, so a reader never sees half a tile
+            val tmp = File(dir, file.name + "." + Thread.currentThread().id + ".tmp")
+            tmp.writeBytes(buffer.toByteArray())
+            if (!tmp.renameTo(file)) {
+                tmp.delete()
+                return
+            }
+        } catch (e: IOException) {
+            Log.e(TAG, "Could not store ${file.name}", e)
+            return
+        }
+        synchronized(index) {
+            totalBytes += buffer.size() - (index.put(file.name, buffer.size().toLong()) ?: 0L)
+            trim(file.name)
+        }
+    }
+
+    // Least recently used first, never the file just written
+    private fun trim(keep: String) {
+        val iterator = index.entries.iterator()
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            val (name, size) = iterator.next()
+            if (name == keep) continue
+            File(dir, name).delete()
+            totalBytes -= size
+            iterator.remove()
+        }
+    }
+
+    private fun touch(file: File, now: Long) {
+        synchronized(index) { index[file.name] }
+        // Keeps the order across restarts
+        file.setLastModified(now)
+    }
+
+    private fun remove(file: File) {
+        file.delete()
+        synchronized(index) { index.remove(file.name)?.let { totalBytes -= it } }
+    }
+
+    private fun fileFor(url: String) =
+        File(dir, url.substringAfter("://").replace(Regex("[^A-Za-z0-9.-]"), "_") + SUFFIX)
+}
@@ -0,0 +1,164 @@
+package com.example.isro_app.map
+
+import kotlin.math.PI
+import kotlin.math.atan
+import kotlin.math.cos
+import kotlin.math.floor
+import kotlin.math.ln
+import kotlin.math.sinh
+import kotlin.math.tan
+
+/**
+ * One slippy-map tile (XYZ numbering, y grows southwards)
+ */
+data class TileKey(
+    val zoom: Int,
+    val x: Int,
+    val y: Int
+) {
+    /** Packed into one Long, for sets of many tiles */
+    fun packed(): Long = (zoom.toLong() shl 58) or (x.toLong() shl 29) or y.toLong()
+
+    companion object {
+        fun unpack(packed: Long) = TileKey(
+            (packed ushr 58).toInt(),
+            ((packed ushr 29) and 0x1fffffff).toInt(),
+            (packed and 0x1fffffff).toInt()
+        )
+    }
+}
+
+/**
+ * Area to download for offline use: a latitude/longitude box or a polygon.
+ *
+ * [tiles] lists every tile that touches the area at each zoom, lowest zoom first.
+ * A box with west > east crosses the antimeridian; a polygon may not. Polygon edges
+ * are straight in latitude/longitude, which is what a user drawing on the map expects
+ * at this scale.
+ */
+sealed class TileRegion {
+
+    companion object {
+        // Web Mercator stops here
+        private const val MAX_LAT = 85.05112878
+
+        fun tileX(lon: Double, zoom: Int): Int {
+            val n = 1 shl zoom
+            return floor((lon + 180.0) / 360.0 * n).toInt().coerceIn(0, n - 1)
+        }
+
+        fun tileY(lat: Double, zoom: Int): Int {
+            val n = 1 shl zoom
+            val rad = Math.toRadians(lat.coerceIn(-MAX_LAT, MAX_LAT))
+            return floor((1.0 - ln(tan(rad) + 1.0 / cos(rad)) / PI) / 2.0 * n).toInt().coerceIn(0, n - 1)
+        }
+
+        /** Western edge of tile column [x] */
+        fun tileLon(x: Int, zoom: Int): Double = x.toDouble() / (1 shl zoom) * 360.0 - 180.0
+
+        /** Northern edge of tile row [y] */
+        fun tileLat(y: Int, zoom: Int): Double =
+            Math.toDegrees(atan(sinh(PI * (1.0 - 2.0 * y / (1 shl zoom)))))
+    }
+
+    data class Box(
+        val south: Double,
+        val west: Double,
+        val north: Double,
+        val east: Double
+    ) : TileRegion() {
+
+        // Column ranges, two when the box crosses the antimeridian
+        private fun columns(zoom: Int): List<IntRange> =
+            if (west > east) {
+                listOf(tileX(west, zoom) until (1 shl zoom), 0..tileX(east, zoom))
+            } else {
+                listOf(tileX(west, zoom)..tileX(east, zoom))
+            }
+
+        override fun count(zoom: Int): Long {
+            val rows = (tileY(south, zoom) - tileY(north, zoom) + 1).toLong()
+            return columns(zoom).sumOf { (it.last - it.first + 1).toLong() } * rows
+        }
+
+        override fun tiles(zoom: Int): Sequence<TileKey> {
+            val rows = tileY(north, zoom)..tileY(south, zoom)
+            return columns(zoom).asSequence().flatMap { cols ->
+                cols.asSequence().flatMap { x -> rows.asSequence().map { y -> TileKey(zoom, x, y) } }
+            }
+        }
+    }
+
+    /**
+     * [points] are (latitude, longitude) vertices; the ring closes itself
+     */
+    data class Polygon(val points: List<Pair<Double, Double>>) : TileRegion() {
+
+        init {
+            require(points.size >= 3) { "A polygon needs at least three points" }
+        }
+
+        private val bounds = Box(
+            points.minOf { it.first },
+            points.minOf { it.second },
+            points.maxOf { it.first },
+            points.maxOf { it.second }
+        )
+
+        override fun count(zoom: Int): Long = tiles(zoom).count().toLong()
+
+        override fun tiles(zoom: Int): Sequence<TileKey> =
+            bounds.tiles(zoom).filter { t ->
+                touches(tileLat(t.y + 1, zoom), tileLon(t.x, zoom), tileLat(t.y, zoom), tileLon(t.x + 1, zoom))
+            }
+
+        private fun touches(s: Double, w: Double, n: Double, e: Double): Boolean {
+            // A vertex inside the tile, a tile corner inside the polygon, or crossing edges
+            if (points.any { (lat, lon) -> lat in s..n && lon in w..e }) return true
+            if (contains(s, w) || contains(s, e) || contains(n, w) || contains(n, e)) return true
+            val corners = listOf(s to w, s to e, n to e, n to w)
+            return points.indices.any { i ->
+                val a = points[i]
+                val b = points[(i + 1) % points.size]
+                corners.indices.any { j -> crosses(a, b, corners[j], corners[(j + 1) % 4]) }
+            }
+        }
+
+        // Even-odd ray cast towards increasing longitude
+        private fun contains(lat: Double, lon: Double): Boolean {
+            var inside = false
+            var j = points.size - 1
+            for (i in points.indices) {
+                val (latI, lonI) = points[i]
+                val (latJ, lonJ) = points[j]
+                if ((latI > lat) != (latJ > lat) &&
+                    lon < (lonJ - lonI) * (lat - latI) / (latJ - latI) + lonI
+                ) {
+                    inside = !inside
+                }
+                j = i
+            }
+            return inside
+        }
+
+        private fun crosses(a: Pair<Double, Double>, b: Pair<Double, Double>, c: Pair<Double, Double>, d: Pair<Double, Double>): Boolean {
+            fun side(p: Pair<Double, Double>, q: Pair<Double, Double>, r: Pair<Double, Double>) =
+                (q.second - p.second) * (r.first - p.first) - (q.first - p.first) * (r.second - p.second)
+            val d1 = side(c, d, a)
+            val d2 = side(c, d, b)
+            val d3 = side(a, b, c)
+            val d4 = side(a, b, d)
+            return ((d1 > 0) != (d2 > 0)) && ((d3 > 0) != (d4 > 0))
+        }
+    }
+
+    /** Tiles touching the region at [zoom] */
+    abstract fun tiles(zoom: Int): Sequence<TileKey>
+
+    /** Number of [tiles] at [zoom] */
+    abstract fun count(zoom: Int): Long
+
+    fun tiles(zooms: IntRange): Sequence<TileKey> = zooms.asSequence().flatMap { tiles(it) }
+
+    fun count(zooms: IntRange): Long = zooms.sumOf { count(it) }
+}
@@ -0,0 +1,146 @@
+package com.example.isro_app.map
+
+/**
+ * How quickly the map filled up after the user stopped moving it. A viewport counts
+ * once it needed a download and everything visible was fetched; [incomplete] ones
+ * had a tile fail, [superseded] ones were left before they filled.
+ */
+data class ViewportFillMetrics(
+    val viewports: Long,
+    val lastMillis: Double,
+    val meanMillis: Double,
+    val maxMillis: Double,
+    val incomplete: Long,
+    val superseded: Long,
+    val cancelledTiles: Long
+) {
+    override fun toString(): String =
+        "full viewport in %.0f ms (mean %.0f, max %.0f over $viewports), $incomplete incomplete, $superseded superseded, $cancelledTiles tiles cancelled"
+            .format(lastMillis, meanMillis, maxMillis)
+}
+
+/**
+ * Order of queued LAN tile downloads, given the tiles on screen.
+ *
+ * The map reports its visible tile range with [setViewport] as it moves. Queued tiles
+ * are fetched nearest the viewport center first ([distance]), so the middle of the
+ * screen fills before the edges; tiles outside the viewport (plus [margin] tiles) or
+ * at another zoom are not wanted any more and get dropped from the queue instead of
+ * using the link. Until the first viewport arrives every tile is wanted.
+ *
+ * Also measures time to full viewport: from a viewport change to the moment the
+ * loaders have nothing left to fetch for it ([picked], [failed], [drained]).
+ * Safe to call from the UI thread and the loader threads.
+ */
+class TileScheduler(
+    private val margin: Int = 1,
+    private val clock: () -> Long = System::nanoTime
+) {
+
+    private class Viewport(val zoom: Int, val left: Int, val top: Int, val right: Int, val bottom: Int) {
+        val centerX = (left + right + 1) / 2.0
+        val centerY = (top + bottom + 1) / 2.0
+        // Largest distance of a wanted tile's center from the viewport center
+        val reachX = (right - left) / 2.0
+        val reachY = (bottom - top) / 2.0
+
+        fun sameAs(other: Viewport?) = other != null && zoom == other.zoom &&
+            left == other.left && top == other.top && right == other.right && bottom == other.bottom
+    }
+
+    @Volatile
+    private var viewport: Viewport? = null
+
+    // Time-to-full-viewport state; guarded by this
+    private var since = 0L
+    // A tile was fetched for the current viewport, so its fill time is worth recording
+    private var downloading = false
+    private var tileFailed = false
+    private var viewports = 0L
+    private var lastNanos = 0L
+    private var totalNanos = 0L
+    private var maxNanos = 0L
+    private var incomplete = 0L
+    private var superseded = 0L
+    private var cancelled = 0L
+
+    /**
+     * Tiles now on screen: x in [left]..[right], y in [top]..[bottom] at [zoom], as
+     * osmdroid's TilesOverlay computes them. x may run past the world edge when the
+     * map wraps around.
+     */
+    @Synchronized
+    fun setViewport(zoom: Int, left: Int, top: Int, right: Int, bottom: Int) {
+        val next = Viewport(zoom, left, top, right, bottom)
+        if (next.sameAs(viewport)) return
+        viewport = next
+        if (downloading) superseded++
+        since = clock()
+        downloading = false
+        tileFailed = false
+    }
+
+    /**
+     * Squared distance in tiles from the viewport center to the tile's center, lower
+     * fetched first; null when the tile is off screen and should not be fetched.
+     */
+    fun distance(zoom: Int, x: Int, y: Int): Double? {
+        val view = viewport ?: return 0.0
+        if (zoom != view.zoom) return null
+        val world = (1L shl zoom).toDouble()
+        var dx = x + 0.5 - view.centerX
+        // Nearest copy of the tile when the map wraps horizontally
+        dx -= Math.rint(dx / world) * world
+        val dy = y + 0.5 - view.centerY
+        if (Math.abs(dx) > view.reachX + margin || Math.abs(dy) > view.reachY + margin) return null
+        return dx * dx + dy * dy
+    }
+
+    /** A loader started fetching a tile for the current viewport */
+    @Synchronized
+    fun picked() {
+        downloading = true
+    }
+
+    /** A tile could not be fetched, so the current viewport will not fill */
+    @Synchronized
+    fun failed() {
+        tileFailed = true
+    }
+
+    @Synchronized
+    fun cancelled(tiles: Int) {
+        cancelled += tiles
+    }
+
+    /**
+     * The loaders ran out of wanted tiles. Returns the current viewport's fill time in
+     * nanoseconds the first time that happens after it needed downloads, else null.
+     */
+    @Synchronized
+    fun drained(): Long? {
+        if (!downloading) return null
+        downloading = false
+        if (tileFailed) {
+            incomplete++
+            return null
+        }
+        val elapsed = clock() - since
+        viewports++
+        lastNanos = elapsed
+        totalNanos += elapsed
+        maxNanos = maxOf(maxNanos, elapsed)
+        return elapsed
+    }
+
+    @Synchronized
+    fun metrics() = ViewportFillMetrics(
+        viewports = viewports,
+        lastMillis = lastNanos / 1e6,
+        meanMillis = if (viewports == 0L) 0.0 else totalNanos / 1e6 / viewports,
+        maxMillis = maxNanos / 1e6,
+        incomplete = incomplete,
+        superseded = superseded,
+        cancelledTiles = cancelled
+    )
+}
@@ -0,0 +1,172 @@
+package com.example.isro_app.map
+
+import android.content.Context
+import android.graphics.Canvas
+import android.graphics.Paint
+import android.graphics.Point
+import androidx.compose.ui.graphics.toArgb
+import com.example.isro_app.location.TrackBuffer
+import com.example.isro_app.location.TrackHistory
+import com.example.isro_app.ui.theme.PrimaryBlueDark
+import com.example.isro_app.ui.theme.Warning
+import org.osmdroid.util.BoundingBox
+import org.osmdroid.util.GeoPoint
+import org.osmdroid.views.Projection
+import org.osmdroid.views.overlay.Overlay
+import kotlin.math.PI
+import kotlin.math.cos
+import kotlin.math.ln
+import kotlin.math.pow
+import kotlin.math.tan
+
+/**
+ * Draws where every device has been over the last [windowMs], as one overlay for
+ * the whole fleet rather than a Polyline per device.
+ *
+ * Tracks are simplified with [TrackSimplifier] to [TOLERANCE_DP] at the current zoom
+ * level, which turns thousands of fixes into a handful of segments once zoomed out.
+ * The result is cached per device and zoom level and only recomputed when the device
+ * stores a new fix or its oldest fix leaves the window; zooming back to a level seen
+ * before costs nothing. Tracks outside the visible box are not drawn, and all of a
+ * track's segments go to the canvas in one drawLines call.
+ */
+class TrackOverlay(
+    context: Context,
+    private val history: TrackHistory,
+    private val myDeviceId: String
+) : Overlay() {
+
+    companion object {
+        // Fixes closer than this to the simplified line are dropped
+        private const val TOLERANCE_DP = 1.5
+        private const val LINE_DP = 3f
+        private const val MAX_ZOOM = 30
+
+        /** [windowMs] that shows every fix still kept in [TrackHistory] */
+        const val WINDOW_ALL = Long.MAX_VALUE
+    }
+
+    private class Simplified(
+        val version: Long,
+        // Time of the oldest fix used; once it leaves the window the track is redone
+        val oldest: Long,
+        val latitudes: DoubleArray,
+        val longitudes: DoubleArray,
+        val south: Double,
+        val west: Double,
+        val north: Double,
+        val east: Double
+    )
+
+    private val density = context.resources.displayMetrics.density
+
+    private fun linePaint(color: Int) = Paint(Paint.ANTI_ALIAS_FLAG).apply {
+        this.color = color
+        alpha = 170
+        style = Paint.Style.STROKE
+        strokeWidth = LINE_DP * density
+        strokeCap = Paint.Cap.ROUND
+    }
+    private val otherPaint = linePaint(PrimaryBlueDark.toArgb())
+    private val selfPaint = linePaint(Warning.toArgb())
+
+    // Device id -> simplified track per zoom level; used on the UI thread only
+    private val cache = HashMap<String, Array<Simplified?>>()
+
+    // Reused while drawing
+    private val geo = GeoPoint(0.0, 0.0)
+    private val screen = Point()
+    private var lines = FloatArray(256)
+
+    /** How far back tracks reach; 0 hides them, [WINDOW_ALL] shows all kept. Set on the UI thread. */
+    var windowMs: Long = 0
+        set(value) {
+            if (field == value) return
+            field = value
+            // A longer window brings back fixes the cached tracks left out
+            cache.clear()
+        }
+
+    override fun draw(canvas: Canvas, projection: Projection) {
+        if (windowMs <= 0) return
+        val since = if (windowMs == WINDOW_ALL) Long.MIN_VALUE else System.currentTimeMillis() - windowMs
+        val zoom = projection.zoomLevel.toInt().coerceIn(0, MAX_ZOOM)
+        // World size in pixels at the whole zoom level the cache is kept for
+        val worldPx = projection.worldMapSize / 2.0.pow(projection.zoomLevel - zoom)
+        val tolerance = TOLERANCE_DP * density / worldPx
+        val box = projection.boundingBox
+
+        val ids = history.ids()
+        cache.keys.retainAll(ids)
+        for (id in ids) {
+            val buffer = history.track(id) ?: continue
+            val track = simplified(id, buffer, zoom, since, tolerance)
+            if (track.latitudes.size < 2 || !overlaps(track, box)) continue
+            drawTrack(canvas, projection, track, if (id == myDeviceId) selfPaint else otherPaint)
+        }
+    }
+
+    private fun simplified(id: String, buffer: TrackBuffer, zoom: Int, since: Long, tolerance: Double): Simplified {
+        val perZoom = cache.getOrPut(id) { arrayOfNulls(MAX_ZOOM + 1) }
+        // Read before copying: a fix stored meanwhile makes the entry stale, not wrong
+        val version = buffer.version
+        perZoom[zoom]?.let { if (it.version == version && it.oldest >= since) return it }
+
+        val points = buffer.since(since)
+        // Simplified in Web Mercator, where the tolerance is the same everywhere on screen
+        val xs = DoubleArray(points.size) { (points.longitudes[it] + 180.0) / 360.0 }
+        val ys = DoubleArray(points.size) { mercatorY(points.latitudes[it]) }
+        val kept = TrackSimplifier.simplify(xs, ys, points.size, tolerance)
+
+        val latitudes = DoubleArray(kept.size) { points.latitudes[kept[it]] }
+        val longitudes = DoubleArray(kept.size) { points.longitudes[kept[it]] }
+        val track = Simplified(
+            version = version,
+            oldest = if (points.size > 0) points.times[0] else Long.MAX_VALUE,
+            latitudes = latitudes,
+            longitudes = longitudes,
+            south = latitudes.minOrNull() ?: 0.0,
+            west = longitudes.minOrNull() ?: 0.0,
+            north = latitudes.maxOrNull() ?: 0.0,
+            east = longitudes.maxOrNull() ?: 0.0
+        )
+        perZoom[zoom] = track
+        return track
+    }
+
+    private fun overlaps(track: Simplified, box: BoundingBox): Boolean {
+        if (track.south > box.latNorth || track.north < box.latSouth) return false
+        // A box across the antimeridian is not worth the arithmetic; draw and let the canvas clip
+        if (box.lonWest > box.lonEast) return true
+        return track.west <= box.lonEast && track.east >= box.lonWest
+    }
+
+    private fun drawTrack(canvas: Canvas, projection: Projection, track: Simplified, paint: Paint) {
+        val n = track.latitudes.size
+        val needed = (n - 1) * 4
+        if (lines.size < needed) lines = FloatArray(needed * 2)
+        var previousX = 0f
+        var previousY = 0f
+        var k = 0
+        for (i in 0 until n) {
+            geo.setCoords(track.latitudes[i], track.longitudes[i])
+            projection.toPixels(geo, screen)
+            val x = screen.x.toFloat()
+            val y = screen.y.toFloat()
+            if (i > 0) {
+                lines[k++] = previousX
+                lines[k++] = previousY
+                lines[k++] = x
+                lines[k++] = y
+            }
+            previousX = x
+            previousY = y
+        }
+        canvas.drawLines(lines, 0, k, paint)
+    }
+
+    private fun mercatorY(latitude: Double): Double {
+        val lat = Math.toRadians(latitude.coerceIn(-85.05112878, 85.05112878))
+        return (1.0 - ln(tan(lat) + 1.0 / cos(lat)) / PI) / 2.0
+    }
+}
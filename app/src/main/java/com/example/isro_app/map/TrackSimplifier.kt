@@ -0,0 +1,65 @@
+package com.example.isro_app.map
+
+/**
+ * Douglas-Peucker line simplification on primitive arrays.
+ *
+ * Keeps the end points and, recursively, the point furthest from the chord between
+ * two kept points while that distance exceeds the tolerance. The recursion runs on
+ * an explicit stack, so a long straight track cannot overflow the thread stack.
+ */
+object TrackSimplifier {
+
+    /**
+     * Indices of the points of `xs[0 until size]`, `ys[0 until size]` that stay,
+     * ascending. [tolerance] is in the units of [xs] and [ys].
+     */
+    fun simplify(xs: DoubleArray, ys: DoubleArray, size: Int, tolerance: Double): IntArray {
+        if (size <= 2) return IntArray(size) { it }
+        val keep = BooleanArray(size)
+        keep[0] = true
+        keep[size - 1] = true
+        val toleranceSq = tolerance * tolerance
+
+        // Pairs of (first, last) index still to examine
+        var stack = IntArray(64)
+        var top = 0
+        stack[top++] = 0
+        stack[top++] = size - 1
+        while (top > 0) {
+            val last = stack[--top]
+            val first = stack[--top]
+            var furthest = -1
+            var furthestSq = toleranceSq
+            for (i in first + 1 until last) {
+                val d = distanceSq(xs[i], ys[i], xs[first], ys[first], xs[last], ys[last])
+                if (d > furthestSq) {
+                    furthest = i
+                    furthestSq = d
+                }
+            }
+            if (furthest < 0) continue
+            keep[furthest] = true
+            if (top + 4 > stack.size) stack = stack.copyOf(stack.size * 2)
+            stack[top++] = first
+            stack[top++] = furthest
+            stack[top++] = furthest
+            stack[top++] = last
+        }
+
+        val kept = IntArray(keep.count { it })
+        var k = 0
+        for (i in 0 until size) if (keep[i]) kept[k++] = i
+        return kept
+    }
+
+    // Squared distance from (px, py) to the segment (ax, ay)-(bx, by)
+    private fun distanceSq(px: Double, py: Double, ax: Double, ay: Double, bx: Double, by: Double): Double {
+        val dx = bx - ax
+        val dy = by - ay
+        val lengthSq = dx * dx + dy * dy
+        val t = if (lengthSq == 0.0) 0.0 else (((px - ax) * dx + (py - ay) * dy) / lengthSq).coerceIn(0.0, 1.0)
+        val ex = ax + t * dx - px
+        val ey = ay + t * dy - py
+        return ex * ex + ey * ey
+    }
+}
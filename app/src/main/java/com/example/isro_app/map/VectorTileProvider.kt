@@ -0,0 +1,190 @@
+package com.example.isro_app.map
+
+import android.content.Context
+import android.content.res.Resources
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import android.graphics.drawable.BitmapDrawable
+import android.graphics.drawable.Drawable
+import android.util.Log
+import android.util.LruCache
+import com.example.isro_app.attachment.ContentHash
+import org.mapsforge.map.rendertheme.InternalRenderTheme
+import org.osmdroid.config.Configuration
+import org.osmdroid.mapsforge.MapsForgeTileSource
+import org.osmdroid.tileprovider.MapTileProviderArray
+import org.osmdroid.tileprovider.modules.MapTileModuleProviderBase
+import org.osmdroid.tileprovider.tilesource.ITileSource
+import org.osmdroid.tileprovider.util.SimpleRegisterReceiver
+import org.osmdroid.util.MapTileIndex
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Tile provider for [com.example.isro_app.settings.MapMode.Vector]: the map is rendered
+ * on the device from mapsforge .map files.
+ *
+ * A .map file holds a region's roads, buildings and labels for every zoom level in a
+ * small fraction of the space its PNG tiles take, keeps detail past the raster
+ * server's zoom 14, and a style change needs no new tiles. Rendering is the expensive
+ * part, so rendered tiles are kept in [cache] and in memory. Map files are the *.map
+ * files in [OfflineFirstTileProvider.archiveDirs] (see [mapFiles]); they are closed
+ * when the map view detaches.
+ */
+class VectorTileProvider private constructor(
+    context: Context,
+    mapFiles: List<File>,
+    sources: List<MapsForgeTileSource>,
+    cache: TileCache
+) : MapTileProviderArray(sources.first(), SimpleRegisterReceiver(context)) {
+
+    /**
+     * Renders [mapFiles] on [threads] threads. Needs [MapsForgeTileSource.createInstance]
+     * to have been called once for the process.
+     */
+    constructor(context: Context, mapFiles: List<File>, cache: TileCache, threads: Int = defaultThreads()) : this(
+        context,
+        mapFiles,
+        List(threads) { MapsForgeTileSource.createFromFiles(mapFiles.toTypedArray(), THEME, THEME.name) },
+        cache
+    )
+
+    companion object {
+        private const val TAG = "VECTOR-TILES"
+        private val THEME = InternalRenderTheme.OSMARENDER
+        // Bump when rendering changes in a way the style key cannot see
+        private const val RENDER_VERSION = 1
+
+        // One renderer per core, leaving one for the UI thread
+        fun defaultThreads(): Int = (Runtime.getRuntime().availableProcessors() - 1).coerceIn(1, 4)
+
+        /** The mapsforge .map files in [dirs] */
+        fun mapFiles(dirs: List<File>): List<File> =
+            dirs.flatMap { dir -> dir.listFiles { f -> f.isFile && f.name.endsWith(".map") }.orEmpty().asList() }
+                .sortedBy { it.name }
+
+        /**
+         * Identifies what a rendered tile is made from, so replacing a map file or the
+         * theme renders afresh instead of serving old tiles
+         */
+        fun styleKey(mapFiles: List<File>, theme: String): String {
+            val digest = ContentHash.newDigest()
+            mapFiles.forEach { digest.update("${it.name}:${it.length()}:${it.lastModified()};".toByteArray()) }
+            digest.update("$theme:$RENDER_VERSION".toByteArray())
+            return ContentHash.hex(digest.digest()).take(16)
+        }
+    }
+
+    init {
+        mTileProviderList.add(VectorTileModule(context.resources, sources, cache, styleKey(mapFiles, THEME.name)))
+        Log.d(TAG, "Map files: ${mapFiles.joinToString { it.name }}, ${sources.size} render threads")
+    }
+}
+
+/**
+ * Render-thread pool for [VectorTileProvider].
+ *
+ * [MapsForgeTileSource.renderTile] is synchronized per instance, so a single source
+ * renders one tile at a time however many loader threads osmdroid runs. Each loader
+ * thread borrows its own source from [pool] instead. Rendered tiles are stored in
+ * [cache] as PNG under [styleKey] and kept decoded in an [LruCache], the same way
+ * [LanTileProvider] keeps downloaded ones.
+ */
+private class VectorTileModule(
+    private val resources: Resources,
+    sources: List<MapsForgeTileSource>,
+    private val cache: TileCache,
+    private val styleKey: String,
+    memoryBytes: Int = LanTileProvider.defaultMemoryBytes()
+) : MapTileModuleProviderBase(sources.size, Configuration.getInstance().tileFileSystemMaxQueueSize.toInt()) {
+
+    companion object {
+        private const val TAG = "VECTOR-TILES"
+        // Log the cache metrics every this many tiles
+        private const val LOG_EVERY = 200
+    }
+
+    // Idle sources; guarded by itself together with [detached]
+    private val pool = ArrayBlockingQueue(sources.size, false, sources)
+    private var detached = false
+    private val loaded = AtomicInteger()
+
+    private val memory = object : LruCache<Long, Bitmap>(memoryBytes) {
+        override fun sizeOf(key: Long, value: Bitmap): Int = value.byteCount
+    }
+
+    override fun getName(): String = "Vector renderer"
+
+    override fun getThreadGroupName(): String = "vectortiles"
+
+    override fun getUsesDataConnection(): Boolean = false
+
+    override fun getMinimumZoomLevel(): Int = MapsForgeTileSource.MIN_ZOOM
+
+    override fun getMaximumZoomLevel(): Int = MapsForgeTileSource.MAX_ZOOM
+
+    override fun setTileSource(tileSource: ITileSource) {
+        // The map files are fixed for the life of the provider
+    }
+
+    override fun getTileLoader(): TileLoader = Loader()
+
+    override fun detach() {
+        super.detach()
+        // Sources still rendering are disposed by their thread when it returns them
+        synchronized(pool) {
+            detached = true
+            pool.forEach { it.dispose() }
+            pool.clear()
+        }
+        memory.evictAll()
+    }
+
+    private fun render(index: Long): Bitmap? {
+        val source = pool.take()
+        try {
+            return (source.renderTile(index) as? BitmapDrawable)?.bitmap
+        } finally {
+            synchronized(pool) {
+                if (detached) source.dispose() else pool.put(source)
+            }
+        }
+    }
+
+    private fun encode(bitmap: Bitmap): ByteArray {
+        val out = ByteArrayOutputStream(32 * 1024)
+        bitmap.compress(Bitmap.CompressFormat.PNG, 100, out)
+        return out.toByteArray()
+    }
+
+    private inner class Loader : TileLoader() {
+
+        override fun loadTile(index: Long): Drawable? {
+            val start = System.nanoTime()
+            memory.get(index)?.let {
+                cache.recordMemoryHit(System.nanoTime() - start)
+                return BitmapDrawable(resources, it)
+            }
+
+            // Keep the freshly rendered bitmap rather than decoding the PNG just made of it
+            var rendered: Bitmap? = null
+            val key = "vector/$styleKey/${MapTileIndex.getZoom(index)}/${MapTileIndex.getX(index)}/${MapTileIndex.getY(index)}"
+            val bytes = cache.getOrCreate(key) {
+                render(index)?.let { bitmap ->
+                    rendered = bitmap
+                    encode(bitmap)
+                }
+            } ?: return null
+            val bitmap = rendered ?: BitmapFactory.decodeByteArray(bytes, 0, bytes.size)
+            if (bitmap == null) {
+                Log.w(TAG, "Undecodable tile ${MapTileIndex.toString(index)}")
+                return null
+            }
+            memory.put(index, bitmap)
+            if (loaded.incrementAndGet() % LOG_EVERY == 0) Log.d(TAG, cache.metrics().toString())
+            return BitmapDrawable(resources, bitmap)
+        }
+    }
+}
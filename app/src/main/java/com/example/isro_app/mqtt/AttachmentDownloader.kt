@@ -1,50 +1,45 @@
 package com.example.isro_app.mqtt
 
-import android.app.DownloadManager
+import android.content.ActivityNotFoundException
 import android.content.Context
-import android.net.Uri
-import android.os.Environment
+import android.content.Intent
+import android.webkit.MimeTypeMap
 import android.widget.Toast
-
-fun downloadAttachment(
+import androidx.core.content.FileProvider
+import com.example.isro_app.attachment.AttachmentDownloads
+import com.example.isro_app.attachment.DownloadPriority
+
+/**
+ * Open a received attachment, downloading it in-app first unless it is already on
+ * the device. Progress shows up in [AttachmentDownloads.progress].
+ */
+suspend fun openAttachment(
     context: Context,
+    downloads: AttachmentDownloads,
     url: String,
-    filename: String
+    filename: String,
+    sha256: String?,
+    gzip: Boolean = false,
+    size: Long = 0
 ) {
-    try {
-        val request = DownloadManager.Request(Uri.parse(url)).apply {
-            setTitle(filename)
-            setDescription("Downloading attachment")
-            setNotificationVisibility(
-                DownloadManager.Request.VISIBILITY_VISIBLE_NOTIFY_COMPLETED
-            )
-
-            // ✅ Save to specific folder
-            setDestinationInExternalPublicDir(
-                Environment.DIRECTORY_DOWNLOADS,
-                "ISRO_ATTACHMENTS/$filename"
-            )
-
-            setAllowedOverMetered(true)
-            setAllowedOverRoaming(true)
-        }
-
-        val dm =
-            context.getSystemService(Context.DOWNLOAD_SERVICE) as DownloadManager
-        dm.enqueue(request)
+    val file = try {
+        downloads.download(url, sha256, filename, gzip, size, DownloadPriority.Open)
+    } catch (e: Exception) {
+        Toast.makeText(context, "Download failed", Toast.LENGTH_SHORT).show()
+        return
+    }
 
-        Toast.makeText(
-            context,
-            "Downloading $filename",
-            Toast.LENGTH_SHORT
-        ).show()
+    val uri = FileProvider.getUriForFile(context, "${context.packageName}.attachments", file)
+    val mimeType = MimeTypeMap.getSingleton()
+        .getMimeTypeFromExtension(filename.substringAfterLast('.', "").lowercase())
+        ?: "application/octet-stream"
+    val intent = Intent(Intent.ACTION_VIEW)
+        .setDataAndType(uri, mimeType)
+        .addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION or Intent.FLAG_ACTIVITY_NEW_TASK)
 
-    } catch (e: Exception) {
-        Toast.makeText(
-            context,
-            "Download failed",
-            Toast.LENGTH_SHORT
-        ).show()
+    try {
+        context.startActivity(Intent.createChooser(intent, filename).addFlags(Intent.FLAG_ACTIVITY_NEW_TASK))
+    } catch (e: ActivityNotFoundException) {
+        Toast.makeText(context, "No app can open $filename", Toast.LENGTH_SHORT).show()
     }
 }
-
@@ -0,0 +1,78 @@
+package com.example.isro_app.mqtt
+
+import org.json.JSONObject
+
+/**
+ * Compact call signalling payload for the call/<deviceId> topic
+ *
+ * Wire format (UTF-8, '|' separated):
+ *   <code>|<from>|<callId>|<sentAtMillis>[|<ringMs>|<answerMs>]
+ *
+ * code: R = request, A = accept, J = reject, E = end.
+ * ringMs/answerMs are only sent with an accept: the callee's time from receiving
+ * the request to ringing, and from ringing to the user answering.
+ *
+ * While older clients are still around each signal is also sent to the peer's inbox
+ * in the old JSON form ([encodeLegacy]). It carries the call id, which old clients
+ * ignore and new ones use to drop the copy they already got on call/<deviceId>.
+ */
+data class CallSignal(
+    val type: Type,
+    val from: String,
+    val callId: String,
+    val sentAt: Long,
+    val ringMs: Long = -1,
+    val answerMs: Long = -1
+) {
+    enum class Type(val code: Char, val legacy: String) {
+        Request('R', "CALL_REQUEST"),
+        Accept('A', "CALL_ACCEPT"),
+        Reject('J', "CALL_REJECT"),
+        End('E', "CALL_END")
+    }
+
+    fun encode(): ByteArray {
+        val sb = StringBuilder(48)
+            .append(type.code).append('|')
+            .append(from).append('|')
+            .append(callId).append('|')
+            .append(sentAt)
+        if (type == Type.Accept && ringMs >= 0) {
+            sb.append('|').append(ringMs).append('|').append(answerMs)
+        }
+        return sb.toString().toByteArray()
+    }
+
+    /** The same signal as a JSON inbox message for [to], as clients without call/ expect */
+    fun encodeLegacy(to: String): ByteArray =
+        JSONObject().apply {
+            put("type", type.legacy)
+            put("from", from)
+            put("to", to)
+            put(LEGACY_CALL_ID, callId)
+        }.toString().toByteArray()
+
+    companion object {
+        const val LEGACY_CALL_ID = "call_id"
+
+        fun topicFor(deviceId: String) = "call/$deviceId"
+
+        /**
+         * Returns null for anything that is not a well-formed signal
+         */
+        fun decode(payload: ByteArray): CallSignal? {
+            val parts = String(payload).split('|')
+            if (parts.size < 4 || parts[0].length != 1) return null
+            val type = Type.values().firstOrNull { it.code == parts[0][0] } ?: return null
+            val sentAt = parts[3].toLongOrNull() ?: return null
+            return CallSignal(
+                type = type,
+                from = parts[1],
+                callId = parts[2],
+                sentAt = sentAt,
+                ringMs = parts.getOrNull(4)?.toLongOrNull() ?: -1,
+                answerMs = parts.getOrNull(5)?.toLongOrNull() ?: -1
+            )
+        }
+    }
+}
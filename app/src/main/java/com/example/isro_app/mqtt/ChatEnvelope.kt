@@ -0,0 +1,60 @@
+package com.example.isro_app.mqtt
+
+import org.json.JSONObject
+
+/**
+ * Structured chat payload for the <deviceId>/inbox and group/<id>/chat topics
+ *
+ *   {"type":"chat","id":"<epoch>-<n>","from":"<deviceId>","seq":<n>,"epoch":<n>,"sent_at":<millis>,"text":"..."}
+ *
+ * id is unique per sender. seq is monotonic per sender and destination topic
+ * within one epoch, so each receiver sees a gap-free sequence. epoch is fixed when
+ * the sender's MqttManager starts, so receivers can tell a restarted sender (seq
+ * back at 1) from a redelivery. The legacy "sender: message" text is still accepted.
+ */
+data class ChatEnvelope(
+    val id: String,
+    val from: String,
+    val seq: Long,
+    val epoch: Long,
+    val sentAt: Long,
+    val text: String,
+    // Group id for group/<id>/chat messages, null for direct messages
+    val group: String? = null
+) {
+    fun encode(): ByteArray =
+        JSONObject().apply {
+            put("type", TYPE)
+            put("id", id)
+            put("from", from)
+            put("seq", seq)
+            put("epoch", epoch)
+            put("sent_at", sentAt)
+            put("text", text)
+            group?.let { put("group", it) }
+        }.toString().toByteArray()
+
+    companion object {
+        const val TYPE = "chat"
+
+        /**
+         * Returns null unless [json] is a well-formed chat envelope
+         */
+        fun decode(json: JSONObject): ChatEnvelope? {
+            if (json.optString("type") != TYPE) return null
+            val from = json.optString("from")
+            val seq = json.optLong("seq", -1)
+            if (from.isBlank() || seq < 1) return null
+            val epoch = json.optLong("epoch", 0)
+            return ChatEnvelope(
+                id = json.optString("id").ifBlank { "$epoch-$seq" },
+                from = from,
+                seq = seq,
+                epoch = epoch,
+                sentAt = json.optLong("sent_at", System.currentTimeMillis()),
+                text = json.optString("text"),
+                group = json.optString("group").ifBlank { null }
+            )
+        }
+    }
+}
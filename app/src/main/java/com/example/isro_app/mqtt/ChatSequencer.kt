@@ -0,0 +1,133 @@
+package com.example.isro_app.mqtt
+
+import java.util.TreeMap
+
+/**
+ * Per-sender (per stream) duplicate suppression and reordering for inbound [ChatEnvelope]s.
+ *
+ * Dedupe uses a sliding 64-bit bitmap anchored at the highest seq seen, so each
+ * check is O(1) and state is two longs per sender. Anything older than the window
+ * is treated as a duplicate.
+ *
+ * Out-of-order messages are held until the gap fills, at most [reorderWindow]
+ * messages or [holdMs]; after that the gap is skipped and a late arrival is
+ * delivered as soon as it shows up.
+ *
+ * When a sender restarts (higher epoch) the previous session's window is kept, so
+ * its stragglers are still deduped and delivered at once; anything from an even
+ * older session is dropped.
+ */
+class ChatSequencer(
+    private val reorderWindow: Int = 8,
+    private val holdMs: Long = 1000
+) {
+
+    companion object {
+        private const val WINDOW_BITS = 64
+    }
+
+    private class Held(val envelope: ChatEnvelope, val arrivedAt: Long)
+
+    private class SenderState(val epoch: Long, firstSeq: Long) {
+        var highest = 0L
+        // bit i set => seq (highest - i) already seen
+        var seen = 0L
+        var next = firstSeq
+        val held = TreeMap<Long, Held>()
+        // The session this one replaced, for its stragglers
+        var previous: SenderState? = null
+    }
+
+    private val senders = HashMap<String, SenderState>()
+
+    val hasHeld: Boolean
+        @Synchronized get() = senders.values.any { it.held.isNotEmpty() }
+
+    /**
+     * Returns the envelopes now deliverable, in order: empty for a duplicate or a
+     * message being held for reordering. [stream] identifies one sender on one
+     * topic, since seq is counted per destination.
+     */
+    @Synchronized
+    fun accept(envelope: ChatEnvelope, now: Long, stream: String = envelope.from): List<ChatEnvelope> {
+        var state = senders[stream]
+        val out = ArrayList<ChatEnvelope>(1)
+
+        if (state == null || envelope.epoch > state.epoch) {
+            // New sender or sender restarted: release whatever the old session held
+            val old = state
+            old?.held?.values?.forEach { out.add(it.envelope) }
+            old?.held?.clear()
+            old?.previous = null
+            state = SenderState(envelope.epoch, envelope.seq)
+            state.previous = old
+            senders[stream] = state
+        } else if (envelope.epoch < state.epoch) {
+            // Straggler from the previous session: dedupe, but no reordering
+            val previous = state.previous
+            if (previous != null && envelope.epoch == previous.epoch && markSeen(previous, envelope.seq)) {
+                out.add(envelope)
+            }
+            return out
+        }
+
+        if (!markSeen(state, envelope.seq)) return out
+
+        when {
+            envelope.seq < state.next -> out.add(envelope)
+            envelope.seq == state.next -> {
+                out.add(envelope)
+                state.next++
+                drainContiguous(state, out)
+            }
+            else -> {
+                state.held[envelope.seq] = Held(envelope, now)
+                if (state.held.size > reorderWindow) skipGap(state, out)
+            }
+        }
+        return out
+    }
+
+    /**
+     * Release held messages whose gap has been open longer than [holdMs]
+     */
+    @Synchronized
+    fun flushExpired(now: Long): List<ChatEnvelope> {
+        val out = ArrayList<ChatEnvelope>()
+        senders.values.forEach { state ->
+            while (state.held.isNotEmpty() && now - state.held.firstEntry().value.arrivedAt >= holdMs) {
+                skipGap(state, out)
+            }
+        }
+        return out
+    }
+
+    private fun markSeen(state: SenderState, seq: Long): Boolean {
+        if (seq > state.highest) {
+            val shift = seq - state.highest
+            state.seen = if (shift >= WINDOW_BITS) 0L else state.seen shl shift.toInt()
+            state.seen = state.seen or 1L
+            state.highest = seq
+            return true
+        }
+        val offset = state.highest - seq
+        if (offset >= WINDOW_BITS) return false
+        val bit = 1L shl offset.toInt()
+        if (state.seen and bit != 0L) return false
+        state.seen = state.seen or bit
+        return true
+    }
+
+    private fun skipGap(state: SenderState, out: MutableList<ChatEnvelope>) {
+        state.next = state.held.firstKey()
+        drainContiguous(state, out)
+    }
+
+    private fun drainContiguous(state: SenderState, out: MutableList<ChatEnvelope>) {
+        while (true) {
+            val held = state.held.remove(state.next) ?: return
+            out.add(held.envelope)
+            state.next++
+        }
+    }
+}
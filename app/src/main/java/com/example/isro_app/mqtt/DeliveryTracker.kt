@@ -0,0 +1,145 @@
+package com.example.isro_app.mqtt
+
+import android.util.Log
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.update
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * Delivery state of an outgoing chat message or attachment
+ *
+ * Pending   - created, not yet acknowledged by the broker (or queued offline)
+ * Sent      - broker acknowledged the publish (PUBACK)
+ * Delivered - recipient acknowledged it with a receipt
+ * Failed    - never left the device (upload failed or dropped from a full outbox)
+ */
+enum class DeliveryState {
+    Pending,
+    Sent,
+    Delivered,
+    Failed
+}
+
+/**
+ * Fixed-bucket latency histogram, safe to record from any thread
+ */
+class LatencyHistogram {
+
+    companion object {
+        // Upper bounds in ms; the last bucket is open-ended
+        val BOUNDS_MS = longArrayOf(10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10_000)
+    }
+
+    private val counts = AtomicLongArray(BOUNDS_MS.size + 1)
+
+    fun record(ms: Long) {
+        var i = 0
+        while (i < BOUNDS_MS.size && ms > BOUNDS_MS[i]) i++
+        counts.incrementAndGet(i)
+    }
+
+    val count: Long
+        get() = (0 until counts.length()).sumOf { counts.get(it) }
+
+    /**
+     * Upper bound of the bucket holding quantile [q]; -1 when empty
+     */
+    fun percentile(q: Double): Long {
+        val total = count
+        if (total == 0L) return -1
+        val target = (total * q).toLong().coerceAtLeast(1)
+        var seen = 0L
+        for (i in 0 until counts.length()) {
+            seen += counts.get(i)
+            if (seen >= target) return if (i < BOUNDS_MS.size) BOUNDS_MS[i] else Long.MAX_VALUE
+        }
+        return Long.MAX_VALUE
+    }
+
+    override fun toString(): String =
+        (0 until counts.length()).joinToString(" ") { i ->
+            val label = if (i < BOUNDS_MS.size) "≤${BOUNDS_MS[i]}" else ">${BOUNDS_MS.last()}"
+            "$label:${counts.get(i)}"
+        }
+}
+
+/**
+ * Tracks outgoing message ids through Pending → Sent → Delivered and records
+ * broker-hop and end-to-end latency. [clock] is in milliseconds.
+ */
+class DeliveryTracker(
+    private val clock: () -> Long = { System.nanoTime() / 1_000_000 }
+) {
+
+    companion object {
+        // Oldest finished entries are dropped from [states] beyond this
+        private const val MAX_TRACKED = 500
+    }
+
+    // id -> creation time, until delivered or failed
+    private val createdAt = ConcurrentHashMap<String, Long>()
+    // id -> time of the latest publish attempt, until the broker acknowledged it
+    private val publishedAt = ConcurrentHashMap<String, Long>()
+
+    private val _states = MutableStateFlow<Map<String, DeliveryState>>(emptyMap())
+    val states: StateFlow<Map<String, DeliveryState>> = _states
+
+    /** Publish → broker PUBACK; time spent queued offline is not counted */
+    val brokerLatency = LatencyHistogram()
+
+    /** Send → recipient receipt, as the user sees it */
+    val deliveryLatency = LatencyHistogram()
+
+    private fun now(): Long = clock()
+
+    fun onCreated(id: String) {
+        createdAt[id] = now()
+        set(id, DeliveryState.Pending)
+    }
+
+    /** [id] is being handed to the client now; a retry after a failed publish restarts the clock */
+    fun onPublishing(id: String) {
+        if (createdAt.containsKey(id)) publishedAt[id] = now()
+    }
+
+    fun onSent(id: String) {
+        val start = publishedAt.remove(id)
+        if (!createdAt.containsKey(id)) return
+        // A receipt can overtake the PUBACK; never move back from Delivered
+        if (_states.value[id] != DeliveryState.Pending) return
+        if (start != null) brokerLatency.record(now() - start)
+        set(id, DeliveryState.Sent)
+    }
+
+    fun onDelivered(ids: Collection<String>) {
+        ids.forEach { publishedAt.remove(it) }
+        val finished = ids.mapNotNull { id -> createdAt.remove(id)?.let { id to it } }
+        if (finished.isEmpty()) return
+        val t = now()
+        finished.forEach { (_, start) -> deliveryLatency.record(t - start) }
+        _states.update { current ->
+            trim(current + finished.map { (id, _) -> id to DeliveryState.Delivered })
+        }
+        Log.d("MQTT-DELIVERY", "Delivered ${finished.size}, p50≤${deliveryLatency.percentile(0.5)}ms p95≤${deliveryLatency.percentile(0.95)}ms")
+    }
+
+    fun onFailed(id: String) {
+        publishedAt.remove(id)
+        if (createdAt.remove(id) == null) return
+        set(id, DeliveryState.Failed)
+    }
+
+    private fun set(id: String, state: DeliveryState) {
+        _states.update { trim(it + (id to state)) }
+    }
+
+    private fun trim(map: Map<String, DeliveryState>): Map<String, DeliveryState> {
+        if (map.size <= MAX_TRACKED) return map
+        // Maps built with + keep insertion order, so the first entries are the oldest
+        val excess = map.size - MAX_TRACKED
+        val drop = map.keys.asSequence().filter { !createdAt.containsKey(it) }.take(excess).toSet()
+        return map - drop
+    }
+}
@@ -0,0 +1,29 @@
+package com.example.isro_app.mqtt
+
+/**
+ * Drops the second copy of a GPS fix.
+ *
+ * In Compat mode a fix from another Compat device arrives twice, once on
+ * gps/location and once on its shard, and both copies carry the same sender and
+ * timestamp. The last [depth] timestamps of each sender are remembered, so a copy
+ * still matches when the two topics deliver out of step. Thread-safe.
+ */
+class FixDeduper(private val depth: Int = 4) {
+
+    private val recent = HashMap<String, ArrayDeque<String>>()
+
+    /** False when this sender's fix at [timestamp] was already seen */
+    @Synchronized
+    fun isNew(senderId: String, timestamp: String): Boolean {
+        val seen = recent.getOrPut(senderId) { ArrayDeque(depth) }
+        if (timestamp in seen) return false
+        if (seen.size == depth) seen.removeFirst()
+        seen.addLast(timestamp)
+        return true
+    }
+
+    @Synchronized
+    fun forget(senderId: String) {
+        recent.remove(senderId)
+    }
+}
@@ -0,0 +1,23 @@
+package com.example.isro_app.mqtt
+
+/**
+ * Topic layout for geofences
+ *
+ *   geofence/<fenceId> - retained {"name": "...", "points": [[lat, lon], ...]}; empty retained = deleted
+ *
+ * Every client subscribes to [ALL], so the broker's retained messages give the
+ * full fence list on connect, the same way group membership works.
+ */
+object GeofenceTopics {
+    const val ALL = "geofence/+"
+
+    fun fence(fenceId: String) = "geofence/$fenceId"
+
+    /**
+     * Fence id of a geofence topic, null otherwise
+     */
+    fun fenceId(topic: String): String? {
+        val parts = topic.split('/')
+        return if (parts.size == 2 && parts[0] == "geofence" && parts[1].isNotEmpty()) parts[1] else null
+    }
+}
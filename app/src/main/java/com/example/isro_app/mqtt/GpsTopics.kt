@@ -0,0 +1,82 @@
+package com.example.isro_app.mqtt
+
+import com.example.isro_app.location.Geohash
+
+/**
+ * How GPS fixes are published and subscribed
+ *
+ * Legacy  - single gps/location topic (every client gets the whole fleet)
+ * Sharded - gps/<geohash>/<deviceId>, subscriptions follow the map viewport
+ * Compat  - publish to both, subscribe to both (mixed fleets during rollout);
+ *           the second copy of a fix from another Compat device is dropped by
+ *           sender and timestamp
+ */
+enum class GpsTopicMode {
+    Legacy,
+    Sharded,
+    Compat
+}
+
+/**
+ * Topic layout for region-sharded GPS traffic
+ */
+object GpsTopics {
+    const val LEGACY = "gps/location"
+
+    /** Matches every shard, used until the map reports a viewport */
+    const val ALL_SHARDS = "gps/+/+"
+
+    /** Geohash length of the shard level (~39 km x 19 km cells) */
+    const val SHARD_PRECISION = 4
+
+    /** Above this many cells the viewport is treated as "everything" */
+    const val MAX_VIEWPORT_SHARDS = 48
+
+    /** Above this many filters for viewport and fences together, [ALL_SHARDS] is subscribed instead */
+    const val MAX_SHARD_FILTERS = 128
+
+    fun shardTopic(lat: Double, lon: Double, deviceId: String): String =
+        "gps/${Geohash.encode(lat, lon, SHARD_PRECISION)}/$deviceId"
+
+    fun isGpsTopic(topic: String): Boolean =
+        topic == LEGACY || (topic.startsWith("gps/") && topic.count { it == '/' } == 2)
+
+    /**
+     * Subscription filters for a viewport: one per covering cell, or [ALL_SHARDS]
+     * when the viewport is too large to enumerate.
+     */
+    fun viewportFilters(south: Double, west: Double, north: Double, east: Double): Set<String> {
+        val cells = Geohash.cellsCovering(
+            south, west, north, east,
+            precision = SHARD_PRECISION,
+            maxCells = MAX_VIEWPORT_SHARDS
+        ) ?: return setOf(ALL_SHARDS)
+
+        return cells.mapTo(HashSet()) { "gps/$it/+" }
+    }
+
+    /**
+     * Filters for every shard a device inside the box, or up to one cell outside it,
+     * publishes to, so its fix on leaving the box is received as well
+     */
+    fun areaFilters(south: Double, west: Double, north: Double, east: Double): Set<String> {
+        val height = Geohash.cellHeight(SHARD_PRECISION)
+        val width = Geohash.cellWidth(SHARD_PRECISION)
+        return viewportFilters(south - height, west - width, north + height, east + width)
+    }
+
+    /**
+     * Union of filter sets, collapsed to [ALL_SHARDS] when one of them already is
+     * (overlapping filters would deliver a fix twice) or when it grows past
+     * [MAX_SHARD_FILTERS]. Stops reading [sets] once collapsed.
+     */
+    fun union(sets: Sequence<Set<String>>): Set<String> {
+        val filters = HashSet<String>()
+        for (set in sets) {
+            if (ALL_SHARDS in set) return setOf(ALL_SHARDS)
+            filters.addAll(set)
+            if (filters.size > MAX_SHARD_FILTERS) return setOf(ALL_SHARDS)
+        }
+        return filters
+    }
+}
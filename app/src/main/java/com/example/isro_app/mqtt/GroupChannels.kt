@@ -0,0 +1,55 @@
+package com.example.isro_app.mqtt
+
+/**
+ * A chat group as seen through its retained membership topics
+ */
+data class ChatGroup(
+    val id: String,
+    val members: Set<String> = emptySet()
+)
+
+/**
+ * Topic layout for group chat
+ *
+ *   group/<groupId>/chat               - chat envelopes, one publish reaches every member
+ *   group/<groupId>/members/<deviceId> - retained {"joined_at":...}; empty retained = left
+ *
+ * Every client subscribes to [ALL_MEMBERS], so the broker's retained messages
+ * give the full group list and membership on connect without a server.
+ */
+object GroupTopics {
+    const val ALL_MEMBERS = "group/+/members/+"
+
+    /** Chat list key used by the UI for a group conversation */
+    const val KEY_PREFIX = "group:"
+
+    fun chat(groupId: String) = "group/$groupId/chat"
+
+    fun member(groupId: String, deviceId: String) = "group/$groupId/members/$deviceId"
+
+    /**
+     * Group id of a group chat topic, null otherwise
+     */
+    fun groupOfChat(topic: String): String? {
+        val parts = topic.split('/')
+        return if (parts.size == 3 && parts[0] == "group" && parts[2] == "chat") parts[1] else null
+    }
+
+    /**
+     * (groupId, deviceId) of a membership topic, null otherwise
+     */
+    fun parseMember(topic: String): Pair<String, String>? {
+        val parts = topic.split('/')
+        return if (parts.size == 4 && parts[0] == "group" && parts[2] == "members") {
+            Pair(parts[1], parts[3])
+        } else {
+            null
+        }
+    }
+
+    /**
+     * Group ids become topic levels, so keep them to the device ID alphabet
+     */
+    fun isValidGroupId(groupId: String): Boolean =
+        groupId.length in 1..32 && groupId.matches(Regex("^[a-zA-Z0-9_-]+$"))
+}
@@ -0,0 +1,150 @@
+package com.example.isro_app.mqtt
+
+import android.util.Log
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.BlockingQueue
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Snapshot of dispatcher counters. Only lossy (GPS) messages are ever [dropped].
+ */
+data class DispatchStats(
+    val received: Long,
+    val prioritized: Long,
+    val dropped: Long,
+    val blockedMs: Long,
+    val maxQueueDepth: Int
+)
+
+/**
+ * Moves inbound MQTT handling off Paho's callback thread.
+ *
+ * The callback only enqueues raw bytes. Decoding happens on worker threads:
+ * - one priority lane for call signalling, never dropped
+ * - one lane for lossy topics (GPS, where the next fix supersedes the last)
+ * - N partitions keyed by topic for everything else, so per-topic ordering is kept
+ *
+ * When the lossy lane is full its oldest entry is dropped; it only ever holds lossy
+ * messages, so that never costs a chat message. A full partition blocks the
+ * callback thread until a worker makes room, which pushes back on the broker
+ * through TCP; other messages are never dropped.
+ */
+class InboundDispatcher(
+    partitions: Int = 2,
+    queueCapacity: Int = 256,
+    private val isPriority: (topic: String, payload: ByteArray) -> Boolean,
+    private val isLossy: (topic: String) -> Boolean,
+    private val handler: (topic: String, payload: ByteArray) -> Unit
+) {
+
+    companion object {
+        private const val TAG = "MQTT-DISPATCH"
+        private const val PRIORITY_CAPACITY = 64
+        // How often a blocked callback checks for shutdown
+        private const val BLOCK_POLL_MS = 500L
+    }
+
+    private class Inbound(val topic: String, val payload: ByteArray)
+
+    private val priorityQueue = ArrayBlockingQueue<Inbound>(PRIORITY_CAPACITY)
+    private val lossyQueue = ArrayBlockingQueue<Inbound>(queueCapacity)
+    private val partitionQueues = List(partitions) { ArrayBlockingQueue<Inbound>(queueCapacity) }
+
+    private val received = AtomicLong()
+    private val prioritized = AtomicLong()
+    private val dropped = AtomicLong()
+    private val blockedMs = AtomicLong()
+    private val maxDepth = AtomicInteger()
+
+    @Volatile
+    private var running = true
+
+    private val workers: List<Thread> =
+        listOf(worker("mqtt-dispatch-call", priorityQueue), worker("mqtt-dispatch-lossy", lossyQueue)) +
+            partitionQueues.mapIndexed { i, queue -> worker("mqtt-dispatch-$i", queue) }
+
+    init {
+        workers.forEach { it.start() }
+    }
+
+    /**
+     * Called on Paho's callback thread. Must not decode or parse.
+     */
+    fun offer(topic: String, payload: ByteArray) {
+        received.incrementAndGet()
+        val item = Inbound(topic, payload)
+
+        if (isPriority(topic, payload)) {
+            prioritized.incrementAndGet()
+            // Call signalling is rare; block rather than lose it
+            priorityQueue.put(item)
+            return
+        }
+
+        val queue = if (isLossy(topic)) {
+            lossyQueue.also { lossy ->
+                while (!lossy.offer(item)) {
+                    if (lossy.poll() != null) dropped.incrementAndGet()
+                }
+            }
+        } else {
+            partitionQueues[(topic.hashCode() and Int.MAX_VALUE) % partitionQueues.size].also { partition ->
+                if (!partition.offer(item)) block(partition, item)
+            }
+        }
+
+        val depth = queue.size
+        if (depth > maxDepth.get()) maxDepth.set(depth)
+    }
+
+    // Backpressure: wait for room however long it takes, unless shutting down
+    private fun block(queue: BlockingQueue<Inbound>, item: Inbound) {
+        val start = System.currentTimeMillis()
+        try {
+            while (running && !queue.offer(item, BLOCK_POLL_MS, TimeUnit.MILLISECONDS)) {
+                Log.w(TAG, "Partition full, holding ${item.topic} for ${System.currentTimeMillis() - start} ms")
+            }
+        } catch (_: InterruptedException) {
+            Thread.currentThread().interrupt()
+        } finally {
+            blockedMs.addAndGet(System.currentTimeMillis() - start)
+        }
+    }
+
+    fun stats(): DispatchStats = DispatchStats(
+        received = received.get(),
+        prioritized = prioritized.get(),
+        dropped = dropped.get(),
+        blockedMs = blockedMs.get(),
+        maxQueueDepth = maxDepth.get()
+    )
+
+    val isRunning: Boolean
+        get() = running
+
+    /**
+     * Stop the workers; messages still queued are discarded
+     */
+    fun shutdown() {
+        running = false
+        workers.forEach { it.interrupt() }
+    }
+
+    private fun worker(name: String, queue: BlockingQueue<Inbound>): Thread =
+        Thread({
+            while (running) {
+                val item = try {
+                    queue.take()
+                } catch (_: InterruptedException) {
+                    break
+                }
+                try {
+                    handler(item.topic, item.payload)
+                } catch (e: Exception) {
+                    Log.e(TAG, "Handler failed for ${item.topic}", e)
+                }
+            }
+        }, name).apply { isDaemon = true }
+}
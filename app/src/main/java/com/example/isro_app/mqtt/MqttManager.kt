@@ -2,15 +2,39 @@ package com.example.isro_app.mqtt
 
 import android.content.ContentResolver
 import android.net.Uri
+import android.util.Base64
 import android.util.Log
+import com.example.isro_app.attachment.AttachmentPreprocessor
+import com.example.isro_app.attachment.ChunkedUploader
+import com.example.isro_app.attachment.PreprocessStats
+import com.example.isro_app.attachment.ThumbnailCache
+import com.example.isro_app.attachment.Thumbnails
+import com.example.isro_app.attachment.UploadJob
+import com.example.isro_app.attachment.UploadProgress
+import com.example.isro_app.attachment.UriChunkSource
+import com.example.isro_app.call.CallLatencyTracker
+import com.example.isro_app.geofence.Geofence
+import com.example.isro_app.geofence.GeofenceEngine
+import com.example.isro_app.geofence.GeofenceEvent
+import com.example.isro_app.location.QuadTree
+import com.example.isro_app.location.TrackHistory
+import com.example.isro_app.settings.AttachmentSettings
 import kotlinx.coroutines.*
+import kotlinx.coroutines.channels.BufferOverflow
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.StateFlow
-import org.eclipse.paho.client.mqttv3.*
+import kotlinx.coroutines.flow.receiveAsFlow
+import kotlinx.coroutines.flow.update
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
 import org.json.JSONObject
-import java.io.DataOutputStream
-import java.net.HttpURLConnection
-import java.net.URL
+import java.io.File
+import java.util.UUID
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
 
 // -------- CONNECTION STATE --------
 
@@ -32,17 +56,29 @@ data class DeviceLocation(
 )
 
 sealed class ChatItem {
+    abstract val id: String
+
     data class Text(
         val from: String,
         val text: String,
-        val timestamp: Long = System.currentTimeMillis()
+        val timestamp: Long = System.currentTimeMillis(),
+        override val id: String = UUID.randomUUID().toString(),
+        // Set for group chat messages
+        val group: String? = null
     ) : ChatItem()
 
     data class Attachment(
         val from: String,
         val filename: String,
         val downloadUrl: String,
-        val timestamp: Long = System.currentTimeMillis()
+        val timestamp: Long = System.currentTimeMillis(),
+        override val id: String = UUID.randomUUID().toString(),
+        // Content hash and byte size; absent from older senders
+        val sha256: String? = null,
+        val size: Long = 0,
+        val contentEncoding: String? = null,
+        // Key into MqttManager.thumbnails when the sender included a preview
+        val thumbnailKey: String? = null
     ) : ChatItem()
 }
 
@@ -60,13 +96,51 @@ sealed class CallEvent {
 class MqttManager(
     var myId: String,
     private var settings: MqttSettings = MqttSettings(),
-    private var attachmentServer: String = "http://192.168.29.242:8090"
+    private var attachmentServer: String = "http://192.168.29.242:8090",
+    storageDir: File? = null,
+    contentResolver: ContentResolver? = null,
+    private var attachmentSettings: AttachmentSettings = AttachmentSettings()
 ) {
 
-    private val gpsTopic = "gps/location"
+    companion object {
+        // Messages published per drain batch; must stay below Paho's max in-flight (10)
+        private const val DRAIN_BATCH_SIZE = 8
+        private const val DRAIN_BATCH_PAUSE_MS = 50L
+        private const val DRAIN_ACK_TIMEOUT_MS = 10_000L
+
+        private val CALL_MARKER = "\"CALL_".toByteArray()
+        // Also send call signals to the peer's inbox in the old JSON form, for clients
+        // that predate call/<deviceId>; drop once every device has been updated
+        private const val SEND_LEGACY_CALL_SIGNALS = true
+
+        // How long an out-of-order chat message waits for the gap to fill
+        private const val CHAT_REORDER_HOLD_MS = 1000L
+
+        // Retained fences arrive in a burst on connect; their shards are worked out once
+        private const val FENCE_SHARDS_DELAY_MS = 500L
+    }
+
+    private val gpsTopic = GpsTopics.LEGACY
     private var inboxTopic = "$myId/inbox"
+    private var callTopic = CallSignal.topicFor(myId)
+
+    // Shard filters the broker session holds for the map viewport and the geofences.
+    // The session outlives the process, so the set is kept on disk next to mqtt_session.
+    private val shardsFile = storageDir?.let { File(it, "mqtt_shards.txt") }
+    private val shardFilters = loadShardFilters()
+    private var viewportFilters: Set<String> = setOf(GpsTopics.ALL_SHARDS)
+    private var fenceFilters: Set<String> = emptySet()
+    private val fenceShardsPending = AtomicBoolean()
+
+    // Last own fix, used to address the shard when announcing an ID change
+    private var lastFix: Pair<Double, Double>? = null
+
+    @Volatile
+    private var transport: MqttTransport? = null
 
-    private lateinit var mqttClient: MqttClient
+    /** Protocol actually in use (V5 may have fallen back to V3) */
+    val activeProtocol: MqttProtocol?
+        get() = transport?.protocol
 
     private val scope = CoroutineScope(Dispatchers.IO)
 
@@ -81,6 +155,22 @@ class MqttManager(
         MutableStateFlow<Map<String, DeviceLocation>>(emptyMap())
     val devices: StateFlow<Map<String, DeviceLocation>> = _devices
 
+    // Spatial index over [devices], updated with every GPS message
+    private val deviceIndex = QuadTree()
+
+    // Compat receives other Compat devices' fixes on both layouts
+    private val fixDeduper = FixDeduper()
+
+    /** Recent fixes per device, for drawing where devices have been */
+    val trackHistory = TrackHistory()
+
+    /** Retained fences from [GeofenceTopics], checked against every GPS message */
+    val geofences = GeofenceEngine()
+
+    // Bounded: nothing collects while the UI is gone, and old crossings are not worth a backlog of toasts
+    private val _geofenceEvents = Channel<GeofenceEvent>(64, BufferOverflow.DROP_OLDEST)
+    val geofenceEvents: Flow<GeofenceEvent> = _geofenceEvents.receiveAsFlow()
+
     private val _chatItems =
         MutableStateFlow<List<ChatItem>>(emptyList())
     val chatItems: StateFlow<List<ChatItem>> = _chatItems
@@ -89,25 +179,144 @@ class MqttManager(
         MutableStateFlow<MqttConnectionState>(MqttConnectionState.Idle)
     val connectionState: StateFlow<MqttConnectionState> = _connectionState
 
-    private val _callEvents = MutableStateFlow<CallEvent?>(null)
-    val callEvents: StateFlow<CallEvent?> = _callEvents
+    // Non-conflating: back-to-back signals (e.g. REQUEST then END) are all delivered
+    private val _callEvents = Channel<CallEvent>(Channel.UNLIMITED)
+    val callEvents: Flow<CallEvent> = _callEvents.receiveAsFlow()
+
+    val callLatency = CallLatencyTracker()
+
+    // Outgoing chat ids and per-topic sequence numbers; epoch changes every process start
+    private val chatEpoch = System.currentTimeMillis()
+    private val chatCounter = AtomicLong()
+    private val chatSeqs = ConcurrentHashMap<String, AtomicLong>()
+    private val chatSequencer = ChatSequencer(holdMs = CHAT_REORDER_HOLD_MS)
+
+    // Groups this device belongs to; kept on disk so membership is re-announced after a restart
+    private val groupsFile = storageDir?.let { File(it, "mqtt_groups.txt") }
+    private val _joinedGroups = MutableStateFlow(loadGroups(groupsFile))
+    val joinedGroups: StateFlow<Set<String>> = _joinedGroups
+
+    // Groups left while offline: still subscribed in the broker session and still listed
+    // as a member, until the next connect unsubscribes and clears the membership
+    private val leftGroupsFile = storageDir?.let { File(it, "mqtt_groups_left.txt") }
+    private val leftGroups = loadGroups(leftGroupsFile).toMutableSet()
+
+    // Every group on the broker with its members, from retained membership topics
+    private val _groups = MutableStateFlow<Map<String, ChatGroup>>(emptyMap())
+    val groups: StateFlow<Map<String, ChatGroup>> = _groups
+
+    // Pending → Sent → Delivered for outgoing chat and attachments
+    val delivery = DeliveryTracker()
+
+    // Coalesced receipts for messages we received
+    private val receipts = ReceiptBatcher(scope, publish = { peerId, payload ->
+        publishOrQueue(
+            OutboundClass.Receipt,
+            listOf(OutboundMessage(OutboundClass.Receipt, "$peerId/inbox", payload, qos = 1))
+        )
+    })
+
+    // peerId -> id of the call currently being signalled with that peer
+    private val callIds = ConcurrentHashMap<String, String>()
+
+    // Outbound messages produced while disconnected (disk-backed when storageDir is set)
+    private val outbox = OutboundQueue(storageDir?.let { File(it, "mqtt_outbox.bin") })
+    val outboxDepth: StateFlow<Int> = outbox.depth
+    private val drainMutex = Mutex()
+
+    // Session state lives on disk so QoS 1 in-flight messages survive a client rebuild
+    private val sessionDir = storageDir?.let { File(it, "mqtt_session") }
+
+    // Chunked attachment uploads; jobs persist under uploads/ and resume on reconnect
+    @Volatile
+    private var resolver: ContentResolver? = contentResolver
+    private val stagingDir = File(storageDir ?: File(System.getProperty("java.io.tmpdir") ?: "."), "uploads/staging")
+    private val uploader = ChunkedUploader(
+        serverUrl = { attachmentServer },
+        stateDir = storageDir?.let { File(it, "uploads/jobs") },
+        openSource = { job -> UriChunkSource.open(resolver, job.source) },
+        onComplete = { job, result ->
+            discardStaged(job.source)
+            sendAttachmentMetadata(
+                job.peerId, job.filename, result.fileId, result.downloadUrl, job.messageId,
+                result.sha256, job.size, job.contentEncoding
+            )
+        },
+        onFailed = { job ->
+            discardStaged(job.source)
+            delivery.onFailed(job.messageId)
+        }
+    )
+    val uploads: StateFlow<Map<String, UploadProgress>> = uploader.progress
+
+    // Inline previews for image attachments (sent in the metadata, cached in memory and on disk)
+    val thumbnails = ThumbnailCache(File(storageDir ?: File(System.getProperty("java.io.tmpdir") ?: "."), "thumb_cache"))
+
+    // Downscale / gzip before upload, output next to the staged copies
+    private val preprocessor = AttachmentPreprocessor(stagingDir)
+    val attachmentCompression: StateFlow<PreprocessStats?> = preprocessor.lastStats
+
+    // Serializes connect / disconnect / reconnect so no fixed delays are needed between them
+    private val connectionMutex = Mutex()
+
+    // Monotonic time the link dropped, 0 while connected
+    @Volatile
+    private var connectionLostAt = 0L
+
+    private val _reconnectMillis = MutableStateFlow<Long?>(null)
+    /** Time the last reconnect took, from drop (or reconnect request) to subscribed */
+    val reconnectMillis: StateFlow<Long?> = _reconnectMillis
+
+    private fun recordReconnect(startedAt: Long) {
+        if (startedAt == 0L) return
+        val ms = (System.nanoTime() - startedAt) / 1_000_000
+        _reconnectMillis.value = ms
+        Log.d("MQTT-RECONNECT", "Reconnected in ${ms}ms")
+    }
 
     // -------- DISCONNECT --------
 
     fun disconnect() {
         scope.launch {
-            try {
-                if (::mqttClient.isInitialized && mqttClient.isConnected) {
-                    mqttClient.unsubscribe(gpsTopic)
-                    mqttClient.unsubscribe(inboxTopic)
-                    mqttClient.disconnect()
-                    Log.d("MQTT", "Disconnected")
+            connectionMutex.withLock {
+                closeTransport(unsubscribe = true)
+                // Nothing arrives any more; the next connect starts new workers
+                dispatcher.shutdown()
+            }
+        }
+    }
+
+    /**
+     * Tear down the current client. With [unsubscribe] false the broker-side session
+     * (subscriptions + queued messages) is kept for the next connect to resume.
+     */
+    private fun closeTransport(unsubscribe: Boolean) {
+        val client = transport ?: return
+        transport = null
+        try {
+            if (unsubscribe && client.isConnected) {
+                if (settings.gpsTopicMode != GpsTopicMode.Sharded) {
+                    client.unsubscribe(gpsTopic)
                 }
-            } catch (e: Exception) {
-                Log.e("MQTT", "Error during disconnect", e)
-            } finally {
-                _connectionState.value = MqttConnectionState.Idle
+                synchronized(shardFilters) {
+                    if (shardFilters.isNotEmpty()) {
+                        client.unsubscribe(shardFilters.toTypedArray())
+                        shardFilters.clear()
+                        saveShardFilters()
+                    }
+                }
+                client.unsubscribe(inboxTopic)
+                client.unsubscribe(callTopic)
+                client.unsubscribe(GroupTopics.ALL_MEMBERS)
+                client.unsubscribe(GeofenceTopics.ALL)
+                _joinedGroups.value.forEach { client.unsubscribe(GroupTopics.chat(it)) }
             }
+            client.disconnect()
+            Log.d("MQTT", "Disconnected")
+        } catch (e: Exception) {
+            Log.e("MQTT", "Error during disconnect", e)
+        } finally {
+            _connectionState.value = MqttConnectionState.Idle
         }
     }
 
@@ -115,15 +324,30 @@ class MqttManager(
 
     fun reconnect(newSettings: MqttSettings) {
         scope.launch {
-            try {
-                disconnect()
-                // Wait a bit for disconnect to complete
-                delay(500)
+            connectionMutex.withLock {
+                val startedAt = System.nanoTime()
+                // Only drop the broker session when it would carry stale subscriptions
+                val keepSession = newSettings.brokerUri == settings.brokerUri &&
+                    newSettings.gpsTopicMode == settings.gpsTopicMode
+                closeTransport(unsubscribe = !keepSession)
                 settings = newSettings
-                connect()
+                if (openAndSubscribe()) recordReconnect(startedAt)
+            }
+        }
+    }
+
+    /**
+     * Network is back: skip Paho's reconnect backoff and retry immediately
+     */
+    fun onNetworkAvailable() {
+        val client = transport ?: return
+        if (client.isConnected) return
+        scope.launch {
+            try {
+                client.reconnectNow()
             } catch (e: Exception) {
-                Log.e("MQTT", "Reconnection failed", e)
-                _connectionState.value = MqttConnectionState.Error
+                // Already reconnecting, or broker still unreachable; backoff continues
+                Log.d("MQTT", "Immediate reconnect skipped: ${e.message}")
             }
         }
     }
@@ -132,41 +356,51 @@ class MqttManager(
 
     fun updateDeviceId(newDeviceId: String) {
         scope.launch {
-            try {
-                val oldDeviceId = myId
-                
-                // Publish device ID change announcement before disconnecting
-                if (::mqttClient.isInitialized && mqttClient.isConnected) {
-                    val changeMessage = JSONObject().apply {
-                        put("type", "device_id_changed")
-                        put("old_id", oldDeviceId)
-                        put("new_id", newDeviceId)
-                    }
-                    
-                    mqttClient.publish(
-                        gpsTopic,
-                        MqttMessage(changeMessage.toString().toByteArray()).apply { qos = 1 }
-                    )
-                    Log.d("MQTT", "Published device ID change: $oldDeviceId -> $newDeviceId")
-                    
-                    // Wait a bit to ensure message is sent
-                    delay(200)
+            connectionMutex.withLock {
+                switchDeviceId(newDeviceId)
+            }
+        }
+    }
+
+    private fun switchDeviceId(newDeviceId: String) {
+        val startedAt = System.nanoTime()
+        try {
+            val oldDeviceId = myId
+
+            // Publish device ID change announcement before disconnecting
+            val client = transport
+            if (client != null && client.isConnected) {
+                val changeMessage = JSONObject().apply {
+                    put("type", "device_id_changed")
+                    put("old_id", oldDeviceId)
+                    put("new_id", newDeviceId)
                 }
-                
-                // Disconnect
-                disconnect()
-                delay(500)
-                
-                // Update device ID and inbox topic
-                myId = newDeviceId
-                inboxTopic = "$myId/inbox"
-                
-                // Reconnect with new device ID
-                connect()
-            } catch (e: Exception) {
-                Log.e("MQTT", "Device ID update failed", e)
-                _connectionState.value = MqttConnectionState.Error
+
+                val changeBytes = changeMessage.toString().toByteArray()
+                gpsPublishTopics(oldDeviceId).forEach { topic ->
+                    client.publish(topic, changeBytes, 1)
+                }
+                // Old ID leaves its groups; the new ID re-joins on connect
+                _joinedGroups.value.forEach { groupId ->
+                    client.publish(GroupTopics.member(groupId, oldDeviceId), ByteArray(0), 1, retained = true)
+                }
+                // publish() returns once the broker acknowledged the announcement
+                Log.d("MQTT", "Published device ID change: $oldDeviceId -> $newDeviceId")
             }
+
+            // Old ID's session is abandoned, so drop its subscriptions
+            closeTransport(unsubscribe = true)
+
+            // Update device ID and inbox topic
+            myId = newDeviceId
+            inboxTopic = "$myId/inbox"
+            callTopic = CallSignal.topicFor(myId)
+
+            // Reconnect with new device ID
+            if (openAndSubscribe()) recordReconnect(startedAt)
+        } catch (e: Exception) {
+            Log.e("MQTT", "Device ID update failed", e)
+            _connectionState.value = MqttConnectionState.Error
         }
     }
 
@@ -174,79 +408,235 @@ class MqttManager(
 
     fun connect() {
         scope.launch {
-            try {
-                // Validate broker URI before attempting connection
-                if (!MqttSettingsManager.isValidBrokerUri(settings.brokerUri)) {
-                    Log.e("MQTT", "Invalid broker URI: ${settings.brokerUri}")
-                    _connectionState.value = MqttConnectionState.Error
-                    return@launch
-                }
+            connectionMutex.withLock {
+                if (transport == null) openAndSubscribe()
+            }
+        }
+    }
 
-                _connectionState.value = MqttConnectionState.Connecting
+    /**
+     * Build a client for the current settings, connect and subscribe.
+     * Must be called with [connectionMutex] held. Returns true when connected.
+     */
+    private fun openAndSubscribe(): Boolean {
+        try {
+            // Validate broker URI before attempting connection
+            if (!MqttSettingsManager.isValidBrokerUri(settings.brokerUri)) {
+                Log.e("MQTT", "Invalid broker URI: ${settings.brokerUri}")
+                _connectionState.value = MqttConnectionState.Error
+                return false
+            }
 
-                mqttClient = MqttClient(settings.brokerUri, myId, null)
+            _connectionState.value = MqttConnectionState.Connecting
 
-                val options = MqttConnectOptions().apply {
-                    isCleanSession = true
-                    isAutomaticReconnect = true
-                    connectionTimeout = 10
-                    keepAliveInterval = 60
-                    
-                    // Only set username/password if they are not empty
-                    if (settings.username.isNotBlank()) {
-                        userName = settings.username
-                    }
-                    if (settings.password.isNotBlank()) {
-                        password = settings.password.toCharArray()
-                    }
-                }
+            if (!dispatcher.isRunning) dispatcher = newDispatcher()
+            val client = openTransport()
+            transport = client
 
-                mqttClient.setCallback(object : MqttCallback {
-                    override fun connectionLost(cause: Throwable?) {
-                        _connectionState.value = MqttConnectionState.Error
-                    }
+            subscribeAll(client)
+            // logs
+            Log.d("MQTT", "ANDROID SUBSCRIBED")
+            Log.d("MQTT", "GPS MODE = ${settings.gpsTopicMode}")
+            Log.d("MQTT", "INBOX TOPIC = $inboxTopic")
 
-                    override fun messageArrived(topic: String?, message: MqttMessage?) {
-                        if (topic == null || message == null) return
-                        val payload = String(message.payload)
-                    
-                        Log.e("MQTT-RAW", "topic=$topic payload=$payload")
-                    
-                        when (topic) {
-                            gpsTopic -> {
-                                Log.e("MQTT-GPS", payload)
-                                handleGps(payload)
-                            }
-                            inboxTopic -> {
-                                Log.e("MQTT-INBOX", payload)
-                                handleInbox(payload)
-                            }
-                            else -> {
-                                Log.e("MQTT-OTHER", "Unhandled topic: $topic")
-                            }
-                        }
-                    }                    
 
-                    override fun deliveryComplete(token: IMqttDeliveryToken?) {}
-                })
+            connectionLostAt = 0L
+            _connectionState.value = MqttConnectionState.Connected
+            Log.d("MQTT", "Connected as $myId over ${client.protocol}")
 
-                mqttClient.connect(options)
-                mqttClient.subscribe(gpsTopic, 1)
-                mqttClient.subscribe(inboxTopic, 1)
-                // logs
-                Log.d("MQTT", "ANDROID SUBSCRIBED")
-                Log.d("MQTT", "GPS TOPIC = $gpsTopic")
-                Log.d("MQTT", "INBOX TOPIC = $inboxTopic")
+            drainOutbox()
+            uploader.resumePending()
+            return true
 
+        } catch (e: Exception) {
+            Log.e("MQTT", "Connection failed", e)
+            // A half-set-up client (e.g. subscribe failed) would stop connect() retrying
+            closeTransport(unsubscribe = false)
+            _connectionState.value = MqttConnectionState.Error
+            return false
+        }
+    }
 
+    /**
+     * (Re)assert all subscriptions. A resumed session already has them; this only
+     * matters if the broker lost the session, and costs one SUBSCRIBE round trip.
+     * Shard filters the session still holds from an earlier process, or from a
+     * viewport that changed while offline, are unsubscribed here.
+     */
+    private fun subscribeAll(client: MqttTransport) {
+        if (settings.gpsTopicMode != GpsTopicMode.Sharded) {
+            client.subscribe(gpsTopic, 1)
+        }
+        synchronized(shardFilters) {
+            syncShardSubscriptions(client, resubscribe = true)
+        }
+        client.subscribe(callTopic, 1)
+        client.subscribe(inboxTopic, 1)
+        client.subscribe(GroupTopics.ALL_MEMBERS, 1)
+        client.subscribe(GeofenceTopics.ALL, 1)
+        _joinedGroups.value.forEach { announceMembership(client, it) }
+        synchronized(leftGroups) { leftGroups.toList() }.forEach { leave(client, it) }
+    }
+
+    private fun announceMembership(client: MqttTransport, groupId: String) {
+        client.subscribe(GroupTopics.chat(groupId), 1)
+        val payload = JSONObject().put("joined_at", System.currentTimeMillis()).toString().toByteArray()
+        client.publish(GroupTopics.member(groupId, myId), payload, 1, retained = true)
+    }
+
+    private val transportListener = object : MqttTransport.Listener {
+        override fun onMessage(topic: String, payload: ByteArray) {
+            // Hand off raw bytes; decoding happens on dispatcher workers
+            dispatcher.offer(topic, payload)
+        }
+
+        override fun onConnectionLost(cause: Throwable?) {
+            connectionLostAt = System.nanoTime()
+            _connectionState.value = MqttConnectionState.Error
+            Log.w("MQTT", "Connection lost, resuming session on reconnect", cause)
+        }
+
+        override fun onConnectComplete(reconnect: Boolean) {
+            if (!reconnect) return
+            // Paho's callback thread must not block on subscribe; finish off-thread
+            scope.launch {
+                val client = transport ?: return@launch
+                try {
+                    subscribeAll(client)
+                } catch (e: Exception) {
+                    Log.e("MQTT", "Resubscribe after reconnect failed", e)
+                }
+                recordReconnect(connectionLostAt)
+                connectionLostAt = 0L
                 _connectionState.value = MqttConnectionState.Connected
-                Log.d("MQTT", "Connected as $myId")
+                drainOutbox()
+                uploader.resumePending()
+            }
+        }
+    }
 
+    /**
+     * Connect with the configured protocol. A V5 attempt the broker rejects as an
+     * unsupported protocol (it only speaks 3.1.1) is retried once over V3; any other
+     * failure, e.g. a timeout, is thrown so the caller retries later. A transport
+     * that failed to connect is closed.
+     */
+    private fun openTransport(): MqttTransport {
+        if (settings.protocol == MqttProtocol.V5) {
+            try {
+                return connectTransport(MqttProtocol.V5)
             } catch (e: Exception) {
-                Log.e("MQTT", "Connection failed", e)
-                _connectionState.value = MqttConnectionState.Error
+                if (!PahoV5Transport.isProtocolRejection(e)) throw e
+                Log.w("MQTT", "Broker rejected MQTT 5, falling back to 3.1.1", e)
             }
         }
+        return connectTransport(MqttProtocol.V3)
+    }
+
+    private fun connectTransport(protocol: MqttProtocol): MqttTransport {
+        val client = MqttTransport.create(protocol, settings, myId, sessionDir)
+        try {
+            client.connect(transportListener)
+            return client
+        } catch (e: Exception) {
+            try {
+                client.disconnect()
+            } catch (closeError: Exception) {
+                Log.w("MQTT", "Closing failed $protocol client failed", closeError)
+            }
+            throw e
+        }
+    }
+
+    // -------- INBOUND DISPATCH --------
+
+    // Replaced only under connectionMutex, while no transport is open
+    @Volatile
+    private var dispatcher = newDispatcher()
+
+    private fun newDispatcher() = InboundDispatcher(
+        isPriority = { topic, payload ->
+            topic == callTopic || (topic == inboxTopic && looksLikeCallSignal(payload))
+        },
+        isLossy = { topic -> GpsTopics.isGpsTopic(topic) },
+        handler = ::route
+    )
+
+    /**
+     * Inbound counters since the last connect after a [disconnect]
+     */
+    val dispatchStats: DispatchStats
+        get() = dispatcher.stats()
+
+    private fun route(topic: String, bytes: ByteArray) {
+        if (Log.isLoggable("MQTT-RAW", Log.VERBOSE)) {
+            Log.v("MQTT-RAW", "topic=$topic bytes=${bytes.size}")
+        }
+        when {
+            GpsTopics.isGpsTopic(topic) -> handleGps(String(bytes))
+            topic == callTopic -> handleCallSignal(bytes)
+            topic == inboxTopic -> handleInbox(String(bytes))
+            GroupTopics.groupOfChat(topic) != null -> handleGroupChat(GroupTopics.groupOfChat(topic)!!, String(bytes))
+            GroupTopics.parseMember(topic) != null -> {
+                val (groupId, deviceId) = GroupTopics.parseMember(topic)!!
+                handleMembership(groupId, deviceId, bytes)
+            }
+            GeofenceTopics.fenceId(topic) != null -> handleGeofence(GeofenceTopics.fenceId(topic)!!, bytes)
+            else -> Log.w("MQTT-OTHER", "Unhandled topic: $topic")
+        }
+    }
+
+    // -------- CALL SIGNALING RECEIVE --------
+
+    private fun handleCallSignal(bytes: ByteArray) {
+        val signal = CallSignal.decode(bytes) ?: run {
+            Log.w("CALL", "Malformed call signal (${bytes.size} bytes)")
+            return
+        }
+        if (signal.from == myId) return
+
+        when (signal.type) {
+            CallSignal.Type.Request -> {
+                callIds[signal.from] = signal.callId
+                callLatency.onRequestReceived(signal.callId)
+                Log.d("CALL", "Incoming call from ${signal.from}")
+                _callEvents.trySend(CallEvent.Incoming(signal.from))
+            }
+            CallSignal.Type.Accept -> {
+                callLatency.onAcceptReceived(signal.callId, signal.from, signal.ringMs, signal.answerMs)
+                Log.d("CALL", "Call accepted by ${signal.from}")
+                _callEvents.trySend(CallEvent.Accepted(signal.from))
+            }
+            CallSignal.Type.Reject -> {
+                callIds.remove(signal.from)
+                callLatency.forget(signal.callId)
+                Log.d("CALL", "Call rejected by ${signal.from}")
+                _callEvents.trySend(CallEvent.Rejected(signal.from))
+            }
+            CallSignal.Type.End -> {
+                callIds.remove(signal.from)
+                callLatency.forget(signal.callId)
+                Log.d("CALL", "Call ended by ${signal.from}")
+                _callEvents.trySend(CallEvent.Ended(signal.from))
+            }
+        }
+    }
+
+    // Legacy JSON signals on the inbox: cheap byte scan for "CALL_ near the start of a JSON payload, no decoding
+    private fun looksLikeCallSignal(payload: ByteArray): Boolean {
+        val marker = CALL_MARKER
+        val limit = minOf(payload.size, 96) - marker.size
+        for (i in 0..limit) {
+            var match = true
+            for (j in marker.indices) {
+                if (payload[i + j] != marker[j]) {
+                    match = false
+                    break
+                }
+            }
+            if (match) return true
+        }
+        return false
     }
 
     // -------- GPS --------
@@ -263,29 +653,63 @@ class MqttManager(
                 if (oldId.isNotBlank() && newId.isNotBlank()) {
                     Log.d("MQTT", "Device ID changed: $oldId -> $newId")
                     // Remove old device ID from device list immediately
-                    _devices.value = _devices.value.toMutableMap().apply {
-                        remove(oldId)
-                    }
+                    _devices.update { it - oldId }
+                    deviceIndex.remove(oldId)
+                    trackHistory.remove(oldId)
+                    geofences.removeDevice(oldId)
+                    fixDeduper.forget(oldId)
                 }
                 return
             }
             
             // Regular GPS location message
             val id = json.getString("sender_id")
+            val timestamp = json.getString("timestamp")
+            if (!fixDeduper.isNew(id, timestamp)) return
 
             val location = DeviceLocation(
                 deviceId = id,
                 latitude = json.getDouble("latitude"),
                 longitude = json.getDouble("longitude"),
-                timestamp = json.getString("timestamp")
+                timestamp = timestamp
             )
 
-            _devices.value = _devices.value.toMutableMap().apply {
-                put(id, location)
+            _devices.update { it + (id to location) }
+            deviceIndex.put(id, location.latitude, location.longitude)
+            val now = System.currentTimeMillis()
+            trackHistory.record(id, now, location.latitude, location.longitude)
+            geofences.update(id, location.latitude, location.longitude, now).forEach {
+                Log.d("GEOFENCE", "${it.deviceId} ${it.transition} ${it.fenceName}")
+                _geofenceEvents.trySend(it)
             }
         } catch (_: Exception) {}
     }
 
+    // -------- GEOFENCES --------
+
+    private fun handleGeofence(fenceId: String, payload: ByteArray) {
+        if (payload.isEmpty()) {
+            geofences.remove(fenceId)
+            Log.d("GEOFENCE", "Removed $fenceId")
+            updateFenceShards()
+            return
+        }
+        val fence = Geofence.fromJson(fenceId, String(payload))
+        if (fence == null) {
+            Log.w("GEOFENCE", "Malformed fence $fenceId (${payload.size} bytes)")
+            return
+        }
+        geofences.put(fence)
+        Log.d("GEOFENCE", "Loaded $fence (${geofences.fenceCount} fences)")
+        updateFenceShards()
+    }
+
+    /**
+     * Ids of the [k] devices nearest to a position, nearest first
+     */
+    fun nearestDevices(latitude: Double, longitude: Double, k: Int): List<String> =
+        deviceIndex.nearest(latitude, longitude, k).map { it.id }
+
     // -------- INBOX (CHAT + ATTACHMENTS + CALL SIGNALING) --------
 
     private fun handleInbox(payload: String) {
@@ -295,12 +719,17 @@ class MqttManager(
             // ===============================
             // CALL SIGNALING (MQTT)
             // ===============================
-            when (json.optString("type")) {
+            val type = json.optString("type")
+            if (json.has(CallSignal.LEGACY_CALL_ID) && CallSignal.Type.values().any { it.legacy == type }) {
+                // Legacy copy from a client that also sent it on our call/ topic
+                return
+            }
+            when (type) {
                 "CALL_REQUEST" -> {
                     val from = json.getString("from")
                     if (from != myId) {
                         Log.d("CALL", "Incoming call from $from")
-                        _callEvents.value = CallEvent.Incoming(from)
+                        _callEvents.trySend(CallEvent.Incoming(from))
                     }
                     return
                 }
@@ -308,37 +737,74 @@ class MqttManager(
                 "CALL_ACCEPT" -> {
                     val from = json.getString("from")
                     Log.d("CALL", "Call accepted by $from")
-                    _callEvents.value = CallEvent.Accepted(from)
+                    _callEvents.trySend(CallEvent.Accepted(from))
                     return
                 }
 
                 "CALL_REJECT" -> {
                     val from = json.getString("from")
                     Log.d("CALL", "Call rejected by $from")
-                    _callEvents.value = CallEvent.Rejected(from)
+                    _callEvents.trySend(CallEvent.Rejected(from))
                     return
                 }
 
                 "CALL_END" -> {
                     val from = json.getString("from")
                     Log.d("CALL", "Call ended by $from")
-                    _callEvents.value = CallEvent.Ended(from)
+                    _callEvents.trySend(CallEvent.Ended(from))
                     return
                 }
             }
 
+            // ===== DELIVERY RECEIPT =====
+            val acked = ReceiptBatcher.decode(json)
+            if (acked != null) {
+                delivery.onDelivered(acked)
+                return
+            }
+
+            // ===== CHAT ENVELOPE =====
+            val envelope = ChatEnvelope.decode(json)
+            if (envelope != null) {
+                if (envelope.from == myId) return   // ignore self echo
+                // Receipt even for duplicates: the first receipt may have been lost
+                receipts.add(myId, envelope.from, envelope.id)
+                deliverChat(chatSequencer.accept(envelope, System.currentTimeMillis()))
+                if (chatSequencer.hasHeld) scheduleChatFlush()
+                return
+            }
+
             // ===== EXISTING ATTACHMENT LOGIC =====
             if (json.optString("type") == "attachment") {
                 val sender = json.getString("sender")
                 if (sender == myId) return   // ignore self echo
     
                 Log.d("ATTACH", "Received attachment from $sender")
-                
-                _chatItems.value = _chatItems.value + ChatItem.Attachment(
+
+                val sentId = json.optString("id")
+                if (sentId.isNotBlank()) receipts.add(myId, sender, sentId)
+                val id = sentId.ifBlank { UUID.randomUUID().toString() }
+
+                val thumb = json.optString("thumb").takeIf { it.isNotBlank() }?.let {
+                    try {
+                        Base64.decode(it, Base64.NO_WRAP)
+                    } catch (e: IllegalArgumentException) {
+                        null
+                    }
+                }
+                thumb?.let { thumbnails.putEncoded(id, it) }
+
+                val item = ChatItem.Attachment(
                     from = sender,
                     filename = json.getString("filename"),
-                    downloadUrl = json.getString("download_url")
+                    downloadUrl = json.getString("download_url"),
+                    id = id,
+                    sha256 = json.optString("sha256").ifBlank { null },
+                    size = json.optLong("size", 0L),
+                    contentEncoding = json.optString("content_encoding").ifBlank { null },
+                    thumbnailKey = thumb?.let { id }
                 )
+                _chatItems.update { it + item }
                 return
             }
         } catch (_: Exception) {
@@ -354,10 +820,11 @@ class MqttManager(
     
             if (sender == myId) return   // ignore self echo
     
-            _chatItems.value = _chatItems.value + ChatItem.Text(
+            val item = ChatItem.Text(
                 from = sender,
                 text = text
             )
+            _chatItems.update { it + item }
         }
     }
     
@@ -365,7 +832,7 @@ class MqttManager(
     // -------- GPS --------
 
     fun publishGps(lat: Double, lon: Double, timestamp: String) {
-        if (!::mqttClient.isInitialized || !mqttClient.isConnected) return
+        lastFix = Pair(lat, lon)
 
         val json = JSONObject().apply {
             put("sender_id", myId)
@@ -374,24 +841,270 @@ class MqttManager(
             put("timestamp", timestamp)
         }
 
-        mqttClient.publish(
-            gpsTopic,
-            MqttMessage(json.toString().toByteArray()).apply { qos = 1 }
+        val bytes = json.toString().toByteArray()
+        publishOrQueue(
+            OutboundClass.Gps,
+            gpsPublishTopics(myId).map { topic ->
+                OutboundMessage(OutboundClass.Gps, topic, bytes, qos = 1)
+            }
         )
     }
 
+    private fun gpsPublishTopics(deviceId: String): List<String> {
+        val topics = mutableListOf<String>()
+        if (settings.gpsTopicMode != GpsTopicMode.Sharded) {
+            topics.add(gpsTopic)
+        }
+        if (settings.gpsTopicMode != GpsTopicMode.Legacy) {
+            lastFix?.let { (lat, lon) ->
+                topics.add(GpsTopics.shardTopic(lat, lon, deviceId))
+            }
+        }
+        return topics
+    }
+
+    // -------- VIEWPORT (GPS SHARD SUBSCRIPTIONS) --------
+
+    /**
+     * Called when the visible map area changes.
+     * Subscribes to the GPS shards covering the viewport and drops the rest.
+     */
+    fun updateViewport(south: Double, west: Double, north: Double, east: Double) {
+        val filters = GpsTopics.viewportFilters(south, west, north, east)
+        scope.launch {
+            synchronized(shardFilters) {
+                viewportFilters = filters
+                resyncShards("Viewport")
+            }
+        }
+    }
+
+    /**
+     * Geofences are checked against the fixes this client receives, so the shards
+     * around every fence stay subscribed whatever the map shows.
+     */
+    private fun updateFenceShards() {
+        if (!fenceShardsPending.compareAndSet(false, true)) return
+        scope.launch {
+            delay(FENCE_SHARDS_DELAY_MS)
+            fenceShardsPending.set(false)
+            val filters = GpsTopics.union(geofences.fences().asSequence().map {
+                GpsTopics.areaFilters(it.south, it.west, it.north, it.east)
+            })
+            synchronized(shardFilters) {
+                fenceFilters = filters
+                resyncShards("Geofence")
+            }
+        }
+    }
+
+    // Caller must hold the shardFilters lock
+    private fun resyncShards(reason: String) {
+        if (settings.gpsTopicMode == GpsTopicMode.Legacy) return
+        val client = transport ?: return
+        if (!client.isConnected) return
+        try {
+            syncShardSubscriptions(client)
+        } catch (e: Exception) {
+            Log.e("MQTT", "$reason subscription update failed", e)
+        }
+    }
+
+    /**
+     * Move the session's shard filters to the wanted set. With [resubscribe] the
+     * wanted filters are subscribed again even if the session should hold them.
+     * Caller must hold the shardFilters lock.
+     */
+    private fun syncShardSubscriptions(client: MqttTransport, resubscribe: Boolean = false) {
+        val wanted = when {
+            settings.gpsTopicMode == GpsTopicMode.Legacy -> emptySet()
+            else -> GpsTopics.union(sequenceOf(viewportFilters, fenceFilters))
+        }
+        val removed = shardFilters - wanted
+        val added = if (resubscribe) wanted else wanted - shardFilters
+
+        if (removed.isNotEmpty()) {
+            client.unsubscribe(removed.toTypedArray())
+            shardFilters.removeAll(removed)
+            saveShardFilters()
+        }
+        if (added.isNotEmpty()) {
+            client.subscribe(added.toTypedArray(), IntArray(added.size) { 1 })
+            if (shardFilters.addAll(added)) saveShardFilters()
+        }
+        if (removed.isNotEmpty() || added.isNotEmpty()) {
+            Log.d("MQTT", "GPS shards: +${added.size} -${removed.size} (now ${shardFilters.size})")
+        }
+    }
+
+    private fun loadShardFilters(): MutableSet<String> =
+        try {
+            shardsFile?.takeIf { it.exists() }
+                ?.readLines()
+                ?.filterTo(HashSet()) { GpsTopics.isGpsTopic(it) }
+                ?: HashSet()
+        } catch (e: Exception) {
+            Log.e("MQTT", "Could not read GPS shard filters", e)
+            HashSet()
+        }
+
+    // Caller must hold the shardFilters lock
+    private fun saveShardFilters() {
+        val file = shardsFile ?: return
+        try {
+            file.writeText(shardFilters.joinToString("\n"))
+        } catch (e: Exception) {
+            Log.e("MQTT", "Could not save GPS shard filters", e)
+        }
+    }
+
     // -------- SEND CHAT --------
 
-    fun sendChat(peerId: String, text: String) {
-        if (!::mqttClient.isInitialized || !mqttClient.isConnected) return
+    /**
+     * Returns the message id; follow its progress in [delivery]
+     */
+    fun sendChat(peerId: String, text: String): String {
+        val envelope = newEnvelope("$peerId/inbox", text)
+        delivery.onCreated(envelope.id)
+        publishOrQueue(
+            OutboundClass.Chat,
+            listOf(OutboundMessage(OutboundClass.Chat, "$peerId/inbox", envelope.encode(), qos = 1))
+        )
 
-        val msg = "$myId: $text"
-        mqttClient.publish(
-            "$peerId/inbox",
-            MqttMessage(msg.toByteArray()).apply { qos = 1 }
+        _chatItems.update { it + ChatItem.Text("you", text, envelope.sentAt, envelope.id) }
+        return envelope.id
+    }
+
+    private fun newEnvelope(topic: String, text: String, group: String? = null) = ChatEnvelope(
+        id = "$chatEpoch-${chatCounter.incrementAndGet()}",
+        from = myId,
+        seq = chatSeqs.getOrPut(topic) { AtomicLong() }.incrementAndGet(),
+        epoch = chatEpoch,
+        sentAt = System.currentTimeMillis(),
+        text = text,
+        group = group
+    )
+
+    private fun deliverChat(envelopes: List<ChatEnvelope>) {
+        if (envelopes.isEmpty()) return
+        val items = envelopes.map { ChatItem.Text(it.from, it.text, it.sentAt, it.id, it.group) }
+        _chatItems.update { it + items }
+    }
+
+    // -------- GROUP CHAT --------
+
+    /**
+     * One publish to group/<id>/chat reaches every member. Returns the message id.
+     */
+    fun sendGroupChat(groupId: String, text: String): String {
+        val envelope = newEnvelope(GroupTopics.chat(groupId), text, groupId)
+        delivery.onCreated(envelope.id)
+        publishOrQueue(
+            OutboundClass.Chat,
+            listOf(OutboundMessage(OutboundClass.Chat, GroupTopics.chat(groupId), envelope.encode(), qos = 1))
         )
 
-        _chatItems.value = _chatItems.value + ChatItem.Text("you", text)
+        _chatItems.update { it + ChatItem.Text("you", text, envelope.sentAt, envelope.id, groupId) }
+        return envelope.id
+    }
+
+    fun joinGroup(groupId: String) {
+        if (!GroupTopics.isValidGroupId(groupId)) return
+        _joinedGroups.update { it + groupId }
+        saveGroups(groupsFile, _joinedGroups.value)
+        synchronized(leftGroups) {
+            if (leftGroups.remove(groupId)) saveGroups(leftGroupsFile, leftGroups)
+        }
+        scope.launch {
+            val client = transport ?: return@launch
+            if (!client.isConnected) return@launch
+            try {
+                announceMembership(client, groupId)
+                Log.d("MQTT-GROUP", "Joined $groupId")
+            } catch (e: Exception) {
+                Log.e("MQTT-GROUP", "Join $groupId failed, retrying on reconnect", e)
+            }
+        }
+    }
+
+    fun leaveGroup(groupId: String) {
+        _joinedGroups.update { it - groupId }
+        saveGroups(groupsFile, _joinedGroups.value)
+        synchronized(leftGroups) {
+            leftGroups.add(groupId)
+            saveGroups(leftGroupsFile, leftGroups)
+        }
+        scope.launch {
+            val client = transport ?: return@launch
+            if (!client.isConnected) return@launch
+            try {
+                leave(client, groupId)
+            } catch (e: Exception) {
+                Log.e("MQTT-GROUP", "Leave $groupId failed, retrying on reconnect", e)
+            }
+        }
+    }
+
+    private fun leave(client: MqttTransport, groupId: String) {
+        client.unsubscribe(GroupTopics.chat(groupId))
+        // Empty retained payload clears our membership for everyone
+        client.publish(GroupTopics.member(groupId, myId), ByteArray(0), 1, retained = true)
+        synchronized(leftGroups) {
+            if (leftGroups.remove(groupId)) saveGroups(leftGroupsFile, leftGroups)
+        }
+        Log.d("MQTT-GROUP", "Left $groupId")
+    }
+
+    private fun handleGroupChat(groupId: String, payload: String) {
+        // The session may still deliver a group left while offline
+        if (groupId !in _joinedGroups.value) return
+        try {
+            val envelope = ChatEnvelope.decode(JSONObject(payload))?.copy(group = groupId) ?: return
+            if (envelope.from == myId) return   // broker echoes our own group messages
+            receipts.add(myId, envelope.from, envelope.id)
+            val stream = "${GroupTopics.chat(groupId)}/${envelope.from}"
+            deliverChat(chatSequencer.accept(envelope, System.currentTimeMillis(), stream))
+            if (chatSequencer.hasHeld) scheduleChatFlush()
+        } catch (e: Exception) {
+            Log.e("MQTT-GROUP", "Bad group message on $groupId", e)
+        }
+    }
+
+    private fun handleMembership(groupId: String, deviceId: String, payload: ByteArray) {
+        val joined = payload.isNotEmpty()
+        _groups.update { groups ->
+            val group = groups[groupId] ?: ChatGroup(groupId)
+            val members = if (joined) group.members + deviceId else group.members - deviceId
+            if (members.isEmpty()) groups - groupId else groups + (groupId to group.copy(members = members))
+        }
+    }
+
+    private fun loadGroups(file: File?): Set<String> =
+        try {
+            file?.takeIf { it.exists() }
+                ?.readLines()
+                ?.filter { GroupTopics.isValidGroupId(it) }
+                ?.toSet()
+                ?: emptySet()
+        } catch (e: Exception) {
+            Log.e("MQTT-GROUP", "Could not read ${file?.name}", e)
+            emptySet()
+        }
+
+    private fun saveGroups(file: File?, groups: Set<String>) {
+        file ?: return
+        try {
+            file.writeText(groups.joinToString("\n"))
+        } catch (e: Exception) {
+            Log.e("MQTT-GROUP", "Could not save ${file.name}", e)
+        }
+    }
+
+    private fun scheduleChatFlush() {
+        scope.launch {
+            delay(CHAT_REORDER_HOLD_MS)
+            deliverChat(chatSequencer.flushExpired(System.currentTimeMillis()))
+        }
     }
 
     // -------- ATTACHMENT UPLOAD + MQTT --------
@@ -400,6 +1113,10 @@ class MqttManager(
         attachmentServer = serverUrl
     }
 
+    fun updateAttachmentSettings(newSettings: AttachmentSettings) {
+        attachmentSettings = newSettings
+    }
+
     private fun getFileName(uri: Uri, resolver: ContentResolver): String {
         resolver.query(uri, null, null, null, null)?.use { cursor ->
             val nameIndex = cursor.getColumnIndex(android.provider.OpenableColumns.DISPLAY_NAME)
@@ -410,115 +1127,255 @@ class MqttManager(
         return "file_${System.currentTimeMillis()}"
     }
 
+    /**
+     * Upload in the background in resumable chunks; returns the message id tracked in [delivery]
+     */
     fun sendAttachment(
         peerId: String,
         fileUri: Uri,
         resolver: ContentResolver
-    ) {
+    ): String {
+        val id = "a-" + UUID.randomUUID().toString().take(12)
+        delivery.onCreated(id)
+        this.resolver = resolver
         scope.launch {
-            var conn: HttpURLConnection? = null
             try {
-                val uploadUrl = URL("$attachmentServer/upload")
-                conn = uploadUrl.openConnection() as HttpURLConnection
-
                 val filename = getFileName(fileUri, resolver)
-
-                // Get file size for Content-Length
-                val fileSize = resolver.openInputStream(fileUri)?.available() ?: 0
-
-                conn.requestMethod = "POST"
-                conn.setRequestProperty("X-Filename", filename)
-                conn.setFixedLengthStreamingMode(fileSize)
-                conn.doOutput = true
-
-                val out = DataOutputStream(conn.outputStream)
-                resolver.openInputStream(fileUri)?.use { input ->
-                    input.copyTo(out)
+                val prepared = UriChunkSource.prepare(resolver, fileUri, stagingDir, id)
+                val mimeType = resolver.getType(fileUri)
+                if (Thumbnails.isImage(mimeType)) {
+                    // Goes out with the metadata once the upload completes
+                    try {
+                        Thumbnails.encode { UriChunkSource.openStream(resolver, prepared.source) }
+                            ?.let { thumbnails.putEncoded(id, it) }
+                    } catch (e: Exception) {
+                        Log.e("ATTACH", "No thumbnail for $filename", e)
+                    }
                 }
-                out.flush()
-                out.close()
-
-                if (conn.responseCode == 200) {
-                    val response =
-                        conn.inputStream.bufferedReader().readText()
-                    val json = JSONObject(response)
-
-                    sendAttachmentMetadata(
-                        peerId,
-                        json.getString("filename"),
-                        json.getString("file_id"),
-                        json.getString("download_url")
+                val shrunk = preprocessor.process(
+                    open = { UriChunkSource.openStream(resolver, prepared.source) },
+                    inputBytes = prepared.size,
+                    mimeType = mimeType,
+                    filename = filename,
+                    name = id,
+                    settings = attachmentSettings
+                )
+                val job = if (shrunk != null) {
+                    discardStaged(prepared.source)
+                    UploadJob(
+                        id, peerId, Uri.fromFile(shrunk.file).toString(), shrunk.filename, shrunk.file.length(),
+                        contentEncoding = shrunk.contentEncoding
                     )
+                } else {
+                    UploadJob(id, peerId, prepared.source, filename, prepared.size, sha256 = prepared.sha256)
                 }
-
+                uploader.start(job)
             } catch (e: Exception) {
-                Log.e("ATTACH", "Upload failed", e)
-            } finally {
-                conn?.disconnect()
+                Log.e("ATTACH", "Cannot read attachment $fileUri", e)
+                delivery.onFailed(id)
             }
         }
+        return id
+    }
+
+    private fun discardStaged(source: String) {
+        val path = Uri.parse(source)?.path ?: return
+        if (path.startsWith(stagingDir.path)) File(path).delete()
     }
 
     private fun sendAttachmentMetadata(
         peerId: String,
         filename: String,
         fileId: String,
-        downloadUrl: String
+        downloadUrl: String,
+        id: String,
+        sha256: String?,
+        size: Long,
+        contentEncoding: String?
     ) {
+        val thumb = thumbnails.readEncoded(id)
         val payload = JSONObject().apply {
             put("type", "attachment")
+            put("id", id)
             put("sender", myId)
             put("filename", filename)
             put("file_id", fileId)
             put("download_url", downloadUrl)
+            // Lets the receiver serve repeat opens from its attachment cache
+            sha256?.let { put("sha256", it) }
+            put("size", size)
+            // "gzip" when the sender compressed the file; the receiver inflates it
+            contentEncoding?.let { put("content_encoding", it) }
+            thumb?.let { put("thumb", Base64.encodeToString(it, Base64.NO_WRAP)) }
         }
 
-        mqttClient.publish(
-            "$peerId/inbox",
-            MqttMessage(payload.toString().toByteArray()).apply { qos = 1 }
+        publishOrQueue(
+            OutboundClass.Chat,
+            listOf(
+                OutboundMessage(OutboundClass.Chat, "$peerId/inbox", payload.toString().toByteArray(), qos = 1)
+            )
         )
 
         onMain {
-            _chatItems.value = _chatItems.value + ChatItem.Attachment(
-                from = "you",
-                filename = filename,
-                downloadUrl = downloadUrl
-            )
+            _chatItems.update {
+                it + ChatItem.Attachment(
+                    from = "you",
+                    filename = filename,
+                    downloadUrl = downloadUrl,
+                    id = id,
+                    sha256 = sha256,
+                    size = size,
+                    contentEncoding = contentEncoding,
+                    thumbnailKey = thumb?.let { id }
+                )
+            }
         }
     }
 
     // -------- CALL SIGNALING SEND --------
 
     fun sendCallRequest(peerId: String) {
-        if (!::mqttClient.isInitialized || !mqttClient.isConnected) return
-        sendCallSignal(peerId, "CALL_REQUEST")
+        val callId = UUID.randomUUID().toString().take(8)
+        callIds[peerId] = callId
+        callLatency.onRequestSent(callId)
+        sendCallSignal(peerId, CallSignal.Type.Request, callId)
     }
 
     fun sendCallAccept(peerId: String) {
-        if (!::mqttClient.isInitialized || !mqttClient.isConnected) return
-        sendCallSignal(peerId, "CALL_ACCEPT")
+        val callId = callIds[peerId] ?: UUID.randomUUID().toString().take(8)
+        val (ringMs, answerMs) = callLatency.takeAcceptTimings(callId) ?: Pair(-1L, -1L)
+        sendCallSignal(peerId, CallSignal.Type.Accept, callId, ringMs, answerMs)
     }
 
     fun sendCallReject(peerId: String) {
-        if (!::mqttClient.isInitialized || !mqttClient.isConnected) return
-        sendCallSignal(peerId, "CALL_REJECT")
+        val callId = callIds.remove(peerId) ?: ""
+        callLatency.forget(callId)
+        sendCallSignal(peerId, CallSignal.Type.Reject, callId)
     }
 
     fun sendCallEnd(peerId: String) {
-        if (!::mqttClient.isInitialized || !mqttClient.isConnected) return
-        sendCallSignal(peerId, "CALL_END")
+        val callId = callIds.remove(peerId) ?: ""
+        callLatency.forget(callId)
+        sendCallSignal(peerId, CallSignal.Type.End, callId)
     }
 
-    private fun sendCallSignal(peerId: String, type: String) {
-        if (!::mqttClient.isInitialized || !mqttClient.isConnected) return
-        val payload = JSONObject().apply {
-            put("type", type)
-            put("from", myId)
-            put("to", peerId)
-        }
-        mqttClient.publish(
-            "$peerId/inbox",
-            MqttMessage(payload.toString().toByteArray()).apply { qos = 1 }
+    /**
+     * The incoming call from [peerId] is now visible to the user
+     */
+    fun onCallRinging(peerId: String) {
+        callIds[peerId]?.let { callLatency.onRing(it) }
+    }
+
+    private fun sendCallSignal(
+        peerId: String,
+        type: CallSignal.Type,
+        callId: String,
+        ringMs: Long = -1,
+        answerMs: Long = -1
+    ) {
+        val signal = CallSignal(
+            type = type,
+            from = myId,
+            callId = callId,
+            sentAt = System.currentTimeMillis(),
+            ringMs = ringMs,
+            answerMs = answerMs
         )
+        val messages = ArrayList<OutboundMessage>(2)
+        messages.add(OutboundMessage(OutboundClass.CallSignal, CallSignal.topicFor(peerId), signal.encode(), qos = 1))
+        if (SEND_LEGACY_CALL_SIGNALS) {
+            messages.add(OutboundMessage(OutboundClass.CallSignal, "$peerId/inbox", signal.encodeLegacy(peerId), qos = 1))
+        }
+        publishOrQueue(OutboundClass.CallSignal, messages)
+    }
+
+    // -------- OUTBOX --------
+
+    private fun isConnected(): Boolean =
+        transport?.isConnected == true
+
+    /**
+     * Publish now if connected and nothing of the same class is waiting (keeps ordering),
+     * otherwise queue and let the drain deliver it.
+     */
+    private fun publishOrQueue(kind: OutboundClass, messages: List<OutboundMessage>) {
+        if (messages.isEmpty()) return
+
+        val client = transport
+        if (client != null && client.isConnected && outbox.countOf(kind) == 0) {
+            try {
+                messages.forEach { msg ->
+                    val id = messageId(msg)
+                    id?.let { delivery.onPublishing(it) }
+                    client.publish(msg.topic, msg.payload, msg.qos)
+                    id?.let { delivery.onSent(it) }
+                }
+                return
+            } catch (e: Exception) {
+                Log.e("MQTT-OUTBOX", "Publish failed, queueing $kind", e)
+            }
+        }
+
+        outbox.enqueue(kind, messages).forEach { evicted ->
+            messageId(evicted)?.let { delivery.onFailed(it) }
+        }
+        if (isConnected()) drainOutbox()
+    }
+
+    /**
+     * Id of an outgoing chat envelope or attachment, null for anything else
+     */
+    private fun messageId(msg: OutboundMessage): String? {
+        if (msg.kind != OutboundClass.Chat) return null
+        return try {
+            JSONObject(String(msg.payload)).optString("id").ifBlank { null }
+        } catch (_: Exception) {
+            null
+        }
+    }
+
+    /**
+     * Replay queued messages in batches. Each batch is published without waiting,
+     * then all delivery tokens are awaited before the next batch (windowed flow control).
+     */
+    private fun drainOutbox() {
+        if (outbox.isEmpty()) return
+        scope.launch {
+            if (!drainMutex.tryLock()) return@launch
+            try {
+                var sent = 0
+                while (true) {
+                    val client = transport ?: break
+                    if (!client.isConnected) break
+                    val batch = outbox.peekBatch(DRAIN_BATCH_SIZE)
+                    if (batch.isEmpty()) break
+
+                    val delivered = ArrayList<OutboundMessage>(batch.size)
+                    try {
+                        val pending = batch.map { msg ->
+                            val id = messageId(msg)
+                            id?.let { delivery.onPublishing(it) }
+                            Triple(msg, id, client.publishAsync(msg.topic, msg.payload, msg.qos))
+                        }
+                        pending.forEach { (msg, id, publish) ->
+                            publish.await(DRAIN_ACK_TIMEOUT_MS)
+                            delivered.add(msg)
+                            id?.let { delivery.onSent(it) }
+                        }
+                    } catch (e: Exception) {
+                        Log.e("MQTT-OUTBOX", "Drain interrupted", e)
+                        outbox.remove(delivered)
+                        break
+                    }
+
+                    outbox.remove(delivered)
+                    sent += delivered.size
+                    delay(DRAIN_BATCH_PAUSE_MS)
+                }
+                if (sent > 0) Log.d("MQTT-OUTBOX", "Replayed $sent queued messages, ${outboxDepth.value} left")
+            } finally {
+                drainMutex.unlock()
+            }
+        }
     }
 }
@@ -9,7 +9,9 @@ import android.content.SharedPreferences
 data class MqttSettings(
     val brokerUri: String = "tcp://192.168.29.239:1883",
     val username: String = "",
-    val password: String = ""
+    val password: String = "",
+    val gpsTopicMode: GpsTopicMode = GpsTopicMode.Sharded,
+    val protocol: MqttProtocol = MqttProtocol.V3
 )
 
 /**
@@ -21,6 +23,8 @@ object MqttSettingsManager {
     private const val KEY_USERNAME = "mqtt_username"
     private const val KEY_PASSWORD = "mqtt_password"
     private const val KEY_DEVICE_ID = "mqtt_device_id"
+    private const val KEY_GPS_TOPIC_MODE = "mqtt_gps_topic_mode"
+    private const val KEY_PROTOCOL = "mqtt_protocol"
 
     /**
      * Save MQTT settings to SharedPreferences
@@ -31,6 +35,8 @@ object MqttSettingsManager {
             putString(KEY_BROKER_URI, settings.brokerUri)
             putString(KEY_USERNAME, settings.username)
             putString(KEY_PASSWORD, settings.password)
+            putString(KEY_GPS_TOPIC_MODE, settings.gpsTopicMode.name)
+            putString(KEY_PROTOCOL, settings.protocol.name)
             apply()
         }
     }
@@ -44,7 +50,13 @@ object MqttSettingsManager {
             MqttSettings(
                 brokerUri = prefs.getString(KEY_BROKER_URI, "tcp://192.168.29.239:1883") ?: "tcp://192.168.29.239:1883",
                 username = prefs.getString(KEY_USERNAME, "") ?: "",
-                password = prefs.getString(KEY_PASSWORD, "") ?: ""
+                password = prefs.getString(KEY_PASSWORD, "") ?: "",
+                gpsTopicMode = prefs.getString(KEY_GPS_TOPIC_MODE, null)
+                    ?.let { name -> GpsTopicMode.values().firstOrNull { it.name == name } }
+                    ?: GpsTopicMode.Sharded,
+                protocol = prefs.getString(KEY_PROTOCOL, null)
+                    ?.let { name -> MqttProtocol.values().firstOrNull { it.name == name } }
+                    ?: MqttProtocol.V3
             )
         } catch (e: Exception) {
             // If corrupted data, return defaults
@@ -0,0 +1,92 @@
+package com.example.isro_app.mqtt
+
+import java.io.File
+
+/**
+ * MQTT protocol version used to talk to the broker
+ */
+enum class MqttProtocol {
+    V3,
+    V5
+}
+
+/**
+ * Protocol-neutral client used by [MqttManager].
+ *
+ * Implementations wrap one Paho client instance for one connection attempt.
+ * All calls are blocking and may throw; callers run them off the main thread.
+ *
+ * Sessions are persistent: the broker keeps subscriptions and queued QoS 1
+ * messages while the device is away, and in-flight QoS 1 state is kept on
+ * disk so it survives a client rebuild or process restart.
+ */
+interface MqttTransport {
+
+    interface Listener {
+        fun onMessage(topic: String, payload: ByteArray)
+        fun onConnectionLost(cause: Throwable?)
+        fun onConnectComplete(reconnect: Boolean)
+    }
+
+    /**
+     * Outstanding publish; [await] blocks until the broker acknowledged it
+     */
+    fun interface PendingPublish {
+        fun await(timeoutMs: Long)
+    }
+
+    val protocol: MqttProtocol
+    val isConnected: Boolean
+
+    fun connect(listener: Listener)
+
+    fun subscribe(filters: Array<String>, qos: IntArray)
+
+    fun subscribe(filter: String, qos: Int) = subscribe(arrayOf(filter), intArrayOf(qos))
+
+    fun unsubscribe(filters: Array<String>)
+
+    fun unsubscribe(filter: String) = unsubscribe(arrayOf(filter))
+
+    /**
+     * Publish and wait for the broker acknowledgement (QoS > 0)
+     */
+    fun publish(topic: String, payload: ByteArray, qos: Int, retained: Boolean = false)
+
+    /**
+     * Publish without waiting; used for windowed batches
+     */
+    fun publishAsync(topic: String, payload: ByteArray, qos: Int): PendingPublish
+
+    /**
+     * Skip the automatic-reconnect backoff and try again now (e.g. network came back)
+     */
+    fun reconnectNow()
+
+    /**
+     * Disconnect and release the client; the broker-side session is kept
+     */
+    fun disconnect()
+
+    companion object {
+        /**
+         * @param persistenceDir directory for in-flight QoS state; in-memory when null
+         */
+        fun create(
+            protocol: MqttProtocol,
+            settings: MqttSettings,
+            clientId: String,
+            persistenceDir: File? = null
+        ): MqttTransport =
+            when (protocol) {
+                MqttProtocol.V3 -> PahoV3Transport(settings, clientId, persistenceDir)
+                MqttProtocol.V5 -> PahoV5Transport(settings, clientId, persistenceDir)
+            }
+
+        /**
+         * Shared subscription filter (MQTT 5): the broker load-balances matching
+         * messages across all subscribers in [group]
+         */
+        fun sharedFilter(group: String, filter: String) = "\$share/$group/$filter"
+    }
+}
@@ -0,0 +1,280 @@
+package com.example.isro_app.mqtt
+
+import android.util.Log
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.EOFException
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.IOException
+import java.util.Collections
+import java.util.IdentityHashMap
+
+// -------- OUTBOUND CLASSES --------
+
+/**
+ * Retention policy per kind of outbound traffic
+ *
+ * Gps        - only the most recent fix is worth sending
+ * Chat       - every message is kept (up to [OutboundQueue.MAX_CHAT])
+ * CallSignal - dropped once older than [OutboundQueue.CALL_SIGNAL_TTL_MS]
+ * Receipt    - delivery/read receipts, oldest dropped beyond [OutboundQueue.MAX_RECEIPTS]
+ *              so they never push chat out
+ */
+enum class OutboundClass {
+    Gps,
+    Chat,
+    CallSignal,
+    Receipt
+}
+
+class OutboundMessage(
+    val kind: OutboundClass,
+    val topic: String,
+    val payload: ByteArray,
+    val qos: Int,
+    val enqueuedAt: Long = System.currentTimeMillis()
+)
+
+// -------- OUTBOUND QUEUE --------
+
+/**
+ * Messages produced while the broker is unreachable.
+ *
+ * Kept on disk as an append-only journal: each mutation appends the added messages
+ * or the ids of the removed ones, so a GPS fix every few seconds costs one small
+ * write instead of rewriting the whole backlog. Once the journal holds many more
+ * records than live messages it is compacted (live messages to a temp file +
+ * rename). A torn last record, e.g. from a process killed mid-write, is ignored;
+ * an unreadable file starts empty.
+ */
+class OutboundQueue(private val file: File?) {
+
+    companion object {
+        const val MAX_CHAT = 500
+        const val MAX_RECEIPTS = 200
+        const val CALL_SIGNAL_TTL_MS = 30_000L
+        // Compact once the journal has this many records and twice as many as live messages
+        const val COMPACT_MIN_RECORDS = 256
+        private const val FORMAT_VERSION = 2
+        private const val OP_ADD = 1
+        private const val OP_REMOVE = 2
+    }
+
+    private val entries = ArrayList<OutboundMessage>()
+    // Journal id of each live message
+    private val ids = IdentityHashMap<OutboundMessage, Long>()
+    private var nextId = 0L
+
+    private var journal: DataOutputStream? = null
+    private var records = 0
+
+    private val _depth = MutableStateFlow(0)
+    val depth: StateFlow<Int> = _depth
+
+    init {
+        load()
+        compact()
+    }
+
+    /**
+     * Add messages of one class, applying its retention policy.
+     * GPS messages of a single fix are passed together so they replace the previous fix as a unit.
+     * Returns the chat messages evicted to stay under [MAX_CHAT].
+     */
+    @Synchronized
+    fun enqueue(kind: OutboundClass, messages: List<OutboundMessage>): List<OutboundMessage> {
+        val dropped = ArrayList<OutboundMessage>()
+        when (kind) {
+            OutboundClass.Gps -> entries.filterTo(dropped) { it.kind == OutboundClass.Gps }
+            OutboundClass.Chat -> dropOldest(OutboundClass.Chat, MAX_CHAT - messages.size, dropped)
+            OutboundClass.Receipt -> dropOldest(OutboundClass.Receipt, MAX_RECEIPTS - messages.size, dropped)
+            OutboundClass.CallSignal -> expired(System.currentTimeMillis(), dropped)
+        }
+        if (dropped.isNotEmpty()) {
+            if (kind == OutboundClass.Chat || kind == OutboundClass.Receipt) {
+                Log.w("MQTT-OUTBOX", "$kind backlog full, dropped ${dropped.size} oldest")
+            }
+            removeEntries(dropped)
+        }
+        messages.forEach { ids[it] = nextId++ }
+        entries.addAll(messages)
+        append { out -> messages.forEach { writeAdd(out, ids.getValue(it), it) } }
+        return if (kind == OutboundClass.Chat) dropped else emptyList()
+    }
+
+    @Synchronized
+    fun countOf(kind: OutboundClass): Int = entries.count { it.kind == kind }
+
+    @Synchronized
+    fun isEmpty(): Boolean = entries.isEmpty()
+
+    /**
+     * Oldest [max] deliverable messages. Expired call signals are discarded first.
+     */
+    @Synchronized
+    fun peekBatch(max: Int): List<OutboundMessage> {
+        val expired = expired(System.currentTimeMillis(), ArrayList())
+        if (expired.isNotEmpty()) removeEntries(expired)
+        return entries.take(max)
+    }
+
+    /**
+     * Remove messages that were delivered
+     */
+    @Synchronized
+    fun remove(delivered: Collection<OutboundMessage>) {
+        val live = delivered.filter { it in ids }
+        if (live.isNotEmpty()) removeEntries(live)
+    }
+
+    /**
+     * Appends the oldest messages of [kind] beyond [keep] to [into]
+     */
+    private fun dropOldest(kind: OutboundClass, keep: Int, into: MutableList<OutboundMessage>) {
+        var overflow = entries.count { it.kind == kind } - maxOf(keep, 0)
+        for (msg in entries) {
+            if (overflow <= 0) break
+            if (msg.kind == kind) {
+                into.add(msg)
+                overflow--
+            }
+        }
+    }
+
+    private fun expired(now: Long, into: MutableList<OutboundMessage>): List<OutboundMessage> =
+        entries.filterTo(into) {
+            it.kind == OutboundClass.CallSignal && now - it.enqueuedAt > CALL_SIGNAL_TTL_MS
+        }
+
+    private fun removeEntries(removed: List<OutboundMessage>) {
+        val gone = Collections.newSetFromMap(IdentityHashMap<OutboundMessage, Boolean>())
+        gone.addAll(removed)
+        entries.removeAll { it in gone }
+        val removedIds = removed.mapNotNull { ids.remove(it) }
+        append { out ->
+            out.writeByte(OP_REMOVE)
+            out.writeInt(removedIds.size)
+            removedIds.forEach { out.writeLong(it) }
+        }
+    }
+
+    // -------- PERSISTENCE --------
+
+    private fun writeAdd(out: DataOutputStream, id: Long, msg: OutboundMessage) {
+        out.writeByte(OP_ADD)
+        out.writeLong(id)
+        out.writeByte(msg.kind.ordinal)
+        out.writeUTF(msg.topic)
+        out.writeByte(msg.qos)
+        out.writeLong(msg.enqueuedAt)
+        out.writeInt(msg.payload.size)
+        out.write(msg.payload)
+    }
+
+    /**
+     * Write one mutation to the journal, compacting it when it has grown well past
+     * the live messages
+     */
+    private inline fun append(write: (DataOutputStream) -> Unit) {
+        _depth.value = entries.size
+        val out = journal ?: run {
+            // A failed compaction left no journal; try again
+            compact()
+            return
+        }
+        try {
+            write(out)
+            out.flush()
+            records++
+        } catch (e: Exception) {
+            Log.e("MQTT-OUTBOX", "Journal write failed", e)
+            // Rewrite from memory, which also drops a partly written record
+            compact()
+            return
+        }
+        if (records >= COMPACT_MIN_RECORDS && records >= entries.size * 2) compact()
+    }
+
+    /**
+     * Replace the journal with one add record per live message
+     */
+    private fun compact() {
+        _depth.value = entries.size
+        val target = file ?: return
+        try {
+            journal?.close()
+        } catch (e: Exception) {
+            Log.w("MQTT-OUTBOX", "Closing journal failed", e)
+        }
+        journal = null
+        try {
+            val tmp = File(target.parentFile, target.name + ".tmp")
+            DataOutputStream(FileOutputStream(tmp).buffered()).use { out ->
+                out.writeInt(FORMAT_VERSION)
+                entries.forEach { writeAdd(out, ids.getValue(it), it) }
+            }
+            if (!tmp.renameTo(target)) {
+                Log.e("MQTT-OUTBOX", "Could not replace ${target.name}")
+                return
+            }
+            records = entries.size
+            journal = DataOutputStream(FileOutputStream(target, true).buffered())
+        } catch (e: Exception) {
+            Log.e("MQTT-OUTBOX", "Compaction failed", e)
+        }
+    }
+
+    private fun load() {
+        val source = file ?: return
+        if (!source.exists()) return
+        val byId = LinkedHashMap<Long, OutboundMessage>()
+        try {
+            DataInputStream(FileInputStream(source).buffered()).use { input ->
+                if (input.readInt() != FORMAT_VERSION) {
+                    Log.w("MQTT-OUTBOX", "Unknown queue format, starting empty")
+                    return
+                }
+                while (true) {
+                    val op = try {
+                        input.readUnsignedByte()
+                    } catch (e: EOFException) {
+                        break
+                    }
+                    when (op) {
+                        OP_ADD -> {
+                            val id = input.readLong()
+                            val kind = OutboundClass.values()[input.readByte().toInt()]
+                            val topic = input.readUTF()
+                            val qos = input.readByte().toInt()
+                            val enqueuedAt = input.readLong()
+                            val payload = ByteArray(input.readInt())
+                            input.readFully(payload)
+                            byId[id] = OutboundMessage(kind, topic, payload, qos, enqueuedAt)
+                        }
+                        OP_REMOVE -> repeat(input.readInt()) { byId.remove(input.readLong()) }
+                        else -> throw IOException("Unknown journal record $op")
+                    }
+                }
+            }
+        } catch (e: EOFException) {
+            Log.w("MQTT-OUTBOX", "Ignoring torn last journal record")
+        } catch (e: Exception) {
+            Log.e("MQTT-OUTBOX", "Queue file unreadable, starting empty", e)
+            byId.clear()
+        }
+        byId.forEach { (id, msg) ->
+            entries.add(msg)
+            ids[msg] = id
+            nextId = maxOf(nextId, id + 1)
+        }
+        expired(System.currentTimeMillis(), ArrayList()).let { stale ->
+            entries.removeAll(stale.toSet())
+            stale.forEach { ids.remove(it) }
+        }
+        Log.d("MQTT-OUTBOX", "Restored ${entries.size} queued messages")
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.isro_app.mqtt
+
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken
+import org.eclipse.paho.client.mqttv3.MqttCallbackExtended
+import org.eclipse.paho.client.mqttv3.MqttClient
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions
+import org.eclipse.paho.client.mqttv3.MqttMessage
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence
+import org.eclipse.paho.client.mqttv3.persist.MqttDefaultFilePersistence
+import java.io.File
+
+/**
+ * MQTT 3.1.1 transport (Paho mqttv3)
+ */
+class PahoV3Transport(
+    private val settings: MqttSettings,
+    clientId: String,
+    persistenceDir: File? = null
+) : MqttTransport {
+
+    private val client = MqttClient(
+        settings.brokerUri,
+        clientId,
+        persistenceDir?.let { MqttDefaultFilePersistence(it.absolutePath) } ?: MemoryPersistence()
+    )
+
+    override val protocol = MqttProtocol.V3
+
+    override val isConnected: Boolean
+        get() = client.isConnected
+
+    override fun connect(listener: MqttTransport.Listener) {
+        val options = MqttConnectOptions().apply {
+            // Resume the broker session instead of resubscribing from scratch
+            isCleanSession = false
+            isAutomaticReconnect = true
+            connectionTimeout = 10
+            keepAliveInterval = 60
+
+            // Only set username/password if they are not empty
+            if (settings.username.isNotBlank()) {
+                userName = settings.username
+            }
+            if (settings.password.isNotBlank()) {
+                password = settings.password.toCharArray()
+            }
+        }
+
+        client.setCallback(object : MqttCallbackExtended {
+            override fun connectionLost(cause: Throwable?) {
+                listener.onConnectionLost(cause)
+            }
+
+            override fun messageArrived(topic: String?, message: MqttMessage?) {
+                if (topic == null || message == null) return
+                listener.onMessage(topic, message.payload)
+            }
+
+            override fun deliveryComplete(token: IMqttDeliveryToken?) {}
+
+            override fun connectComplete(reconnect: Boolean, serverURI: String?) {
+                listener.onConnectComplete(reconnect)
+            }
+        })
+
+        client.connect(options)
+    }
+
+    override fun subscribe(filters: Array<String>, qos: IntArray) {
+        client.subscribe(filters, qos)
+    }
+
+    override fun unsubscribe(filters: Array<String>) {
+        client.unsubscribe(filters)
+    }
+
+    override fun publish(topic: String, payload: ByteArray, qos: Int, retained: Boolean) {
+        client.publish(topic, MqttMessage(payload).apply {
+            this.qos = qos
+            isRetained = retained
+        })
+    }
+
+    override fun publishAsync(topic: String, payload: ByteArray, qos: Int): MqttTransport.PendingPublish {
+        val token = client.getTopic(topic).publish(MqttMessage(payload).apply { this.qos = qos })
+        return MqttTransport.PendingPublish { timeoutMs -> token.waitForCompletion(timeoutMs) }
+    }
+
+    override fun reconnectNow() {
+        client.reconnect()
+    }
+
+    override fun disconnect() {
+        try {
+            if (client.isConnected) client.disconnect()
+        } finally {
+            client.close()
+        }
+    }
+}
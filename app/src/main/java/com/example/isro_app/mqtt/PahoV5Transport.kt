@@ -0,0 +1,204 @@
+package com.example.isro_app.mqtt
+
+import android.util.Log
+import org.eclipse.paho.mqttv5.client.IMqttToken
+import org.eclipse.paho.mqttv5.client.MqttAsyncClient
+import org.eclipse.paho.mqttv5.client.MqttCallback
+import org.eclipse.paho.mqttv5.client.MqttClient
+import org.eclipse.paho.mqttv5.client.MqttClientPersistence
+import org.eclipse.paho.mqttv5.client.MqttConnectionOptions
+import org.eclipse.paho.mqttv5.client.MqttDisconnectResponse
+import org.eclipse.paho.mqttv5.client.internal.MqttConnectionState
+import org.eclipse.paho.mqttv5.client.persist.MemoryPersistence
+import org.eclipse.paho.mqttv5.client.persist.MqttDefaultFilePersistence
+import org.eclipse.paho.mqttv5.common.MqttException
+import org.eclipse.paho.mqttv5.common.MqttMessage
+import org.eclipse.paho.mqttv5.common.packet.MqttProperties
+import org.eclipse.paho.mqttv5.common.packet.MqttReturnCode
+import java.io.File
+
+/**
+ * MQTT 5 transport (Paho mqttv5)
+ *
+ * - Topic aliases: only our own GPS topics (the shard topic and [GpsTopics.LEGACY]) are
+ *   published with an alias, within the broker's Topic Alias Maximum; everything else
+ *   goes out with its full topic. Paho would otherwise alias every topic, first come
+ *   first served, so retained group memberships sent on connect could use up a small
+ *   maximum before the first fix. Aliases are never reassigned, so once a moving device
+ *   has used them all, further shard topics go without one until the next connect.
+ *   We also accept up to [INCOMING_TOPIC_ALIASES] aliases from the broker.
+ * - Session expiry: the broker keeps subscriptions and queued QoS 1 messages for
+ *   [SESSION_EXPIRY_S] after a drop, so a reconnect resumes instead of starting clean.
+ */
+class PahoV5Transport(
+    private val settings: MqttSettings,
+    clientId: String,
+    persistenceDir: File? = null
+) : MqttTransport {
+
+    companion object {
+        private const val TAG = "MQTT5"
+        const val SESSION_EXPIRY_S = 3600L
+        const val INCOMING_TOPIC_ALIASES = 64
+
+        // Outgoing alias maximum while Paho must not assign any; never sent by a broker
+        private const val ALIASES_OFF = -1
+
+        // Our own fixes are the only frequent publish on a fixed topic
+        fun usesTopicAlias(topic: String): Boolean = GpsTopics.isGpsTopic(topic)
+
+        /**
+         * Whether a failed connect means the broker does not speak MQTT 5, as opposed to
+         * e.g. the network: a 3.1.1 broker answers with a CONNACK return code the v5
+         * client cannot parse, a v5 broker with "unsupported protocol version".
+         */
+        fun isProtocolRejection(e: Throwable): Boolean =
+            e is MqttException && e.reasonCode in setOf(
+                MqttException.REASON_CODE_INVALID_RETURN_CODE,
+                MqttException.REASON_CODE_UNSUPPORTED_PROTOCOL_VERSION,
+                MqttReturnCode.RETURN_CODE_UNSUPPORTED_PROTOCOL_VERSION
+            )
+    }
+
+    // Exposes the async client underneath, to publish without blocking while aliases are open
+    private class Client(uri: String, clientId: String, persistence: MqttClientPersistence) :
+        MqttClient(uri, clientId, persistence) {
+        val async: MqttAsyncClient get() = aClient
+    }
+
+    private val client = Client(
+        settings.brokerUri,
+        clientId,
+        persistenceDir?.let { MqttDefaultFilePersistence(it.absolutePath) } ?: MemoryPersistence()
+    )
+
+    /**
+     * Paho's per-connection state. It aliases every topic while its outgoing maximum
+     * is above zero, so that is kept at [ALIASES_OFF] and raised only around a GPS
+     * publish. Not public API: when it cannot be reached, aliasing is left to Paho.
+     */
+    private val connectionState: MqttConnectionState? = try {
+        MqttAsyncClient::class.java.getDeclaredField("mqttConnection")
+            .apply { isAccessible = true }
+            .get(client.async) as MqttConnectionState
+    } catch (e: Exception) {
+        Log.w(TAG, "Topic aliases left to Paho", e)
+        null
+    }
+
+    // The broker's Topic Alias Maximum for the current connection; guarded by connectionState
+    private var aliasMaximum = 0
+
+    internal val controlsTopicAliases: Boolean
+        get() = connectionState != null
+
+    override val protocol = MqttProtocol.V5
+
+    override val isConnected: Boolean
+        get() = client.isConnected
+
+    override fun connect(listener: MqttTransport.Listener) {
+        val options = MqttConnectionOptions().apply {
+            isCleanStart = false
+            sessionExpiryInterval = SESSION_EXPIRY_S
+            topicAliasMaximum = INCOMING_TOPIC_ALIASES
+            isAutomaticReconnect = true
+            connectionTimeout = 10
+            keepAliveInterval = 60
+
+            if (settings.username.isNotBlank()) {
+                userName = settings.username
+            }
+            if (settings.password.isNotBlank()) {
+                password = settings.password.toByteArray()
+            }
+        }
+
+        client.setCallback(object : MqttCallback {
+            override fun disconnected(disconnectResponse: MqttDisconnectResponse?) {
+                listener.onConnectionLost(disconnectResponse?.exception)
+            }
+
+            override fun mqttErrorOccurred(exception: MqttException?) {
+                Log.e(TAG, "Protocol error", exception)
+            }
+
+            override fun messageArrived(topic: String?, message: MqttMessage?) {
+                if (topic == null || message == null) return
+                listener.onMessage(topic, message.payload)
+            }
+
+            override fun deliveryComplete(token: IMqttToken?) {}
+
+            override fun connectComplete(reconnect: Boolean, serverURI: String?) {
+                takeAliasMaximum()
+                listener.onConnectComplete(reconnect)
+            }
+
+            override fun authPacketArrived(reasonCode: Int, properties: MqttProperties?) {}
+        })
+
+        client.connectWithResult(options)
+        Log.d(TAG, "Connected, broker topic alias maximum = ${takeAliasMaximum()}")
+    }
+
+    /**
+     * Paho copies the broker's maximum in on every connect, before the token completes
+     * and before connectComplete; take it back from Paho before anything is published.
+     */
+    private fun takeAliasMaximum(): Int {
+        val state = connectionState ?: return 0
+        synchronized(state) {
+            // Called twice per connect; the second time the value is already ours
+            val maximum = state.outgoingTopicAliasMaximum
+            if (maximum != ALIASES_OFF) aliasMaximum = maximum ?: 0
+            state.outgoingTopicAliasMaximum = ALIASES_OFF
+            return aliasMaximum
+        }
+    }
+
+    private fun send(topic: String, message: MqttMessage): IMqttToken {
+        val state = connectionState ?: return client.async.publish(topic, message)
+        synchronized(state) {
+            if (!usesTopicAlias(topic) || aliasMaximum == 0) return client.async.publish(topic, message)
+            state.outgoingTopicAliasMaximum = aliasMaximum
+            try {
+                return client.async.publish(topic, message)
+            } finally {
+                state.outgoingTopicAliasMaximum = ALIASES_OFF
+            }
+        }
+    }
+
+    override fun subscribe(filters: Array<String>, qos: IntArray) {
+        client.subscribe(filters, qos)
+    }
+
+    override fun unsubscribe(filters: Array<String>) {
+        client.unsubscribe(filters)
+    }
+
+    override fun publish(topic: String, payload: ByteArray, qos: Int, retained: Boolean) {
+        send(topic, MqttMessage(payload).apply {
+            this.qos = qos
+            isRetained = retained
+        }).waitForCompletion()
+    }
+
+    override fun publishAsync(topic: String, payload: ByteArray, qos: Int): MqttTransport.PendingPublish {
+        val token = send(topic, MqttMessage(payload).apply { this.qos = qos })
+        return MqttTransport.PendingPublish { timeoutMs -> token.waitForCompletion(timeoutMs) }
+    }
+
+    override fun reconnectNow() {
+        client.reconnect()
+    }
+
+    override fun disconnect() {
+        try {
+            if (client.isConnected) client.disconnect()
+        } finally {
+            client.close()
+        }
+    }
+}
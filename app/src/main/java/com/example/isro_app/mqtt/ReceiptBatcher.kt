@@ -0,0 +1,68 @@
+package com.example.isro_app.mqtt
+
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import org.json.JSONArray
+import org.json.JSONObject
+
+/**
+ * Coalesces delivery receipts per sender so a burst of N messages costs one
+ * receipt publish instead of N. [publish] always runs in [scope], never on the
+ * thread calling [add], so inbound handling does not wait on the network.
+ *
+ * Receipt payload on the sender's inbox:
+ *   {"type":"ack","from":"<deviceId>","ids":["<id>", ...]}
+ */
+class ReceiptBatcher(
+    private val scope: CoroutineScope,
+    private val publish: (peerId: String, payload: ByteArray) -> Unit,
+    private val delayMs: Long = 250,
+    private val maxBatch: Int = 64
+) {
+
+    companion object {
+        const val TYPE = "ack"
+
+        fun encode(from: String, ids: Collection<String>): ByteArray =
+            JSONObject().apply {
+                put("type", TYPE)
+                put("from", from)
+                put("ids", JSONArray(ids))
+            }.toString().toByteArray()
+
+        /**
+         * Message ids acknowledged by a receipt, or null if [json] is not one
+         */
+        fun decode(json: JSONObject): List<String>? {
+            if (json.optString("type") != TYPE) return null
+            val ids = json.optJSONArray("ids") ?: return emptyList()
+            return List(ids.length()) { ids.getString(it) }
+        }
+    }
+
+    // peerId -> ids waiting to be acknowledged (insertion-ordered, no duplicates)
+    private val pending = HashMap<String, LinkedHashSet<String>>()
+
+    /**
+     * Queue a receipt for [id] to [peerId]; [myId] is the receipt's sender
+     */
+    fun add(myId: String, peerId: String, id: String) {
+        val flushNow: Collection<String>?
+        val first: Boolean
+        synchronized(pending) {
+            val ids = pending.getOrPut(peerId) { LinkedHashSet() }
+            first = ids.isEmpty()
+            ids.add(id)
+            flushNow = if (ids.size >= maxBatch) pending.remove(peerId) else null
+        }
+        when {
+            flushNow != null -> scope.launch { publish(peerId, encode(myId, flushNow)) }
+            first -> scope.launch {
+                delay(delayMs)
+                val ids = synchronized(pending) { pending.remove(peerId) }
+                if (!ids.isNullOrEmpty()) publish(peerId, encode(myId, ids))
+            }
+        }
+    }
+}
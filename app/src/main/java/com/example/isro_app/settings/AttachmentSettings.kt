@@ -0,0 +1,52 @@
+package com.example.isro_app.settings
+
+import android.content.Context
+
+/**
+ * How attachments are shrunk before upload
+ */
+data class AttachmentSettings(
+    // Re-encode images and gzip compressible files before upload
+    val preprocess: Boolean = true,
+    // Longest image side after downscaling, in pixels
+    val maxImageDimension: Int = 1920,
+    // JPEG quality (1-100) for re-encoded images; one of AttachmentSettingsManager.QUALITY_OPTIONS
+    val jpegQuality: Int = 80
+)
+
+/**
+ * Manager for persisting and loading attachment settings from SharedPreferences
+ */
+object AttachmentSettingsManager {
+    private const val PREFS_NAME = "attachment_settings"
+    private const val KEY_PREPROCESS = "preprocess"
+    private const val KEY_MAX_DIMENSION = "max_image_dimension"
+    private const val KEY_JPEG_QUALITY = "jpeg_quality"
+
+    val DIMENSION_OPTIONS = listOf(1280, 1920, 2560)
+    val QUALITY_OPTIONS = listOf(60, 80, 90)
+
+    fun saveSettings(context: Context, settings: AttachmentSettings) {
+        val prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+        prefs.edit().apply {
+            putBoolean(KEY_PREPROCESS, settings.preprocess)
+            putInt(KEY_MAX_DIMENSION, settings.maxImageDimension)
+            putInt(KEY_JPEG_QUALITY, settings.jpegQuality)
+            apply()
+        }
+    }
+
+    fun loadSettings(context: Context): AttachmentSettings {
+        val prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+        val defaults = AttachmentSettings()
+        return try {
+            AttachmentSettings(
+                preprocess = prefs.getBoolean(KEY_PREPROCESS, defaults.preprocess),
+                maxImageDimension = prefs.getInt(KEY_MAX_DIMENSION, defaults.maxImageDimension),
+                jpegQuality = prefs.getInt(KEY_JPEG_QUALITY, defaults.jpegQuality).coerceIn(1, 100)
+            )
+        } catch (e: Exception) {
+            defaults
+        }
+    }
+}
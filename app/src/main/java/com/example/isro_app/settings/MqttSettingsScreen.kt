@@ -10,8 +10,10 @@ import androidx.compose.ui.Alignment
 import androidx.compose.ui.Modifier
 import androidx.compose.ui.text.input.KeyboardType
 import androidx.compose.ui.unit.dp
+import com.example.isro_app.mqtt.GpsTopicMode
 import com.example.isro_app.mqtt.MqttManager
 import com.example.isro_app.mqtt.MqttConnectionState
+import com.example.isro_app.mqtt.MqttProtocol
 import com.example.isro_app.mqtt.MqttSettings
 import com.example.isro_app.mqtt.MqttSettingsManager
 import com.example.isro_app.ui.theme.TextSecondary
@@ -26,6 +28,10 @@ fun MqttSettingsScreen(
     onDismiss: () -> Unit
 ) {
     val connectionState by mqttManager.connectionState.collectAsState()
+    val outboxDepth by mqttManager.outboxDepth.collectAsState()
+    val reconnectMillis by mqttManager.reconnectMillis.collectAsState()
+    val deliveryLatency = mqttManager.delivery.deliveryLatency
+    val dispatchStats = mqttManager.dispatchStats
     
     // Load current settings
     val currentSettings = remember { MqttSettingsManager.loadSettings(context) }
@@ -34,6 +40,8 @@ fun MqttSettingsScreen(
     // Form state
     var deviceId by rememberSaveable { mutableStateOf(currentDeviceId) }
     var brokerUri by rememberSaveable { mutableStateOf(currentSettings.brokerUri) }
+    var gpsTopicMode by rememberSaveable { mutableStateOf(currentSettings.gpsTopicMode) }
+    var protocol by rememberSaveable { mutableStateOf(currentSettings.protocol) }
     
     // Validation state
     var deviceIdError by remember { mutableStateOf<String?>(null) }
@@ -116,6 +124,40 @@ fun MqttSettingsScreen(
                             color = connectionStatusColor
                         )
                     }
+                    if (outboxDepth > 0) {
+                        Text(
+                            text = "$outboxDepth message(s) queued for sending",
+                            style = MaterialTheme.typography.bodySmall,
+                            color = TextSecondary,
+                            modifier = Modifier.padding(start = 16.dp, end = 16.dp, bottom = 12.dp)
+                        )
+                    }
+                    if (deliveryLatency.count > 0) {
+                        Text(
+                            text = "Chat delivery p50 ≤ ${deliveryLatency.percentile(0.5)} ms, p95 ≤ ${deliveryLatency.percentile(0.95)} ms",
+                            style = MaterialTheme.typography.bodySmall,
+                            color = TextSecondary,
+                            modifier = Modifier.padding(start = 16.dp, end = 16.dp, bottom = 12.dp)
+                        )
+                    }
+                    if (dispatchStats.received > 0) {
+                        Text(
+                            text = "${dispatchStats.received} message(s) received, ${dispatchStats.dropped} stale GPS fix(es) skipped, " +
+                                "deepest queue ${dispatchStats.maxQueueDepth}" +
+                                if (dispatchStats.blockedMs > 0) ", held back ${dispatchStats.blockedMs} ms" else "",
+                            style = MaterialTheme.typography.bodySmall,
+                            color = TextSecondary,
+                            modifier = Modifier.padding(start = 16.dp, end = 16.dp, bottom = 12.dp)
+                        )
+                    }
+                    reconnectMillis?.let { ms ->
+                        Text(
+                            text = "Last reconnect took $ms ms",
+                            style = MaterialTheme.typography.bodySmall,
+                            color = TextSecondary,
+                            modifier = Modifier.padding(start = 16.dp, end = 16.dp, bottom = 12.dp)
+                        )
+                    }
                 }
                 
                 // Device ID
@@ -161,6 +203,50 @@ fun MqttSettingsScreen(
                     },
                     keyboardOptions = KeyboardOptions(keyboardType = KeyboardType.Uri)
                 )
+
+                // GPS topic layout
+                Column(verticalArrangement = Arrangement.spacedBy(4.dp)) {
+                    Text(
+                        text = "GPS Topics",
+                        style = MaterialTheme.typography.bodyMedium
+                    )
+                    Row(horizontalArrangement = Arrangement.spacedBy(8.dp)) {
+                        GpsTopicMode.values().forEach { mode ->
+                            FilterChip(
+                                selected = gpsTopicMode == mode,
+                                onClick = { gpsTopicMode = mode },
+                                label = { Text(mode.name) }
+                            )
+                        }
+                    }
+                    Text(
+                        text = "Sharded only receives devices in the visible map area. Compat also uses gps/location, so it and older devices still see each other.",
+                        style = MaterialTheme.typography.bodySmall,
+                        color = TextSecondary
+                    )
+                }
+
+                // Protocol version
+                Column(verticalArrangement = Arrangement.spacedBy(4.dp)) {
+                    Text(
+                        text = "Protocol",
+                        style = MaterialTheme.typography.bodyMedium
+                    )
+                    Row(horizontalArrangement = Arrangement.spacedBy(8.dp)) {
+                        MqttProtocol.values().forEach { version ->
+                            FilterChip(
+                                selected = protocol == version,
+                                onClick = { protocol = version },
+                                label = { Text(if (version == MqttProtocol.V5) "MQTT 5" else "MQTT 3.1.1") }
+                            )
+                        }
+                    }
+                    Text(
+                        text = "MQTT 5 uses topic aliases to shrink GPS packets and falls back to 3.1.1 if the broker refuses it.",
+                        style = MaterialTheme.typography.bodySmall,
+                        color = TextSecondary
+                    )
+                }
             }
         },
         confirmButton = {
@@ -171,7 +257,9 @@ fun MqttSettingsScreen(
                         val newSettings = MqttSettings(
                             brokerUri = brokerUri.trim(),
                             username = "", // No authentication
-                            password = "" // No authentication
+                            password = "", // No authentication
+                            gpsTopicMode = gpsTopicMode,
+                            protocol = protocol
                         )
                         val newDeviceId = deviceId.trim()
                         val deviceIdChanged = newDeviceId != currentDeviceId
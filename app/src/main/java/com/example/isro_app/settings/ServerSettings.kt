@@ -3,13 +3,24 @@ package com.example.isro_app.settings
 import android.content.Context
 import android.content.SharedPreferences
 
+/**
+ * How the offline map is drawn
+ */
+enum class MapMode {
+    /** PNG tiles from the LAN tile server and MBTiles archives */
+    Raster,
+    /** Mapsforge .map files rendered on the device */
+    Vector
+}
+
 /**
  * Data class representing server configuration settings
  */
 data class ServerSettings(
     val attachmentServerUrl: String = "http://192.168.29.242:8090",
     val tileServerUrl: String = "http://192.168.29.242:8080/tiles/",
-    val asteriskServerIp: String = "192.168.29.242"
+    val asteriskServerIp: String = "192.168.29.242",
+    val mapMode: MapMode = MapMode.Raster
 )
 
 /**
@@ -20,6 +31,7 @@ object ServerSettingsManager {
     private const val KEY_ATTACHMENT_SERVER = "attachment_server_url"
     private const val KEY_TILE_SERVER = "tile_server_url"
     private const val KEY_ASTERISK_SERVER = "asterisk_server_ip"
+    private const val KEY_MAP_MODE = "map_mode"
 
     /**
      * Save server settings to SharedPreferences
@@ -30,6 +42,7 @@ object ServerSettingsManager {
             putString(KEY_ATTACHMENT_SERVER, settings.attachmentServerUrl)
             putString(KEY_TILE_SERVER, settings.tileServerUrl)
             putString(KEY_ASTERISK_SERVER, settings.asteriskServerIp)
+            putString(KEY_MAP_MODE, settings.mapMode.name)
             apply()
         }
     }
@@ -43,7 +56,8 @@ object ServerSettingsManager {
             ServerSettings(
                 attachmentServerUrl = prefs.getString(KEY_ATTACHMENT_SERVER, "http://192.168.29.242:8090") ?: "http://192.168.29.242:8090",
                 tileServerUrl = prefs.getString(KEY_TILE_SERVER, "http://192.168.29.242:8080/tiles/") ?: "http://192.168.29.242:8080/tiles/",
-                asteriskServerIp = prefs.getString(KEY_ASTERISK_SERVER, "192.168.29.242") ?: "192.168.29.242"
+                asteriskServerIp = prefs.getString(KEY_ASTERISK_SERVER, "192.168.29.242") ?: "192.168.29.242",
+                mapMode = MapMode.valueOf(prefs.getString(KEY_MAP_MODE, MapMode.Raster.name) ?: MapMode.Raster.name)
             )
         } catch (e: Exception) {
             // If corrupted data, return defaults
@@ -1,6 +1,8 @@
 package com.example.isro_app.settings
 
 import androidx.compose.foundation.layout.*
+import androidx.compose.foundation.rememberScrollState
+import androidx.compose.foundation.verticalScroll
 import androidx.compose.foundation.text.KeyboardOptions
 import androidx.compose.material.icons.Icons
 import androidx.compose.material.icons.filled.CheckCircle
@@ -14,6 +16,8 @@ import androidx.compose.ui.Modifier
 import androidx.compose.ui.text.font.FontWeight
 import androidx.compose.ui.text.input.KeyboardType
 import androidx.compose.ui.unit.dp
+import com.example.isro_app.map.OfflineFirstTileProvider
+import com.example.isro_app.map.VectorTileProvider
 import com.example.isro_app.mqtt.MqttManager
 import com.example.isro_app.ui.theme.TextSecondary
 import kotlinx.coroutines.Dispatchers
@@ -39,6 +43,7 @@ fun ServerSettingsScreen(
     context: android.content.Context,
     onDismiss: () -> Unit,
     onTileServerUpdate: (String) -> Unit,
+    onMapModeUpdate: (MapMode) -> Unit,
     onAsteriskServerUpdate: (String) -> Unit
 ) {
     // Load current settings
@@ -60,7 +65,26 @@ fun ServerSettingsScreen(
     var asteriskStatus by remember { mutableStateOf(ConnectionStatus.Idle) }
     
     var isSaving by remember { mutableStateOf(false) }
+
+    // Map mode applies immediately; vector mode needs .map files in the tile folder
+    var mapMode by remember { mutableStateOf(currentSettings.mapMode) }
+    val tileFolder = remember { OfflineFirstTileProvider.archiveDirs(context).first() }
+    val mapFileCount = remember { VectorTileProvider.mapFiles(OfflineFirstTileProvider.archiveDirs(context)).size }
+    fun updateMapMode(mode: MapMode) {
+        mapMode = mode
+        ServerSettingsManager.saveSettings(context, ServerSettingsManager.loadSettings(context).copy(mapMode = mode))
+        onMapModeUpdate(mode)
+    }
     val scope = rememberCoroutineScope()
+
+    // Attachment preprocessing applies immediately
+    var attachmentSettings by remember { mutableStateOf(AttachmentSettingsManager.loadSettings(context)) }
+    val lastCompression by mqttManager.attachmentCompression.collectAsState()
+    fun updateAttachmentSettings(newSettings: AttachmentSettings) {
+        attachmentSettings = newSettings
+        AttachmentSettingsManager.saveSettings(context, newSettings)
+        mqttManager.updateAttachmentSettings(newSettings)
+    }
     
     // Validate attachment server URL on change
     LaunchedEffect(attachmentServerUrl) {
@@ -236,7 +260,8 @@ fun ServerSettingsScreen(
                     val newSettings = ServerSettings(
                         attachmentServerUrl = attachmentServerUrl.trim(),
                         tileServerUrl = currentSettings.tileServerUrl,
-                        asteriskServerIp = currentSettings.asteriskServerIp
+                        asteriskServerIp = currentSettings.asteriskServerIp,
+                        mapMode = mapMode
                     )
                     ServerSettingsManager.saveSettings(context, newSettings)
                     
@@ -288,7 +313,8 @@ fun ServerSettingsScreen(
                     val newSettings = ServerSettings(
                         attachmentServerUrl = currentSettings.attachmentServerUrl,
                         tileServerUrl = tileServerUrl.trim(),
-                        asteriskServerIp = currentSettings.asteriskServerIp
+                        asteriskServerIp = currentSettings.asteriskServerIp,
+                        mapMode = mapMode
                     )
                     ServerSettingsManager.saveSettings(context, newSettings)
                     
@@ -334,7 +360,8 @@ fun ServerSettingsScreen(
                     val newSettings = ServerSettings(
                         attachmentServerUrl = currentSettings.attachmentServerUrl,
                         tileServerUrl = currentSettings.tileServerUrl,
-                        asteriskServerIp = asteriskServerIp.trim()
+                        asteriskServerIp = asteriskServerIp.trim(),
+                        mapMode = mapMode
                     )
                     ServerSettingsManager.saveSettings(context, newSettings)
                     
@@ -363,6 +390,7 @@ fun ServerSettingsScreen(
             Column(
                 modifier = Modifier
                     .fillMaxWidth()
+                    .verticalScroll(rememberScrollState())
                     .padding(vertical = 8.dp),
                 verticalArrangement = Arrangement.spacedBy(16.dp)
             ) {
@@ -451,6 +479,53 @@ fun ServerSettingsScreen(
                                 Text("Connect")
                             }
                         }
+
+                        Row(
+                            modifier = Modifier.fillMaxWidth(),
+                            horizontalArrangement = Arrangement.SpaceBetween,
+                            verticalAlignment = Alignment.CenterVertically
+                        ) {
+                            Text("Shrink before upload", style = MaterialTheme.typography.bodyMedium)
+                            Switch(
+                                checked = attachmentSettings.preprocess,
+                                onCheckedChange = { updateAttachmentSettings(attachmentSettings.copy(preprocess = it)) }
+                            )
+                        }
+                        if (attachmentSettings.preprocess) {
+                            Text("Longest image side", style = MaterialTheme.typography.bodySmall, color = TextSecondary)
+                            Row(horizontalArrangement = Arrangement.spacedBy(8.dp)) {
+                                AttachmentSettingsManager.DIMENSION_OPTIONS.forEach { px ->
+                                    FilterChip(
+                                        selected = attachmentSettings.maxImageDimension == px,
+                                        onClick = { updateAttachmentSettings(attachmentSettings.copy(maxImageDimension = px)) },
+                                        label = { Text("$px px") }
+                                    )
+                                }
+                            }
+                            Text("Image quality", style = MaterialTheme.typography.bodySmall, color = TextSecondary)
+                            Row(horizontalArrangement = Arrangement.spacedBy(8.dp)) {
+                                AttachmentSettingsManager.QUALITY_OPTIONS.forEach { quality ->
+                                    FilterChip(
+                                        selected = attachmentSettings.jpegQuality == quality,
+                                        onClick = { updateAttachmentSettings(attachmentSettings.copy(jpegQuality = quality)) },
+                                        label = { Text("$quality") }
+                                    )
+                                }
+                            }
+                            Text(
+                                text = "Photos are downscaled and re-encoded as JPEG; text files are gzipped.",
+                                style = MaterialTheme.typography.bodySmall,
+                                color = TextSecondary
+                            )
+                        }
+                        lastCompression?.let { stats ->
+                            Text(
+                                text = "Last ${stats.kind}: ${formatBytes(stats.inputBytes)} → ${formatBytes(stats.outputBytes)} " +
+                                    "(%.1f×) in ${stats.millis} ms".format(stats.ratio),
+                                style = MaterialTheme.typography.bodySmall,
+                                color = TextSecondary
+                            )
+                        }
                     }
                 }
                 
@@ -539,6 +614,31 @@ fun ServerSettingsScreen(
                                 Text("Connect")
                             }
                         }
+
+                        Text("Map mode", style = MaterialTheme.typography.bodySmall, color = TextSecondary)
+                        Row(horizontalArrangement = Arrangement.spacedBy(8.dp)) {
+                            FilterChip(
+                                selected = mapMode == MapMode.Raster,
+                                onClick = { updateMapMode(MapMode.Raster) },
+                                label = { Text("Raster tiles") }
+                            )
+                            FilterChip(
+                                selected = mapMode == MapMode.Vector,
+                                onClick = { updateMapMode(MapMode.Vector) },
+                                label = { Text("Vector (.map)") }
+                            )
+                        }
+                        if (mapMode == MapMode.Vector) {
+                            Text(
+                                text = if (mapFileCount > 0) {
+                                    "$mapFileCount .map file(s) rendered on the device, zoom up to 20."
+                                } else {
+                                    "No .map files in ${tileFolder.absolutePath}; the map shows raster tiles."
+                                },
+                                style = MaterialTheme.typography.bodySmall,
+                                color = if (mapFileCount > 0) TextSecondary else MaterialTheme.colorScheme.error
+                            )
+                        }
                     }
                 }
                 
@@ -639,3 +739,8 @@ fun ServerSettingsScreen(
     )
 }
 
+private fun formatBytes(bytes: Long): String = when {
+    bytes >= 1024 * 1024 -> "%.1f MB".format(bytes / (1024.0 * 1024.0))
+    bytes >= 1024 -> "${bytes / 1024} KB"
+    else -> "$bytes B"
+}
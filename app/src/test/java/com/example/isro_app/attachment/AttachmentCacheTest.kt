@@ -0,0 +1,104 @@
+package com.example.isro_app.attachment
+
+import org.junit.Assert.*
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import kotlin.random.Random
+
+class AttachmentCacheTest {
+
+    companion object {
+        private const val SIZE = 100_000
+    }
+
+    @get:Rule
+    val tmp = TemporaryFolder()
+
+    /** A downloaded file holding random content; returns (file, sha256) */
+    private fun downloaded(seed: Int): Pair<File, String> {
+        val data = Random(seed).nextBytes(SIZE)
+        val file = tmp.newFile()
+        file.writeBytes(data)
+        return file to ContentHash.hex(ContentHash.newDigest().digest(data))
+    }
+
+    private fun storeNew(cache: AttachmentCache, seed: Int): String {
+        val (file, hash) = downloaded(seed)
+        cache.store(hash, file)
+        return hash
+    }
+
+    @Test
+    fun storedFileSurvivesRestart() {
+        val dir = tmp.newFolder("cache")
+        val hash = storeNew(AttachmentCache(dir), 1)
+
+        val reopened = AttachmentCache(dir)
+        assertEquals(SIZE.toLong(), reopened.get(hash)?.length())
+        assertEquals(SIZE.toLong(), reopened.sizeBytes)
+    }
+
+    @Test
+    fun evictsLeastRecentlyUsed() {
+        val cache = AttachmentCache(tmp.newFolder("cache"), maxBytes = SIZE * 2L + SIZE / 2)
+        val a = storeNew(cache, 1)
+        val b = storeNew(cache, 2)
+        assertNotNull(cache.get(a))     // A is now more recent than B
+        val c = storeNew(cache, 3)
+
+        assertNull(cache.get(b))
+        assertNotNull(cache.get(a))
+        assertNotNull(cache.get(c))
+        assertTrue(cache.sizeBytes <= SIZE * 2L + SIZE / 2)
+    }
+
+    @Test
+    fun inflatesGzippedAttachments() {
+        val text = (1..5000).joinToString("\n") { "$it,12.9716,77.5946,ok" }.toByteArray()
+        val gz = tmp.newFile("track.csv.gz")
+        Compression.gzip(text.inputStream(), gz)
+        val hash = ContentHash.hex(ContentHash.newDigest().digest(gz.readBytes()))
+
+        val file = AttachmentCache(tmp.newFolder("cache")).store(hash, gz, gzip = true)
+        assertArrayEquals(text, file.readBytes())
+        assertFalse(gz.exists())
+    }
+
+    @Test
+    fun legacyDownloadsShareTheBudget() {
+        val legacyDir = tmp.newFolder("downloads")
+        val cache = AttachmentCache(tmp.newFolder("cache"), maxBytes = SIZE * 2L + SIZE / 2, legacyDir = legacyDir)
+        val (part, _) = downloaded(1)
+        val old = cache.storeLegacy("0123456789abcdef-old.pdf", part)
+        assertEquals(File(legacyDir, "0123456789abcdef-old.pdf"), old)
+
+        storeNew(cache, 2)
+        storeNew(cache, 3)
+
+        // The unhashed download was least recently used, so it went first
+        assertNull(cache.legacy("0123456789abcdef-old.pdf"))
+        assertFalse(old.exists())
+        assertTrue(cache.sizeBytes <= SIZE * 2L + SIZE / 2)
+    }
+
+    @Test
+    fun legacyFilesOnDiskAreIndexedAndEvicted() {
+        val legacyDir = tmp.newFolder("downloads")
+        // Left by a version without the cache, plus a resumable part that is not ours
+        val stale = File(legacyDir, "0123456789abcdef-a.bin").apply { writeBytes(ByteArray(SIZE)) }
+        val recent = File(legacyDir, "fedcba9876543210-b.bin").apply { writeBytes(ByteArray(SIZE)) }
+        val part = File(legacyDir, "abc.part").apply { writeBytes(ByteArray(SIZE)) }
+        stale.setLastModified(System.currentTimeMillis() - 60_000)
+
+        val cache = AttachmentCache(tmp.newFolder("cache"), maxBytes = SIZE * 2L + SIZE / 2, legacyDir = legacyDir)
+        assertEquals(2L * SIZE, cache.sizeBytes)
+        assertNotNull(cache.legacy(recent.name))
+
+        storeNew(cache, 1)
+        assertFalse(stale.exists())
+        assertTrue(recent.exists())
+        assertTrue(part.exists())
+    }
+}
@@ -0,0 +1,179 @@
+package com.example.isro_app.attachment
+
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import kotlin.random.Random
+
+/**
+ * Downloads against [AttachmentServerStandIn]: Range resume after a dropped link
+ * and after a restart, servers without Range, priority order, shared requests and
+ * reopening from the cache.
+ */
+class AttachmentDownloadsTest {
+
+    companion object {
+        private const val SIZE = 300 * 1024
+    }
+
+    @get:Rule
+    val tmp = TemporaryFolder()
+
+    private lateinit var server: AttachmentServerStandIn
+    private lateinit var cache: AttachmentCache
+    private lateinit var dir: File
+    private lateinit var content: ByteArray
+    private lateinit var sha256: String
+
+    @Before
+    fun setUp() {
+        server = AttachmentServerStandIn()
+        dir = tmp.newFolder("downloads")
+        cache = AttachmentCache(tmp.newFolder("cache"), legacyDir = dir)
+        content = Random(7).nextBytes(SIZE)
+        sha256 = ContentHash.hex(ContentHash.newDigest().digest(content))
+        server.files["f1"] = content
+    }
+
+    @After
+    fun tearDown() {
+        server.close()
+    }
+
+    private val url: String
+        get() = "${server.url}/download/f1"
+
+    @Test
+    fun resumesWithRangeAfterDroppedConnection() = runBlocking {
+        server.cutDownloadAt = 100 * 1024
+        val file = AttachmentDownloads(cache, dir).download(url, sha256, "a.bin", size = SIZE.toLong())
+
+        assertArrayEquals(content, file.readBytes())
+        assertEquals(listOf("f1" to 0, "f1" to 100 * 1024), server.downloadLog.toList())
+    }
+
+    @Test
+    fun resumesPartLeftByEarlierProcess() = runBlocking {
+        File(dir, "$sha256.part").writeBytes(content.copyOf(123_456))
+        val downloads = AttachmentDownloads(cache, dir)
+        val file = downloads.download(url, sha256, "a.bin")
+
+        assertArrayEquals(content, file.readBytes())
+        assertEquals(listOf("f1" to 123_456), server.downloadLog.toList())
+        assertEquals(DownloadState.Done, downloads.progress.value[sha256]?.state)
+        assertFalse(File(dir, "$sha256.part").exists())
+    }
+
+    @Test
+    fun startsOverWhenServerIgnoresRange() = runBlocking {
+        server.rangeSupport = false
+        File(dir, "$sha256.part").writeBytes(content.copyOf(50_000))
+        val file = AttachmentDownloads(cache, dir).download(url, sha256, "a.bin")
+
+        assertArrayEquals(content, file.readBytes())
+        assertEquals(1, server.downloads.get())
+    }
+
+    @Test
+    fun openedAttachmentJumpsTheQueue() = runBlocking {
+        listOf("b", "c", "d").forEach { server.files[it] = Random(it.hashCode()).nextBytes(1000) }
+        server.downloadDelayMs = 200
+        val downloads = AttachmentDownloads(cache, dir, parallelism = 1)
+
+        val first = downloads.enqueue(url, null, "a", priority = DownloadPriority.Background)
+        awaitUntil { server.downloadLog.size == 1 }
+        val rest = listOf(
+            downloads.enqueue("${server.url}/download/b", null, "b", priority = DownloadPriority.Background),
+            downloads.enqueue("${server.url}/download/c", null, "c", priority = DownloadPriority.VisibleChat),
+            downloads.enqueue("${server.url}/download/d", null, "d", priority = DownloadPriority.Open)
+        )
+        first.await()
+        rest.forEach { it.await() }
+
+        assertEquals(listOf("f1", "d", "c", "b"), server.downloadLog.map { it.first })
+    }
+
+    @Test
+    fun sameAttachmentIsDownloadedOnce() = runBlocking {
+        server.downloadDelayMs = 100
+        val downloads = AttachmentDownloads(cache, dir)
+        val requests = List(5) { downloads.enqueue(url, sha256, "a.bin", priority = DownloadPriority.Background) }
+        val files = requests.map { it.await() }
+
+        assertEquals(1, server.downloads.get())
+        assertEquals(1, files.distinct().size)
+        // Already cached: no request at all
+        downloads.download(url, sha256, "a.bin")
+        assertEquals(1, server.downloads.get())
+    }
+
+    @Test
+    fun reopeningIsServedFromDisk() = runBlocking {
+        val downloads = AttachmentDownloads(cache, dir)
+        val first = downloads.download(url, sha256, "a.bin")
+        val second = downloads.download(url, sha256, "a.bin")
+
+        assertEquals(first, second)
+        assertEquals(1, server.downloads.get())
+        assertEquals(1, downloads.hits.get())
+        assertEquals(1, downloads.misses.get())
+
+        // Survives a restart
+        val reopened = AttachmentDownloads(AttachmentCache(first.parentFile!!, legacyDir = dir), dir)
+        assertEquals(first, reopened.download(url, sha256, "a.bin"))
+        assertEquals(1, server.downloads.get())
+        assertEquals(1, reopened.hits.get())
+    }
+
+    @Test
+    fun unhashedAttachmentIsReopenedFromDisk() = runBlocking {
+        val downloads = AttachmentDownloads(cache, dir)
+        val file = downloads.download(url, null, "a.bin")
+        assertArrayEquals(content, file.readBytes())
+        assertEquals(dir, file.parentFile)
+
+        val reopened = AttachmentDownloads(AttachmentCache(tmp.newFolder("cache2"), legacyDir = dir), dir)
+        assertEquals(file, reopened.local(url, null, "a.bin"))
+        assertEquals(file, reopened.download(url, null, "a.bin"))
+        assertEquals(1, server.downloads.get())
+    }
+
+    @Test
+    fun inflatesGzippedAttachments() = runBlocking {
+        val text = (1..5000).joinToString("\n") { "$it,12.9716,77.5946,ok" }.toByteArray()
+        val gz = tmp.newFile("track.csv.gz")
+        Compression.gzip(text.inputStream(), gz)
+        val wire = gz.readBytes()
+        assertTrue("csv should compress well", wire.size * 4 < text.size)
+        server.files["gz"] = wire
+        val hash = ContentHash.hex(ContentHash.newDigest().digest(wire))
+
+        val file = AttachmentDownloads(cache, dir).download("${server.url}/download/gz", hash, "track.csv", gzip = true)
+        assertArrayEquals(text, file.readBytes())
+    }
+
+    @Test
+    fun wrongHashFailsAndDropsThePart() = runBlocking {
+        val wrong = ContentHash.hex(ContentHash.newDigest().digest(byteArrayOf(1)))
+        val downloads = AttachmentDownloads(cache, dir)
+        try {
+            downloads.download(url, wrong, "a.bin")
+            fail("expected a hash mismatch")
+        } catch (e: java.io.IOException) {
+            // expected
+        }
+        assertEquals(DownloadState.Failed, downloads.progress.value[wrong]?.state)
+        assertFalse(File(dir, "$wrong.part").exists())
+        assertNull(cache.get(wrong))
+    }
+
+    private fun awaitUntil(timeoutMs: Long = 5_000, condition: () -> Boolean) {
+        val deadline = System.currentTimeMillis() + timeoutMs
+        while (!condition() && System.currentTimeMillis() < deadline) Thread.sleep(10)
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.isro_app.attachment
+
+import com.example.isro_app.settings.AttachmentSettings
+import com.example.isro_app.settings.AttachmentSettingsManager
+import kotlinx.coroutines.runBlocking
+import org.junit.Assert.*
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.util.zip.GZIPInputStream
+import kotlin.random.Random
+
+/**
+ * The gzip path and the keep-the-original rules; decoding images needs a device,
+ * so only the choice of output format is checked for them here.
+ */
+class AttachmentPreprocessorTest {
+
+    @get:Rule
+    val tmp = TemporaryFolder()
+
+    private val settings = AttachmentSettings()
+
+    private fun preprocessor(out: File) = AttachmentPreprocessor(out)
+
+    @Test
+    fun gzipsTextAndNamesItForTheWire() = runBlocking {
+        val text = (1..5000).joinToString("\n") { "$it,12.9716,77.5946,ok" }.toByteArray()
+        val out = tmp.newFolder("prep")
+
+        val result = preprocessor(out).process({ text.inputStream() }, text.size.toLong(), "text/csv", "track.csv", "m1", settings)!!
+
+        assertEquals(Compression.GZIP, result.contentEncoding)
+        assertEquals("track.csv", result.filename)
+        assertEquals(File(out, "m1.gz"), result.file)
+        assertEquals(text.size.toLong(), result.stats.inputBytes)
+        assertEquals(result.file.length(), result.stats.outputBytes)
+        assertTrue(result.stats.ratio > 4f)
+        assertArrayEquals(text, GZIPInputStream(result.file.inputStream()).use { it.readBytes() })
+    }
+
+    @Test
+    fun keepsOriginalWhenSavingIsTooSmall() = runBlocking {
+        // Random bytes do not compress, so gzip output is larger than the input
+        val data = Random(5).nextBytes(50_000)
+        val out = tmp.newFolder("prep")
+        val preprocessor = preprocessor(out)
+
+        assertNull(preprocessor.process({ data.inputStream() }, data.size.toLong(), "text/plain", "noise.txt", "m2", settings))
+        assertEquals(0, out.listFiles()!!.size)
+        assertNull(preprocessor.lastStats.value)
+    }
+
+    @Test
+    fun leavesOtherFilesAlone() = runBlocking {
+        val out = tmp.newFolder("prep")
+        val data = ByteArray(10_000)
+        assertNull(preprocessor(out).process({ data.inputStream() }, 10_000, "application/zip", "a.zip", "m3", settings))
+        assertNull(
+            preprocessor(out).process({ data.inputStream() }, 10_000, "text/plain", "a.txt", "m4", settings.copy(preprocess = false))
+        )
+        assertEquals(0, out.listFiles()!!.size)
+    }
+
+    @Test
+    fun undecodableImageIsSentUnchanged() = runBlocking {
+        val out = tmp.newFolder("prep")
+        val junk = Random(9).nextBytes(4096)
+        assertNull(preprocessor(out).process({ junk.inputStream() }, 4096, "image/png", "a.png", "m5", settings))
+        assertEquals(0, out.listFiles()!!.size)
+    }
+
+    @Test
+    fun imagesWithAlphaKeepALosslessOrAlphaFormat() {
+        assertEquals(ImageFormat.Jpeg, AttachmentPreprocessor.outputFormat("image/jpeg", hasAlpha = false))
+        assertEquals(ImageFormat.Jpeg, AttachmentPreprocessor.outputFormat("image/png", hasAlpha = false))
+        assertEquals(ImageFormat.Png, AttachmentPreprocessor.outputFormat("image/png", hasAlpha = true))
+        assertEquals(ImageFormat.Webp, AttachmentPreprocessor.outputFormat("image/webp", hasAlpha = true))
+        assertEquals(ImageFormat.Png, AttachmentPreprocessor.outputFormat(null, hasAlpha = true))
+    }
+
+    @Test
+    fun defaultQualityIsOneOfTheOptions() {
+        assertTrue(AttachmentSettings().jpegQuality in AttachmentSettingsManager.QUALITY_OPTIONS)
+    }
+}
@@ -0,0 +1,199 @@
+package com.example.isro_app.attachment
+
+import com.sun.net.httpserver.HttpExchange
+import com.sun.net.httpserver.HttpServer
+import org.json.JSONArray
+import org.json.JSONObject
+import java.io.Closeable
+import java.net.InetAddress
+import java.net.InetSocketAddress
+import java.util.UUID
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * In-process copy of attachment_server.py (README, section 5.1) for JVM tests.
+ *
+ * Implements /upload, /upload/init, chunk PUT, status, complete, the SHA-256
+ * lookup and /download against memory.
+ * [failChunk] makes the server reject chunk PUTs so tests can interrupt an upload;
+ * [cutDownloadAt] does the same for downloads, which honour `Range: bytes=N-`.
+ */
+class AttachmentServerStandIn(
+    val chunkedApi: Boolean = true
+) : Closeable {
+
+    class Upload(val filename: String, val size: Int, val chunkSize: Int, val sha256: String?) {
+        val data = ByteArray(size)
+        val received: MutableSet<Int> = ConcurrentHashMap.newKeySet()
+    }
+
+    private val server = HttpServer.create(InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0)
+    val url: String = "http://127.0.0.1:${server.address.port}"
+
+    val uploads = ConcurrentHashMap<String, Upload>()
+    val files = ConcurrentHashMap<String, ByteArray>()
+    private val hashIndex = ConcurrentHashMap<String, String>()
+
+    val downloads = AtomicInteger()
+
+    // Every chunk index PUT, including rejected ones
+    val chunkPuts: MutableList<Int> = java.util.Collections.synchronizedList(ArrayList())
+    val maxConcurrentPuts = AtomicInteger()
+    private val concurrentPuts = AtomicInteger()
+
+    @Volatile
+    var failChunk: (Int) -> Boolean = { false }
+
+    // Every download as (file id, first byte requested)
+    val downloadLog: MutableList<Pair<String, Int>> = java.util.Collections.synchronizedList(ArrayList())
+
+    // Whole-file downloads stop after this many bytes
+    @Volatile
+    var cutDownloadAt: Int? = null
+
+    @Volatile
+    var downloadDelayMs = 0L
+
+    @Volatile
+    var rangeSupport = true
+
+    init {
+        server.executor = Executors.newCachedThreadPool()
+        server.createContext("/") { exchange ->
+            try {
+                handle(exchange)
+            } catch (e: Exception) {
+                // Headers may already be out (see cutDownloadAt)
+                if (exchange.responseCode == -1) respond(exchange, 500, "")
+            } finally {
+                exchange.close()
+            }
+        }
+        server.start()
+    }
+
+    private fun handle(exchange: HttpExchange) {
+        val parts = exchange.requestURI.path.trim('/').split('/')
+        val method = exchange.requestMethod
+        when {
+            method == "POST" && parts == listOf("upload") -> {
+                val name = exchange.requestHeaders.getFirst("X-Filename") ?: "unknown_file"
+                val id = UUID.randomUUID().toString()
+                store(id, exchange.requestBody.readBytes())
+                respond(exchange, 200, result(id, name).toString())
+            }
+            method == "GET" && parts.size == 2 && parts[0] == "download" -> {
+                val data = files[parts[1]] ?: return respond(exchange, 404, "")
+                downloads.incrementAndGet()
+                val start = exchange.requestHeaders.getFirst("Range")
+                    ?.let { Regex("""bytes=(\d+)-""").find(it)?.groupValues?.get(1)?.toInt() }
+                downloadLog.add(Pair(parts[1], start ?: 0))
+                // Without rangeSupport the header is ignored, like a plain file server
+                if (start != null && rangeSupport) {
+                    if (start >= data.size) return respond(exchange, 416, "")
+                    exchange.responseHeaders.add("Content-Range", "bytes $start-${data.size - 1}/${data.size}")
+                    exchange.sendResponseHeaders(206, (data.size - start).toLong())
+                    exchange.responseBody.use { it.write(data, start, data.size - start) }
+                    return
+                }
+                val cut = cutDownloadAt
+                exchange.sendResponseHeaders(200, data.size.toLong())
+                if (cut != null && cut < data.size) {
+                    // Announce the full length, send part of it and drop the connection
+                    exchange.responseBody.write(data, 0, cut)
+                    exchange.responseBody.flush()
+                    return
+                }
+                Thread.sleep(downloadDelayMs)
+                exchange.responseBody.use { it.write(data) }
+            }
+            !chunkedApi -> respond(exchange, 404, "")
+            method == "GET" && parts.size == 3 && parts[0] == "files" && parts[1] == "sha256" -> {
+                val id = hashIndex[parts[2]] ?: return respond(exchange, 404, "")
+                respond(exchange, 200, result(id, "stored").toString())
+            }
+            method == "POST" && parts == listOf("upload", "init") -> {
+                val req = JSONObject(exchange.requestBody.readBytes().decodeToString())
+                val id = UUID.randomUUID().toString()
+                val upload = Upload(
+                    req.getString("filename"),
+                    req.getInt("size"),
+                    req.getInt("chunk_size"),
+                    req.optString("sha256").ifBlank { null }
+                )
+                uploads[id] = upload
+                respond(exchange, 200, status(id, upload).toString())
+            }
+            method == "PUT" && parts.size == 4 && parts[2] == "chunk" -> {
+                val upload = uploads[parts[1]] ?: return respond(exchange, 404, "")
+                val index = parts[3].toInt()
+                chunkPuts.add(index)
+                val now = concurrentPuts.incrementAndGet()
+                maxConcurrentPuts.accumulateAndGet(now) { a, b -> maxOf(a, b) }
+                try {
+                    val body = exchange.requestBody.readBytes()
+                    // Give parallel PUTs a chance to overlap
+                    Thread.sleep(20)
+                    if (failChunk(index)) return respond(exchange, 503, "")
+                    System.arraycopy(body, 0, upload.data, index * upload.chunkSize, body.size)
+                    upload.received.add(index)
+                    respond(exchange, 204, "")
+                } finally {
+                    concurrentPuts.decrementAndGet()
+                }
+            }
+            method == "GET" && parts.size == 2 && parts[0] == "upload" -> {
+                val upload = uploads[parts[1]] ?: return respond(exchange, 404, "")
+                respond(exchange, 200, status(parts[1], upload).toString())
+            }
+            method == "POST" && parts.size == 3 && parts[2] == "complete" -> {
+                val upload = uploads[parts[1]] ?: return respond(exchange, 404, "")
+                val chunks = (upload.size + upload.chunkSize - 1) / upload.chunkSize
+                if (upload.received.size < chunks) return respond(exchange, 409, "")
+                uploads.remove(parts[1])
+                if (upload.sha256 != null && upload.sha256 != sha256(upload.data)) return respond(exchange, 422, "")
+                store(parts[1], upload.data)
+                respond(exchange, 200, result(parts[1], upload.filename).toString())
+            }
+            else -> respond(exchange, 404, "")
+        }
+    }
+
+    private fun store(id: String, data: ByteArray) {
+        files[id] = data
+        hashIndex[sha256(data)] = id
+    }
+
+    private fun sha256(data: ByteArray): String =
+        ContentHash.hex(ContentHash.newDigest().digest(data))
+
+    private fun status(id: String, upload: Upload) = JSONObject().apply {
+        put("upload_id", id)
+        put("filename", upload.filename)
+        put("size", upload.size)
+        put("chunk_size", upload.chunkSize)
+        put("received", JSONArray(upload.received.sorted()))
+    }
+
+    private fun result(id: String, filename: String) = JSONObject().apply {
+        put("file_id", id)
+        put("filename", filename)
+        put("download_url", "$url/download/$id")
+    }
+
+    private fun respond(exchange: HttpExchange, code: Int, body: String) {
+        val bytes = body.toByteArray()
+        if (code == 204) {
+            exchange.sendResponseHeaders(code, -1)
+        } else {
+            exchange.sendResponseHeaders(code, if (bytes.isEmpty()) -1 else bytes.size.toLong())
+            if (bytes.isNotEmpty()) exchange.responseBody.use { it.write(bytes) }
+        }
+    }
+
+    override fun close() {
+        server.stop(0)
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.isro_app.attachment
+
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import kotlin.random.Random
+
+/**
+ * Chunked upload against [AttachmentServerStandIn]: parallel reassembly,
+ * resume after failures and after a restart, content dedupe and the
+ * single-request fallback.
+ */
+class ChunkedUploaderTest {
+
+    companion object {
+        private const val CHUNK = 64 * 1024
+        private const val SIZE = 20 * CHUNK + 1234
+    }
+
+    @get:Rule
+    val tmp = TemporaryFolder()
+
+    private lateinit var server: AttachmentServerStandIn
+    private lateinit var content: ByteArray
+    private lateinit var file: File
+
+    private var completed = CountDownLatch(1)
+    private val results: MutableList<UploadResult> = java.util.Collections.synchronizedList(ArrayList())
+    private val result: UploadResult?
+        get() = results.lastOrNull()
+
+    @Before
+    fun setUp() {
+        content = Random(42).nextBytes(SIZE)
+        file = tmp.newFile("photo.jpg").apply { writeBytes(content) }
+    }
+
+    @After
+    fun tearDown() {
+        server.close()
+    }
+
+    private fun uploader(stateDir: File) = ChunkedUploader(
+        serverUrl = { server.url },
+        stateDir = stateDir,
+        openSource = { job -> ChannelChunkSource(File(job.source)) },
+        onComplete = { _, r ->
+            results.add(r)
+            completed.countDown()
+        },
+        onFailed = { fail("source should always open") }
+    )
+
+    private fun job(id: String = "a-test") = UploadJob(id, "peer", file.path, file.name, file.length(), CHUNK)
+
+    @Test
+    fun uploadsChunksInParallelAndReassembles() {
+        server = AttachmentServerStandIn()
+        val uploader = uploader(tmp.newFolder("jobs"))
+        uploader.start(job())
+
+        assertTrue("upload did not complete", completed.await(10, TimeUnit.SECONDS))
+        assertArrayEquals(content, server.files[result!!.fileId])
+        assertEquals(21, server.chunkPuts.size)
+        assertTrue("chunks were not sent in parallel", server.maxConcurrentPuts.get() > 1)
+        assertEquals(UploadState.Done, uploader.progress.value["a-test"]?.state)
+    }
+
+    @Test
+    fun resumesOnlyMissingChunksAfterRestart() {
+        server = AttachmentServerStandIn()
+        val stateDir = tmp.newFolder("jobs")
+
+        // First run: every chunk from 8 on is rejected until retries run out
+        server.failChunk = { it >= 8 }
+        val first = uploader(stateDir)
+        first.start(job())
+        awaitUntil { first.progress.value["a-test"]?.state == UploadState.Paused }
+        assertEquals(UploadState.Paused, first.progress.value["a-test"]?.state)
+        assertEquals("job must stay on disk for resume", 1, stateDir.listFiles()!!.count { it.name.endsWith(".json") })
+
+        val stored = server.uploads.values.single().received.toSet()
+        assertTrue(stored.isNotEmpty())
+
+        // Second run: a fresh uploader (as after process death) picks the job up from disk
+        server.failChunk = { false }
+        server.chunkPuts.clear()
+        val second = uploader(stateDir)
+        second.resumePending()
+
+        assertTrue("resumed upload did not complete", completed.await(10, TimeUnit.SECONDS))
+        assertArrayEquals(content, server.files[result!!.fileId])
+        assertTrue("resent chunks the server already had", server.chunkPuts.none { it in stored })
+        assertEquals(21 - stored.size, server.chunkPuts.size)
+        assertEquals(0, stateDir.listFiles()!!.count { it.name.endsWith(".json") })
+    }
+
+    @Test
+    fun forwardingSameContentUploadsItOnce() {
+        server = AttachmentServerStandIn()
+        completed = CountDownLatch(5)
+        val uploader = uploader(tmp.newFolder("jobs"))
+        repeat(5) { uploader.start(job("a-$it")) }
+
+        assertTrue("uploads did not complete", completed.await(10, TimeUnit.SECONDS))
+        assertEquals("content uploaded more than once", 21, server.chunkPuts.size)
+        assertEquals(1, results.map { it.fileId }.distinct().size)
+        assertEquals(ContentHash.hex(ContentHash.newDigest().digest(content)), result!!.sha256)
+
+        // A new uploader (fresh process) asks the server instead of uploading again
+        completed = CountDownLatch(1)
+        uploader(tmp.newFolder("jobs2")).start(job("a-later"))
+        assertTrue(completed.await(10, TimeUnit.SECONDS))
+        assertEquals(21, server.chunkPuts.size)
+        assertEquals(results.first().fileId, result!!.fileId)
+    }
+
+    @Test
+    fun fallsBackToSingleRequestUpload() {
+        server = AttachmentServerStandIn(chunkedApi = false)
+        uploader(tmp.newFolder("jobs")).start(job())
+
+        assertTrue("upload did not complete", completed.await(10, TimeUnit.SECONDS))
+        assertArrayEquals(content, server.files[result!!.fileId])
+        assertTrue(server.chunkPuts.isEmpty())
+    }
+
+    private fun awaitUntil(timeoutMs: Long = 10_000, condition: () -> Boolean) {
+        val deadline = System.currentTimeMillis() + timeoutMs
+        while (!condition() && System.currentTimeMillis() < deadline) Thread.sleep(20)
+    }
+}
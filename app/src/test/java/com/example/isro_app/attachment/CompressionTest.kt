@@ -0,0 +1,58 @@
+package com.example.isro_app.attachment
+
+import org.junit.Assert.*
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.util.zip.GZIPInputStream
+import kotlin.random.Random
+
+class CompressionTest {
+
+    @get:Rule
+    val tmp = TemporaryFolder()
+
+    @Test
+    fun textLikeFilesAreCompressible() {
+        assertTrue(Compression.isCompressible("text/plain", "notes"))
+        assertTrue(Compression.isCompressible("text/csv", "fixes.bin"))
+        assertTrue(Compression.isCompressible("application/json", "a"))
+        assertTrue(Compression.isCompressible("application/vnd.google-earth.kml+xml", "a"))
+        // Mime types are often missing or generic for these
+        assertTrue(Compression.isCompressible(null, "track.GPX"))
+        assertTrue(Compression.isCompressible("application/octet-stream", "route.kml"))
+        assertTrue(Compression.isCompressible(null, "gps.nmea"))
+    }
+
+    @Test
+    fun mediaAndArchivesAreNot() {
+        assertFalse(Compression.isCompressible("image/jpeg", "photo.jpg"))
+        assertFalse(Compression.isCompressible("application/zip", "logs.zip"))
+        assertFalse(Compression.isCompressible("application/octet-stream", "firmware.bin"))
+        assertFalse(Compression.isCompressible(null, "README"))
+    }
+
+    @Test
+    fun gzipRoundTrips() {
+        val text = (1..5000).joinToString("\n") { "$it,12.9716,77.5946,ok" }.toByteArray()
+        val out = tmp.newFile("track.csv.gz")
+
+        val size = Compression.gzip(text.inputStream(), out)
+
+        assertEquals(out.length(), size)
+        assertTrue("csv should compress well", size * 4 < text.size)
+        assertArrayEquals(text, GZIPInputStream(out.inputStream()).use { it.readBytes() })
+    }
+
+    @Test
+    fun gzipHandlesEmptyAndRandomInput() {
+        val empty = tmp.newFile()
+        Compression.gzip(ByteArray(0).inputStream(), empty)
+        assertEquals(0, GZIPInputStream(empty.inputStream()).use { it.readBytes() }.size)
+
+        val data = Random(3).nextBytes(200_000)
+        val out = tmp.newFile()
+        Compression.gzip(data.inputStream(), out)
+        assertArrayEquals(data, GZIPInputStream(out.inputStream()).use { it.readBytes() })
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.isro_app.geofence
+
+import org.junit.Assert.*
+import org.junit.Test
+import kotlin.random.Random
+
+/**
+ * [GeofenceEngine] at 10k fences and 1k devices against testing every fence on
+ * every fix, which is what it replaces. Both must agree on every transition; the
+ * wall-clock comparison is only asserted when run with -Dbenchmark=true.
+ */
+class GeofenceBenchmarkTest {
+
+    private val benchmark = System.getProperty("benchmark") == "true"
+    private val fenceCount = 10_000
+    private val deviceCount = 1_000
+    private val rounds = 20
+
+    private class Device(val id: String, var lat: Double, var lon: Double)
+
+    @Test
+    fun indexedEvaluationBeatsScanningEveryFence() {
+        val random = Random(49)
+        // Hexagons 200 m to 2 km across over a region the size of a state
+        val fences = List(fenceCount) {
+            val lat = random.nextDouble(12.0, 16.0)
+            val lon = random.nextDouble(74.0, 78.0)
+            val r = random.nextDouble(0.001, 0.01)
+            Geofence(
+                "f$it", "Fence $it",
+                DoubleArray(6) { k -> lat + r * Math.sin(k * Math.PI / 3) },
+                DoubleArray(6) { k -> lon + r * Math.cos(k * Math.PI / 3) }
+            )
+        }
+        val engine = GeofenceEngine()
+        val buildNs = time { fences.forEach { engine.put(it) } }
+
+        val devices = List(deviceCount) { Device("d$it", random.nextDouble(12.0, 16.0), random.nextDouble(74.0, 78.0)) }
+        val fixes = List(rounds) {
+            devices.map {
+                it.lat += random.nextDouble(-0.005, 0.005)
+                it.lon += random.nextDouble(-0.005, 0.005)
+                Triple(it.id, it.lat, it.lon)
+            }
+        }
+
+        // Warm up both paths on devices the comparison does not look at
+        fixes[0].forEach { (id, lat, lon) ->
+            engine.update("warm-$id", lat, lon, 0)
+            fences.count { it.contains(lat, lon) }
+        }
+
+        var engineEvents = 0
+        val engineNs = time {
+            fixes.forEachIndexed { t, round ->
+                round.forEach { (id, lat, lon) -> engineEvents += engine.update(id, lat, lon, t.toLong()).size }
+            }
+        }
+
+        val inside = HashMap<String, Set<String>>()
+        var scanEvents = 0
+        val scanNs = time {
+            fixes.forEach { round ->
+                round.forEach { (id, lat, lon) ->
+                    val now = fences.filter { it.contains(lat, lon) }.mapTo(HashSet()) { it.id }
+                    val before = inside.put(id, now)
+                    if (before != null) scanEvents += (now - before).size + (before - now).size
+                }
+            }
+        }
+
+        val fixCount = rounds * deviceCount
+        println(
+            "Geofence %d fences x %d devices: build %.1f ms | per fix (us): index %.2f vs scan %.1f, %d transitions".format(
+                fenceCount, deviceCount, buildNs / 1e6, engineNs / 1e3 / fixCount, scanNs / 1e3 / fixCount, engineEvents
+            )
+        )
+
+        assertEquals(scanEvents, engineEvents)
+        devices.forEach { assertEquals(inside[it.id], engine.fencesOf(it.id)) }
+        if (benchmark) {
+            assertTrue("index slower than a scan", engineNs < scanNs)
+            // A fleet reporting every second needs well under 1 ms per fix
+            assertTrue("%.1f us per fix".format(engineNs / 1e3 / fixCount), engineNs / fixCount < 1_000_000)
+        }
+    }
+
+    private inline fun time(block: () -> Unit): Long {
+        val start = System.nanoTime()
+        block()
+        return System.nanoTime() - start
+    }
+}
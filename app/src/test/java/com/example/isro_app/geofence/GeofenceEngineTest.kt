@@ -0,0 +1,106 @@
+package com.example.isro_app.geofence
+
+import org.junit.Assert.*
+import org.junit.Test
+
+class GeofenceEngineTest {
+
+    private fun square(id: String, south: Double, west: Double, size: Double) = Geofence(
+        id, "Zone $id",
+        doubleArrayOf(south, south, south + size, south + size),
+        doubleArrayOf(west, west + size, west + size, west)
+    )
+
+    @Test
+    fun concavePolygonExcludesItsNotch() {
+        // A U open to the north: the middle of the notch is inside the bbox but not the fence
+        val u = Geofence(
+            "u", "U",
+            doubleArrayOf(0.0, 0.0, 3.0, 3.0, 1.0, 1.0, 3.0, 3.0),
+            doubleArrayOf(0.0, 3.0, 3.0, 2.0, 2.0, 1.0, 1.0, 0.0)
+        )
+        assertTrue(u.contains(0.5, 1.5))
+        assertTrue(u.contains(2.0, 0.5))
+        assertFalse(u.contains(2.0, 1.5))
+        assertFalse(u.contains(4.0, 1.5))
+    }
+
+    @Test
+    fun reportsEnterAndExit() {
+        val engine = GeofenceEngine()
+        engine.put(square("a", 0.0, 0.0, 1.0))
+
+        // First fix only sets the state, even inside a fence
+        assertTrue(engine.update("d1", 0.5, 0.5, 1).isEmpty())
+        assertEquals(setOf("a"), engine.fencesOf("d1"))
+        assertTrue(engine.update("d1", 0.6, 0.6, 2).isEmpty())
+
+        val exit = engine.update("d1", 2.0, 2.0, 3).single()
+        assertEquals(GeofenceTransition.Exit, exit.transition)
+        assertEquals("a", exit.fenceId)
+        assertEquals("Zone a", exit.fenceName)
+
+        val enter = engine.update("d1", 0.2, 0.2, 4).single()
+        assertEquals(GeofenceTransition.Enter, enter.transition)
+        assertEquals(4L, enter.timeMs)
+    }
+
+    @Test
+    fun overlappingFencesAreTrackedSeparately() {
+        val engine = GeofenceEngine()
+        engine.put(square("a", 0.0, 0.0, 2.0))
+        engine.put(square("b", 1.0, 1.0, 2.0))
+        engine.update("d1", -1.0, -1.0, 0)
+
+        assertEquals(setOf("a"), engine.update("d1", 0.5, 0.5, 1).map { it.fenceId }.toSet())
+        assertEquals(
+            listOf("b" to GeofenceTransition.Enter),
+            engine.update("d1", 1.5, 1.5, 2).map { it.fenceId to it.transition }
+        )
+        assertEquals(
+            listOf("a" to GeofenceTransition.Exit),
+            engine.update("d1", 2.5, 2.5, 3).map { it.fenceId to it.transition }
+        )
+    }
+
+    @Test
+    fun removedOrReplacedFencesDoNotReportExits() {
+        val engine = GeofenceEngine()
+        engine.put(square("a", 0.0, 0.0, 1.0))
+        engine.update("d1", 0.5, 0.5, 0)
+
+        engine.remove("a")
+        assertEquals(0, engine.fenceCount)
+        assertTrue(engine.update("d1", 5.0, 5.0, 1).isEmpty())
+
+        // Moved under the device: entering is reported on the next fix
+        engine.put(square("a", 4.0, 4.0, 2.0))
+        assertEquals(1, engine.fenceCount)
+        assertEquals(GeofenceTransition.Enter, engine.update("d1", 5.0, 5.0, 2).single().transition)
+        // Moved away again: the device has left it
+        engine.put(square("a", 10.0, 10.0, 1.0))
+        assertEquals(GeofenceTransition.Exit, engine.update("d1", 5.0, 5.0, 3).single().transition)
+        assertTrue(engine.fencesOf("d1").isEmpty())
+    }
+
+    @Test
+    fun forgottenDeviceStartsOver() {
+        val engine = GeofenceEngine()
+        engine.put(square("a", 0.0, 0.0, 1.0))
+        engine.update("d1", 5.0, 5.0, 0)
+        engine.removeDevice("d1")
+        assertTrue(engine.update("d1", 0.5, 0.5, 1).isEmpty())
+    }
+
+    @Test
+    fun parsesRetainedFenceMessages() {
+        val fence = Geofence.fromJson("depot", """{"name":"Depot","points":[[12.9,77.5],[12.9,77.6],[13.0,77.6]]}""")!!
+        assertEquals("Depot", fence.name)
+        assertEquals(12.9, fence.south, 0.0)
+        assertEquals(77.6, fence.east, 0.0)
+
+        assertEquals("x", Geofence.fromJson("x", """{"points":[[0,0],[0,1],[1,1]]}""")!!.name)
+        assertNull(Geofence.fromJson("x", """{"points":[[0,0],[0,1]]}"""))
+        assertNull(Geofence.fromJson("x", "not json"))
+    }
+}
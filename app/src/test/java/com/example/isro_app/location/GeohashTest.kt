@@ -0,0 +1,75 @@
+package com.example.isro_app.location
+
+import org.junit.Assert.*
+import org.junit.Test
+import kotlin.random.Random
+
+/**
+ * [Geohash] against published reference hashes, and [Geohash.cellsCovering] against
+ * encoding points of the box
+ */
+class GeohashTest {
+
+    @Test
+    fun encodesReferenceHashes() {
+        assertEquals("u4pruydqqvj", Geohash.encode(57.64911, 10.40744, 11))
+        assertEquals("ezs42", Geohash.encode(42.605, -5.603, 5))
+        assertEquals("s000", Geohash.encode(0.0, 0.0, 4))
+        assertEquals("tdr1", Geohash.encode(12.97, 77.59, 4))
+    }
+
+    @Test
+    fun cellSizes() {
+        assertEquals(180.0 / 1024, Geohash.cellHeight(4), 0.0)
+        assertEquals(360.0 / 1024, Geohash.cellWidth(4), 0.0)
+        assertEquals(180.0 / 4096, Geohash.cellHeight(5), 0.0)
+        assertEquals(360.0 / 8192, Geohash.cellWidth(5), 0.0)
+    }
+
+    @Test
+    fun boxInsideOneCellIsOneCell() {
+        val cells = Geohash.cellsCovering(12.97, 77.59, 12.98, 77.60, precision = 4, maxCells = 48)
+        assertEquals(setOf(Geohash.encode(12.97, 77.59, 4)), cells)
+    }
+
+    @Test
+    fun coversEveryPointOfTheBoxAndNothingElse() {
+        val random = Random(5)
+        val width = Geohash.cellWidth(4)
+        val height = Geohash.cellHeight(4)
+        repeat(200) {
+            val south = random.nextDouble(-60.0, 60.0)
+            val west = random.nextDouble(-170.0, 170.0)
+            val north = south + random.nextDouble(0.0, 1.0)
+            val east = west + random.nextDouble(0.0, 2.0)
+            val cells = Geohash.cellsCovering(south, west, north, east, precision = 4, maxCells = 1000)!!
+
+            val expected = HashSet<String>()
+            var lat = south
+            while (true) {
+                var lon = west
+                while (true) {
+                    expected.add(Geohash.encode(lat, lon, 4))
+                    if (lon == east) break
+                    lon = minOf(east, lon + width / 3)
+                }
+                if (lat == north) break
+                lat = minOf(north, lat + height / 3)
+            }
+            assertEquals(expected, cells)
+        }
+    }
+
+    @Test
+    fun tooManyCellsOrAntimeridianGiveNull() {
+        assertNull(Geohash.cellsCovering(0.0, 0.0, 10.0, 10.0, precision = 4, maxCells = 48))
+        assertNull(Geohash.cellsCovering(0.0, 179.9, 0.1, -179.9, precision = 4, maxCells = 48))
+        assertNotNull(Geohash.cellsCovering(0.0, 0.0, 1.0, 1.0, precision = 4, maxCells = 1000))
+    }
+
+    @Test
+    fun clampsAtThePolesAndEdges() {
+        val cells = Geohash.cellsCovering(89.9, 179.7, 95.0, 185.0, precision = 4, maxCells = 48)!!
+        assertEquals(setOf(Geohash.encode(89.99, 179.99, 4)), cells)
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.isro_app.location
+
+import org.junit.Assert.*
+import org.junit.Assume.assumeTrue
+import org.junit.Before
+import org.junit.Test
+import kotlin.random.Random
+
+/**
+ * Query and update cost of [QuadTree] against the linear scan it replaces, at
+ * 10k and 100k devices spread over a region the size of a state.
+ *
+ * Wall-clock comparisons, so skipped unless run with -Dbenchmark=true. Sizes can be
+ * changed with -Dquadtree.sizes=10000,100000,1000000.
+ */
+class QuadTreeBenchmarkTest {
+
+    @Before
+    fun onlyWhenBenchmarking() {
+        assumeTrue("Run with -Dbenchmark=true", System.getProperty("benchmark") == "true")
+    }
+
+    private val sizes = System.getProperty("quadtree.sizes")
+        ?.split(',')?.mapNotNull { it.trim().toIntOrNull() }
+        ?: listOf(10_000, 100_000)
+
+    private class Device(val id: String, var lat: Double, var lon: Double)
+
+    @Test
+    fun indexBeatsLinearScan() {
+        sizes.forEach { n -> run(n) }
+    }
+
+    private fun run(n: Int) {
+        val random = Random(n)
+        val devices = List(n) { Device("d$it", random.nextDouble(12.0, 16.0), random.nextDouble(74.0, 78.0)) }
+        val tree = QuadTree()
+
+        val buildNs = time {
+            tree.clear()
+            devices.forEach { tree.put(it.id, it.lat, it.lon) }
+        }
+
+        // One GPS update per device
+        val updateNs = time {
+            devices.forEach {
+                it.lat += random.nextDouble(-0.001, 0.001)
+                it.lon += random.nextDouble(-0.001, 0.001)
+                tree.put(it.id, it.lat, it.lon)
+            }
+        }
+
+        val queries = List(500) { Pair(random.nextDouble(12.5, 15.5), random.nextDouble(74.5, 77.5)) }
+        var sink = 0
+
+        // Viewport about 20 km across
+        val boxTree = time { queries.forEach { (lat, lon) -> sink += tree.within(lat - 0.1, lon - 0.1, lat + 0.1, lon + 0.1).size } }
+        val boxScan = time {
+            queries.forEach { (lat, lon) ->
+                sink += devices.count { it.lat in (lat - 0.1)..(lat + 0.1) && it.lon in (lon - 0.1)..(lon + 0.1) }
+            }
+        }
+
+        val radiusTree = time { queries.forEach { (lat, lon) -> sink += tree.withinRadius(lat, lon, 2_000.0).size } }
+        val radiusScan = time {
+            queries.forEach { (lat, lon) ->
+                sink += devices.count { QuadTree.distanceMeters(lat, lon, it.lat, it.lon) <= 2_000.0 }
+            }
+        }
+
+        val knnTree = time { queries.forEach { (lat, lon) -> sink += tree.nearest(lat, lon, 10).size } }
+        val knnScan = time {
+            queries.forEach { (lat, lon) ->
+                // Bounded max-heap: the best a scan can do
+                val best = java.util.PriorityQueue<Double>(11, reverseOrder())
+                devices.forEach {
+                    best.add(QuadTree.distanceMeters(lat, lon, it.lat, it.lon))
+                    if (best.size > 10) best.poll()
+                }
+                sink += best.size
+            }
+        }
+
+        println(
+            "QuadTree n=%d build %.1f ms, update %.2f us/op | per query (us): box %.1f vs scan %.1f, radius %.1f vs %.1f, 10-NN %.1f vs %.1f (sink %d)".format(
+                n, buildNs / 1e6, updateNs / 1e3 / n,
+                boxTree / 1e3 / queries.size, boxScan / 1e3 / queries.size,
+                radiusTree / 1e3 / queries.size, radiusScan / 1e3 / queries.size,
+                knnTree / 1e3 / queries.size, knnScan / 1e3 / queries.size,
+                sink
+            )
+        )
+
+        assertEquals(n, tree.size)
+        assertTrue("box query slower than a scan at n=$n", boxTree < boxScan)
+        assertTrue("radius query slower than a scan at n=$n", radiusTree < radiusScan)
+        assertTrue("nearest query slower than a scan at n=$n", knnTree < knnScan)
+    }
+
+    /** Runs [block] once to warm up the JIT, then times a second run */
+    private inline fun time(block: () -> Unit): Long {
+        block()
+        val start = System.nanoTime()
+        block()
+        return System.nanoTime() - start
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.isro_app.location
+
+import org.junit.Assert.*
+import org.junit.Test
+import kotlin.random.Random
+
+/**
+ * [QuadTree] answers must match a linear scan, including after moves and removals
+ */
+class QuadTreeTest {
+
+    private val random = Random(11)
+    private val positions = HashMap<String, Pair<Double, Double>>()
+    private val tree = QuadTree(leafCapacity = 8)
+
+    private fun place(id: String) {
+        // Dense cluster plus a worldwide scatter, so the tree gets both deep and shallow parts
+        val (lat, lon) = if (random.nextBoolean()) {
+            Pair(13.0 + random.nextDouble(-0.05, 0.05), 77.5 + random.nextDouble(-0.05, 0.05))
+        } else {
+            Pair(random.nextDouble(-80.0, 80.0), random.nextDouble(-180.0, 180.0))
+        }
+        positions[id] = lat to lon
+        tree.put(id, lat, lon)
+    }
+
+    private fun populate(n: Int) {
+        repeat(n) { place("d$it") }
+        // Move a third, remove a tenth
+        repeat(n / 3) { place("d${random.nextInt(n)}") }
+        repeat(n / 10) {
+            val id = "d${random.nextInt(n)}"
+            assertEquals(positions.remove(id) != null, tree.remove(id))
+        }
+    }
+
+    private fun distance(id: String, lat: Double, lon: Double): Double {
+        val (plat, plon) = positions.getValue(id)
+        return QuadTree.distanceMeters(lat, lon, plat, plon)
+    }
+
+    @Test
+    fun boxQueriesMatchLinearScan() {
+        populate(5000)
+        assertEquals(positions.size, tree.size)
+        repeat(200) {
+            val south = random.nextDouble(-80.0, 70.0)
+            val west = random.nextDouble(-180.0, 170.0)
+            val north = south + random.nextDouble(0.01, 10.0)
+            val east = west + random.nextDouble(0.01, 10.0)
+            val expected = positions.filter { (_, p) -> p.first in south..north && p.second in west..east }.keys
+            assertEquals(expected, tree.within(south, west, north, east).map { it.id }.toSet())
+        }
+        // Dense area
+        val expected = positions.filter { (_, p) -> p.first in 12.98..13.02 && p.second in 77.48..77.52 }.keys
+        assertEquals(expected, tree.within(12.98, 77.48, 13.02, 77.52).map { it.id }.toSet())
+    }
+
+    @Test
+    fun boxAcrossTheAntimeridian() {
+        tree.put("west", 0.0, 179.5)
+        tree.put("east", 0.0, -179.5)
+        tree.put("out", 0.0, 0.0)
+        assertEquals(setOf("west", "east"), tree.within(-1.0, 179.0, 1.0, -179.0).map { it.id }.toSet())
+    }
+
+    @Test
+    fun radiusQueriesMatchLinearScan() {
+        populate(5000)
+        repeat(100) {
+            val lat = 13.0 + random.nextDouble(-0.05, 0.05)
+            val lon = 77.5 + random.nextDouble(-0.05, 0.05)
+            val radius = random.nextDouble(100.0, 5000.0)
+            val expected = positions.keys.filter { distance(it, lat, lon) <= radius }.sortedBy { distance(it, lat, lon) }
+            assertEquals(expected, tree.withinRadius(lat, lon, radius).map { it.id })
+        }
+    }
+
+    @Test
+    fun nearestMatchesLinearScan() {
+        populate(5000)
+        repeat(100) {
+            val lat = random.nextDouble(-60.0, 60.0)
+            val lon = random.nextDouble(-180.0, 180.0)
+            val k = random.nextInt(1, 30)
+            val expected = positions.keys.sortedBy { distance(it, lat, lon) }.take(k)
+            val actual = tree.nearest(lat, lon, k).map { it.id }
+            assertEquals(expected.map { distance(it, lat, lon) }, actual.map { distance(it, lat, lon) })
+        }
+    }
+
+    @Test
+    fun emptyAfterRemovingEverything() {
+        populate(500)
+        positions.keys.toList().forEach { tree.remove(it) }
+        assertEquals(0, tree.size)
+        assertTrue(tree.within(-90.0, -180.0, 90.0, 180.0).isEmpty())
+        assertTrue(tree.nearest(0.0, 0.0, 5).isEmpty())
+    }
+}
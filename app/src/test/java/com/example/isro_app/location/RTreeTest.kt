@@ -0,0 +1,73 @@
+package com.example.isro_app.location
+
+import org.junit.Assert.*
+import org.junit.Test
+import kotlin.random.Random
+
+class RTreeTest {
+
+    private class Box(val id: Int, val south: Double, val west: Double, val north: Double, val east: Double) {
+        fun contains(lat: Double, lon: Double) = lat in south..north && lon in west..east
+    }
+
+    private fun randomBox(random: Random, id: Int): Box {
+        val lat = random.nextDouble(10.0, 20.0)
+        val lon = random.nextDouble(70.0, 80.0)
+        return Box(id, lat, lon, lat + random.nextDouble(0.01, 0.5), lon + random.nextDouble(0.01, 0.5))
+    }
+
+    @Test
+    fun searchFindsContainingRectangles() {
+        val tree = RTree<String>()
+        tree.insert(0.0, 0.0, 10.0, 10.0, "big")
+        tree.insert(2.0, 2.0, 4.0, 4.0, "small")
+        tree.insert(20.0, 20.0, 30.0, 30.0, "far")
+
+        assertEquals(setOf("big", "small"), tree.search(3.0, 3.0).toSet())
+        assertEquals(listOf("big"), tree.search(8.0, 8.0))
+        // Edges are inside
+        assertEquals(listOf("far"), tree.search(30.0, 20.0))
+        assertTrue(tree.search(15.0, 15.0).isEmpty())
+    }
+
+    @Test
+    fun matchesALinearScanThroughInsertsAndRemovals() {
+        val random = Random(3)
+        val tree = RTree<Int>(maxEntries = 8)
+        val boxes = HashMap<Int, Box>()
+        repeat(5_000) {
+            val box = randomBox(random, it)
+            boxes[it] = box
+            tree.insert(box.south, box.west, box.north, box.east, it)
+        }
+        // Remove most of them so nodes underflow and get dissolved
+        boxes.keys.filter { it % 4 != 0 }.forEach {
+            val box = boxes.remove(it)!!
+            assertTrue(tree.remove(box.south, box.west, box.north, box.east, it))
+        }
+        assertEquals(boxes.size, tree.size)
+
+        repeat(2_000) {
+            val lat = random.nextDouble(10.0, 20.5)
+            val lon = random.nextDouble(70.0, 80.5)
+            val expected = boxes.values.filter { it.contains(lat, lon) }.map { it.id }.toSet()
+            assertEquals(expected, tree.search(lat, lon).toSet())
+        }
+    }
+
+    @Test
+    fun removeNeedsTheSameRectangleAndValue() {
+        val tree = RTree<String>()
+        tree.insert(0.0, 0.0, 1.0, 1.0, "a")
+
+        assertFalse(tree.remove(0.0, 0.0, 2.0, 2.0, "a"))
+        assertFalse(tree.remove(0.0, 0.0, 1.0, 1.0, "b"))
+        assertTrue(tree.remove(0.0, 0.0, 1.0, 1.0, "a"))
+        assertEquals(0, tree.size)
+        assertTrue(tree.search(0.5, 0.5).isEmpty())
+
+        // Still usable once emptied
+        tree.insert(0.0, 0.0, 1.0, 1.0, "c")
+        assertEquals(listOf("c"), tree.search(0.5, 0.5))
+    }
+}
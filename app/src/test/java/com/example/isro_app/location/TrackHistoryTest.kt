@@ -0,0 +1,89 @@
+package com.example.isro_app.location
+
+import org.junit.Assert.*
+import org.junit.Test
+
+class TrackHistoryTest {
+
+    @Test
+    fun fullRingDropsTheOldestFixes() {
+        val buffer = TrackBuffer(4)
+        for (i in 0 until 6) buffer.add(i * 1000L, 10.0 + i, 20.0)
+
+        assertEquals(4, buffer.size)
+        val points = buffer.since(0)
+        assertEquals(4, points.size)
+        assertArrayEquals(longArrayOf(2000, 3000, 4000, 5000), points.times)
+        assertEquals(12.0, points.latitudes[0], 0.0)
+        assertEquals(15.0, points.latitudes[3], 0.0)
+    }
+
+    @Test
+    fun sinceReturnsOnlyTheWindow() {
+        val buffer = TrackBuffer(8)
+        for (i in 0 until 12) buffer.add(i * 1000L, i.toDouble(), 0.0)
+
+        assertArrayEquals(longArrayOf(9000, 10000, 11000), buffer.since(8_500).times)
+        assertEquals(8, buffer.since(0).size)
+        assertEquals(0, buffer.since(20_000).size)
+    }
+
+    @Test
+    fun parkedDeviceStoresAFixAMinute() {
+        val buffer = TrackBuffer(16, minDistanceMeters = 10.0, minIntervalMs = 60_000)
+        // Fixes every 3 s, jittering by about a metre
+        for (i in 0 until 100) buffer.add(i * 3000L, 12.97 + (i % 2) * 0.00001, 77.59)
+        assertEquals(5, buffer.size)
+
+        // Moving 100 m is stored straight away
+        val version = buffer.version
+        assertTrue(buffer.add(300_500, 12.971, 77.59))
+        assertNotEquals(version, buffer.version)
+    }
+
+    @Test
+    fun outOfOrderFixesAreDropped() {
+        val buffer = TrackBuffer(4)
+        buffer.add(5000, 1.0, 1.0)
+        assertFalse(buffer.add(4000, 2.0, 2.0))
+        assertEquals(1, buffer.size)
+    }
+
+    @Test
+    fun historyKeepsOneTrackPerDevice() {
+        val history = TrackHistory(capacity = 8, minDistanceMeters = 0.0, minIntervalMs = 0)
+        history.record("a", 1000, 1.0, 1.0)
+        history.record("a", 2000, 1.1, 1.0)
+        history.record("b", 1000, 5.0, 5.0)
+
+        assertEquals(setOf("a", "b"), history.ids())
+        assertEquals(2, history.track("a")!!.size)
+        history.remove("a")
+        assertNull(history.track("a"))
+    }
+
+    @Test
+    fun bufferGrowsAsFixesArriveThenWraps() {
+        val capacity = TrackBuffer.INITIAL_SLOTS * 4 + 10
+        val buffer = TrackBuffer(capacity)
+        for (i in 0 until capacity + 5) buffer.add(i * 1000L, i.toDouble(), 0.0)
+
+        val points = buffer.since(0)
+        assertEquals(capacity, points.size)
+        assertEquals(5000L, points.times[0])
+        assertEquals((capacity + 4) * 1000L, points.times[capacity - 1])
+        for (i in 1 until points.size) assertTrue(points.times[i] > points.times[i - 1])
+    }
+
+    @Test
+    fun historyDropsTheDeviceHeardFromLeastRecently() {
+        val history = TrackHistory(capacity = 8, minDistanceMeters = 0.0, minIntervalMs = 0, maxDevices = 2)
+        history.record("a", 1000, 1.0, 1.0)
+        history.record("b", 1000, 2.0, 2.0)
+        history.record("a", 2000, 1.1, 1.0)
+        history.record("c", 2000, 3.0, 3.0)
+
+        assertEquals(setOf("a", "c"), history.ids())
+        assertEquals(2, history.track("a")!!.size)
+    }
+}
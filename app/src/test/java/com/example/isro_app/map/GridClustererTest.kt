@@ -0,0 +1,56 @@
+package com.example.isro_app.map
+
+import com.example.isro_app.MapDevice
+import com.example.isro_app.MapViewport
+import org.junit.Assert.*
+import org.junit.Test
+
+class GridClustererTest {
+
+    // 1 degree = 100 px, so a 50 px cell is half a degree
+    private fun cluster(devices: List<MapDevice>) =
+        GridClusterer.cluster(devices, 50.0, { it * 100 }, { -it * 100 })
+
+    @Test
+    fun nearbyDevicesShareACluster() {
+        val clusters = cluster(
+            listOf(
+                MapDevice("a", 10.1, 20.1),
+                MapDevice("b", 10.2, 20.2),
+                MapDevice("c", 10.3, 20.3),
+                MapDevice("far", 12.1, 22.1)
+            )
+        )
+
+        assertEquals(2, clusters.size)
+        val group = clusters.first()
+        assertEquals(3, group.count)
+        assertNull(group.id)
+        assertEquals(10.2, group.latitude, 1e-9)
+        assertEquals(20.2, group.longitude, 1e-9)
+        assertEquals(DeviceCluster(12.1, 22.1, 1, "far"), clusters.last())
+    }
+
+    @Test
+    fun negativeCoordinatesDoNotCollide() {
+        // Same cell indices with opposite signs must stay apart
+        val clusters = cluster(listOf(MapDevice("a", 0.25, 0.25), MapDevice("b", -0.25, -0.25)))
+        assertEquals(2, clusters.size)
+    }
+
+    @Test
+    fun insideKeepsOnlyTheViewport() {
+        val viewport = MapViewport(0.0, 10.0, 20.0, 30.0)
+        assertTrue(GridClusterer.inside(viewport, 10.0, 20.0))
+        assertFalse(GridClusterer.inside(viewport, 30.0, 20.0))
+        assertFalse(GridClusterer.inside(viewport, 10.0, 40.0))
+    }
+
+    @Test
+    fun insideHandlesTheAntimeridian() {
+        val viewport = MapViewport(-1.0, 179.0, 1.0, -179.0)
+        assertTrue(GridClusterer.inside(viewport, 0.0, 179.5))
+        assertTrue(GridClusterer.inside(viewport, 0.0, -179.5))
+        assertFalse(GridClusterer.inside(viewport, 0.0, 0.0))
+    }
+}
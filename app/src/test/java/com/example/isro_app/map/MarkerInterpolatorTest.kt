@@ -0,0 +1,136 @@
+package com.example.isro_app.map
+
+import com.example.isro_app.MapDevice
+import com.example.isro_app.MapViewport
+import org.junit.Assert.*
+import org.junit.Test
+
+class MarkerInterpolatorTest {
+
+    private val world = MapViewport(-90.0, -180.0, 90.0, 180.0)
+    private val second = 1_000_000_000L
+
+    private fun MarkerInterpolator.at(now: Long, viewport: MapViewport = world) =
+        frame(now, viewport).devices.associateBy { it.id }
+
+    @Test
+    fun firstFixIsShownImmediately() {
+        val interpolator = MarkerInterpolator()
+        interpolator.update(listOf(MapDevice("a", 12.97, 77.59)), 0)
+
+        val frame = interpolator.frame(0, world)
+        assertEquals(listOf(MapDevice("a", 12.97, 77.59)), frame.devices)
+        assertFalse(frame.moving)
+    }
+
+    @Test
+    fun deviceGlidesToTheNextFixOverTheFixInterval() {
+        val interpolator = MarkerInterpolator()
+        interpolator.update(listOf(MapDevice("a", 12.970, 77.590)), 0)
+        interpolator.update(listOf(MapDevice("a", 12.973, 77.596)), 3 * second)
+
+        val start = interpolator.at(3 * second).getValue("a")
+        assertEquals(12.970, start.latitude, 1e-9)
+        val half = interpolator.at(4_500_000_000L).getValue("a")
+        assertEquals(12.9715, half.latitude, 1e-9)
+        assertEquals(77.593, half.longitude, 1e-9)
+        assertTrue(interpolator.frame(4_500_000_000L, world).moving)
+
+        val end = interpolator.frame(6 * second, world)
+        assertEquals(MapDevice("a", 12.973, 77.596), end.devices.single())
+        assertFalse(end.moving)
+    }
+
+    @Test
+    fun fixMidwayContinuesFromTheDrawnPosition() {
+        val interpolator = MarkerInterpolator()
+        interpolator.update(listOf(MapDevice("a", 10.0, 20.0)), 0)
+        interpolator.update(listOf(MapDevice("a", 10.002, 20.0)), 2 * second)
+        // Half way there when the next fix comes in
+        interpolator.update(listOf(MapDevice("a", 10.002, 20.002)), 3 * second)
+
+        val now = interpolator.at(3 * second).getValue("a")
+        assertEquals(10.001, now.latitude, 1e-9)
+        assertEquals(20.0, now.longitude, 1e-9)
+    }
+
+    @Test
+    fun farJumpsAndLongGapsDoNotCrawl() {
+        val interpolator = MarkerInterpolator(maxDurationNanos = 2 * second)
+        interpolator.update(listOf(MapDevice("far", 10.0, 20.0), MapDevice("slow", 10.0, 20.0)), 0)
+        interpolator.update(listOf(MapDevice("far", 11.0, 20.0), MapDevice("slow", 10.001, 20.0)), 60 * second)
+
+        assertEquals(11.0, interpolator.at(60 * second).getValue("far").latitude, 1e-9)
+        // A minute since the last fix, but the move takes at most two seconds
+        assertEquals(10.001, interpolator.at(62 * second).getValue("slow").latitude, 1e-9)
+    }
+
+    @Test
+    fun offScreenDevicesAreSkippedAndDoNotKeepFramesComing() {
+        val interpolator = MarkerInterpolator()
+        interpolator.update(listOf(MapDevice("in", 10.0, 20.0), MapDevice("out", 40.0, 50.0)), 0)
+        interpolator.update(listOf(MapDevice("in", 10.0, 20.0), MapDevice("out", 40.001, 50.0)), second)
+
+        val view = MapViewport(9.0, 19.0, 11.0, 21.0)
+        val frame = interpolator.frame(1_500_000_000L, view)
+        assertEquals(listOf("in"), frame.devices.map { it.id })
+        assertFalse(frame.moving)
+        assertTrue(interpolator.frame(1_500_000_000L, world).moving)
+    }
+
+    @Test
+    fun removedDevicesDisappearAndMovesCrossTheAntimeridian() {
+        val interpolator = MarkerInterpolator()
+        interpolator.update(listOf(MapDevice("a", 0.0, 179.99), MapDevice("gone", 1.0, 1.0)), 0)
+        interpolator.update(listOf(MapDevice("a", 0.0, -179.99)), second)
+
+        val half = interpolator.at(1_500_000_000L)
+        assertEquals(setOf("a"), half.keys)
+        assertEquals(180.0, Math.abs(half.getValue("a").longitude), 1e-9)
+    }
+
+    @Test
+    fun deviceLeavingTheViewportIsDrawnUntilItsPathIsOut() {
+        val interpolator = MarkerInterpolator()
+        interpolator.update(listOf(MapDevice("a", 10.99, 20.0)), 0)
+        // Heading north out of the view, towards a fix 0.04 degrees past its edge
+        interpolator.update(listOf(MapDevice("a", 11.03, 20.0)), 4 * second)
+
+        val view = MapViewport(9.0, 19.0, 11.0, 21.0)
+        val frame = interpolator.frame(5 * second, view)
+        assertEquals(11.0, frame.devices.single().latitude, 1e-9)
+        assertTrue(frame.moving)
+        // Across the antimeridian as well
+        val east = MarkerInterpolator()
+        east.update(listOf(MapDevice("b", 10.0, 179.99)), 0)
+        east.update(listOf(MapDevice("b", 10.0, -179.97)), 4 * second)
+        assertEquals(listOf("b"), east.frame(5 * second, MapViewport(9.0, 170.0, 11.0, 179.995)).devices.map { it.id })
+    }
+
+    @Test
+    fun framesMatchAFullScanAndKeepTheDrawOrder() {
+        val random = java.util.Random(7)
+        val interpolator = MarkerInterpolator()
+        val before = (0 until 2000).map { MapDevice("d$it", 8 + random.nextDouble() * 8, 72 + random.nextDouble() * 8) }
+        interpolator.update(before, 0)
+        // Every device drifts a little, some jump
+        val after = before.map {
+            if (random.nextInt(20) == 0) MapDevice(it.id, 8 + random.nextDouble() * 8, 72 + random.nextDouble() * 8)
+            else MapDevice(it.id, it.latitude + random.nextGaussian() * 0.01, it.longitude + random.nextGaussian() * 0.01)
+        }
+        interpolator.update(after, 3 * second)
+
+        val view = MapViewport(11.0, 75.0, 12.0, 76.0)
+        val expected = before.indices.filter { i ->
+            val from = before[i]
+            val to = after[i]
+            val jump = Math.abs(to.latitude - from.latitude) > MarkerInterpolator.DEFAULT_SNAP_DEGREES ||
+                Math.abs(to.longitude - from.longitude) > MarkerInterpolator.DEFAULT_SNAP_DEGREES
+            GridClusterer.inside(view, to.latitude, to.longitude) ||
+                (!jump && GridClusterer.inside(view, from.latitude, from.longitude))
+        }.map { before[it].id }
+        assertTrue(expected.size > 10)
+        assertEquals(expected, interpolator.frame(4 * second, view).devices.map { it.id })
+        assertEquals(before.map { it.id }, interpolator.frame(4 * second, world).devices.map { it.id })
+    }
+}
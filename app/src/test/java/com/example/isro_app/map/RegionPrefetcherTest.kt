@@ -0,0 +1,136 @@
+package com.example.isro_app.map
+
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withTimeout
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Test
+import java.io.Closeable
+import java.util.concurrent.ConcurrentHashMap
+
+class RegionPrefetcherTest {
+
+    private class MemoryStore : TileStore {
+        val tiles = ConcurrentHashMap<TileKey, ByteArray>()
+        var flushes = 0
+        override fun contains(tile: TileKey) = tiles.containsKey(tile)
+        override fun put(tile: TileKey, bytes: ByteArray) {
+            tiles[tile] = bytes
+        }
+        override fun flush() {
+            flushes++
+        }
+    }
+
+    private class ClosingStore : TileStore, Closeable {
+        val memory = MemoryStore()
+        @Volatile
+        var closed = false
+        override fun contains(tile: TileKey) = memory.contains(tile)
+        override fun put(tile: TileKey, bytes: ByteArray) = memory.put(tile, bytes)
+        override fun flush() = memory.flush()
+        override fun close() {
+            closed = true
+        }
+    }
+
+    private val tileServer = TileServerStandIn()
+    private val region = TileRegion.Box(12.8, 77.4, 13.1, 77.8)
+    private val zooms = 10..13
+
+    @After
+    fun stop() {
+        tileServer.close()
+    }
+
+    @Test
+    fun downloadsEveryTileOfTheRegion() = runBlocking {
+        val store = MemoryStore()
+        val prefetcher = RegionPrefetcher(parallelism = 4)
+        prefetcher.run(tileServer.url, region, zooms, store)
+
+        val progress = prefetcher.progress.value
+        val expected = region.tiles(zooms).toSet()
+        assertEquals(PrefetchState.Done, progress.state)
+        assertEquals(expected, store.tiles.keys)
+        assertEquals(expected.size.toLong(), progress.total)
+        assertEquals(progress.total, progress.downloaded)
+        assertEquals(expected.sumOf { tileServer.bytes(it).size }.toLong(), progress.bytes)
+        expected.forEach { assertArrayEquals(tileServer.bytes(it), store.tiles[it]) }
+        assertTrue(store.flushes > 0)
+        // Connections are reused rather than opened per tile
+        assertTrue("${tileServer.remotePorts.size} connections", tileServer.remotePorts.size < expected.size / 4)
+    }
+
+    @Test
+    fun secondRunOnlyFetchesWhatIsMissing() = runBlocking {
+        val store = MemoryStore()
+        val prefetcher = RegionPrefetcher()
+        tileServer.broken = { it.zoom == 13 && it.x % 2 == 0 }
+        prefetcher.run(tileServer.url, region, zooms, store)
+        val first = prefetcher.progress.value
+        assertTrue(first.failed > 0)
+        assertEquals(first.total, first.downloaded + first.failed)
+
+        tileServer.broken = { false }
+        tileServer.requests.set(0)
+        prefetcher.run(tileServer.url, region, zooms, store)
+        val second = prefetcher.progress.value
+        assertEquals(first.failed, second.downloaded)
+        assertEquals(first.downloaded, second.skipped)
+        assertEquals(first.failed.toInt(), tileServer.requests.get())
+        assertEquals(region.tiles(zooms).toSet(), store.tiles.keys)
+    }
+
+    @Test
+    fun tilesTheServerLacksAreMissingNotFailed() = runBlocking {
+        val store = MemoryStore()
+        val prefetcher = RegionPrefetcher()
+        tileServer.absent = { it.zoom == 13 }
+        prefetcher.run(tileServer.url, region, zooms, store)
+
+        val progress = prefetcher.progress.value
+        assertEquals(region.count(13), progress.missing)
+        assertEquals(0, progress.failed)
+        // One request each: a 404 is not retried
+        assertEquals(progress.total.toInt(), tileServer.requests.get())
+    }
+
+    @Test
+    fun estimateCountsTilesAndSamplesSizes() = runBlocking {
+        val store = MemoryStore()
+        region.tiles(10).forEach { store.put(it, tileServer.bytes(it)) }
+        val estimate = RegionPrefetcher().estimate(tileServer.url, region, zooms, store)
+
+        assertEquals(region.count(zooms), estimate.tiles)
+        assertEquals(region.count(10), estimate.alreadyStored)
+        assertTrue(estimate.averageTileBytes in 1000L..1006L)
+        assertEquals((estimate.tiles - estimate.alreadyStored) * estimate.averageTileBytes, estimate.estimatedBytes)
+        assertTrue(tileServer.requests.get() <= 12)
+        // Sampled tiles are kept
+        assertEquals(region.count(10) + tileServer.requests.get(), store.tiles.size.toLong())
+    }
+
+    @Test
+    fun onlyFinishedRunsAreCountedOnceTheirStoreIsClosed() = runBlocking {
+        val prefetcher = RegionPrefetcher()
+        assertEquals(0, prefetcher.finishedRuns.value)
+
+        val first = ClosingStore()
+        prefetcher.start(tileServer.url, region, zooms, first)
+        withTimeout(10_000) { prefetcher.finishedRuns.first { it == 1 } }
+        assertTrue(first.closed)
+
+        // Stopped part way: not a new archive
+        tileServer.delayMs = 50
+        val stopped = ClosingStore()
+        prefetcher.start(tileServer.url, TileRegion.Box(13.2, 77.4, 13.5, 77.8), zooms, stopped)
+        withTimeout(10_000) { prefetcher.progress.first { it.state == PrefetchState.Running } }
+        prefetcher.cancel()
+        withTimeout(10_000) { while (!stopped.closed) delay(10) }
+        assertEquals(PrefetchState.Cancelled, prefetcher.progress.value.state)
+        assertEquals(1, prefetcher.finishedRuns.value)
+    }
+}
@@ -0,0 +1,182 @@
+package com.example.isro_app.map
+
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+class TileCacheTest {
+
+    @get:Rule
+    val tmp = TemporaryFolder()
+
+    private val server = TileServerStandIn()
+    private val tile = TileKey(12, 2930, 1899)
+
+    @After
+    fun stop() {
+        server.close()
+    }
+
+    @Test
+    fun freshTileComesFromDiskWithoutARequest() {
+        server.maxAgeSeconds = 3600
+        val cache = TileCache(tmp.root)
+
+        assertArrayEquals(server.bytes(tile), cache.get(server.urlOf(tile)))
+        assertArrayEquals(server.bytes(tile), cache.get(server.urlOf(tile)))
+
+        assertEquals(1, server.requests.get())
+        val metrics = cache.metrics()
+        assertEquals(1L, metrics.counts[TileOrigin.Network])
+        assertEquals(1L, metrics.counts[TileOrigin.Disk])
+        assertEquals(0.5, metrics.hitRate, 1e-9)
+    }
+
+    @Test
+    fun expiredTileIsRevalidatedWithoutItsBody() {
+        server.maxAgeSeconds = 0
+        val cache = TileCache(tmp.root)
+        cache.get(server.urlOf(tile))
+
+        assertArrayEquals(server.bytes(tile), cache.get(server.urlOf(tile)))
+
+        assertEquals(TileServerStandIn.Request(tile, true, 304), server.log.last())
+        assertEquals(1L, cache.metrics().counts[TileOrigin.Revalidated])
+    }
+
+    @Test
+    fun changedTileIsDownloadedAgain() {
+        server.maxAgeSeconds = 0
+        val cache = TileCache(tmp.root)
+        val old = cache.get(server.urlOf(tile))
+
+        server.update(tile)
+        val new = cache.get(server.urlOf(tile))
+
+        assertFalse(old.contentEquals(new))
+        assertArrayEquals(server.bytes(tile), new)
+        assertEquals(TileServerStandIn.Request(tile, true, 200), server.log.last())
+        // The new validators are stored: the next check is a 304 again
+        cache.get(server.urlOf(tile))
+        assertEquals(304, server.log.last().status)
+    }
+
+    @Test
+    fun defaultMaxAgeAppliesWhenTheServerSendsNone() {
+        val cache = TileCache(tmp.root, defaultMaxAgeMs = 60_000)
+        cache.get(server.urlOf(tile))
+        cache.get(server.urlOf(tile))
+        assertEquals(1, server.requests.get())
+
+        val expiring = TileCache(tmp.newFolder(), defaultMaxAgeMs = 0)
+        expiring.get(server.urlOf(tile))
+        expiring.get(server.urlOf(tile))
+        assertEquals(3, server.requests.get())
+    }
+
+    @Test
+    fun unreachableServerServesTheExpiredCopy() {
+        server.maxAgeSeconds = 0
+        val cache = TileCache(tmp.root)
+        val other = TileKey(12, 2931, 1899)
+        val bytes = cache.get(server.urlOf(tile))
+        server.close()
+
+        assertArrayEquals(bytes, cache.get(server.urlOf(tile)))
+        assertNull(cache.get(server.urlOf(other)))
+
+        val metrics = cache.metrics()
+        assertEquals(1L, metrics.counts[TileOrigin.Stale])
+        assertEquals(1L, metrics.misses)
+    }
+
+    @Test
+    fun missingTileIsAMiss() {
+        server.absent = { it == tile }
+        val cache = TileCache(tmp.root)
+        assertNull(cache.get(server.urlOf(tile)))
+        assertEquals(1L, cache.metrics().misses)
+        assertEquals(0L, cache.metrics().diskBytes)
+    }
+
+    @Test
+    fun diskTierDropsLeastRecentlyUsedFirst() {
+        server.maxAgeSeconds = 3600
+        // Room for three of the ~1.1 KB tile files
+        val cache = TileCache(tmp.root, maxBytes = 3_500)
+        val tiles = (0 until 4).map { TileKey(12, 100 + it, 200) }
+        tiles.take(3).forEach { cache.get(server.urlOf(it)) }
+        // Use the oldest again, so the second is now least recently used
+        cache.get(server.urlOf(tiles[0]))
+        cache.get(server.urlOf(tiles[3]))
+        assertTrue(cache.metrics().diskBytes <= 3_500)
+
+        server.requests.set(0)
+        cache.get(server.urlOf(tiles[0]))
+        cache.get(server.urlOf(tiles[2]))
+        cache.get(server.urlOf(tiles[3]))
+        assertEquals(0, server.requests.get())
+        cache.get(server.urlOf(tiles[1]))
+        assertEquals(1, server.requests.get())
+    }
+
+    @Test
+    fun reopenedCacheKeepsItsTiles() {
+        server.maxAgeSeconds = 3600
+        val first = TileCache(tmp.root)
+        first.get(server.urlOf(tile))
+        val size = first.metrics().diskBytes
+
+        val reopened = TileCache(tmp.root)
+        assertEquals(size, reopened.metrics().diskBytes)
+        assertArrayEquals(server.bytes(tile), reopened.get(server.urlOf(tile)))
+        assertEquals(1, server.requests.get())
+    }
+
+    @Test
+    fun connectionsToOneServerAreCappedAndReused() {
+        server.delayMs = 20
+        val cache = TileCache(tmp.root, maxConnectionsPerHost = 2)
+        val tiles = (0 until 24).map { TileKey(12, 2930 + it, 1899) }
+
+        val threads = tiles.chunked(3).map { chunk ->
+            Thread { chunk.forEach { assertNotNull(cache.get(server.urlOf(it))) } }.apply { start() }
+        }
+        threads.forEach { it.join() }
+
+        assertEquals(24L, cache.metrics().counts[TileOrigin.Network])
+        assertEquals(2, server.peakInFlight.get())
+        // Two sockets kept alive, not one per tile or per thread
+        assertTrue("${server.remotePorts.size} connections", server.remotePorts.size <= 2)
+    }
+
+    @Test
+    fun renderedTileIsMadeOnceAndKept() {
+        var renders = 0
+        val render = { renders++; ByteArray(500) { it.toByte() } }
+        val cache = TileCache(tmp.root)
+
+        val made = cache.getOrCreate("vector/style-a/12/2930/1899", render)
+        assertArrayEquals(made, cache.getOrCreate("vector/style-a/12/2930/1899", render))
+        assertArrayEquals(made, TileCache(tmp.root).getOrCreate("vector/style-a/12/2930/1899", render))
+        assertEquals(1, renders)
+        // Another style is another tile
+        cache.getOrCreate("vector/style-b/12/2930/1899", render)
+        assertEquals(2, renders)
+
+        val metrics = cache.metrics()
+        assertEquals(2L, metrics.counts[TileOrigin.Rendered])
+        assertEquals(1L, metrics.counts[TileOrigin.Disk])
+        assertEquals(1.0 / 3, metrics.hitRate, 1e-9)
+    }
+
+    @Test
+    fun failedRenderIsAMissAndNotStored() {
+        val cache = TileCache(tmp.root)
+        assertNull(cache.getOrCreate("vector/style-a/3/1/1") { null })
+        assertEquals(1L, cache.metrics().misses)
+        assertEquals(0L, cache.metrics().diskBytes)
+    }
+}
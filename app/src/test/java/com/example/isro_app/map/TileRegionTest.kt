@@ -0,0 +1,63 @@
+package com.example.isro_app.map
+
+import org.junit.Assert.*
+import org.junit.Test
+
+class TileRegionTest {
+
+    @Test
+    fun tileNumbersMatchTheSlippyMapScheme() {
+        // Bengaluru at zoom 12, as the LAN server lays out tiles/12/x/y.png
+        assertEquals(2930, TileRegion.tileX(77.59, 12))
+        assertEquals(1899, TileRegion.tileY(12.97, 12))
+        assertEquals(0, TileRegion.tileX(-180.0, 3))
+        assertEquals(7, TileRegion.tileX(180.0, 3))
+        assertEquals(7, TileRegion.tileY(-89.0, 3))
+        assertEquals(77.59, TileRegion.tileLon(2930, 12), 0.1)
+        assertTrue(TileRegion.tileLat(1899, 12) > 12.97 && TileRegion.tileLat(1900, 12) <= 12.97)
+    }
+
+    @Test
+    fun boxCountMatchesItsTiles() {
+        val box = TileRegion.Box(12.8, 77.4, 13.1, 77.8)
+        for (zoom in 8..14) assertEquals(box.tiles(zoom).count().toLong(), box.count(zoom))
+        assertEquals(box.tiles(8..14).toSet().size.toLong(), box.count(8..14))
+        assertTrue(box.tiles(8..14).map { it.zoom }.zipWithNext().all { (a, b) -> a <= b })
+    }
+
+    @Test
+    fun boxAcrossTheAntimeridianWraps() {
+        val box = TileRegion.Box(-10.0, 170.0, 10.0, -170.0)
+        val columns = box.tiles(4).map { it.x }.toSet()
+        assertEquals(setOf(0, 15), columns)
+    }
+
+    @Test
+    fun polygonSkipsTilesOutsideIt() {
+        // A triangle covering half of its bounding box
+        val triangle = TileRegion.Polygon(listOf(0.0 to 0.0, 0.0 to 10.0, 10.0 to 0.0))
+        val box = TileRegion.Box(0.0, 0.0, 10.0, 10.0)
+        val inTriangle = triangle.tiles(10).toSet()
+        val inBox = box.tiles(10).toSet()
+
+        assertTrue(inBox.containsAll(inTriangle))
+        assertTrue(inTriangle.size < inBox.size * 0.6)
+        // The right-angle corner and the hypotenuse are kept, the far corner is not
+        assertTrue(TileKey(10, TileRegion.tileX(0.01, 10), TileRegion.tileY(0.01, 10)) in inTriangle)
+        assertTrue(TileKey(10, TileRegion.tileX(5.0, 10), TileRegion.tileY(5.0, 10)) in inTriangle)
+        assertFalse(TileKey(10, TileRegion.tileX(9.9, 10), TileRegion.tileY(9.9, 10)) in inTriangle)
+    }
+
+    @Test
+    fun smallPolygonInsideOneTileIsKept() {
+        val tiny = TileRegion.Polygon(listOf(12.970 to 77.590, 12.971 to 77.590, 12.971 to 77.591))
+        assertEquals(listOf(TileKey(12, 2930, 1899)), tiny.tiles(12).toList())
+    }
+
+    @Test
+    fun packedKeysRoundTrip() {
+        listOf(TileKey(0, 0, 0), TileKey(14, 16383, 9999), TileKey(22, 4_194_303, 4_194_303)).forEach {
+            assertEquals(it, TileKey.unpack(it.packed()))
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.example.isro_app.map
+
+import org.junit.Assert.*
+import org.junit.Test
+
+class TileSchedulerTest {
+
+    private var now = 0L
+    private val scheduler = TileScheduler(margin = 1, clock = { now })
+
+    @Test
+    fun centerTilesComeFirstAndOffScreenOnesAreDropped() {
+        // 5 x 3 tiles, centered on tile (102, 51)
+        scheduler.setViewport(10, 100, 50, 104, 52)
+
+        val center = scheduler.distance(10, 102, 51)!!
+        val edge = scheduler.distance(10, 100, 50)!!
+        val margin = scheduler.distance(10, 105, 51)!!
+        assertEquals(0.0, center, 0.0)
+        assertTrue(center < edge && edge < margin)
+
+        assertNull(scheduler.distance(10, 106, 51))
+        assertNull(scheduler.distance(10, 102, 54))
+        // Same place, another zoom: left over from before a zoom gesture
+        assertNull(scheduler.distance(11, 204, 102))
+    }
+
+    @Test
+    fun everythingIsWantedBeforeTheFirstViewport() {
+        assertNotNull(scheduler.distance(3, 0, 0))
+        assertNotNull(scheduler.distance(14, 9000, 6000))
+    }
+
+    @Test
+    fun viewportAcrossTheAntimeridianWantsBothEdges() {
+        // Zoom 3 is 8 tiles wide; x runs past the world edge when the map wraps
+        scheduler.setViewport(3, 6, 2, 9, 3)
+
+        assertNotNull(scheduler.distance(3, 7, 2))
+        assertNotNull(scheduler.distance(3, 1, 2))
+        assertNull(scheduler.distance(3, 4, 2))
+    }
+
+    @Test
+    fun fillTimeRunsFromViewportChangeToDrainedQueue() {
+        scheduler.setViewport(10, 0, 0, 3, 3)
+        now += 10_000_000
+        scheduler.picked()
+        now += 110_000_000
+        assertEquals(120_000_000L, scheduler.drained())
+        // Counted once
+        assertNull(scheduler.drained())
+
+        // Everything cached: nothing to measure
+        scheduler.setViewport(10, 1, 0, 4, 3)
+        assertNull(scheduler.drained())
+
+        scheduler.setViewport(10, 2, 0, 5, 3)
+        scheduler.picked()
+        scheduler.failed()
+        assertNull(scheduler.drained())
+
+        scheduler.setViewport(10, 3, 0, 6, 3)
+        scheduler.picked()
+        scheduler.setViewport(10, 4, 0, 7, 3)
+        scheduler.cancelled(6)
+
+        val metrics = scheduler.metrics()
+        assertEquals(1L, metrics.viewports)
+        assertEquals(120.0, metrics.lastMillis, 1e-9)
+        assertEquals(1L, metrics.incomplete)
+        assertEquals(1L, metrics.superseded)
+        assertEquals(6L, metrics.cancelledTiles)
+    }
+
+    @Test
+    fun sameViewportAgainKeepsTheClockRunning() {
+        scheduler.setViewport(10, 0, 0, 3, 3)
+        scheduler.picked()
+        now += 50_000_000
+        scheduler.setViewport(10, 0, 0, 3, 3)
+        now += 50_000_000
+        assertEquals(100_000_000L, scheduler.drained())
+    }
+
+    @Test
+    fun quickPanOrZoomShowsTheCenterFirst() {
+        // Fling: 3 tiles right every frame for 20 frames, then stop
+        val fling = (0..20).map { View(it * 16L, 14, 1000 + it * 3, 500) }
+        // Pinch from zoom 11 to 15 around one spot, a level every 48 ms
+        val pinch = (0..4).map { z -> View(z * 48L, 11 + z, ((1004 shl z) shr 4) - 4, ((502 shl z) shr 4) - 2) }
+
+        for ((name, views) in listOf("fling" to fling, "pinch" to pinch)) {
+            val newestFirst = simulate(views, useScheduler = false)
+            val scheduled = simulate(views, useScheduler = true)
+            println("$name: newest first $newestFirst, scheduled $scheduled")
+
+            assertTrue(name, scheduled.centerMs * 2 < newestFirst.centerMs)
+            assertTrue(name, scheduled.fullMs <= newestFirst.fullMs)
+            assertTrue(name, scheduled.downloads <= newestFirst.downloads)
+        }
+    }
+
+    private data class Tile(val zoom: Int, val x: Int, val y: Int)
+
+    /** An 8 x 5 tile screen showing [left], [top] onwards from [at] ms */
+    private data class View(val at: Long, val zoom: Int, val left: Int, val top: Int)
+
+    private data class Outcome(val centerMs: Long, val fullMs: Long, val downloads: Int)
+
+    /**
+     * The map moving through [views] over a link with 4 connections and 40 ms per
+     * tile. Every 16 ms frame it asks for missing visible tiles, into a 40-entry queue
+     * that drops its eldest as osmdroid's does; loaders take the newest queued tile,
+     * or the one [TileScheduler] picks. Times are from the last view, downloads are
+     * counted until the queue is empty.
+     */
+    private fun simulate(views: List<View>, useScheduler: Boolean): Outcome {
+        val local = TileScheduler(clock = { 0 })
+        val loaded = HashSet<Tile>()
+        val queue = LinkedHashSet<Tile>()
+        val working = HashMap<Tile, Long>()
+        var view = views[0]
+        var downloads = 0
+        var centerMs = -1L
+        var fullMs = -1L
+
+        fun visible() = (view.left until view.left + 8).flatMap { x -> (view.top until view.top + 5).map { y -> Tile(view.zoom, x, y) } }
+
+        for (t in 0L until 10_000L) {
+            views.firstOrNull { it.at == t }?.let {
+                view = it
+                local.setViewport(it.zoom, it.left, it.top, it.left + 7, it.top + 4)
+            }
+            working.entries.removeIf { (tile, done) -> (done <= t).also { if (it) loaded.add(tile) } }
+            if (view == views.last()) {
+                if (centerMs < 0 && Tile(view.zoom, view.left + 3, view.top + 2) in loaded) centerMs = t - view.at
+                if (fullMs < 0 && visible().all { it in loaded }) fullMs = t - view.at
+                if (fullMs >= 0 && working.isEmpty() && queue.isEmpty()) return Outcome(centerMs, fullMs, downloads)
+            }
+            if (t % 16 == 0L) {
+                visible().filter { it !in loaded && it !in working && it !in queue }.forEach {
+                    queue.add(it)
+                    if (queue.size > 40) queue.remove(queue.first())
+                }
+            }
+            while (working.size < 4) {
+                val next = if (useScheduler) {
+                    queue.removeIf { local.distance(it.zoom, it.x, it.y) == null }
+                    queue.minByOrNull { local.distance(it.zoom, it.x, it.y)!! }
+                } else {
+                    queue.lastOrNull()
+                } ?: break
+                queue.remove(next)
+                working[next] = t + 40
+                downloads++
+            }
+        }
+        fail("map never filled")
+        return Outcome(0, 0, 0)
+    }
+}
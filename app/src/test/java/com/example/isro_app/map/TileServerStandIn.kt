@@ -0,0 +1,120 @@
+package com.example.isro_app.map
+
+import com.sun.net.httpserver.HttpServer
+import java.io.Closeable
+import java.net.InetAddress
+import java.net.InetSocketAddress
+import java.text.SimpleDateFormat
+import java.util.Date
+import java.util.Locale
+import java.util.TimeZone
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * In-process copy of tile_server.py (README, section 4.2) for JVM tests.
+ *
+ * Serves /tiles/z/x/y.png with an ETag and Last-Modified per tile and answers
+ * matching If-None-Match / If-Modified-Since with 304. Every tile has generated
+ * content until [update] gives it a new version. [absent] tiles are 404, [broken]
+ * ones 500; [log] records every request. [delayMs] slows every response down, and
+ * [peakInFlight] is the most requests it was ever answering at once.
+ */
+class TileServerStandIn : Closeable {
+
+    /** One request: the tile, whether it carried validators, and the status sent */
+    data class Request(val tile: TileKey, val conditional: Boolean, val status: Int)
+
+    private val server = HttpServer.create(InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0)
+    val url = "http://127.0.0.1:${server.address.port}/tiles/"
+
+    val requests = AtomicInteger()
+    val log: MutableList<Request> = java.util.Collections.synchronizedList(ArrayList())
+    // Client ports seen, i.e. distinct TCP connections
+    val remotePorts: MutableSet<Int> = ConcurrentHashMap.newKeySet()
+
+    @Volatile
+    var absent: (TileKey) -> Boolean = { false }
+    @Volatile
+    var broken: (TileKey) -> Boolean = { false }
+    // Cache-Control max-age to send; null sends none
+    @Volatile
+    var maxAgeSeconds: Int? = null
+    @Volatile
+    var delayMs = 0L
+
+    private val inFlight = AtomicInteger()
+    val peakInFlight = AtomicInteger()
+
+    private val versions = ConcurrentHashMap<TileKey, Int>()
+    // Whole seconds, as HTTP dates have no finer resolution
+    private val startedAt = System.currentTimeMillis() / 1000 * 1000
+
+    private val executor = Executors.newFixedThreadPool(8)
+    private val closed = AtomicBoolean()
+
+    init {
+        server.executor = executor
+        server.createContext("/tiles/") { exchange ->
+            requests.incrementAndGet()
+            remotePorts.add(exchange.remoteAddress.port)
+            peakInFlight.accumulateAndGet(inFlight.incrementAndGet(), ::maxOf)
+            if (delayMs > 0) Thread.sleep(delayMs)
+            val (z, x, y) = exchange.requestURI.path.removePrefix("/tiles/").removeSuffix(".png").split('/').map { it.toInt() }
+            val tile = TileKey(z, x, y)
+            val ifNoneMatch = exchange.requestHeaders.getFirst("If-None-Match")
+            val ifModifiedSince = exchange.requestHeaders.getFirst("If-Modified-Since")
+            val status = when {
+                absent(tile) -> 404
+                broken(tile) -> 500
+                ifNoneMatch != null && ifNoneMatch == etag(tile) -> 304
+                ifNoneMatch == null && ifModifiedSince != null &&
+                    httpDate().parse(ifModifiedSince).time >= lastModified(tile) -> 304
+                else -> 200
+            }
+            log.add(Request(tile, ifNoneMatch != null || ifModifiedSince != null, status))
+            if (status == 200 || status == 304) {
+                exchange.responseHeaders.add("ETag", etag(tile))
+                exchange.responseHeaders.add("Last-Modified", httpDate().format(Date(lastModified(tile))))
+                maxAgeSeconds?.let { exchange.responseHeaders.add("Cache-Control", "max-age=$it") }
+            }
+            if (status == 200) {
+                val body = bytes(tile)
+                exchange.sendResponseHeaders(200, body.size.toLong())
+                exchange.responseBody.write(body)
+            } else {
+                exchange.sendResponseHeaders(status, -1)
+            }
+            inFlight.decrementAndGet()
+            exchange.close()
+        }
+        server.start()
+    }
+
+    fun urlOf(tile: TileKey) = "$url${tile.zoom}/${tile.x}/${tile.y}.png"
+
+    /** Current content of [tile], about 1 KB */
+    fun bytes(tile: TileKey): ByteArray = "$tile v${versions[tile] ?: 0}".toByteArray().copyOf(1000 + tile.x % 7)
+
+    /** Give [tile] new content, a new ETag and a later Last-Modified */
+    fun update(tile: TileKey) {
+        versions.merge(tile, 1, Int::plus)
+    }
+
+    private fun etag(tile: TileKey) = "\"${tile.zoom}-${tile.x}-${tile.y}-${versions[tile] ?: 0}\""
+
+    private fun lastModified(tile: TileKey) = startedAt + (versions[tile] ?: 0) * 60_000L
+
+    private fun httpDate() = SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US).apply {
+        timeZone = TimeZone.getTimeZone("GMT")
+    }
+
+    /** Stop answering; safe to call again */
+    override fun close() {
+        if (!closed.compareAndSet(false, true)) return
+        server.stop(0)
+        executor.shutdown()
+    }
+}
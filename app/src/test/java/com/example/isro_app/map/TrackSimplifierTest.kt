@@ -0,0 +1,97 @@
+package com.example.isro_app.map
+
+import org.junit.Assert.*
+import org.junit.Test
+import kotlin.math.sin
+import kotlin.random.Random
+
+class TrackSimplifierTest {
+
+    @Test
+    fun straightLineKeepsOnlyItsEnds() {
+        val xs = DoubleArray(100) { it.toDouble() }
+        val ys = DoubleArray(100) { it * 0.5 }
+        assertArrayEquals(intArrayOf(0, 99), TrackSimplifier.simplify(xs, ys, 100, 0.01))
+    }
+
+    @Test
+    fun cornersSurviveAndNoiseDoesNot() {
+        // An L: along x to (10, 0), then up to (10, 10), with 0.05 of wobble
+        val xs = DoubleArray(21) { if (it <= 10) it.toDouble() else 10.0 }
+        val ys = DoubleArray(21) { (if (it <= 10) 0.0 else (it - 10).toDouble()) + if (it % 2 == 1) 0.05 else 0.0 }
+
+        assertArrayEquals(intArrayOf(0, 10, 20), TrackSimplifier.simplify(xs, ys, 21, 0.5))
+        // Below the wobble it is kept
+        assertTrue(TrackSimplifier.simplify(xs, ys, 21, 0.01).size > 10)
+    }
+
+    @Test
+    fun onlyTheFirstSizePointsAreUsed() {
+        val xs = doubleArrayOf(0.0, 1.0, 2.0, 50.0)
+        val ys = doubleArrayOf(0.0, 5.0, 0.0, 50.0)
+        assertArrayEquals(intArrayOf(0, 1, 2), TrackSimplifier.simplify(xs, ys, 3, 0.1))
+        assertArrayEquals(intArrayOf(0), TrackSimplifier.simplify(xs, ys, 1, 0.1))
+        assertArrayEquals(intArrayOf(), TrackSimplifier.simplify(xs, ys, 0, 0.1))
+    }
+
+    @Test
+    fun keptPointsStayWithinTheTolerance() {
+        val random = Random(7)
+        val n = 2048
+        val xs = DoubleArray(n) { it * 0.01 }
+        val ys = DoubleArray(n) { sin(it * 0.01) + random.nextDouble(-0.001, 0.001) }
+        val tolerance = 0.01
+        val kept = TrackSimplifier.simplify(xs, ys, n, tolerance)
+
+        assertTrue("kept ${kept.size} of $n", kept.size < n / 10)
+        // Every dropped point is close to the segment that replaced it
+        for (k in 0 until kept.size - 1) {
+            val a = kept[k]
+            val b = kept[k + 1]
+            for (i in a + 1 until b) {
+                val t = (xs[i] - xs[a]) / (xs[b] - xs[a])
+                val y = ys[a] + t * (ys[b] - ys[a])
+                assertTrue(Math.abs(ys[i] - y) <= tolerance * 1.5)
+            }
+        }
+    }
+
+    @Test
+    fun fleetOfFullTracksSimplifiesInAFewFrames() {
+        // 1000 vehicles with full 2048-fix rings: about 30 m between fixes, slowly
+        // turning, with 5 m of GPS noise (world units, 1 = 40 000 km)
+        val random = Random(1)
+        val n = 2048
+        val step = 30.0 / 4e7
+        val noise = 5.0 / 4e7
+        val tracks = List(1000) {
+            var x = random.nextDouble()
+            var y = random.nextDouble()
+            var heading = random.nextDouble(0.0, 2 * Math.PI)
+            val xs = DoubleArray(n)
+            val ys = DoubleArray(n)
+            for (i in 0 until n) {
+                heading += random.nextDouble(-0.1, 0.1)
+                x += step * Math.cos(heading)
+                y += step * sin(heading)
+                xs[i] = x + random.nextDouble(-noise, noise)
+                ys[i] = y + random.nextDouble(-noise, noise)
+            }
+            xs to ys
+        }
+        // 1.5 px at zoom 12 in world units
+        val tolerance = 1.5 / (256.0 * (1 shl 12))
+
+        // Warm up, then time one full pass, as after a zoom change with nothing cached
+        tracks.take(100).forEach { (xs, ys) -> TrackSimplifier.simplify(xs, ys, n, tolerance) }
+        var points = 0
+        val start = System.nanoTime()
+        tracks.forEach { (xs, ys) -> points += TrackSimplifier.simplify(xs, ys, n, tolerance).size }
+        val millis = (System.nanoTime() - start) / 1e6
+
+        println("Simplified ${tracks.size} x $n fixes to $points points in %.1f ms".format(millis))
+        assertTrue("kept $points", points < tracks.size * n / 5)
+        // Wall-clock, so only asserted when benchmarking
+        if (System.getProperty("benchmark") == "true") assertTrue("took $millis ms", millis < 2_000)
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.isro_app.mqtt
+
+import org.json.JSONObject
+import org.junit.Assert.*
+import org.junit.Test
+
+class CallSignalTest {
+
+    @Test
+    fun roundTripsEveryType() {
+        for (type in CallSignal.Type.values()) {
+            val signal = CallSignal(type, from = "dev-a", callId = "c0ffee12", sentAt = 1_700_000_000_123L)
+            assertEquals(signal, CallSignal.decode(signal.encode()))
+        }
+    }
+
+    @Test
+    fun acceptCarriesCalleeTimings() {
+        val accept = CallSignal(CallSignal.Type.Accept, "dev-b", "c1", 42L, ringMs = 15, answerMs = 2300)
+        assertEquals("A|dev-b|c1|42|15|2300", String(accept.encode()))
+        val decoded = CallSignal.decode(accept.encode())!!
+        assertEquals(15L, decoded.ringMs)
+        assertEquals(2300L, decoded.answerMs)
+    }
+
+    @Test
+    fun timingsAreOnlySentWithAccept() {
+        val request = CallSignal(CallSignal.Type.Request, "dev-a", "c1", 42L, ringMs = 15, answerMs = 2300)
+        assertEquals("R|dev-a|c1|42", String(request.encode()))
+        assertEquals(-1L, CallSignal.decode(request.encode())!!.ringMs)
+    }
+
+    @Test
+    fun emptyCallIdSurvives() {
+        val end = CallSignal(CallSignal.Type.End, "dev-a", "", 7L)
+        assertEquals(end, CallSignal.decode(end.encode()))
+    }
+
+    @Test
+    fun malformedPayloadsDecodeToNull() {
+        listOf(
+            "",
+            "R|dev-a|c1",
+            "X|dev-a|c1|42",
+            "RR|dev-a|c1|42",
+            "R|dev-a|c1|soon",
+            "{\"type\":\"CALL_REQUEST\",\"from\":\"dev-a\"}"
+        ).forEach { assertNull(it, CallSignal.decode(it.toByteArray())) }
+    }
+
+    @Test
+    fun legacyFormMatchesOldInboxMessages() {
+        val json = JSONObject(String(CallSignal(CallSignal.Type.Reject, "dev-a", "c1", 42L).encodeLegacy("dev-b")))
+        assertEquals("CALL_REJECT", json.getString("type"))
+        assertEquals("dev-a", json.getString("from"))
+        assertEquals("dev-b", json.getString("to"))
+        assertEquals("c1", json.getString(CallSignal.LEGACY_CALL_ID))
+    }
+
+    @Test
+    fun topicIsPerDevice() {
+        assertEquals("call/dev-b", CallSignal.topicFor("dev-b"))
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.isro_app.mqtt
+
+import org.junit.Assert.*
+import org.junit.Test
+
+class ChatSequencerTest {
+
+    private val sequencer = ChatSequencer(reorderWindow = 8, holdMs = 1000)
+
+    private fun chat(seq: Long, epoch: Long = 1L, from: String = "alice") =
+        ChatEnvelope(id = "$from-$epoch-$seq", from = from, seq = seq, epoch = epoch, sentAt = 0L, text = "m$seq")
+
+    private fun accept(seq: Long, epoch: Long = 1L, now: Long = 0L, from: String = "alice") =
+        sequencer.accept(chat(seq, epoch, from), now).map { it.seq }
+
+    @Test
+    fun inOrderIsDeliveredAtOnce() {
+        for (seq in 1L..5L) assertEquals(listOf(seq), accept(seq))
+        assertFalse(sequencer.hasHeld)
+    }
+
+    @Test
+    fun duplicatesAreDropped() {
+        assertEquals(listOf(1L), accept(1))
+        assertEquals(listOf(2L), accept(2))
+        assertEquals(emptyList<Long>(), accept(2))
+        assertEquals(emptyList<Long>(), accept(1))
+        assertEquals(listOf(3L), accept(3))
+    }
+
+    @Test
+    fun duplicateOfHeldMessageIsDropped() {
+        accept(1)
+        assertEquals(emptyList<Long>(), accept(3))
+        assertEquals(emptyList<Long>(), accept(3))
+        assertEquals(listOf(2L, 3L), accept(2))
+    }
+
+    @Test
+    fun streamsAreIndependent() {
+        assertEquals(listOf(1L), accept(1, from = "alice"))
+        assertEquals(listOf(1L), accept(1, from = "bob"))
+    }
+
+    @Test
+    fun gapIsHeldUntilItFills() {
+        accept(1)
+        assertEquals(emptyList<Long>(), accept(3))
+        assertEquals(emptyList<Long>(), accept(4))
+        assertTrue(sequencer.hasHeld)
+        assertEquals(listOf(2L, 3L, 4L), accept(2))
+        assertFalse(sequencer.hasHeld)
+    }
+
+    @Test
+    fun gapIsSkippedAfterHoldTime() {
+        accept(1, now = 0)
+        accept(3, now = 100)
+        accept(4, now = 200)
+        assertEquals(emptyList<ChatEnvelope>(), sequencer.flushExpired(1099))
+        assertEquals(listOf(3L, 4L), sequencer.flushExpired(1100).map { it.seq })
+        assertFalse(sequencer.hasHeld)
+
+        // The missing message still gets through when it finally turns up, once
+        assertEquals(listOf(2L), accept(2, now = 1200))
+        assertEquals(emptyList<Long>(), accept(2, now = 1300))
+        assertEquals(listOf(5L), accept(5, now = 1400))
+    }
+
+    @Test
+    fun gapIsSkippedWhenMoreThanReorderWindowAreHeld() {
+        accept(1)
+        for (seq in 3L..10L) assertEquals(emptyList<Long>(), accept(seq))
+        // The ninth held message overflows the window of 8
+        assertEquals((3L..11L).toList(), accept(11))
+        assertFalse(sequencer.hasHeld)
+        assertEquals(listOf(2L), accept(2))
+    }
+
+    @Test
+    fun messagesOlderThanTheDedupeWindowAreDropped() {
+        accept(1)
+        for (seq in 3L..70L) accept(seq)
+        sequencer.flushExpired(Long.MAX_VALUE)
+        // seq 2 never arrived but is now more than 64 behind the highest
+        assertEquals(emptyList<Long>(), accept(2))
+        assertEquals(listOf(71L), accept(71))
+    }
+
+    @Test
+    fun newEpochReleasesHeldAndRestartsSequence() {
+        accept(1, epoch = 1)
+        accept(3, epoch = 1)
+        assertTrue(sequencer.hasHeld)
+        // Sender restarted and counts from 1 again
+        assertEquals(listOf(3L, 1L), accept(1, epoch = 2))
+        assertFalse(sequencer.hasHeld)
+        assertEquals(listOf(2L), accept(2, epoch = 2))
+    }
+
+    @Test
+    fun previousEpochStragglersAreDeduped() {
+        accept(1, epoch = 1)
+        accept(2, epoch = 1)
+        accept(1, epoch = 2)
+
+        // Redelivered from the old session: already seen
+        assertEquals(emptyList<Long>(), accept(2, epoch = 1))
+        // Late but new from the old session: delivered once, without waiting
+        assertEquals(listOf(4L), accept(4, epoch = 1))
+        assertEquals(emptyList<Long>(), accept(4, epoch = 1))
+        assertFalse(sequencer.hasHeld)
+        assertEquals(listOf(2L), accept(2, epoch = 2))
+    }
+
+    @Test
+    fun stragglersFromOlderEpochsAreDropped() {
+        accept(1, epoch = 1)
+        accept(1, epoch = 2)
+        accept(1, epoch = 3)
+        assertEquals(emptyList<Long>(), accept(5, epoch = 1))
+        assertEquals(listOf(5L), accept(5, epoch = 2))
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.isro_app.mqtt
+
+import java.io.Closeable
+import java.io.InputStream
+import java.io.OutputStream
+import java.net.InetAddress
+import java.net.ServerSocket
+import java.net.Socket
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.concurrent.thread
+
+/**
+ * TCP pass-through in front of a broker that counts bytes in each direction,
+ * i.e. what a handset would spend on its uplink and downlink. [cut] and [restore]
+ * take the link down and up again, as when a handset loses coverage.
+ */
+class CountingProxy(private val targetPort: Int) : Closeable {
+
+    private val server = ServerSocket(0, 50, InetAddress.getLoopbackAddress())
+    val uri: String = "tcp://127.0.0.1:${server.localPort}"
+
+    val uplinkBytes = AtomicLong()
+    val downlinkBytes = AtomicLong()
+
+    private val sockets = mutableListOf<Socket>()
+
+    @Volatile
+    private var refusing = false
+
+    init {
+        thread(isDaemon = true, name = "counting-proxy") {
+            while (!server.isClosed) {
+                val client = try {
+                    server.accept()
+                } catch (_: Exception) {
+                    break
+                }
+                if (refusing) {
+                    client.close()
+                    continue
+                }
+                val upstream = Socket(InetAddress.getLoopbackAddress(), targetPort)
+                synchronized(sockets) { sockets += listOf(client, upstream) }
+                pipe(client.getInputStream(), upstream.getOutputStream(), uplinkBytes)
+                pipe(upstream.getInputStream(), client.getOutputStream(), downlinkBytes)
+            }
+        }
+    }
+
+    private fun pipe(input: InputStream, output: OutputStream, counter: AtomicLong) {
+        thread(isDaemon = true) {
+            val buffer = ByteArray(8192)
+            try {
+                while (true) {
+                    val n = input.read(buffer)
+                    if (n < 0) break
+                    counter.addAndGet(n.toLong())
+                    output.write(buffer, 0, n)
+                    output.flush()
+                }
+            } catch (_: Exception) {
+            } finally {
+                try {
+                    output.close()
+                } catch (_: Exception) {}
+            }
+        }
+    }
+
+    /** Drop every open connection and refuse new ones until [restore] */
+    fun cut() {
+        refusing = true
+        synchronized(sockets) {
+            sockets.forEach { it.close() }
+            sockets.clear()
+        }
+    }
+
+    fun restore() {
+        refusing = false
+    }
+
+    override fun close() {
+        server.close()
+        synchronized(sockets) { sockets.forEach { it.close() } }
+    }
+}
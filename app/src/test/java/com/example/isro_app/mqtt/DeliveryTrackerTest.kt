@@ -0,0 +1,114 @@
+package com.example.isro_app.mqtt
+
+import org.junit.Assert.*
+import org.junit.Test
+
+class DeliveryTrackerTest {
+
+    private var nowMs = 0L
+    private val tracker = DeliveryTracker(clock = { nowMs })
+
+    private fun state(id: String) = tracker.states.value[id]
+
+    @Test
+    fun movesThroughPendingSentDelivered() {
+        tracker.onCreated("m1")
+        assertEquals(DeliveryState.Pending, state("m1"))
+        tracker.onPublishing("m1")
+        tracker.onSent("m1")
+        assertEquals(DeliveryState.Sent, state("m1"))
+        tracker.onDelivered(listOf("m1"))
+        assertEquals(DeliveryState.Delivered, state("m1"))
+    }
+
+    @Test
+    fun brokerLatencyStartsAtThePublishNotAtCreation() {
+        tracker.onCreated("m1")
+        // Sat in the offline queue for a minute
+        nowMs = 60_000
+        tracker.onPublishing("m1")
+        nowMs = 60_040
+        tracker.onSent("m1")
+
+        assertEquals(1L, tracker.brokerLatency.count)
+        assertEquals(50L, tracker.brokerLatency.percentile(0.5))
+    }
+
+    @Test
+    fun retriedPublishRestartsTheClock() {
+        tracker.onCreated("m1")
+        tracker.onPublishing("m1")
+        // That publish failed; the drain tries again much later
+        nowMs = 30_000
+        tracker.onPublishing("m1")
+        nowMs = 30_008
+        tracker.onSent("m1")
+        assertEquals(10L, tracker.brokerLatency.percentile(0.5))
+    }
+
+    @Test
+    fun deliveryLatencyIsFromCreation() {
+        tracker.onCreated("m1")
+        nowMs = 400
+        tracker.onPublishing("m1")
+        tracker.onSent("m1")
+        nowMs = 900
+        tracker.onDelivered(listOf("m1"))
+        assertEquals(1000L, tracker.deliveryLatency.percentile(0.5))
+    }
+
+    @Test
+    fun receiptOvertakingPubackStaysDelivered() {
+        tracker.onCreated("m1")
+        tracker.onPublishing("m1")
+        tracker.onDelivered(listOf("m1"))
+        tracker.onSent("m1")
+        assertEquals(DeliveryState.Delivered, state("m1"))
+        assertEquals(0L, tracker.brokerLatency.count)
+    }
+
+    @Test
+    fun unknownAndRepeatedReceiptsAreIgnored() {
+        tracker.onCreated("m1")
+        tracker.onDelivered(listOf("m1", "other"))
+        tracker.onDelivered(listOf("m1"))
+        assertNull(state("other"))
+        assertEquals(1L, tracker.deliveryLatency.count)
+    }
+
+    @Test
+    fun failedMessageIsNotSentLater() {
+        tracker.onCreated("m1")
+        tracker.onPublishing("m1")
+        tracker.onFailed("m1")
+        tracker.onSent("m1")
+        assertEquals(DeliveryState.Failed, state("m1"))
+        assertEquals(0L, tracker.brokerLatency.count)
+    }
+
+    @Test
+    fun oldestFinishedEntriesAreTrimmedButPendingOnesKept() {
+        tracker.onCreated("pending")
+        for (i in 0 until 600) {
+            tracker.onCreated("m$i")
+            tracker.onDelivered(listOf("m$i"))
+        }
+        val states = tracker.states.value
+        assertEquals(500, states.size)
+        assertEquals(DeliveryState.Pending, states["pending"])
+        assertNull(states["m0"])
+        assertEquals(DeliveryState.Delivered, states["m599"])
+    }
+
+    @Test
+    fun histogramPercentilesUseBucketBounds() {
+        val histogram = LatencyHistogram()
+        assertEquals(-1L, histogram.percentile(0.5))
+        repeat(90) { histogram.record(5) }
+        repeat(10) { histogram.record(20_000) }
+        assertEquals(100L, histogram.count)
+        assertEquals(10L, histogram.percentile(0.5))
+        assertEquals(10L, histogram.percentile(0.9))
+        assertEquals(Long.MAX_VALUE, histogram.percentile(0.95))
+    }
+}
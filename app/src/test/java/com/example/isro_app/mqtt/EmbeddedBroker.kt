@@ -0,0 +1,33 @@
+package com.example.isro_app.mqtt
+
+import io.moquette.broker.Server
+import io.moquette.broker.config.MemoryConfig
+import java.io.Closeable
+import java.net.ServerSocket
+import java.util.Properties
+
+/**
+ * In-process MQTT 3.1.1 broker (Moquette) standing in for the LAN Mosquitto.
+ * Binds to a free loopback port; nothing is written to disk.
+ */
+class EmbeddedBroker : Closeable {
+
+    val port: Int = ServerSocket(0).use { it.localPort }
+    val uri: String = "tcp://127.0.0.1:$port"
+
+    private val server = Server()
+
+    init {
+        server.startServer(MemoryConfig(Properties().apply {
+            setProperty("host", "127.0.0.1")
+            setProperty("port", port.toString())
+            setProperty("websocket_port", "disabled")
+            setProperty("allow_anonymous", "true")
+            setProperty("persistence_enabled", "false")
+        }))
+    }
+
+    override fun close() {
+        server.stopServer()
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.isro_app.mqtt
+
+import org.junit.Assert.*
+import org.junit.Test
+
+class FixDeduperTest {
+
+    private val deduper = FixDeduper(depth = 4)
+
+    @Test
+    fun secondCopyOfAFixIsDropped() {
+        assertTrue(deduper.isNew("a", "2026-10-19T10:00:00Z"))
+        assertFalse(deduper.isNew("a", "2026-10-19T10:00:00Z"))
+        assertTrue(deduper.isNew("a", "2026-10-19T10:00:05Z"))
+    }
+
+    @Test
+    fun sendersAreIndependent() {
+        assertTrue(deduper.isNew("a", "t1"))
+        assertTrue(deduper.isNew("b", "t1"))
+    }
+
+    @Test
+    fun copiesMatchWhenTopicsDeliverOutOfStep() {
+        // Legacy copies of three fixes arrive before any shard copy
+        listOf("t1", "t2", "t3").forEach { assertTrue(deduper.isNew("a", it)) }
+        listOf("t1", "t2", "t3").forEach { assertFalse(deduper.isNew("a", it)) }
+    }
+
+    @Test
+    fun onlyTheLastFewTimestampsAreKept() {
+        (1..5).forEach { assertTrue(deduper.isNew("a", "t$it")) }
+        assertTrue(deduper.isNew("a", "t1"))
+        assertFalse(deduper.isNew("a", "t5"))
+    }
+
+    @Test
+    fun forgottenSenderStartsOver() {
+        deduper.isNew("a", "t1")
+        deduper.forget("a")
+        assertTrue(deduper.isNew("a", "t1"))
+    }
+}
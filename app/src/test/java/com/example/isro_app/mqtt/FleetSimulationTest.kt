@@ -0,0 +1,42 @@
+package com.example.isro_app.mqtt
+
+import org.junit.Assert.*
+import org.junit.Test
+
+/**
+ * Performance regression gate for the mqtt package.
+ *
+ * Default load is small enough for every test run. Scale it up with e.g.
+ * ./gradlew testDebugUnitTest -Dfleet.devices=500 -Dfleet.gpsHz=2 -Dfleet.durationSec=60
+ * Thresholds can be overridden with -Dfleet.maxP99Ms and -Dfleet.maxHeapGrowthMb.
+ */
+class FleetSimulationTest {
+
+    private val maxP99Ms = System.getProperty("fleet.maxP99Ms")?.toDoubleOrNull() ?: 1000.0
+    private val maxHeapGrowthMb = System.getProperty("fleet.maxHeapGrowthMb")?.toLongOrNull() ?: 64L
+
+    @Test
+    fun fleetLoadMeetsBudgets() {
+        val config = FleetSimulator.Config.fromSystemProperties()
+        val report = FleetSimulator(config).use { it.run() }
+        println(report)
+
+        assertEquals("chat lost", report.chatSent, report.chatDelivered.toLong())
+        // GPS is lossy under pressure, but every device's latest fix must land
+        assertEquals("devices missing", config.devices, report.devicesSeen)
+
+        val offeredPerSec = report.gpsSent.toDouble() / config.durationSec +
+            report.chatSent.toDouble() / config.durationSec
+        assertTrue(
+            "throughput %.0f msg/s below 90%% of offered %.0f msg/s".format(report.throughputPerSec, offeredPerSec),
+            report.inboundReceived >= (report.gpsSent + report.chatSent) * 0.9
+        )
+
+        assertTrue("GPS p99 ${report.gpsLatency.p99}ms > ${maxP99Ms}ms", report.gpsLatency.p99 <= maxP99Ms)
+        assertTrue("chat p99 ${report.chatLatency.p99}ms > ${maxP99Ms}ms", report.chatLatency.p99 <= maxP99Ms)
+        assertTrue(
+            "heap grew ${report.heapGrowthBytes / (1024 * 1024)} MiB",
+            report.heapGrowthBytes <= maxHeapGrowthMb * 1024 * 1024
+        )
+    }
+}
@@ -0,0 +1,267 @@
+package com.example.isro_app.mqtt
+
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.launch
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence
+import org.json.JSONObject
+import java.io.Closeable
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.random.Random
+
+/**
+ * End-to-end fleet simulation: an [EmbeddedBroker], one real [MqttManager] as the
+ * device under test, and N lightweight Paho clients publishing GPS and chat to it.
+ *
+ * Payloads carry the sender's System.nanoTime(), so latency is measured in one JVM
+ * without clock sync: GPS in the "timestamp" field, chat as the message text.
+ */
+class FleetSimulator(private val config: Config) : Closeable {
+
+    data class Config(
+        val devices: Int = 50,
+        val gpsHz: Double = 1.0,
+        val chatPerMinute: Double = 6.0,
+        val durationSec: Int = 10,
+        val gpsMode: GpsTopicMode = GpsTopicMode.Sharded
+    ) {
+        companion object {
+            /**
+             * Defaults overridden by -Dfleet.devices, -Dfleet.gpsHz, -Dfleet.chatPerMinute,
+             * -Dfleet.durationSec and -Dfleet.gpsMode
+             */
+            fun fromSystemProperties(): Config {
+                val d = Config()
+                return Config(
+                    devices = System.getProperty("fleet.devices")?.toIntOrNull() ?: d.devices,
+                    gpsHz = System.getProperty("fleet.gpsHz")?.toDoubleOrNull() ?: d.gpsHz,
+                    chatPerMinute = System.getProperty("fleet.chatPerMinute")?.toDoubleOrNull() ?: d.chatPerMinute,
+                    durationSec = System.getProperty("fleet.durationSec")?.toIntOrNull() ?: d.durationSec,
+                    gpsMode = System.getProperty("fleet.gpsMode")
+                        ?.let { name -> GpsTopicMode.values().firstOrNull { it.name == name } }
+                        ?: d.gpsMode
+                )
+            }
+        }
+    }
+
+    /**
+     * Latency percentiles in milliseconds over the observed samples
+     */
+    data class Percentiles(val samples: Int, val p50: Double, val p95: Double, val p99: Double, val max: Double) {
+        companion object {
+            fun of(nanos: Collection<Long>): Percentiles {
+                if (nanos.isEmpty()) return Percentiles(0, 0.0, 0.0, 0.0, 0.0)
+                val sorted = nanos.sorted()
+                fun at(q: Double) = sorted[((sorted.size - 1) * q).toInt()] / 1e6
+                return Percentiles(sorted.size, at(0.50), at(0.95), at(0.99), sorted.last() / 1e6)
+            }
+        }
+
+        override fun toString() =
+            "n=$samples p50=%.1fms p95=%.1fms p99=%.1fms max=%.1fms".format(p50, p95, p99, max)
+    }
+
+    data class Report(
+        val config: Config,
+        val gpsSent: Long,
+        val chatSent: Long,
+        val inboundReceived: Long,
+        val chatDelivered: Int,
+        val devicesSeen: Int,
+        val throughputPerSec: Double,
+        val gpsLatency: Percentiles,
+        val chatLatency: Percentiles,
+        val heapGrowthBytes: Long,
+        val dispatch: DispatchStats
+    ) {
+        override fun toString() = buildString {
+            appendLine("Fleet: ${config.devices} devices, ${config.gpsHz} Hz GPS, ${config.chatPerMinute} chat/min, ${config.durationSec}s, ${config.gpsMode}")
+            appendLine("Sent: gps=$gpsSent chat=$chatSent  Received: $inboundReceived (%.0f msg/s)".format(throughputPerSec))
+            appendLine("Devices seen: $devicesSeen  Chat delivered: $chatDelivered")
+            appendLine("GPS latency:  $gpsLatency")
+            appendLine("Chat latency: $chatLatency")
+            appendLine("Heap growth: ${heapGrowthBytes / 1024} KiB")
+            append("Dispatch: $dispatch")
+        }
+    }
+
+    companion object {
+        const val DUT_ID = "dut"
+        private const val BASE_LAT = 12.97
+        private const val BASE_LON = 77.59
+        // ~0.5 degree spread covers several geohash-4 shards
+        private const val SPREAD_DEG = 0.5
+        private const val DRAIN_TIMEOUT_MS = 10_000L
+    }
+
+    private val broker = EmbeddedBroker()
+    private val manager = MqttManager(
+        myId = DUT_ID,
+        settings = MqttSettings(brokerUri = broker.uri, gpsTopicMode = config.gpsMode)
+    )
+    private val peers = ArrayList<MqttAsyncClient>()
+    private val ticker = Executors.newScheduledThreadPool(4)
+    private val collectScope = CoroutineScope(SupervisorJob() + Dispatchers.Default)
+
+    private val gpsSent = AtomicLong()
+    private val chatSent = AtomicLong()
+    private val gpsLatencies = ConcurrentLinkedQueue<Long>()
+    private val chatLatencies = ConcurrentLinkedQueue<Long>()
+
+    fun run(): Report {
+        manager.connect()
+        awaitCondition(DRAIN_TIMEOUT_MS) { manager.connectionState.value == MqttConnectionState.Connected }
+        check(manager.connectionState.value == MqttConnectionState.Connected) { "MqttManager did not connect" }
+
+        repeat(config.devices) { peers.add(connectPeer("sim-$it")) }
+        observeManager()
+
+        val heapBefore = usedHeap()
+        val startedAt = System.nanoTime()
+
+        peers.forEachIndexed { index, peer -> schedulePeer(index, peer) }
+        Thread.sleep(config.durationSec * 1000L)
+        ticker.shutdownNow()
+        ticker.awaitTermination(5, TimeUnit.SECONDS)
+
+        // Let everything in flight land before measuring
+        awaitCondition(DRAIN_TIMEOUT_MS) { chatCount() >= chatSent.get() }
+        val elapsedSec = (System.nanoTime() - startedAt) / 1e9
+        val heapAfter = usedHeap()
+        val dispatch = manager.dispatchStats
+
+        return Report(
+            config = config,
+            gpsSent = gpsSent.get(),
+            chatSent = chatSent.get(),
+            inboundReceived = dispatch.received,
+            chatDelivered = chatCount(),
+            devicesSeen = manager.devices.value.size,
+            throughputPerSec = dispatch.received / elapsedSec,
+            gpsLatency = Percentiles.of(gpsLatencies),
+            chatLatency = Percentiles.of(chatLatencies),
+            heapGrowthBytes = heapAfter - heapBefore,
+            dispatch = dispatch
+        )
+    }
+
+    override fun close() {
+        ticker.shutdownNow()
+        collectScope.cancel()
+        peers.forEach { peer ->
+            try {
+                peer.disconnect().waitForCompletion(1000)
+                peer.close()
+            } catch (_: Exception) {}
+        }
+        manager.disconnect()
+        broker.close()
+    }
+
+    private fun connectPeer(id: String): MqttAsyncClient =
+        MqttAsyncClient(broker.uri, id, MemoryPersistence()).apply {
+            connect(MqttConnectOptions().apply {
+                isCleanSession = true
+                maxInflight = 1000
+            }).waitForCompletion(5000)
+        }
+
+    private fun schedulePeer(index: Int, peer: MqttAsyncClient) {
+        val id = "sim-$index"
+        val random = Random(index)
+        var lat = BASE_LAT + (random.nextDouble() - 0.5) * SPREAD_DEG
+        var lon = BASE_LON + (random.nextDouble() - 0.5) * SPREAD_DEG
+
+        if (config.gpsHz > 0) {
+            val periodUs = (1_000_000 / config.gpsHz).toLong()
+            ticker.scheduleAtFixedRate({
+                lat += (random.nextDouble() - 0.5) * 1e-4
+                lon += (random.nextDouble() - 0.5) * 1e-4
+                val payload = JSONObject().apply {
+                    put("sender_id", id)
+                    put("latitude", lat)
+                    put("longitude", lon)
+                    put("timestamp", System.nanoTime().toString())
+                }.toString().toByteArray()
+                val topic = if (config.gpsMode == GpsTopicMode.Legacy) {
+                    GpsTopics.LEGACY
+                } else {
+                    GpsTopics.shardTopic(lat, lon, id)
+                }
+                publish(peer, topic, payload)
+                gpsSent.incrementAndGet()
+            }, random.nextLong(periodUs), periodUs, TimeUnit.MICROSECONDS)
+        }
+
+        if (config.chatPerMinute > 0) {
+            val periodUs = (60_000_000 / config.chatPerMinute).toLong()
+            ticker.scheduleAtFixedRate({
+                publish(peer, "$DUT_ID/inbox", "$id: ${System.nanoTime()}".toByteArray())
+                chatSent.incrementAndGet()
+            }, random.nextLong(periodUs), periodUs, TimeUnit.MICROSECONDS)
+        }
+    }
+
+    private fun publish(peer: MqttAsyncClient, topic: String, payload: ByteArray) {
+        try {
+            peer.publish(topic, payload, 1, false)
+        } catch (_: Exception) {
+            // In-flight window full; counts as not sent
+        }
+    }
+
+    /**
+     * Record latency for every state change the manager exposes. StateFlow conflates,
+     * so GPS is sampled rather than exhaustive; chat is a growing list and is complete.
+     */
+    private fun observeManager() {
+        val lastSeen = ConcurrentHashMap<String, String>()
+        collectScope.launch {
+            manager.devices.collect { devices ->
+                val now = System.nanoTime()
+                devices.values.forEach { device ->
+                    if (lastSeen.put(device.deviceId, device.timestamp) != device.timestamp) {
+                        device.timestamp.toLongOrNull()?.let { gpsLatencies.add(now - it) }
+                    }
+                }
+            }
+        }
+        collectScope.launch {
+            var seen = 0
+            manager.chatItems.collect { items ->
+                val now = System.nanoTime()
+                for (i in seen until items.size) {
+                    (items[i] as? ChatItem.Text)?.text?.toLongOrNull()?.let { chatLatencies.add(now - it) }
+                }
+                seen = items.size
+            }
+        }
+    }
+
+    private fun chatCount(): Int = manager.chatItems.value.size
+
+    private fun usedHeap(): Long {
+        val runtime = Runtime.getRuntime()
+        repeat(3) {
+            System.gc()
+            Thread.sleep(100)
+        }
+        return runtime.totalMemory() - runtime.freeMemory()
+    }
+
+    private fun awaitCondition(timeoutMs: Long, condition: () -> Boolean) {
+        val deadline = System.currentTimeMillis() + timeoutMs
+        while (!condition() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20)
+        }
+    }
+}
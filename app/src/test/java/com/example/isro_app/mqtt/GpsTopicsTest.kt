@@ -0,0 +1,88 @@
+package com.example.isro_app.mqtt
+
+import com.example.isro_app.location.Geohash
+import org.junit.Assert.*
+import org.junit.Test
+
+class GpsTopicsTest {
+
+    @Test
+    fun shardTopicUsesTheFixCell() {
+        assertEquals("gps/tdr1/dev-1", GpsTopics.shardTopic(12.97, 77.59, "dev-1"))
+    }
+
+    @Test
+    fun recognisesGpsTopics() {
+        assertTrue(GpsTopics.isGpsTopic(GpsTopics.LEGACY))
+        assertTrue(GpsTopics.isGpsTopic("gps/tdr1/dev-1"))
+        assertFalse(GpsTopics.isGpsTopic("gps/tdr1"))
+        assertFalse(GpsTopics.isGpsTopic("gps/tdr1/dev-1/extra"))
+        assertFalse(GpsTopics.isGpsTopic("dev-1/inbox"))
+        assertFalse(GpsTopics.isGpsTopic("call/dev-1"))
+        assertFalse(GpsTopics.isGpsTopic(GeofenceTopics.fence("f1")))
+    }
+
+    @Test
+    fun viewportFiltersMatchTheShardsPublishedInside() {
+        val filters = GpsTopics.viewportFilters(12.8, 77.4, 13.1, 77.8)
+        assertTrue(filters.size in 2..GpsTopics.MAX_VIEWPORT_SHARDS)
+        assertTrue(filters.all { it.startsWith("gps/") && it.endsWith("/+") })
+        for (lat in listOf(12.8, 12.95, 13.1)) for (lon in listOf(77.4, 77.6, 77.8)) {
+            val topic = GpsTopics.shardTopic(lat, lon, "d")
+            assertTrue(topic, topic.replaceAfterLast('/', "+") in filters)
+        }
+        val outside = "gps/${Geohash.encode(14.0, 77.6, GpsTopics.SHARD_PRECISION)}/+"
+        assertFalse(outside in filters)
+    }
+
+    @Test
+    fun areaFiltersReachOneCellBeyondTheBox() {
+        val filters = GpsTopics.areaFilters(12.97, 77.59, 12.98, 77.60)
+        assertTrue(GpsTopics.viewportFilters(12.97, 77.59, 12.98, 77.60).all { it in filters })
+        // A fix just past the neighbouring cell edge on every side is still received
+        val height = Geohash.cellHeight(GpsTopics.SHARD_PRECISION)
+        val width = Geohash.cellWidth(GpsTopics.SHARD_PRECISION)
+        for ((lat, lon) in listOf(12.97 - height to 77.59, 12.98 + height to 77.60, 12.97 to 77.59 - width, 12.98 to 77.60 + width)) {
+            assertTrue(GpsTopics.shardTopic(lat, lon, "d").replaceAfterLast('/', "+") in filters)
+        }
+        assertEquals(9, filters.size)
+    }
+
+    @Test
+    fun largeOrWrappingViewportSubscribesEverything() {
+        assertEquals(setOf(GpsTopics.ALL_SHARDS), GpsTopics.viewportFilters(0.0, 60.0, 30.0, 100.0))
+        assertEquals(setOf(GpsTopics.ALL_SHARDS), GpsTopics.viewportFilters(-10.0, 170.0, 10.0, -170.0))
+    }
+
+    @Test
+    fun unionOfFewAreasIsEnumerated() {
+        val viewport = GpsTopics.viewportFilters(12.8, 77.4, 13.1, 77.8)
+        val fence = GpsTopics.areaFilters(12.97, 77.59, 12.98, 77.60)
+        assertEquals(viewport + fence, GpsTopics.union(sequenceOf(viewport, fence)))
+        assertEquals(
+            setOf(GpsTopics.ALL_SHARDS),
+            GpsTopics.union(sequenceOf(setOf(GpsTopics.ALL_SHARDS), fence))
+        )
+    }
+
+    @Test
+    fun manySpreadOutFencesSubscribeEverything() {
+        // Small fences half a degree apart across India, each needing its own 3x3 cells
+        val fences = (0 until 20).flatMap { i ->
+            (0 until 20).map { j -> 10.0 + i * 0.5 to 72.0 + j * 0.5 }
+        }
+        var read = 0
+        val filters = GpsTopics.union(fences.asSequence().map { (lat, lon) ->
+            read++
+            GpsTopics.areaFilters(lat, lon, lat + 0.001, lon + 0.001)
+        })
+        assertEquals(setOf(GpsTopics.ALL_SHARDS), filters)
+        // Gave up as soon as the cap was passed
+        assertTrue(read < fences.size)
+
+        val few = GpsTopics.union(fences.take(3).asSequence().map { (lat, lon) ->
+            GpsTopics.areaFilters(lat, lon, lat + 0.001, lon + 0.001)
+        })
+        assertTrue(few.size in 3..GpsTopics.MAX_SHARD_FILTERS)
+    }
+}
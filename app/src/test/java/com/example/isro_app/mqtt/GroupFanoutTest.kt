@@ -0,0 +1,88 @@
+package com.example.isro_app.mqtt
+
+import org.eclipse.paho.client.mqttv3.MqttClient
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+/**
+ * Uplink cost of reaching a 50-member group: one group publish vs one publish per peer.
+ * Bytes are counted on the sender's TCP connection by [CountingProxy].
+ */
+class GroupFanoutTest {
+
+    companion object {
+        private const val MEMBERS = 50
+        private const val GROUP = "ops"
+        private const val TEXT = "Convoy halted at checkpoint 4, resume in 10 minutes"
+    }
+
+    private lateinit var broker: EmbeddedBroker
+    private lateinit var proxy: CountingProxy
+    private lateinit var sender: MqttManager
+    private val members = ArrayList<MqttClient>()
+
+    private val groupReceived = CountDownLatch(MEMBERS)
+    private val inboxReceived = CountDownLatch(MEMBERS)
+
+    @Before
+    fun setUp() {
+        broker = EmbeddedBroker()
+        proxy = CountingProxy(broker.port)
+
+        repeat(MEMBERS) { i ->
+            val client = MqttClient(broker.uri, "m-$i", MemoryPersistence())
+            client.connect(MqttConnectOptions().apply { isCleanSession = true })
+            client.subscribe(GroupTopics.chat(GROUP), 1) { _, _ -> groupReceived.countDown() }
+            client.subscribe("m-$i/inbox", 1) { _, _ -> inboxReceived.countDown() }
+            members.add(client)
+        }
+
+        sender = MqttManager(myId = "lead", settings = MqttSettings(brokerUri = proxy.uri))
+        sender.connect()
+        awaitUntil { sender.connectionState.value == MqttConnectionState.Connected }
+        sender.joinGroup(GROUP)
+        Thread.sleep(500)
+    }
+
+    @After
+    fun tearDown() {
+        members.forEach {
+            it.disconnect()
+            it.close()
+        }
+        sender.disconnect()
+        proxy.close()
+        broker.close()
+    }
+
+    @Test
+    fun groupPublishSavesUplink() {
+        val beforeGroup = proxy.uplinkBytes.get()
+        val groupId = sender.sendGroupChat(GROUP, TEXT)
+        assertTrue("group message not fanned out", groupReceived.await(5, TimeUnit.SECONDS))
+        awaitUntil { sender.delivery.states.value[groupId] != DeliveryState.Pending }
+        val groupBytes = proxy.uplinkBytes.get() - beforeGroup
+
+        val beforePerPeer = proxy.uplinkBytes.get()
+        val ids = (0 until MEMBERS).map { i -> sender.sendChat("m-$i", TEXT) }
+        assertTrue("direct messages not delivered", inboxReceived.await(5, TimeUnit.SECONDS))
+        awaitUntil { ids.all { sender.delivery.states.value[it] != DeliveryState.Pending } }
+        val perPeerBytes = proxy.uplinkBytes.get() - beforePerPeer
+
+        val saved = 100.0 * (perPeerBytes - groupBytes) / perPeerBytes
+        println("Uplink to reach $MEMBERS members: per-peer $perPeerBytes B, group $groupBytes B (%.1f%% saved)".format(saved))
+
+        assertTrue("group publish should cost ~1/$MEMBERS of per-peer", groupBytes * 10 < perPeerBytes)
+    }
+
+    private fun awaitUntil(timeoutMs: Long = 5000, condition: () -> Boolean) {
+        val deadline = System.currentTimeMillis() + timeoutMs
+        while (!condition() && System.currentTimeMillis() < deadline) Thread.sleep(20)
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.isro_app.mqtt
+
+import org.junit.Assert.*
+import org.junit.Test
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+class InboundDispatcherTest {
+
+    private val handled: MutableList<String> = Collections.synchronizedList(ArrayList())
+    private val gate = CountDownLatch(1)
+
+    // One partition, so GPS and chat would share it if the dispatcher let them
+    private fun dispatcher(capacity: Int) = InboundDispatcher(
+        partitions = 1,
+        queueCapacity = capacity,
+        isPriority = { topic, _ -> topic == "call/me" },
+        isLossy = { topic -> topic.startsWith("gps/") },
+        handler = { topic, payload ->
+            gate.await()
+            handled.add("$topic ${String(payload)}")
+        }
+    )
+
+    @Test
+    fun fullQueueDropsOnlyGpsAndHoldsChatUntilThereIsRoom() {
+        val dispatcher = dispatcher(capacity = 4)
+        val offering = Thread {
+            for (i in 0 until 40) {
+                dispatcher.offer("gps/location", "fix $i".toByteArray())
+                if (i % 4 == 0) dispatcher.offer("chat/me", "msg ${i / 4}".toByteArray())
+            }
+        }
+        offering.start()
+
+        // Workers are stuck, so the chat partition fills and the offering thread blocks
+        Thread.sleep(300)
+        assertTrue(offering.isAlive)
+        gate.countDown()
+        offering.join(5_000)
+        assertFalse(offering.isAlive)
+        waitFor { handled.any { it == "gps/location fix 39" } && handled.count { it.startsWith("chat/") } == 10 }
+
+        val chat = handled.filter { it.startsWith("chat/") }
+        assertEquals((0 until 10).map { "chat/me msg $it" }, chat)
+        val stats = dispatcher.stats()
+        val gps = handled.count { it.startsWith("gps/") }
+        assertTrue("nothing dropped", stats.dropped > 0)
+        assertEquals(40L, gps + stats.dropped)
+        assertTrue(stats.blockedMs > 0)
+        dispatcher.shutdown()
+    }
+
+    @Test
+    fun callSignalsSkipTheQueues() {
+        val dispatcher = dispatcher(capacity = 4)
+        dispatcher.offer("call/me", "ring".toByteArray())
+        gate.countDown()
+        waitFor { handled.isNotEmpty() }
+        assertEquals(1L, dispatcher.stats().prioritized)
+        dispatcher.shutdown()
+    }
+
+    private fun waitFor(condition: () -> Boolean) {
+        val deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5)
+        while (!condition()) {
+            assertTrue("timed out: $handled", System.nanoTime() < deadline)
+            Thread.sleep(10)
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.isro_app.mqtt
+
+import org.junit.Assert.*
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.io.RandomAccessFile
+
+/**
+ * Retention policies of [OutboundQueue] and reload from its journal
+ */
+class OutboundQueueTest {
+
+    @get:Rule
+    val tmp = TemporaryFolder()
+
+    private val file: File by lazy { File(tmp.root, "outbox.bin") }
+
+    private fun message(kind: OutboundClass, text: String, enqueuedAt: Long = System.currentTimeMillis()) =
+        OutboundMessage(kind, "peer/inbox", text.toByteArray(), qos = 1, enqueuedAt = enqueuedAt)
+
+    private fun OutboundQueue.texts(): List<String> = peekBatch(Int.MAX_VALUE).map { String(it.payload) }
+
+    @Test
+    fun gpsKeepsOnlyTheLatestFix() {
+        val queue = OutboundQueue(null)
+        queue.enqueue(OutboundClass.Gps, listOf(message(OutboundClass.Gps, "fix1-legacy"), message(OutboundClass.Gps, "fix1-shard")))
+        queue.enqueue(OutboundClass.Chat, listOf(message(OutboundClass.Chat, "hello")))
+        queue.enqueue(OutboundClass.Gps, listOf(message(OutboundClass.Gps, "fix2-legacy"), message(OutboundClass.Gps, "fix2-shard")))
+        assertEquals(listOf("hello", "fix2-legacy", "fix2-shard"), queue.texts())
+        assertEquals(3, queue.depth.value)
+    }
+
+    @Test
+    fun chatEvictsOldestBeyondCapAndReportsThem() {
+        val queue = OutboundQueue(null)
+        repeat(OutboundQueue.MAX_CHAT) { queue.enqueue(OutboundClass.Chat, listOf(message(OutboundClass.Chat, "c$it"))) }
+        val evicted = queue.enqueue(OutboundClass.Chat, listOf(message(OutboundClass.Chat, "new1"), message(OutboundClass.Chat, "new2")))
+        assertEquals(listOf("c0", "c1"), evicted.map { String(it.payload) })
+        assertEquals(OutboundQueue.MAX_CHAT, queue.countOf(OutboundClass.Chat))
+        assertEquals("c2", queue.texts().first())
+        assertEquals("new2", queue.texts().last())
+    }
+
+    @Test
+    fun receiptsHaveTheirOwnCapAndNeverEvictChat() {
+        val queue = OutboundQueue(null)
+        repeat(OutboundQueue.MAX_CHAT) { queue.enqueue(OutboundClass.Chat, listOf(message(OutboundClass.Chat, "c$it"))) }
+        repeat(OutboundQueue.MAX_RECEIPTS + 10) {
+            val evicted = queue.enqueue(OutboundClass.Receipt, listOf(message(OutboundClass.Receipt, "r$it")))
+            assertTrue(evicted.isEmpty())
+        }
+        assertEquals(OutboundQueue.MAX_CHAT, queue.countOf(OutboundClass.Chat))
+        assertEquals(OutboundQueue.MAX_RECEIPTS, queue.countOf(OutboundClass.Receipt))
+        assertEquals("r10", queue.texts().first { it.startsWith("r") })
+    }
+
+    @Test
+    fun expiredCallSignalsAreNotDelivered() {
+        val queue = OutboundQueue(null)
+        val now = System.currentTimeMillis()
+        queue.enqueue(OutboundClass.CallSignal, listOf(message(OutboundClass.CallSignal, "old", now - OutboundQueue.CALL_SIGNAL_TTL_MS - 1)))
+        queue.enqueue(OutboundClass.CallSignal, listOf(message(OutboundClass.CallSignal, "fresh", now)))
+        assertEquals(listOf("fresh"), queue.texts())
+        assertEquals(1, queue.depth.value)
+    }
+
+    @Test
+    fun reloadRestoresOrderAfterRemovals() {
+        val queue = OutboundQueue(file)
+        queue.enqueue(OutboundClass.Chat, listOf(message(OutboundClass.Chat, "a"), message(OutboundClass.Chat, "b")))
+        queue.enqueue(OutboundClass.Gps, listOf(message(OutboundClass.Gps, "fix1")))
+        queue.enqueue(OutboundClass.Receipt, listOf(message(OutboundClass.Receipt, "r")))
+        queue.enqueue(OutboundClass.Gps, listOf(message(OutboundClass.Gps, "fix2")))
+        queue.remove(queue.peekBatch(1))
+        queue.enqueue(OutboundClass.Chat, listOf(message(OutboundClass.Chat, "c")))
+
+        val reloaded = OutboundQueue(file)
+        assertEquals(listOf("b", "r", "fix2", "c"), reloaded.texts())
+        assertEquals(OutboundClass.Receipt, reloaded.peekBatch(2)[1].kind)
+        assertEquals(4, reloaded.depth.value)
+    }
+
+    @Test
+    fun reloadDropsCallSignalsThatExpiredWhileAway() {
+        val queue = OutboundQueue(file)
+        queue.enqueue(OutboundClass.CallSignal, listOf(message(OutboundClass.CallSignal, "ring", System.currentTimeMillis() - OutboundQueue.CALL_SIGNAL_TTL_MS - 1)))
+        queue.enqueue(OutboundClass.Chat, listOf(message(OutboundClass.Chat, "hi")))
+        assertEquals(listOf("hi"), OutboundQueue(file).texts())
+    }
+
+    @Test
+    fun journalIsCompactedAndSurvivesATornTail() {
+        val queue = OutboundQueue(file)
+        queue.enqueue(OutboundClass.Chat, listOf(message(OutboundClass.Chat, "keep")))
+        repeat(5_000) { queue.enqueue(OutboundClass.Gps, listOf(message(OutboundClass.Gps, "fix$it"))) }
+        // Two live messages; without compaction the journal would hold 10,000 records
+        assertTrue("journal ${file.length()} bytes", file.length() < 64 * 1024)
+
+        // A process killed halfway through appending a message
+        queue.enqueue(OutboundClass.Chat, listOf(message(OutboundClass.Chat, "torn")))
+        RandomAccessFile(file, "rw").use { it.setLength(it.length() - 3) }
+
+        val reloaded = OutboundQueue(file)
+        assertEquals(listOf("keep", "fix4999"), reloaded.texts())
+        // The reload rewrote the journal, so the next append is readable again
+        reloaded.enqueue(OutboundClass.Chat, listOf(message(OutboundClass.Chat, "after")))
+        assertEquals("after", OutboundQueue(file).texts().last())
+    }
+
+    @Test
+    fun unreadableFileStartsEmpty() {
+        file.writeBytes(byteArrayOf(0, 0, 0, 2, 9, 9, 9))
+        assertTrue(OutboundQueue(file).isEmpty())
+    }
+}
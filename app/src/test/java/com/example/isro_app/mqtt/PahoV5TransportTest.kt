@@ -0,0 +1,142 @@
+package com.example.isro_app.mqtt
+
+import org.junit.Assert.*
+import org.junit.Test
+import java.io.DataInputStream
+import java.net.ServerSocket
+import java.util.Collections
+import kotlin.concurrent.thread
+
+/**
+ * Which failed MQTT 5 connects may fall back to 3.1.1, and which topics get an alias
+ */
+class PahoV5TransportTest {
+
+    private val listener = object : MqttTransport.Listener {
+        override fun onMessage(topic: String, payload: ByteArray) {}
+        override fun onConnectionLost(cause: Throwable?) {}
+        override fun onConnectComplete(reconnect: Boolean) {}
+    }
+
+    private fun connectError(uri: String): Exception {
+        val transport = PahoV5Transport(MqttSettings(brokerUri = uri), "v5-probe")
+        try {
+            transport.connect(listener)
+        } catch (e: Exception) {
+            return e
+        } finally {
+            transport.disconnect()
+        }
+        throw AssertionError("connect to $uri succeeded")
+    }
+
+    @Test
+    fun v311BrokerIsAProtocolRejection() {
+        // Moquette 0.17 speaks 3.1.1 only, like older Mosquitto
+        EmbeddedBroker().use { broker ->
+            assertTrue(PahoV5Transport.isProtocolRejection(connectError(broker.uri)))
+        }
+    }
+
+    @Test
+    fun unreachableBrokerIsNotAProtocolRejection() {
+        val port = ServerSocket(0).use { it.localPort }
+        assertFalse(PahoV5Transport.isProtocolRejection(connectError("tcp://127.0.0.1:$port")))
+    }
+
+    @Test
+    fun onlyOwnGpsTopicsUseAnAlias() {
+        assertTrue(PahoV5Transport.usesTopicAlias(GpsTopics.LEGACY))
+        assertTrue(PahoV5Transport.usesTopicAlias(GpsTopics.shardTopic(12.97, 77.59, "dev-1")))
+        assertFalse(PahoV5Transport.usesTopicAlias("dev-1/inbox"))
+        assertFalse(PahoV5Transport.usesTopicAlias(GeofenceTopics.fence("f1")))
+    }
+
+    @Test
+    fun aliasesAreControlledWithThisPahoVersion() {
+        val port = ServerSocket(0).use { it.localPort }
+        val transport = PahoV5Transport(MqttSettings(brokerUri = "tcp://127.0.0.1:$port"), "v5-alias")
+        try {
+            assertTrue(transport.controlsTopicAliases)
+        } finally {
+            transport.disconnect()
+        }
+    }
+
+    private fun DataInputStream.readVarInt(): Int {
+        var value = 0
+        var multiplier = 1
+        while (true) {
+            val b = readUnsignedByte()
+            value += (b and 0x7f) * multiplier
+            if (b and 0x80 == 0) return value
+            multiplier *= 128
+        }
+    }
+
+    /**
+     * Minimal MQTT 5 broker for one client: accepts the connect with the given Topic
+     * Alias Maximum, acknowledges QoS 1 publishes and records each as (topic, alias)
+     */
+    private fun recordingBroker(aliasMaximum: Int, published: MutableList<Pair<String, Int?>>): ServerSocket {
+        val server = ServerSocket(0)
+        thread(isDaemon = true) {
+            server.accept().use { socket ->
+                val input = DataInputStream(socket.getInputStream())
+                val output = socket.getOutputStream()
+                while (true) {
+                    val header = try { input.readUnsignedByte() } catch (e: Exception) { return@use }
+                    val body = DataInputStream(ByteArray(input.readVarInt()).also { input.readFully(it) }.inputStream())
+                    when (header shr 4) {
+                        // CONNACK carrying only the Topic Alias Maximum property (0x22)
+                        1 -> output.write(byteArrayOf(0x20, 6, 0, 0, 3, 0x22, (aliasMaximum shr 8).toByte(), aliasMaximum.toByte()))
+                        3 -> {
+                            val topic = String(ByteArray(body.readUnsignedShort()).also { body.readFully(it) })
+                            val id = if ((header shr 1) and 3 > 0) body.readUnsignedShort() else -1
+                            val properties = DataInputStream(ByteArray(body.readVarInt()).also { body.readFully(it) }.inputStream())
+                            // Paho writes the Topic Alias (0x23) first when there is one
+                            val alias = if (properties.available() >= 3 && properties.readUnsignedByte() == 0x23) properties.readUnsignedShort() else null
+                            published.add(topic to alias)
+                            if (id >= 0) output.write(byteArrayOf(0x40, 2, (id shr 8).toByte(), id.toByte()))
+                        }
+                        12 -> output.write(byteArrayOf(0xd0.toByte(), 0))
+                        14 -> return@use
+                    }
+                }
+            }
+            server.close()
+        }
+        return server
+    }
+
+    @Test
+    fun onlyGpsPublishesCarryAnAliasWithinTheMaximum() {
+        val published = Collections.synchronizedList(ArrayList<Pair<String, Int?>>())
+        val broker = recordingBroker(aliasMaximum = 2, published = published)
+        val transport = PahoV5Transport(MqttSettings(brokerUri = "tcp://127.0.0.1:${broker.localPort}"), "v5-alias")
+        try {
+            transport.connect(listener)
+            // Sent on connect, before the first fix
+            transport.publish("group/ops/members/dev-1", "{}".toByteArray(), 1, retained = true)
+            transport.publish("gps/tdr1/dev-1", "1".toByteArray(), 1)
+            transport.publish("gps/tdr1/dev-1", "2".toByteArray(), 1)
+            transport.publish(GpsTopics.LEGACY, "3".toByteArray(), 1)
+            // Both aliases taken
+            transport.publish("gps/tdr4/dev-1", "4".toByteArray(), 1)
+            transport.publishAsync("dev-2/inbox", "5".toByteArray(), 1).await(5000)
+        } finally {
+            transport.disconnect()
+        }
+        assertEquals(
+            listOf(
+                "group/ops/members/dev-1" to null,
+                "gps/tdr1/dev-1" to 1,
+                "" to 1,
+                GpsTopics.LEGACY to 2,
+                "gps/tdr4/dev-1" to null,
+                "dev-2/inbox" to null
+            ),
+            published.toList()
+        )
+    }
+}
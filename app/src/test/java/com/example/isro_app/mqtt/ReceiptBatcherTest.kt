@@ -0,0 +1,84 @@
+package com.example.isro_app.mqtt
+
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.asCoroutineDispatcher
+import kotlinx.coroutines.cancel
+import org.json.JSONObject
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Test
+import java.util.Collections
+import java.util.concurrent.Executors
+
+class ReceiptBatcherTest {
+
+    private class Published(val peerId: String, val ids: List<String>, val thread: String)
+
+    private val executor = Executors.newSingleThreadExecutor { Thread(it, "receipt-io") }
+    private val scope = CoroutineScope(SupervisorJob() + executor.asCoroutineDispatcher())
+    private val published: MutableList<Published> = Collections.synchronizedList(ArrayList())
+
+    private fun batcher(delayMs: Long = 100, maxBatch: Int = 64) = ReceiptBatcher(scope, publish = { peerId, payload ->
+        val json = JSONObject(String(payload))
+        assertEquals("me", json.getString("from"))
+        published.add(Published(peerId, ReceiptBatcher.decode(json)!!, Thread.currentThread().name))
+    }, delayMs = delayMs, maxBatch = maxBatch)
+
+    @After
+    fun tearDown() {
+        scope.cancel()
+        executor.shutdownNow()
+    }
+
+    @Test
+    fun burstCostsOneReceiptPerPeer() {
+        val receipts = batcher()
+        for (i in 1..10) receipts.add("me", "alice", "a$i")
+        receipts.add("me", "bob", "b1")
+        receipts.add("me", "alice", "a3")
+        assertTrue(published.isEmpty())
+
+        awaitUntil { published.size == 2 }
+        Thread.sleep(200)
+        assertEquals(2, published.size)
+        val byPeer = published.associate { it.peerId to it.ids }
+        assertEquals((1..10).map { "a$it" }, byPeer["alice"])
+        assertEquals(listOf("b1"), byPeer["bob"])
+    }
+
+    @Test
+    fun fullBatchIsPublishedAtOnceOffTheCallingThread() {
+        val receipts = batcher(delayMs = 60_000, maxBatch = 4)
+        for (i in 1..4) receipts.add("me", "alice", "a$i")
+
+        awaitUntil { published.size == 1 }
+        assertEquals(listOf("a1", "a2", "a3", "a4"), published.single().ids)
+        // Debug builds append the coroutine name
+        assertTrue(published.single().thread.startsWith("receipt-io"))
+    }
+
+    @Test
+    fun receiptsAfterAFlushStartANewBatch() {
+        val receipts = batcher(delayMs = 100, maxBatch = 2)
+        receipts.add("me", "alice", "a1")
+        receipts.add("me", "alice", "a2")
+        receipts.add("me", "alice", "a3")
+
+        awaitUntil { published.size == 2 }
+        assertEquals(listOf(listOf("a1", "a2"), listOf("a3")), published.map { it.ids })
+    }
+
+    @Test
+    fun decodeIgnoresOtherMessages() {
+        assertNull(ReceiptBatcher.decode(JSONObject("""{"type":"chat","id":"x"}""")))
+        assertEquals(emptyList<String>(), ReceiptBatcher.decode(JSONObject("""{"type":"ack","from":"p"}""")))
+        val ids = listOf("m1", "m2")
+        assertEquals(ids, ReceiptBatcher.decode(JSONObject(String(ReceiptBatcher.encode("p", ids)))))
+    }
+
+    private fun awaitUntil(timeoutMs: Long = 5000, condition: () -> Boolean) {
+        val deadline = System.currentTimeMillis() + timeoutMs
+        while (!condition() && System.currentTimeMillis() < deadline) Thread.sleep(10)
+    }
+}
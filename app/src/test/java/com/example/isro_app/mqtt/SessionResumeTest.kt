@@ -0,0 +1,199 @@
+package com.example.isro_app.mqtt
+
+import org.eclipse.paho.client.mqttv3.MqttClient
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence
+import org.json.JSONObject
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.util.concurrent.CopyOnWriteArrayList
+
+/**
+ * [MqttManager] losing its link and coming back, against [EmbeddedBroker] standing
+ * in for Mosquitto. The link runs through a [CountingProxy] that the tests cut and
+ * restore; on restore the manager is told the network is back, as the app's
+ * connectivity callback does, so Paho's reconnect backoff does not set the timing.
+ */
+class SessionResumeTest {
+
+    @get:Rule
+    val tmp = TemporaryFolder()
+
+    private lateinit var broker: EmbeddedBroker
+    private lateinit var proxy: CountingProxy
+    private lateinit var manager: MqttManager
+    private lateinit var peer: MqttClient
+    private val peerReceived = CopyOnWriteArrayList<String>()
+
+    @Before
+    fun setUp() {
+        broker = EmbeddedBroker()
+        proxy = CountingProxy(broker.port)
+
+        peer = MqttClient(broker.uri, "peer", MemoryPersistence())
+        peer.connect(MqttConnectOptions().apply { isCleanSession = true })
+        peer.subscribe("peer/inbox", 1) { _, message -> peerReceived.add(String(message.payload)) }
+
+        manager = MqttManager(myId = "dev-a", settings = MqttSettings(brokerUri = proxy.uri), storageDir = tmp.root)
+        manager.connect()
+        awaitUntil { manager.connectionState.value == MqttConnectionState.Connected }
+        assertEquals(MqttConnectionState.Connected, manager.connectionState.value)
+    }
+
+    @After
+    fun tearDown() {
+        manager.disconnect()
+        peer.disconnect()
+        peer.close()
+        proxy.close()
+        broker.close()
+    }
+
+    /** Bring the link back and tell the manager, as the connectivity callback does */
+    private fun restoreLink() {
+        proxy.restore()
+        manager.onNetworkAvailable()
+    }
+
+    /** Take the link down and wait until the manager noticed */
+    private fun loseLink() {
+        proxy.cut()
+        awaitUntil { manager.connectionState.value == MqttConnectionState.Error }
+        assertEquals(MqttConnectionState.Error, manager.connectionState.value)
+    }
+
+    private fun chat(seq: Long, text: String) =
+        ChatEnvelope(id = "1-$seq", from = "peer", seq = seq, epoch = 1, sentAt = System.currentTimeMillis(), text = text).encode()
+
+    private fun receivedTexts() = manager.chatItems.value.filterIsInstance<ChatItem.Text>().map { it.text }
+
+    @Test
+    fun chatPublishedWhileAwayArrivesAfterReconnect() {
+        assertNull(manager.reconnectMillis.value)
+        loseLink()
+
+        // The broker keeps the session, so these wait for dev-a there
+        val sent = (1..20L).map { "away-$it" }
+        sent.forEachIndexed { i, text -> peer.publish("dev-a/inbox", chat(i + 1L, text), 1, false) }
+
+        restoreLink()
+        // Queued messages may arrive before the resubscribe finishes and state flips
+        awaitUntil(10_000) {
+            receivedTexts().size == sent.size && manager.connectionState.value == MqttConnectionState.Connected
+        }
+
+        assertEquals(MqttConnectionState.Connected, manager.connectionState.value)
+        assertEquals(sent, receivedTexts())
+        val reconnectMs = manager.reconnectMillis.value
+        assertNotNull("reconnect not recorded", reconnectMs)
+        assertTrue(reconnectMs!! > 0)
+    }
+
+    @Test
+    fun chatSentWhileAwayIsQueuedAndDeliveredOnReconnect() {
+        loseLink()
+
+        val id = manager.sendChat("peer", "sent while away")
+        assertEquals(1, manager.outboxDepth.value)
+        assertEquals(DeliveryState.Pending, manager.delivery.states.value[id])
+
+        restoreLink()
+        awaitUntil(10_000) {
+            manager.outboxDepth.value == 0 && peerReceived.isNotEmpty() &&
+                manager.connectionState.value == MqttConnectionState.Connected
+        }
+
+        assertEquals(MqttConnectionState.Connected, manager.connectionState.value)
+        assertEquals(0, manager.outboxDepth.value)
+        assertEquals("sent while away", peerReceived.mapNotNull { ChatEnvelope.decode(JSONObject(it)) }.single().text)
+        assertNotEquals(DeliveryState.Pending, manager.delivery.states.value[id])
+        assertNotNull(manager.reconnectMillis.value)
+    }
+
+    @Test
+    fun connectAfterDisconnectStartsNewDispatchWorkers() {
+        peer.publish("dev-a/inbox", chat(1, "before"), 1, false)
+        awaitUntil { receivedTexts() == listOf("before") }
+        assertTrue(manager.dispatchStats.received > 0)
+
+        manager.disconnect()
+        awaitUntil { manager.connectionState.value == MqttConnectionState.Idle }
+        manager.connect()
+        awaitUntil { manager.connectionState.value == MqttConnectionState.Connected }
+
+        peer.publish("dev-a/inbox", chat(2, "after"), 1, false)
+        awaitUntil { receivedTexts().size == 2 }
+        assertEquals(listOf("before", "after"), receivedTexts())
+    }
+
+    @Test
+    fun groupLeftWhileAwayIsLeftOnReconnect() {
+        manager.joinGroup("ops")
+        awaitUntil { manager.groups.value["ops"]?.members == setOf("dev-a") }
+        assertEquals(setOf("dev-a"), manager.groups.value["ops"]?.members)
+
+        loseLink()
+        manager.leaveGroup("ops")
+        // The session still holds group/ops/chat, so the broker queues this for dev-a
+        peer.publish(GroupTopics.chat("ops"), chat(1, "after leaving"), 1, false)
+
+        restoreLink()
+        awaitUntil(10_000) {
+            manager.connectionState.value == MqttConnectionState.Connected && manager.groups.value["ops"] == null
+        }
+        assertNull("membership not cleared", manager.groups.value["ops"])
+        Thread.sleep(300)
+        assertEquals(emptyList<String>(), receivedTexts())
+    }
+
+    private fun fix(deviceId: String, latitude: Double, longitude: Double, timestamp: String) =
+        JSONObject()
+            .put("sender_id", deviceId)
+            .put("latitude", latitude)
+            .put("longitude", longitude)
+            .put("timestamp", timestamp)
+            .toString().toByteArray()
+
+    /** Publish a fix in [latitude], [longitude]'s shard until [receiver] shows it */
+    private fun awaitFix(receiver: MqttManager, deviceId: String, latitude: Double, longitude: Double, timestamp: String) {
+        awaitUntil(10_000) {
+            peer.publish(GpsTopics.shardTopic(latitude, longitude, deviceId), fix(deviceId, latitude, longitude, timestamp), 1, false)
+            Thread.sleep(100)
+            receiver.devices.value[deviceId]?.timestamp == timestamp
+        }
+        assertEquals(timestamp, receiver.devices.value[deviceId]?.timestamp)
+    }
+
+    @Test
+    fun shardsLeftByAnEarlierProcessAreUnsubscribed() {
+        // Delhi on screen, then the app moves to Bengaluru while offline and dies
+        manager.updateViewport(28.5, 77.1, 28.7, 77.3)
+        awaitFix(manager, "in-delhi", 28.6, 77.2, "t1")
+        loseLink()
+        manager.updateViewport(12.9, 77.5, 13.0, 77.7)
+
+        // The restarted app resumes the same broker session; the old process stays cut off
+        val restarted = MqttManager(myId = "dev-a", settings = MqttSettings(brokerUri = broker.uri), storageDir = tmp.root)
+        try {
+            restarted.connect()
+            restarted.updateViewport(12.9, 77.5, 13.0, 77.7)
+            awaitFix(restarted, "in-bengaluru", 12.95, 77.6, "t1")
+
+            peer.publish(GpsTopics.shardTopic(28.6, 77.2, "in-delhi"), fix("in-delhi", 28.6, 77.2, "t2"), 1, false)
+            // Published after the Delhi fix, so once it is here the Delhi one would be too
+            awaitFix(restarted, "in-bengaluru", 12.95, 77.6, "t2")
+            assertNull(restarted.devices.value["in-delhi"])
+        } finally {
+            restarted.disconnect()
+        }
+    }
+
+    private fun awaitUntil(timeoutMs: Long = 5000, condition: () -> Boolean) {
+        val deadline = System.currentTimeMillis() + timeoutMs
+        while (!condition() && System.currentTimeMillis() < deadline) Thread.sleep(20)
+    }
+}